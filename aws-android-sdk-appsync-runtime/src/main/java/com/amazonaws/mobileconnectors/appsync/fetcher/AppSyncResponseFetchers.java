@@ -13,6 +13,13 @@ import com.apollographql.apollo.internal.fetcher.CacheOnlyFetcher;
 import com.apollographql.apollo.internal.fetcher.CacheAndNetworkFetcher;
 import com.apollographql.apollo.internal.fetcher.NetworkFirstFetcher;
 import com.apollographql.apollo.internal.fetcher.NetworkOnlyFetcher;
+import com.apollographql.apollo.internal.fetcher.StaleWhileRevalidateFetcher;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
 
 public final class AppSyncResponseFetchers {
 
@@ -52,4 +59,17 @@ public final class AppSyncResponseFetchers {
    * Cache data is guaranteed to be returned first.
    */
   public static final ResponseFetcher CACHE_AND_NETWORK = new CacheAndNetworkFetcher();
+
+  /**
+   * Signals the appsync client to fetch the data from the normalized cache if it was written within {@code maxAge}.
+   * Data written within {@code maxAge} plus {@code maxStale} is returned from the cache at once too, and then fetched
+   * again from the network in the background on a low priority thread, so that later requests find it fresh. Watchers
+   * are only notified if the data fetched in the background differs from the cached one. Older or missing data is
+   * fetched from the network, like with {@link #CACHE_FIRST}.
+   *
+   * Ages are counted from the time records were last written with a response, in whole seconds.
+   */
+  public static ResponseFetcher staleWhileRevalidate(long maxAge, long maxStale, @Nonnull TimeUnit timeUnit) {
+    return new StaleWhileRevalidateFetcher(maxAge, maxStale, checkNotNull(timeUnit, "timeUnit == null"));
+  }
 }
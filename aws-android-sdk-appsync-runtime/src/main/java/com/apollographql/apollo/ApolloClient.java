@@ -28,6 +28,7 @@ import com.apollographql.apollo.cache.normalized.GraphQLStoreOperation;
 import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
 import com.apollographql.apollo.cache.normalized.NormalizedCache;
 import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
 import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
 import com.amazonaws.mobileconnectors.appsync.fetcher.AppSyncResponseFetchers;
 import com.apollographql.apollo.fetcher.ResponseFetcher;
@@ -259,6 +260,7 @@ public final class ApolloClient
     Optional<Logger> logger = Optional.absent();
     final List<ApolloInterceptor> applicationInterceptors = new ArrayList<>();
     boolean sendOperationIdentifiers;
+    int responseMemoSize;
     SubscriptionManager subscriptionManager = new NoOpSubscriptionManager();
 
     private Builder() {
@@ -432,6 +434,27 @@ public final class ApolloClient
       return this;
     }
 
+    /**
+     * Memoize the last responses read from the normalized cache, keyed by operation and variables, so that reading
+     * the same query again, as with {@link AppSyncResponseFetchers#CACHE_FIRST} or when a watcher refetches, returns
+     * the same response without reading the records again. A response is dropped as soon as a record field it was
+     * read from changes, and is read again if one of its records was evicted or expired from the cache meanwhile;
+     * returning it counts as a read of its records, for their eviction and the warm-up hot set. Reads with the
+     * {@link com.apollographql.apollo.cache.GraphQLCacheHeaders#MAX_AGE} or
+     * {@link com.apollographql.apollo.cache.GraphQLCacheHeaders#EVICT_AFTER_READ} headers are not memoized.
+     *
+     * @param responseMemoSize the number of responses to memoize. Default: 0, which reads every response again.
+     * @return The {@link Builder} object to be used for chaining method calls
+     * @throws IllegalArgumentException if {@code responseMemoSize} is negative
+     */
+    public Builder responseMemoSize(int responseMemoSize) {
+      if (responseMemoSize < 0) {
+        throw new IllegalArgumentException("responseMemoSize must not be negative");
+      }
+      this.responseMemoSize = responseMemoSize;
+      return this;
+    }
+
     public Builder subscriptionManager(@Nonnull SubscriptionManager subscriptionManager) {
       this.subscriptionManager = subscriptionManager;
       return this;
@@ -472,7 +495,14 @@ public final class ApolloClient
       if (cacheFactory.isPresent() && cacheKeyResolver.isPresent()) {
         final NormalizedCache normalizedCache = cacheFactory.get().createChain(RecordFieldJsonAdapter.create());
         apolloStore = new RealAppSyncStore(normalizedCache, cacheKeyResolver.get(), scalarTypeAdapters, dispatcher,
-                apolloLogger);
+                apolloLogger, responseMemoSize);
+        // The memory caches are warmed up only now that they are chained to the caches they load their records from.
+        for (Optional<NormalizedCache> cache = Optional.of(normalizedCache); cache.isPresent();
+            cache = cache.get().nextCache()) {
+          if (cache.get() instanceof LruNormalizedCache) {
+            ((LruNormalizedCache) cache.get()).warmUpInBackground();
+          }
+        }
       }
 
       return new ApolloClient(serverUrl,
@@ -23,4 +23,16 @@ public final class GraphQLCacheHeaders {
    * Records from this request should be evicted after being read.
    */
   public static final String EVICT_AFTER_READ = "evict-after-read";
+
+  /**
+   * Records written more than this many seconds ago are not read from the cache, as if they were missing. A value
+   * which is not a non-negative number of seconds is ignored.
+   */
+  public static final String MAX_AGE = "max-age";
+
+  /**
+   * With {@link #MAX_AGE}, records past their max age are still read for this many more seconds. Has no effect without
+   * {@link #MAX_AGE}.
+   */
+  public static final String MAX_STALE = "max-stale";
 }
@@ -19,6 +19,8 @@ import com.apollographql.apollo.internal.cache.normalized.ResponseNormalizer;
 import com.apollographql.apollo.internal.cache.normalized.Transaction;
 import com.apollographql.apollo.internal.cache.normalized.WriteableStore;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,7 +42,9 @@ public interface ApolloStore {
   interface RecordChangeSubscriber {
 
     /**
-     * @param changedRecordKeys A set of record keys which correspond to records which have had content changes.
+     * @param changedRecordKeys A set of record keys which correspond to records which have had content changes. The
+     *                          changes of merges are published as a {@link ChangeSet}, which subscribers can match
+     *                          with {@link ChangeSet#intersects(Set)} without building its keys.
      */
     void onCacheRecordsChanged(Set<String> changedRecordKeys);
   }
@@ -50,7 +54,8 @@ public interface ApolloStore {
   void unsubscribe(RecordChangeSubscriber subscriber);
 
   /**
-   * @param keys A set of keys of {@link Record} which have changed.
+   * @param keys A set of keys of {@link Record} which have changed, such as the {@link ChangeSet} returned by a merge,
+   *             which is handed to the subscribers as is.
    */
   void publish(Set<String> keys);
 
@@ -82,6 +87,50 @@ public interface ApolloStore {
   @Nonnull
   GraphQLStoreOperation<Integer> remove(@Nonnull List<CacheKey> cacheKeys);
 
+  /**
+   * Remove cache records which can no longer be reached from the query root, the mutation root or a pending optimistic
+   * update by following cache references. Runs in chunks, so that other reads and writes are not blocked for the
+   * whole collection.
+   *
+   * @return {@link GraphQLStoreOperation} to be performed, that will be resolved with the count of records been removed
+   */
+  @Nonnull
+  GraphQLStoreOperation<Integer> collectGarbage();
+
+  /**
+   * Releases memory held by the store, such as its memoized responses, and by its normalized cache with
+   * {@link NormalizedCache#trimMemory(MemoryTrimLevel)}, as the system asks when it runs low on memory.
+   *
+   * @param level how much memory to release
+   * @return {@link GraphQLStoreOperation} to be performed, that will be resolved with an estimate of the bytes released
+   * by the normalized cache
+   */
+  @Nonnull
+  GraphQLStoreOperation<Long> trimMemory(@Nonnull MemoryTrimLevel level);
+
+  /**
+   * Write all the records of the normalized cache, without the pending optimistic updates, to a compact snapshot that
+   * can be loaded with {@link #importSnapshot(InputStream)}, for example into the cache of a new install. The stream
+   * is flushed but not closed.
+   *
+   * @param outputStream to write the snapshot to
+   * @return {@link GraphQLStoreOperation} to be performed, that will be resolved with the count of records written
+   */
+  @Nonnull
+  GraphQLStoreOperation<Integer> exportSnapshot(@Nonnull OutputStream outputStream);
+
+  /**
+   * Load the records of a snapshot written by {@link #exportSnapshot(OutputStream)} into the normalized cache. They are
+   * merged with the records already in the cache in large batches, each stored in a single transaction, and the
+   * changes are published once all the batches are stored. The records keep the time they were written at in the
+   * exported cache, so that their age is checked as it would have been there. The stream is not closed.
+   *
+   * @param inputStream to read the snapshot from
+   * @return {@link GraphQLStoreOperation} to be performed, that will be resolved with the count of records loaded
+   */
+  @Nonnull
+  GraphQLStoreOperation<Integer> importSnapshot(@Nonnull InputStream inputStream);
+
   /**
    * @return The {@link ResponseNormalizer} used to generate normalized records from the network.
    */
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * A compact binary {@link RecordCodec}.
+ *
+ * <p>An encoded record starts with the format version byte, followed by the field name table (a varint count, then
+ * each name as a varint length and its UTF-8 bytes) and one tagged value per name, in the same order. Values are:
+ * <ul>
+ *   <li>null, false and true: the tag alone</li>
+ *   <li>strings and {@link CacheReference} keys: tag, varint length, UTF-8 bytes</li>
+ *   <li>numbers: tag, zig-zag varint unscaled value and zig-zag varint scale, or tag and the decimal string when the
+ *   unscaled value does not fit in a long</li>
+ *   <li>lists: tag, varint size, then each item as a tagged value</li>
+ * </ul>
+ *
+ * <p>A single value encoded with {@link #encodeValue(Object)} is the format version byte followed by the tagged value.
+ */
+public final class BinaryRecordCodec extends RecordCodec {
+  static final byte FORMAT_VERSION = 1;
+
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_FALSE = 1;
+  private static final byte TAG_TRUE = 2;
+  private static final byte TAG_STRING = 3;
+  private static final byte TAG_REFERENCE = 4;
+  private static final byte TAG_DECIMAL = 5;
+  private static final byte TAG_BIG_DECIMAL = 6;
+  private static final byte TAG_LIST = 7;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+  private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+  public static BinaryRecordCodec create() {
+    return new BinaryRecordCodec();
+  }
+
+  private BinaryRecordCodec() {
+  }
+
+  @Override public byte[] encode(@Nonnull Map<String, Object> fields) {
+    checkNotNull(fields, "fields == null");
+    Output output = new Output();
+    output.writeByte(FORMAT_VERSION);
+    output.writeVarint(fields.size());
+    for (String name : fields.keySet()) {
+      output.writeString(name);
+    }
+    for (Object value : fields.values()) {
+      writeValue(value, output);
+    }
+    return output.toByteArray();
+  }
+
+  @Override public Map<String, Object> decode(@Nonnull byte[] encodedFields) throws IOException {
+    checkNotNull(encodedFields, "encodedFields == null");
+    Input input = new Input(encodedFields);
+    int version = input.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported record format version: " + version);
+    }
+    int fieldCount = input.readVarint();
+    String[] names = new String[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      names[i] = input.readString();
+    }
+    // Decoded straight into the layout of Record, sharing the field names of records of the same shape.
+    Map<String, Object> fields = new ShapedFields();
+    for (String name : names) {
+      fields.put(name, readValue(input));
+    }
+    if (!input.exhausted()) {
+      throw new IOException("Trailing bytes after record fields");
+    }
+    return fields;
+  }
+
+  @Override public byte[] encodeValue(@Nullable Object value) {
+    Output output = new Output();
+    output.writeByte(FORMAT_VERSION);
+    writeValue(value, output);
+    return output.toByteArray();
+  }
+
+  @Override public Object decodeValue(@Nonnull byte[] encodedValue) throws IOException {
+    checkNotNull(encodedValue, "encodedValue == null");
+    Input input = new Input(encodedValue);
+    int version = input.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported record format version: " + version);
+    }
+    Object value = readValue(input);
+    if (!input.exhausted()) {
+      throw new IOException("Trailing bytes after field value");
+    }
+    return value;
+  }
+
+  private static void writeValue(Object value, Output output) {
+    if (value == null) {
+      output.writeByte(TAG_NULL);
+    } else if (value instanceof String) {
+      output.writeByte(TAG_STRING);
+      output.writeString((String) value);
+    } else if (value instanceof Boolean) {
+      output.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof Number) {
+      // Same conversion as the JSON writer followed by the JSON reader, so both formats decode to equal values.
+      BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+      BigInteger unscaled = decimal.unscaledValue();
+      if (unscaled.compareTo(LONG_MIN) >= 0 && unscaled.compareTo(LONG_MAX) <= 0) {
+        output.writeByte(TAG_DECIMAL);
+        output.writeSignedVarint(unscaled.longValue());
+        output.writeSignedVarint(decimal.scale());
+      } else {
+        output.writeByte(TAG_BIG_DECIMAL);
+        output.writeString(decimal.toString());
+      }
+    } else if (value instanceof CacheReference) {
+      output.writeByte(TAG_REFERENCE);
+      output.writeString(((CacheReference) value).key());
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      output.writeByte(TAG_LIST);
+      output.writeVarint(list.size());
+      for (Object item : list) {
+        writeValue(item, output);
+      }
+    } else {
+      throw new RuntimeException("Unsupported record value type: " + value.getClass());
+    }
+  }
+
+  private static Object readValue(Input input) throws IOException {
+    int tag = input.readByte();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_STRING:
+        return input.readString();
+      case TAG_REFERENCE:
+        return new CacheReference(input.readString());
+      case TAG_DECIMAL:
+        long unscaled = input.readSignedVarint();
+        return BigDecimal.valueOf(unscaled, (int) input.readSignedVarint());
+      case TAG_BIG_DECIMAL:
+        return new BigDecimal(input.readString());
+      case TAG_LIST:
+        int size = input.readVarint();
+        List<Object> list = new ArrayList<>(Math.min(size, input.remaining()));
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(input));
+        }
+        return list;
+      default:
+        throw new IOException("Unknown value tag: " + tag);
+    }
+  }
+
+  private static final class Output {
+    private byte[] bytes = new byte[128];
+    private int size;
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      bytes[size++] = (byte) value;
+    }
+
+    void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeSignedVarint(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String value) {
+      byte[] utf8 = value.getBytes(UTF_8);
+      writeVarint(utf8.length);
+      ensureCapacity(utf8.length);
+      System.arraycopy(utf8, 0, bytes, size, utf8.length);
+      size += utf8.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+  }
+
+  private static final class Input {
+    private final byte[] bytes;
+    private int position;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    int readByte() throws IOException {
+      if (position >= bytes.length) {
+        throw new IOException("Unexpected end of record");
+      }
+      return bytes[position++];
+    }
+
+    int readVarint() throws IOException {
+      long value = readUnsignedVarint();
+      if (value > Integer.MAX_VALUE) {
+        throw new IOException("Length out of range: " + value);
+      }
+      return (int) value;
+    }
+
+    long readSignedVarint() throws IOException {
+      long value = readUnsignedVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    String readString() throws IOException {
+      int length = readVarint();
+      if (length > remaining()) {
+        throw new IOException("Unexpected end of record");
+      }
+      String value = new String(bytes, position, length, UTF_8);
+      position += length;
+      return value;
+    }
+
+    int remaining() {
+      return bytes.length - position;
+    }
+
+    boolean exhausted() {
+      return position == bytes.length;
+    }
+
+    private long readUnsignedVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+  }
+}
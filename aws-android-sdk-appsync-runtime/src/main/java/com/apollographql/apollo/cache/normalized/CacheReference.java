@@ -7,17 +7,17 @@
 
 package com.apollographql.apollo.cache.normalized;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.apollographql.apollo.internal.util.KeyInterner;
 
 public final class CacheReference {
 
   private final String key;
-  private static final Pattern SERIALIZATION_REGEX_PATTERN = Pattern.compile("ApolloCacheReference\\{(.*)\\}");
-  private static final String SERIALIZATION_TEMPLATE = "ApolloCacheReference{%s}";
+  private static final String SERIALIZATION_PREFIX = "ApolloCacheReference{";
+  private static final char SERIALIZATION_SUFFIX = '}';
 
   public CacheReference(String key) {
-    this.key = key;
+    // Many records refer to the same records, so they share the keys of the references.
+    this.key = KeyInterner.intern(key);
   }
 
   public String key() {
@@ -42,22 +42,30 @@ public final class CacheReference {
     return key;
   }
 
+  /**
+   * @return this reference as a string tagged with a prefix, {@code ApolloCacheReference{key}}
+   */
   public String serialize() {
-    return String.format(SERIALIZATION_TEMPLATE, key);
+    return SERIALIZATION_PREFIX + key + SERIALIZATION_SUFFIX;
   }
 
   public static CacheReference deserialize(String serializedCacheReference) {
-    Matcher matcher = SERIALIZATION_REGEX_PATTERN.matcher(serializedCacheReference);
-    if (!matcher.find() || matcher.groupCount() != 1) {
+    if (!canDeserialize(serializedCacheReference)) {
       throw new IllegalArgumentException("Not a cache reference: " + serializedCacheReference
-          + " Must be of the form:" + SERIALIZATION_TEMPLATE);
+          + " Must be of the form:" + SERIALIZATION_PREFIX + "%s" + SERIALIZATION_SUFFIX);
     }
-    return new CacheReference(matcher.group(1));
+    return new CacheReference(serializedCacheReference.substring(SERIALIZATION_PREFIX.length(),
+        serializedCacheReference.length() - 1));
   }
 
+  /**
+   * Recognizes a serialized reference by its prefix and suffix, which is cheap enough to run on every string read back
+   * from the cache.
+   */
   public static boolean canDeserialize(String value) {
-    Matcher matcher = SERIALIZATION_REGEX_PATTERN.matcher(value);
-    return matcher.matches();
+    return value.length() > SERIALIZATION_PREFIX.length()
+        && value.charAt(value.length() - 1) == SERIALIZATION_SUFFIX
+        && value.startsWith(SERIALIZATION_PREFIX);
   }
 
 }
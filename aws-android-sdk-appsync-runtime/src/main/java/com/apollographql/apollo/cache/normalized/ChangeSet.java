@@ -0,0 +1,361 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * Set of changed record fields, as returned by {@link Record#mergeWith(Record)} and {@link NormalizedCache#merge}, and
+ * published to {@link ApolloStore.RecordChangeSubscriber}s. Fields are kept as a record key and a field key, rather
+ * than as the {@code "recordKey.fieldKey"} strings of the keys of this set, along with keys added whole, such as the
+ * keys of records changed as a whole.
+ *
+ * The strings are only built when the set is iterated or its size is asked for, for callers which use it as a plain
+ * set of keys. {@link #contains(Object)} and {@link #intersects(Set)} look the keys up without building them. Keys can
+ * be removed too, directly or through the iterator. Not thread safe for writes, but can be read from several threads
+ * once it is no longer written.
+ */
+public final class ChangeSet extends AbstractSet<String> {
+  private final Map<String, Set<String>> fieldKeys = new LinkedHashMap<>();
+  private Set<String> wholeKeys = Collections.emptySet();
+  private int fieldCount;
+  private volatile Set<String> keys;
+  private volatile KeyIndex keyIndex;
+
+  /**
+   * Adds the field {@code fieldKey} of the record {@code recordKey}, which stands for the key
+   * {@code "recordKey.fieldKey"}.
+   *
+   * @return whether the field was not in this set yet
+   */
+  public boolean add(@Nonnull String recordKey, @Nonnull String fieldKey) {
+    checkNotNull(recordKey, "recordKey == null");
+    checkNotNull(fieldKey, "fieldKey == null");
+    Set<String> recordFieldKeys = fieldKeys.get(recordKey);
+    if (recordFieldKeys == null) {
+      recordFieldKeys = new LinkedHashSet<>();
+      fieldKeys.put(recordKey, recordFieldKeys);
+    }
+    if (!recordFieldKeys.add(fieldKey)) {
+      return false;
+    }
+    fieldCount++;
+    invalidate();
+    return true;
+  }
+
+  /**
+   * Adds {@code key} whole, such as the key of a record changed as a whole.
+   */
+  @Override public boolean add(@Nonnull String key) {
+    checkNotNull(key, "key == null");
+    if (wholeKeys.isEmpty()) {
+      wholeKeys = new LinkedHashSet<>();
+    }
+    if (!wholeKeys.add(key)) {
+      return false;
+    }
+    invalidate();
+    return true;
+  }
+
+  /**
+   * Adds {@code keys}, field by field if they are a change set too.
+   */
+  @Override public boolean addAll(@Nonnull Collection<? extends String> keys) {
+    if (!(keys instanceof ChangeSet)) {
+      return super.addAll(keys);
+    }
+    ChangeSet changeSet = (ChangeSet) keys;
+    boolean changed = false;
+    for (Map.Entry<String, Set<String>> record : changeSet.fieldKeys.entrySet()) {
+      for (String fieldKey : record.getValue()) {
+        changed |= add(record.getKey(), fieldKey);
+      }
+    }
+    for (String key : changeSet.wholeKeys) {
+      changed |= add(key);
+    }
+    return changed;
+  }
+
+  /**
+   * @return the keys of the records which have changed fields in this set
+   */
+  @Nonnull public Set<String> recordKeys() {
+    return Collections.unmodifiableSet(fieldKeys.keySet());
+  }
+
+  /**
+   * @return the changed fields of the record {@code recordKey}
+   */
+  @Nonnull public Set<String> fieldKeys(@Nonnull String recordKey) {
+    Set<String> recordFieldKeys = fieldKeys.get(recordKey);
+    return recordFieldKeys != null ? Collections.unmodifiableSet(recordFieldKeys) : Collections.<String>emptySet();
+  }
+
+  /**
+   * @return the keys added whole with {@link #add(String)}
+   */
+  @Nonnull public Set<String> wholeKeys() {
+    return Collections.unmodifiableSet(wholeKeys);
+  }
+
+  /**
+   * @return whether any key of {@code keys} is in this set, as {@code !Utils.areDisjoint(this, keys)} would tell
+   * without building the keys of this set
+   */
+  public boolean intersects(@Nonnull Set<String> keys) {
+    if (keys instanceof ChangeSet) {
+      ChangeSet changeSet = (ChangeSet) keys;
+      ChangeSet smaller = fieldCount <= changeSet.fieldCount ? this : changeSet;
+      ChangeSet larger = smaller == this ? changeSet : this;
+      for (Map.Entry<String, Set<String>> record : smaller.fieldKeys.entrySet()) {
+        for (String fieldKey : record.getValue()) {
+          if (larger.keyIndex().contains(record.getKey(), fieldKey)) {
+            return true;
+          }
+        }
+      }
+      for (String key : wholeKeys) {
+        if (changeSet.contains(key)) {
+          return true;
+        }
+      }
+      for (String key : changeSet.wholeKeys) {
+        if (contains(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    for (String key : keys) {
+      if (contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override public boolean contains(Object key) {
+    if (!(key instanceof String)) {
+      return false;
+    }
+    return wholeKeys.contains(key) || (fieldCount > 0 && keyIndex().contains((String) key));
+  }
+
+  /**
+   * Removes the key {@code key}, whether it was added whole or as the field of a record, whichever dot of the key
+   * splits it into the two.
+   */
+  @Override public boolean remove(Object key) {
+    if (!(key instanceof String)) {
+      return false;
+    }
+    String keyString = (String) key;
+    boolean removed = wholeKeys.remove(keyString);
+    if (fieldCount > 0 && keyIndex().contains(keyString)) {
+      for (int dot = keyString.indexOf('.'); dot >= 0; dot = keyString.indexOf('.', dot + 1)) {
+        String recordKey = keyString.substring(0, dot);
+        Set<String> recordFieldKeys = fieldKeys.get(recordKey);
+        if (recordFieldKeys != null && recordFieldKeys.remove(keyString.substring(dot + 1))) {
+          if (recordFieldKeys.isEmpty()) {
+            fieldKeys.remove(recordKey);
+          }
+          fieldCount--;
+          removed = true;
+        }
+      }
+    }
+    if (removed) {
+      invalidate();
+    }
+    return removed;
+  }
+
+  @Override public boolean isEmpty() {
+    return fieldCount == 0 && wholeKeys.isEmpty();
+  }
+
+  @Override public int size() {
+    return keys().size();
+  }
+
+  /**
+   * Iterates over the keys as they were when the iteration started. Removing a key through the iterator removes it from
+   * this set.
+   */
+  @Nonnull @Override public Iterator<String> iterator() {
+    final Iterator<String> keys = keys().iterator();
+    return new Iterator<String>() {
+      private String current;
+
+      @Override public boolean hasNext() {
+        return keys.hasNext();
+      }
+
+      @Override public String next() {
+        current = keys.next();
+        return current;
+      }
+
+      @Override public void remove() {
+        if (current == null) {
+          throw new IllegalStateException();
+        }
+        ChangeSet.this.remove(current);
+        current = null;
+      }
+    };
+  }
+
+  @Override public void clear() {
+    fieldKeys.clear();
+    wholeKeys = Collections.emptySet();
+    fieldCount = 0;
+    invalidate();
+  }
+
+  private void invalidate() {
+    keys = null;
+    keyIndex = null;
+  }
+
+  /**
+   * @return the {@code "recordKey.fieldKey"} keys of this set, built the first time they are needed
+   */
+  private Set<String> keys() {
+    Set<String> keys = this.keys;
+    if (keys == null) {
+      Set<String> builtKeys = new LinkedHashSet<>();
+      for (Map.Entry<String, Set<String>> record : fieldKeys.entrySet()) {
+        for (String fieldKey : record.getValue()) {
+          builtKeys.add(record.getKey() + "." + fieldKey);
+        }
+      }
+      builtKeys.addAll(wholeKeys);
+      keys = Collections.unmodifiableSet(builtKeys);
+      this.keys = keys;
+    }
+    return keys;
+  }
+
+  private KeyIndex keyIndex() {
+    KeyIndex keyIndex = this.keyIndex;
+    if (keyIndex == null) {
+      keyIndex = new KeyIndex(fieldKeys, fieldCount);
+      this.keyIndex = keyIndex;
+    }
+    return keyIndex;
+  }
+
+  /**
+   * Open addressing table of the fields of a change set by the hash code of their {@code "recordKey.fieldKey"} key,
+   * computed without building the key, so that keys can be looked up without splitting them at each dot.
+   */
+  private static final class KeyIndex {
+    private final int[] hashes;
+    private final String[] recordKeys;
+    private final String[] fieldKeys;
+    private final int mask;
+
+    KeyIndex(Map<String, Set<String>> fields, int fieldCount) {
+      int capacity = Integer.highestOneBit(Math.max(fieldCount, 1) * 2 - 1) << 1;
+      hashes = new int[capacity];
+      recordKeys = new String[capacity];
+      fieldKeys = new String[capacity];
+      mask = capacity - 1;
+      for (Map.Entry<String, Set<String>> record : fields.entrySet()) {
+        for (String fieldKey : record.getValue()) {
+          int hash = hash(record.getKey(), fieldKey);
+          int slot = hash & mask;
+          while (recordKeys[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          hashes[slot] = hash;
+          recordKeys[slot] = record.getKey();
+          fieldKeys[slot] = fieldKey;
+        }
+      }
+    }
+
+    boolean contains(String key) {
+      int hash = key.hashCode();
+      for (int slot = hash & mask; recordKeys[slot] != null; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && matches(key, recordKeys[slot], fieldKeys[slot])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean contains(String recordKey, String fieldKey) {
+      int hash = hash(recordKey, fieldKey);
+      for (int slot = hash & mask; recordKeys[slot] != null; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && matches(recordKey, fieldKey, recordKeys[slot], fieldKeys[slot])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return the hash code of {@code recordKey + "." + fieldKey}
+     */
+    private static int hash(String recordKey, String fieldKey) {
+      int hash = 31 * recordKey.hashCode() + '.';
+      for (int i = 0, length = fieldKey.length(); i < length; i++) {
+        hash = 31 * hash + fieldKey.charAt(i);
+      }
+      return hash;
+    }
+
+    private static boolean matches(String key, String recordKey, String fieldKey) {
+      int recordKeyLength = recordKey.length();
+      return key.length() == recordKeyLength + 1 + fieldKey.length()
+          && key.charAt(recordKeyLength) == '.'
+          && key.startsWith(recordKey)
+          && key.endsWith(fieldKey);
+    }
+
+    /**
+     * @return whether both fields have the same {@code "recordKey.fieldKey"} key, even if their keys split differently
+     */
+    private static boolean matches(String recordKey, String fieldKey, String otherRecordKey, String otherFieldKey) {
+      if (recordKey.length() == otherRecordKey.length()) {
+        return recordKey.equals(otherRecordKey) && fieldKey.equals(otherFieldKey);
+      }
+      if (recordKey.length() + fieldKey.length() != otherRecordKey.length() + otherFieldKey.length()) {
+        return false;
+      }
+      String longerRecordKey = recordKey.length() > otherRecordKey.length() ? recordKey : otherRecordKey;
+      String shorterRecordKey = longerRecordKey == recordKey ? otherRecordKey : recordKey;
+      String longerFieldKey = longerRecordKey == recordKey ? otherFieldKey : fieldKey;
+      String shorterFieldKey = longerRecordKey == recordKey ? fieldKey : otherFieldKey;
+      // The longer record key is the shorter one, a dot and the start of the longer field key.
+      int split = shorterRecordKey.length();
+      int overlap = longerRecordKey.length() - split - 1;
+      return longerRecordKey.startsWith(shorterRecordKey)
+          && longerRecordKey.charAt(split) == '.'
+          && longerFieldKey.regionMatches(0, longerRecordKey, split + 1, overlap)
+          && longerFieldKey.charAt(overlap) == '.'
+          && longerFieldKey.regionMatches(overlap + 1, shorterFieldKey, 0, shorterFieldKey.length());
+    }
+  }
+}
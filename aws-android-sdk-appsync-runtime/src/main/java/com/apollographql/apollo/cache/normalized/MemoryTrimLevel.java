@@ -0,0 +1,30 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+/**
+ * How much memory a {@link NormalizedCache} gives back in {@link NormalizedCache#trimMemory(MemoryTrimLevel)}, from
+ * the least to the most. Each level also releases what the levels before it do.
+ */
+public enum MemoryTrimLevel {
+  /**
+   * Releases only what no read needs: optimistic updates already reflected in the cache, and memo structures which
+   * are rebuilt on use.
+   */
+  RELEASE_UNUSED,
+
+  /**
+   * Also shrinks the memory caches to the fraction of their content set by their policy.
+   */
+  SHRINK,
+
+  /**
+   * Also empties the memory caches. Records stored by a persistent cache are read back from it when needed.
+   */
+  CLEAR
+}
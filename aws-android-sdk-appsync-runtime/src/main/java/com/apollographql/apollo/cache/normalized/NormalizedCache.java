@@ -9,6 +9,8 @@ package com.apollographql.apollo.cache.normalized;
 
 import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
 import com.apollographql.apollo.ApolloClient;
+import com.apollographql.apollo.api.internal.Action;
+import com.apollographql.apollo.api.internal.Function;
 import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.cache.CacheHeaders;
 
@@ -67,6 +69,20 @@ public abstract class NormalizedCache {
     return records;
   }
 
+  /**
+   * Reads records like {@link #loadRecords(Collection, CacheHeaders)} without changing the state of the caches: a
+   * memory cache returns the records it holds and does not keep the ones it reads from the caches after it, and no
+   * access is recorded. A record which cannot be read is not taken for a missing one: the read error propagates, as
+   * callers such as the garbage collector act on the absence of records. Calls through to
+   * {@link #loadRecords(Collection, CacheHeaders)} without cache headers. Implementations which keep records in
+   * memory, record accesses or treat read errors as misses should override this method.
+   *
+   * @param keys The set of {@link Record} keys to read.
+   */
+  @Nonnull public Collection<Record> peekRecords(@Nonnull Collection<String> keys) {
+    return loadRecords(keys, CacheHeaders.NONE);
+  }
+
   /**
    * @param record       The {@link Record} to merge.
    * @param cacheHeaders The {@link CacheHeaders} associated with the request which generated this record.
@@ -80,16 +96,94 @@ public abstract class NormalizedCache {
    *
    * @param recordSet    The set of Records to merge.
    * @param cacheHeaders The {@link CacheHeaders} associated with the request which generated this record.
-   * @return A set of record field keys that have changed. This set is returned by {@link Record#mergeWith(Record)}.
+   * @return A set of record field keys that have changed, as a {@link ChangeSet} collecting the sets returned by
+   * {@link #merge(Record, CacheHeaders)}.
    */
   @Nonnull public Set<String> merge(@Nonnull Collection<Record> recordSet, @Nonnull CacheHeaders cacheHeaders) {
-    Set<String> aggregatedDependentKeys = new LinkedHashSet<>();
+    ChangeSet aggregatedDependentKeys = new ChangeSet();
     for (Record record : recordSet) {
       aggregatedDependentKeys.addAll(merge(record, cacheHeaders));
     }
     return aggregatedDependentKeys;
   }
 
+  /**
+   * Stores records which already are the result of merging them into the current content of this cache, as computed
+   * by a cache chained in front of this one that holds the previous version of each record. Calls through to {@link
+   * NormalizedCache#merge(Collection, CacheHeaders)}, which yields the same content. Implementations should override
+   * this method if the underlying storage technology can write the records without reading back their previous state.
+   *
+   * @param recordSet    The merged records to store.
+   * @param cacheHeaders The {@link CacheHeaders} associated with the request which generated these records.
+   */
+  public void replace(@Nonnull Collection<Record> recordSet, @Nonnull CacheHeaders cacheHeaders) {
+    merge(recordSet, cacheHeaders);
+  }
+
+  /**
+   * Moves the write time of stored records forward to the one of the given records, which were merged again without
+   * any change to their fields, as when a response confirms the cached data. Calls through to the next cache.
+   * Implementations which store the write times of records should override this method, and update them without
+   * writing the fields again.
+   *
+   * @param recordSet The merged records, whose {@link Record#writtenAtMillis()} is the time to store.
+   */
+  public void refreshWriteTimes(@Nonnull final Collection<Record> recordSet) {
+    //noinspection ResultOfMethodCallIgnored
+    nextCache().apply(new Action<NormalizedCache>() {
+      @Override public void apply(@Nonnull NormalizedCache cache) {
+        cache.refreshWriteTimes(recordSet);
+      }
+    });
+  }
+
+  /**
+   * Records that the records of {@code keys} were read again without being loaded, as when a response read from them
+   * earlier is returned again, and tells whether they can still be read. Calls through to the next cache, or returns
+   * true if there is none. Implementations which record reads, or which evict or expire records, should override this
+   * method.
+   *
+   * @param keys The distinct keys of the records.
+   * @return Whether all the records are still held, false if one of them was evicted or expired since it was loaded.
+   */
+  public boolean touchRecords(@Nonnull final Collection<String> keys) {
+    return nextCache().map(new Function<NormalizedCache, Boolean>() {
+      @Nonnull @Override public Boolean apply(@Nonnull NormalizedCache cache) {
+        return cache.touchRecords(keys);
+      }
+    }).or(Boolean.TRUE);
+  }
+
+  /**
+   * Releases memory held by this cache and by the caches chained after it, as the system asks when it runs low on
+   * memory. Calls through to the next cache. Implementations which hold records in memory should override this method.
+   *
+   * @param level How much memory to release.
+   * @return An estimate of the bytes released, as counted by {@link Record#sizeEstimateBytes()}.
+   */
+  public long trimMemory(@Nonnull final MemoryTrimLevel level) {
+    return nextCache().map(new Function<NormalizedCache, Long>() {
+      @Nonnull @Override public Long apply(@Nonnull NormalizedCache cache) {
+        return cache.trimMemory(level);
+      }
+    }).or(0L);
+  }
+
+  /**
+   * Returns the keys of all the records in this cache and in the caches chained after it, for example to find the
+   * records which are no longer referenced. Calls through to the next cache. Implementations which store records
+   * should override this method and add their own keys.
+   *
+   * @return A snapshot of the keys, not updated by later writes.
+   */
+  @Nonnull public Set<String> keys() {
+    return nextCache().map(new Function<NormalizedCache, Set<String>>() {
+      @Nonnull @Override public Set<String> apply(@Nonnull NormalizedCache cache) {
+        return cache.keys();
+      }
+    }).or(new LinkedHashSet<String>());
+  }
+
   /**
    * Clears all records from the cache.
    *
@@ -14,11 +14,14 @@ import com.apollographql.apollo.cache.CacheHeaders;
 import com.nytimes.android.external.cache.Cache;
 import com.nytimes.android.external.cache.CacheBuilder;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -59,6 +62,68 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
     }
   }
 
+  @Nonnull @Override
+  public Collection<Record> loadRecords(@Nonnull final Collection<String> keys,
+      @Nonnull final CacheHeaders cacheHeaders) {
+    checkNotNull(keys, "keys == null");
+    checkNotNull(cacheHeaders, "cacheHeaders == null");
+
+    final Map<String, Record> nonOptimisticRecords = new HashMap<>();
+    try {
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.loadRecords(keys, cacheHeaders)) {
+            nonOptimisticRecords.put(record.key(), record);
+          }
+        }
+      });
+    } catch (Exception ignore) {
+      // The pending optimistic updates are still returned, as loadRecord returns them for a missing record.
+      return withOptimisticUpdates(keys, Collections.<String, Record>emptyMap());
+    }
+    return withOptimisticUpdates(keys, nonOptimisticRecords);
+  }
+
+  /**
+   * Returns the records of the next cache read with {@link NormalizedCache#peekRecords(Collection)}, with the
+   * optimistic updates pending applied. Read errors propagate.
+   */
+  @Nonnull @Override public Collection<Record> peekRecords(@Nonnull final Collection<String> keys) {
+    checkNotNull(keys, "keys == null");
+
+    final Map<String, Record> nonOptimisticRecords = new HashMap<>();
+    //noinspection ResultOfMethodCallIgnored
+    nextCache().apply(new Action<NormalizedCache>() {
+      @Override public void apply(@Nonnull NormalizedCache cache) {
+        for (Record record : cache.peekRecords(keys)) {
+          nonOptimisticRecords.put(record.key(), record);
+        }
+      }
+    });
+    return withOptimisticUpdates(keys, nonOptimisticRecords);
+  }
+
+  private List<Record> withOptimisticUpdates(Collection<String> keys, Map<String, Record> nonOptimisticRecords) {
+    List<Record> records = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      Record record = nonOptimisticRecords.get(key);
+      RecordJournal journal = lruCache.getIfPresent(key);
+      if (journal != null) {
+        if (record != null) {
+          record = record.clone();
+          record.mergeWith(journal.snapshot);
+        } else {
+          record = journal.snapshot.clone();
+        }
+      }
+      if (record != null) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
   @Nonnull @Override public Set<String> merge(@Nonnull final Record record, @Nonnull final CacheHeaders cacheHeaders) {
     checkNotNull(record, "record == null");
     checkNotNull(cacheHeaders, "cacheHeaders == null");
@@ -70,6 +135,31 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
     }).or(Collections.<String>emptySet());
   }
 
+  @Nonnull @Override
+  public Set<String> merge(@Nonnull final Collection<Record> recordSet, @Nonnull final CacheHeaders cacheHeaders) {
+    checkNotNull(recordSet, "recordSet == null");
+    checkNotNull(cacheHeaders, "cacheHeaders == null");
+
+    return nextCache().map(new Function<NormalizedCache, Set<String>>() {
+      @Nonnull @Override public Set<String> apply(@Nonnull NormalizedCache cache) {
+        return cache.merge(recordSet, cacheHeaders);
+      }
+    }).or(Collections.<String>emptySet());
+  }
+
+  @Nonnull @Override public Set<String> keys() {
+    Set<String> keys = super.keys();
+    keys.addAll(lruCache.asMap().keySet());
+    return keys;
+  }
+
+  /**
+   * @return The keys of the records which have optimistic updates pending.
+   */
+  @Nonnull public Set<String> optimisticKeys() {
+    return new LinkedHashSet<>(lruCache.asMap().keySet());
+  }
+
   @Override public void clearAll() {
     lruCache.invalidateAll();
     //noinspection ResultOfMethodCallIgnored
@@ -97,8 +187,33 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
     return result;
   }
 
+  /**
+   * Drops the optimistic updates already reflected in the records of the next cache, as when the mutations which
+   * produced them have completed and their responses were written, at every {@link MemoryTrimLevel}: reads give the
+   * same records without them. The records are read in one batch with {@link NormalizedCache#peekRecords(Collection)},
+   * so that the memory caches are not filled by the trim. Then trims the next cache.
+   */
+  @Override public long trimMemory(@Nonnull MemoryTrimLevel level) {
+    final Map<String, RecordJournal> journals = new HashMap<>(lruCache.asMap());
+    long trimmedBytes = 0;
+    if (!journals.isEmpty()) {
+      Collection<Record> records = nextCache().map(new Function<NormalizedCache, Collection<Record>>() {
+        @Nonnull @Override public Collection<Record> apply(@Nonnull NormalizedCache cache) {
+          return cache.peekRecords(journals.keySet());
+        }
+      }).or(Collections.<Record>emptyList());
+      for (Record record : records) {
+        RecordJournal journal = journals.get(record.key());
+        if (journal != null && journal.isReflectedIn(record) && lruCache.asMap().remove(record.key(), journal)) {
+          trimmedBytes += journal.sizeEstimateBytes();
+        }
+      }
+    }
+    return trimmedBytes + super.trimMemory(level);
+  }
+
   @Nonnull public Set<String> mergeOptimisticUpdates(@Nonnull Collection<Record> recordSet) {
-    Set<String> aggregatedDependentKeys = new LinkedHashSet<>();
+    ChangeSet aggregatedDependentKeys = new ChangeSet();
     for (Record record : recordSet) {
       aggregatedDependentKeys.addAll(mergeOptimisticUpdate(record));
     }
@@ -111,7 +226,9 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
     final RecordJournal journal = lruCache.getIfPresent(record.key());
     if (journal == null) {
       lruCache.put(record.key(), new RecordJournal(record));
-      return Collections.singleton(record.key());
+      ChangeSet changedKeys = new ChangeSet();
+      changedKeys.add(record.key());
+      return changedKeys;
     } else {
       return journal.commit(record);
     }
@@ -120,13 +237,13 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
   @Nonnull public Set<String> removeOptimisticUpdates(@Nonnull final UUID mutationId) {
     checkNotNull(mutationId, "mutationId == null");
 
-    Set<String> changedCacheKeys = new HashSet<>();
+    ChangeSet changedCacheKeys = new ChangeSet();
     Set<String> removedKeys = new HashSet<>();
     Map<String, RecordJournal> recordJournals = lruCache.asMap();
     for (Map.Entry<String, RecordJournal> entry : recordJournals.entrySet()) {
       String cacheKey = entry.getKey();
       RecordJournal journal = entry.getValue();
-      changedCacheKeys.addAll(journal.revert(mutationId));
+      journal.revert(mutationId, changedCacheKeys);
       if (journal.history.isEmpty()) {
         removedKeys.add(cacheKey);
       }
@@ -144,6 +261,28 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
       this.history.add(mutationRecord.clone());
     }
 
+    /**
+     * @return whether {@code record} already has all the field values of the snapshot
+     */
+    boolean isReflectedIn(Record record) {
+      for (Map.Entry<String, Object> field : snapshot.fields().entrySet()) {
+        Object value = record.field(field.getKey());
+        if (!record.hasField(field.getKey())
+            || (value == null ? field.getValue() != null : !value.equals(field.getValue()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    int sizeEstimateBytes() {
+      int bytes = snapshot.sizeEstimateBytes();
+      for (Record record : history) {
+        bytes += record.sizeEstimateBytes();
+      }
+      return bytes;
+    }
+
     /**
      * Commits new version of record to the history and invalidate snapshot version.
      */
@@ -154,9 +293,10 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
 
     /**
      * Lookups record by mutation id, if it's found removes it from the history and invalidates snapshot record.
-     * Snapshot record is superposition of all record versions in the history.
+     * Snapshot record is superposition of all record versions in the history. Adds the changed keys to
+     * {@code changedKeys}.
      */
-    Set<String> revert(UUID mutationId) {
+    void revert(UUID mutationId, ChangeSet changedKeys) {
       int recordIndex = -1;
       for (int i = 0; i < history.size(); i++) {
         if (mutationId.equals(history.get(i).mutationId())) {
@@ -166,20 +306,18 @@ public final class OptimisticNormalizedCache extends NormalizedCache {
       }
 
       if (recordIndex == -1) {
-        return Collections.emptySet();
+        return;
       }
 
-      Set<String> changedKeys = new HashSet<>();
       changedKeys.add(history.remove(recordIndex).key());
       for (int i = Math.max(0, recordIndex - 1); i < history.size(); i++) {
         Record record = history.get(i);
         if (i == Math.max(0, recordIndex - 1)) {
           snapshot = record.clone();
         } else {
-          changedKeys.addAll(snapshot.mergeWith(record));
+          snapshot.mergeWith(record, changedKeys);
         }
       }
-      return changedKeys;
     }
   }
 }
@@ -9,8 +9,6 @@ package com.apollographql.apollo.cache.normalized;
 
 import com.apollographql.apollo.internal.cache.normalized.RecordWeigher;
 
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -23,23 +21,37 @@ import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
 /**
  * A normalized entry that corresponds to a response object. Object fields are stored if they are a GraphQL Scalars. If
  * a field is a GraphQL Object a {@link CacheReference} will be stored instead.
+ *
+ * The names of the fields are kept in a table shared by all the records with the same fields in the same order, and
+ * their values in an array, so records of a given type do not each hold a copy of the field names. {@link #fields()}
+ * gives map access to them.
+ *
+ * Each record also carries the time it was last written with a response, for the reads that only accept recent data.
+ * Merging a record with unchanged fields still moves its write time forward.
  */
 public final class Record {
   private static final int UNKNOWN_SIZE_ESTIMATE = -1;
+  private static final long UNKNOWN_WRITE_TIME = -1;
 
   private final String key;
-  private final Map<String, Object> fields;
+  private final ShapedFields fields;
   private volatile UUID mutationId;
   private volatile int sizeInBytes = UNKNOWN_SIZE_ESTIMATE;
+  private volatile long writtenAtMillis;
 
   public static class Builder {
-    private final Map<String, Object> fields;
+    private final ShapedFields fields;
     private final String key;
     private UUID mutationId;
+    private long writtenAtMillis = UNKNOWN_WRITE_TIME;
 
     public Builder(String key, Map<String, Object> fields, UUID mutationId) {
+      this(key, ShapedFields.copyOf(fields), mutationId);
+    }
+
+    private Builder(String key, ShapedFields fields, UUID mutationId) {
       this.key = key;
-      this.fields = new LinkedHashMap<>(fields);
+      this.fields = fields;
       this.mutationId = mutationId;
     }
 
@@ -63,23 +75,46 @@ public final class Record {
       return this;
     }
 
+    /**
+     * Sets the time the record was written, as read back from storage. Records built without one are written at the
+     * time they are built.
+     */
+    public Builder writtenAtMillis(long writtenAtMillis) {
+      this.writtenAtMillis = writtenAtMillis;
+      return this;
+    }
+
     public Record build() {
-      return new Record(key, fields, mutationId);
+      return new Record(key, ShapedFields.copyOf(fields), mutationId, writeTime());
+    }
+
+    /**
+     * Builds the record without copying the fields, which are shared with this builder: fields added afterwards are
+     * added to the record too. Meant for the normalization of responses, which builds each record once, and for the
+     * builders no one else holds; {@link #build()} makes a record independent of this builder.
+     */
+    public Record buildSharingFields() {
+      return new Record(key, fields, mutationId, writeTime());
+    }
+
+    private long writeTime() {
+      return writtenAtMillis != UNKNOWN_WRITE_TIME ? writtenAtMillis : System.currentTimeMillis();
     }
   }
 
   public static Builder builder(@Nonnull String key) {
-    return new Builder(checkNotNull(key, "key == null"), new LinkedHashMap<String, Object>(), null);
+    return new Builder(checkNotNull(key, "key == null"), new ShapedFields(), null);
   }
 
   public Builder toBuilder() {
-    return new Builder(key(), this.fields, mutationId);
+    return new Builder(key(), ShapedFields.copyOf(fields), mutationId).writtenAtMillis(writtenAtMillis);
   }
 
-  Record(String key, Map<String, Object> fields, UUID mutationId) {
+  Record(String key, ShapedFields fields, UUID mutationId, long writtenAtMillis) {
     this.key = key;
     this.fields = fields;
     this.mutationId = mutationId;
+    this.writtenAtMillis = writtenAtMillis;
   }
 
   public Object field(String fieldKey) {
@@ -98,32 +133,100 @@ public final class Record {
     return mutationId;
   }
 
+  /**
+   * @return the time this record was last written, in milliseconds since the epoch
+   */
+  public long writtenAtMillis() {
+    return writtenAtMillis;
+  }
+
+  /**
+   * Moves the write time of this record forward to {@code writtenAtMillis}, unless it already is later, as a merge of
+   * unchanged fields would.
+   */
+  public void refreshWriteTime(long writtenAtMillis) {
+    if (writtenAtMillis > this.writtenAtMillis) {
+      this.writtenAtMillis = writtenAtMillis;
+    }
+  }
+
+  /**
+   * Tags this record with the id of the mutation which produced it, without the copy of its fields that
+   * {@code toBuilder().mutationId(mutationId).build()} makes.
+   */
+  public void setMutationId(UUID mutationId) {
+    this.mutationId = mutationId;
+  }
+
   public Record clone() {
-    return toBuilder().build();
+    // toBuilder() already copies the fields.
+    Record clone = toBuilder().buildSharingFields();
+    clone.sizeInBytes = sizeInBytes;
+    return clone;
   }
 
   /**
    * @param otherRecord The record to merge into this record.
    * @return A set of field keys which have changed, or were added. A field key incorporates any GraphQL arguments in
-   * addition to the field name.
+   * addition to the field name. The set is a {@link ChangeSet}.
    */
   public Set<String> mergeWith(Record otherRecord) {
-    Set<String> changedKeys = new HashSet<>();
-    for (Map.Entry<String, Object> field : otherRecord.fields.entrySet()) {
-      Object newFieldValue = field.getValue();
-      boolean hasOldFieldValue = this.fields.containsKey(field.getKey());
-      Object oldFieldValue = this.fields.get(field.getKey());
-
-      if (!hasOldFieldValue
-          || (oldFieldValue == null && newFieldValue != null)
-          || (oldFieldValue != null && !oldFieldValue.equals(newFieldValue))) {
-        this.fields.put(field.getKey(), newFieldValue);
-        changedKeys.add(key() + "." + field.getKey());
-        adjustSizeEstimate(newFieldValue, oldFieldValue);
+    ChangeSet changedKeys = new ChangeSet();
+    mergeWith(otherRecord, changedKeys);
+    return changedKeys;
+  }
+
+  /**
+   * Merges {@code otherRecord} into this record, like {@link #mergeWith(Record)}, adding the fields which have changed
+   * or were added to {@code changedKeys}, so that the changes of many records can be collected in one set. The write
+   * time of this record becomes the later of the two, whether or not any field changed.
+   *
+   * @return whether any field of this record has changed
+   */
+  public boolean mergeWith(Record otherRecord, ChangeSet changedKeys) {
+    boolean changed = false;
+    RecordShape otherShape = otherRecord.fields.shape();
+    if (otherShape != null) {
+      for (int i = 0; i < otherShape.size(); i++) {
+        // Records of the same shape have their fields at the same positions.
+        int position = fields.shape() == otherShape ? i : -1;
+        changed |= mergeField(otherShape.name(i), otherRecord.fields.valueAt(i), position, changedKeys);
+      }
+    } else {
+      for (Map.Entry<String, Object> field : otherRecord.fields.entrySet()) {
+        changed |= mergeField(field.getKey(), field.getValue(), -1, changedKeys);
       }
     }
     mutationId = otherRecord.mutationId;
-    return changedKeys;
+    writtenAtMillis = Math.max(writtenAtMillis, otherRecord.writtenAtMillis);
+    return changed;
+  }
+
+  /**
+   * Sets the field {@code fieldKey} to {@code newFieldValue} if it has another value or is missing.
+   *
+   * @param position the position of the field in the shape of this record if known, or -1 to look it up
+   */
+  private boolean mergeField(String fieldKey, Object newFieldValue, int position, ChangeSet changedKeys) {
+    RecordShape shape = fields.shape();
+    if (position < 0 && shape != null) {
+      position = shape.indexOf(fieldKey);
+    }
+    boolean hasOldFieldValue = position >= 0 || (shape == null && fields.containsKey(fieldKey));
+    Object oldFieldValue = position >= 0 ? fields.valueAt(position) : hasOldFieldValue ? fields.get(fieldKey) : null;
+
+    if (hasOldFieldValue
+        && (oldFieldValue == null ? newFieldValue == null : oldFieldValue.equals(newFieldValue))) {
+      return false;
+    }
+    if (position >= 0) {
+      fields.setValueAt(position, newFieldValue);
+    } else {
+      fields.put(fieldKey, newFieldValue);
+    }
+    changedKeys.add(key(), fieldKey);
+    adjustSizeEstimate(newFieldValue, oldFieldValue, !hasOldFieldValue);
+    return true;
   }
 
   /**
@@ -144,9 +247,10 @@ public final class Record {
     return sizeInBytes;
   }
 
-  private void adjustSizeEstimate(Object newFieldValue, Object oldFieldValue) {
+  private void adjustSizeEstimate(Object newFieldValue, Object oldFieldValue, boolean newField) {
     if (sizeInBytes != UNKNOWN_SIZE_ESTIMATE) {
-      sizeInBytes += RecordWeigher.byteChange(newFieldValue, oldFieldValue);
+      sizeInBytes += newField ? RecordWeigher.fieldBytes(newFieldValue)
+          : RecordWeigher.byteChange(newFieldValue, oldFieldValue);
     }
   }
 
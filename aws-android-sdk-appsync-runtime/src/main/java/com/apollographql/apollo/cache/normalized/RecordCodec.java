@@ -0,0 +1,49 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Serializes {@link Record} fields to and from bytes for a persistent {@link NormalizedCache}. Decoded values must have
+ * the same types as the ones read back through {@link RecordFieldJsonAdapter}: numbers are decoded as
+ * {@link java.math.BigDecimal} and object fields as {@link CacheReference}.
+ *
+ * @see BinaryRecordCodec
+ */
+public abstract class RecordCodec {
+  private static final String VALUE_FIELD = "value";
+
+  public abstract byte[] encode(@Nonnull Map<String, Object> fields);
+
+  public abstract Map<String, Object> decode(@Nonnull byte[] encodedFields) throws IOException;
+
+  /**
+   * Encodes a single field value, for caches that store each field of a record separately. Encodes a one field record
+   * unless overridden.
+   */
+  public byte[] encodeValue(@Nullable Object value) {
+    return encode(Collections.singletonMap(VALUE_FIELD, value));
+  }
+
+  /**
+   * Decodes a value encoded with {@link #encodeValue(Object)}.
+   */
+  public Object decodeValue(@Nonnull byte[] encodedValue) throws IOException {
+    Map<String, Object> fields = decode(encodedValue);
+    if (!fields.containsKey(VALUE_FIELD)) {
+      throw new IOException("Not an encoded value");
+    }
+    return fields.get(VALUE_FIELD);
+  }
+}
@@ -10,7 +10,6 @@ package com.apollographql.apollo.cache.normalized;
 import com.apollographql.apollo.internal.json.CacheJsonStreamReader;
 import com.apollographql.apollo.internal.json.JsonWriter;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -19,7 +18,6 @@ import javax.annotation.Nonnull;
 
 import okio.Buffer;
 import okio.BufferedSource;
-import okio.Okio;
 
 import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
 import static com.apollographql.apollo.internal.json.ApolloJsonReader.bufferedSourceJsonReader;
@@ -68,8 +66,7 @@ public final class RecordFieldJsonAdapter {
   }
 
   public Map<String, Object> from(String jsonFieldSource) throws IOException {
-    final BufferedSource bufferSource = Okio.buffer(Okio.source(new ByteArrayInputStream(jsonFieldSource.getBytes())));
-    return from(bufferSource);
+    return from(new Buffer().writeUtf8(jsonFieldSource));
   }
 
   private static void writeJsonValue(Object value, JsonWriter jsonWriter) throws IOException {
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordered table of the field names of a record, shared by all the records which have the same fields in the same order,
+ * as the records of a given type normalized from the same query do.
+ *
+ * Shapes are immutable and form a tree rooted at {@link #EMPTY}: adding a field to a shape leads to the shape of its
+ * names followed by that field, which is created once and then reused while records use it. A shape holds its parent
+ * strongly and its children weakly, so the tree only keeps the shapes of live records and their prefixes. A shape
+ * keeps at most {@link #MAX_TRANSITIONS} such children, past which the records get a shape of their own, and has at
+ * most {@link #MAX_FIELDS} fields, past which {@link ShapedFields} keeps the fields in a plain map, so that records
+ * with many fields with arguments, such as the query root, do not copy their names for every field they add.
+ */
+final class RecordShape {
+  static final RecordShape EMPTY = new RecordShape(null, new String[0]);
+
+  static final int MAX_TRANSITIONS = 64;
+  static final int MAX_FIELDS = 32;
+  // Number of fields from which the names are looked up in a hash map rather than compared one by one.
+  private static final int INDEX_THRESHOLD = 8;
+
+  private final RecordShape parent;
+  private final String[] names;
+  // Built on the first lookup, so that the prefixes which only lead to other shapes never build one.
+  private volatile Map<String, Integer> index;
+  private volatile ConcurrentHashMap<String, WeakReference<RecordShape>> transitions;
+
+  private RecordShape(RecordShape parent, String[] names) {
+    this.parent = parent;
+    this.names = names;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  String name(int position) {
+    return names[position];
+  }
+
+  /**
+   * @return the position of the field {@code name}, or -1 if it is not in this shape
+   */
+  int indexOf(Object name) {
+    if (names.length >= INDEX_THRESHOLD) {
+      Integer position = index().get(name);
+      return position != null ? position : -1;
+    }
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the shape with the fields of this one followed by {@code name}, which must not be in this shape, and this
+   * shape must have less than {@link #MAX_FIELDS} fields
+   */
+  RecordShape with(String name) {
+    ConcurrentHashMap<String, WeakReference<RecordShape>> transitions = this.transitions;
+    if (transitions == null) {
+      synchronized (this) {
+        transitions = this.transitions;
+        if (transitions == null) {
+          transitions = new ConcurrentHashMap<>(4);
+          this.transitions = transitions;
+        }
+      }
+    }
+    WeakReference<RecordShape> reference = transitions.get(name);
+    RecordShape next = reference != null ? reference.get() : null;
+    if (next != null) {
+      return next;
+    }
+    String[] nextNames = new String[names.length + 1];
+    System.arraycopy(names, 0, nextNames, 0, names.length);
+    nextNames[names.length] = name;
+    next = new RecordShape(this, nextNames);
+    if (transitions.size() >= MAX_TRANSITIONS) {
+      removeCollectedTransitions(transitions);
+    }
+    if (transitions.size() < MAX_TRANSITIONS) {
+      WeakReference<RecordShape> nextReference = new WeakReference<>(next);
+      while (true) {
+        WeakReference<RecordShape> existingReference = transitions.putIfAbsent(name, nextReference);
+        if (existingReference == null) {
+          return next;
+        }
+        RecordShape existing = existingReference.get();
+        if (existing != null) {
+          return existing;
+        }
+        if (transitions.replace(name, existingReference, nextReference)) {
+          return next;
+        }
+      }
+    }
+    return next;
+  }
+
+  /**
+   * @return the shape with the fields of this one but the one at {@code position}, which is its prefix up to that
+   * position followed by the fields after it
+   */
+  RecordShape without(int position) {
+    RecordShape shape = this;
+    for (int i = names.length; i > position; i--) {
+      shape = shape.parent;
+    }
+    for (int i = position + 1; i < names.length; i++) {
+      shape = shape.with(names[i]);
+    }
+    return shape;
+  }
+
+  private Map<String, Integer> index() {
+    Map<String, Integer> index = this.index;
+    if (index == null) {
+      index = new HashMap<>(names.length * 2);
+      for (int i = 0; i < names.length; i++) {
+        index.put(names[i], i);
+      }
+      this.index = index;
+    }
+    return index;
+  }
+
+  private static void removeCollectedTransitions(ConcurrentHashMap<String, WeakReference<RecordShape>> transitions) {
+    Iterator<WeakReference<RecordShape>> references = transitions.values().iterator();
+    while (references.hasNext()) {
+      if (references.next().get() == null) {
+        references.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import com.apollographql.apollo.internal.util.KeyInterner;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The fields of a record, as a {@link RecordShape} holding their names and an array of their values in the same
+ * order. Iterates in insertion order like the {@link LinkedHashMap} it replaces, and supports all its operations, but
+ * adding or removing a field changes the shape. Records with more than {@link RecordShape#MAX_FIELDS} fields keep them
+ * in a {@link LinkedHashMap} instead, and have no shape. Not thread safe.
+ */
+final class ShapedFields extends AbstractMap<String, Object> {
+  private static final Object[] NO_VALUES = new Object[0];
+  private static final String TYPENAME_FIELD = "__typename";
+
+  private RecordShape shape;
+  private Object[] values;
+  // The fields once there are too many for a shape, in which case shape and values are null.
+  private LinkedHashMap<String, Object> map;
+
+  ShapedFields() {
+    this(RecordShape.EMPTY, NO_VALUES);
+  }
+
+  private ShapedFields(RecordShape shape, Object[] values) {
+    this.shape = shape;
+    this.values = values;
+  }
+
+  /**
+   * @return a copy of {@code fields}, which shares its shape if it is shaped already
+   */
+  static ShapedFields copyOf(Map<String, Object> fields) {
+    if (fields instanceof ShapedFields && ((ShapedFields) fields).map == null) {
+      ShapedFields shapedFields = (ShapedFields) fields;
+      return new ShapedFields(shapedFields.shape, Arrays.copyOf(shapedFields.values, shapedFields.shape.size()));
+    }
+    if (fields.size() > RecordShape.MAX_FIELDS) {
+      ShapedFields copy = new ShapedFields(null, null);
+      copy.map = new LinkedHashMap<>(fields);
+      return copy;
+    }
+    ShapedFields copy = new ShapedFields(RecordShape.EMPTY, new Object[fields.size()]);
+    for (Map.Entry<String, Object> field : fields.entrySet()) {
+      copy.put(field.getKey(), field.getValue());
+    }
+    return copy;
+  }
+
+  /**
+   * @return the shape of the fields, or null if there are too many fields for a shape
+   */
+  RecordShape shape() {
+    return shape;
+  }
+
+  /**
+   * @return the value of the field at {@code position} in the shape, which the fields must have
+   */
+  Object valueAt(int position) {
+    return values[position];
+  }
+
+  void setValueAt(int position, Object value) {
+    values[position] = value;
+  }
+
+  @Override public int size() {
+    return map != null ? map.size() : shape.size();
+  }
+
+  @Override public boolean containsKey(Object name) {
+    return map != null ? map.containsKey(name) : shape.indexOf(name) >= 0;
+  }
+
+  @Override public Object get(Object name) {
+    if (map != null) {
+      return map.get(name);
+    }
+    int position = shape.indexOf(name);
+    return position >= 0 ? values[position] : null;
+  }
+
+  @Override public Object put(String name, Object value) {
+    if (value instanceof String && TYPENAME_FIELD.equals(name)) {
+      // Shared by all the records of the type, as their field names are by their shape.
+      value = KeyInterner.intern((String) value);
+    }
+    if (map != null) {
+      return map.put(name, value);
+    }
+    int position = shape.indexOf(name);
+    if (position >= 0) {
+      Object oldValue = values[position];
+      values[position] = value;
+      return oldValue;
+    }
+    int size = shape.size();
+    if (size == RecordShape.MAX_FIELDS) {
+      map = new LinkedHashMap<>(size * 2);
+      for (int i = 0; i < size; i++) {
+        map.put(shape.name(i), values[i]);
+      }
+      shape = null;
+      values = null;
+      return map.put(name, value);
+    }
+    shape = shape.with(name);
+    if (values.length == size) {
+      values = Arrays.copyOf(values, size + (size >> 1) + 1);
+    }
+    values[size] = value;
+    return null;
+  }
+
+  @Override public void putAll(Map<? extends String, ?> fields) {
+    if (fields instanceof ShapedFields && ((ShapedFields) fields).map == null) {
+      ShapedFields shapedFields = (ShapedFields) fields;
+      if (map == null && shape.size() == 0) {
+        shape = shapedFields.shape;
+        values = Arrays.copyOf(shapedFields.values, shape.size());
+        return;
+      }
+      for (int i = 0; i < shapedFields.shape.size(); i++) {
+        put(shapedFields.shape.name(i), shapedFields.values[i]);
+      }
+      return;
+    }
+    super.putAll(fields);
+  }
+
+  @Override public Object remove(Object name) {
+    if (map != null) {
+      return map.remove(name);
+    }
+    int position = shape.indexOf(name);
+    return position >= 0 ? removeAt(position) : null;
+  }
+
+  @Override public void clear() {
+    shape = RecordShape.EMPTY;
+    values = NO_VALUES;
+    map = null;
+  }
+
+  @Override public Set<String> keySet() {
+    return new AbstractSet<String>() {
+      @Override public Iterator<String> iterator() {
+        if (map != null) {
+          return map.keySet().iterator();
+        }
+        return new FieldIterator<String>() {
+          @Override String current(int position) {
+            return shape.name(position);
+          }
+        };
+      }
+
+      @Override public int size() {
+        return ShapedFields.this.size();
+      }
+
+      @Override public boolean contains(Object name) {
+        return containsKey(name);
+      }
+    };
+  }
+
+  @Override public Collection<Object> values() {
+    return new AbstractCollection<Object>() {
+      @Override public Iterator<Object> iterator() {
+        if (map != null) {
+          return map.values().iterator();
+        }
+        return new FieldIterator<Object>() {
+          @Override Object current(int position) {
+            return values[position];
+          }
+        };
+      }
+
+      @Override public int size() {
+        return ShapedFields.this.size();
+      }
+    };
+  }
+
+  @Override public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override public Iterator<Entry<String, Object>> iterator() {
+        if (map != null) {
+          return map.entrySet().iterator();
+        }
+        return new FieldIterator<Entry<String, Object>>() {
+          @Override Entry<String, Object> current(final int position) {
+            return new SimpleEntry<String, Object>(shape.name(position), values[position]) {
+              @Override public Object setValue(Object value) {
+                super.setValue(value);
+                return ShapedFields.this.put(getKey(), value);
+              }
+            };
+          }
+        };
+      }
+
+      @Override public int size() {
+        return ShapedFields.this.size();
+      }
+    };
+  }
+
+  private Object removeAt(int position) {
+    Object oldValue = values[position];
+    int size = shape.size();
+    shape = shape.without(position);
+    System.arraycopy(values, position + 1, values, position, size - position - 1);
+    values[size - 1] = null;
+    return oldValue;
+  }
+
+  /**
+   * Iterates over the positions of the shape, and supports removal.
+   */
+  private abstract class FieldIterator<E> implements Iterator<E> {
+    private int next;
+    private int last = -1;
+
+    abstract E current(int position);
+
+    @Override public boolean hasNext() {
+      return next < shape.size();
+    }
+
+    @Override public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return current(last);
+    }
+
+    @Override public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+    }
+  }
+}
@@ -0,0 +1,539 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.log;
+
+import com.apollographql.apollo.api.internal.Action;
+import com.apollographql.apollo.api.internal.Function;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+import static com.apollographql.apollo.cache.GraphQLCacheHeaders.DO_NOT_STORE;
+import static com.apollographql.apollo.cache.GraphQLCacheHeaders.EVICT_AFTER_READ;
+
+/**
+ * A persistent {@link NormalizedCache} which needs no SQLite: every write appends the new version of a record to a log
+ * file, and an in memory index maps each key to the latest version in the file. The file is read back through a memory
+ * mapping.
+ *
+ * Older versions of the records are left in the file until it is compacted, on a background thread, once they take
+ * more room than the live records. Appends are not forced to the storage device before {@link #close()}: a process
+ * dying may lose the last writes, but the records written before them stay readable.
+ *
+ * Records merged again without changes are not appended: their write time is only moved forward in the index, and
+ * written to the file by the next compaction.
+ */
+public final class LogNormalizedCache extends NormalizedCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private final RecordFieldJsonAdapter recordFieldAdapter;
+  private final Optional<RecordCodec> recordCodec;
+  private final long minCompactionBytes;
+  // Guards the index and the log. Swapping or truncating the log needs the write lock, as reads may use its mapping.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Held for the whole of a compaction, and by the operations which cannot run alongside it.
+  private final Object compactionLock = new Object();
+  private final ExecutorService compactionExecutor;
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+  private final Runnable compactionTask = new Runnable() {
+    @Override public void run() {
+      compactionScheduled.set(false);
+      compact();
+    }
+  };
+  private RecordLog log;
+  private Map<String, Location> index = new HashMap<>();
+  private long liveBytes;
+  private long garbageBytes;
+
+  LogNormalizedCache(File file, RecordFieldJsonAdapter recordFieldAdapter, Optional<RecordCodec> recordCodec,
+      long minCompactionBytes) {
+    this.file = file;
+    this.recordFieldAdapter = recordFieldAdapter;
+    this.recordCodec = recordCodec;
+    this.minCompactionBytes = minCompactionBytes;
+    try {
+      log = RecordLog.open(file, new RecordLog.Visitor() {
+        @Override public void visit(String key, byte type, long writtenAtMillis, long payloadOffset, int payloadLength,
+            int entrySize) {
+          if (type == RecordLog.TYPE_DELETE) {
+            garbageBytes += entrySize;
+            removeFromIndex(key);
+          } else {
+            putInIndex(key, new Location(type, writtenAtMillis, payloadOffset, payloadLength, entrySize));
+          }
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to open " + file, e);
+    }
+    compactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override public Thread newThread(@Nonnull Runnable runnable) {
+        Thread thread = new Thread(runnable, "AppSync log cache compactor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduleCompactionIfNeeded();
+  }
+
+  @Nullable @Override public Record loadRecord(@Nonnull final String key, @Nonnull final CacheHeaders cacheHeaders) {
+    return Optional.fromNullable(selectRecords(Collections.singletonList(key)).get(key))
+        .apply(new Action<Record>() {
+          @Override public void apply(@Nonnull Record record) {
+            if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
+              deleteRecords(Collections.singletonList(key));
+            }
+          }
+        })
+        .or(nextCache().flatMap(new Function<NormalizedCache, Optional<Record>>() {
+          @Nonnull @Override public Optional<Record> apply(@Nonnull NormalizedCache cache) {
+            return Optional.fromNullable(cache.loadRecord(key, cacheHeaders));
+          }
+        }))
+        .orNull();
+  }
+
+  @Nonnull @Override
+  public Collection<Record> loadRecords(@Nonnull Collection<String> keys, @Nonnull final CacheHeaders cacheHeaders) {
+    final Map<String, Record> records = selectRecords(keys);
+    if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
+      deleteRecords(records.keySet());
+    }
+
+    if (records.size() < keys.size()) {
+      final List<String> missingKeys = new ArrayList<>();
+      for (String key : keys) {
+        if (!records.containsKey(key)) {
+          missingKeys.add(key);
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.loadRecords(missingKeys, cacheHeaders)) {
+            records.put(record.key(), record);
+          }
+        }
+      });
+    }
+
+    List<Record> result = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      Record record = records.get(key);
+      if (record != null) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  @Nonnull @Override public Set<String> merge(@Nonnull final Record record, @Nonnull final CacheHeaders cacheHeaders) {
+    return merge(Collections.singletonList(record), cacheHeaders);
+  }
+
+  @Nonnull @Override
+  public Set<String> merge(@Nonnull final Collection<Record> recordSet, @Nonnull final CacheHeaders cacheHeaders) {
+    if (cacheHeaders.hasHeader(DO_NOT_STORE)) {
+      return Collections.emptySet();
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    nextCache().apply(new Action<NormalizedCache>() {
+      @Override public void apply(@Nonnull NormalizedCache cache) {
+        cache.merge(recordSet, cacheHeaders);
+      }
+    });
+
+    ChangeSet changedKeys = new ChangeSet();
+    lock.writeLock().lock();
+    try {
+      List<String> keys = new ArrayList<>(recordSet.size());
+      for (Record record : recordSet) {
+        keys.add(record.key());
+      }
+      Map<String, Record> oldRecords = selectRecords(keys);
+      Map<String, Record> changedRecords = new LinkedHashMap<>();
+      for (Record record : recordSet) {
+        Record oldRecord = oldRecords.get(record.key());
+        if (oldRecord == null) {
+          Record newRecord = record.clone();
+          oldRecords.put(record.key(), newRecord);
+          changedRecords.put(record.key(), newRecord);
+        } else {
+          if (oldRecord.mergeWith(record, changedKeys)) {
+            changedRecords.put(record.key(), oldRecord);
+          } else {
+            refreshWriteTime(record.key(), oldRecord.writtenAtMillis());
+          }
+        }
+      }
+      appendRecords(changedRecords.values());
+    } finally {
+      lock.writeLock().unlock();
+    }
+    scheduleCompactionIfNeeded();
+    return changedKeys;
+  }
+
+  @Override public void replace(@Nonnull final Collection<Record> recordSet, @Nonnull final CacheHeaders cacheHeaders) {
+    if (cacheHeaders.hasHeader(DO_NOT_STORE)) {
+      return;
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    nextCache().apply(new Action<NormalizedCache>() {
+      @Override public void apply(@Nonnull NormalizedCache cache) {
+        cache.replace(recordSet, cacheHeaders);
+      }
+    });
+
+    lock.writeLock().lock();
+    try {
+      appendRecords(recordSet);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    scheduleCompactionIfNeeded();
+  }
+
+  @Override public void refreshWriteTimes(@Nonnull Collection<Record> recordSet) {
+    super.refreshWriteTimes(recordSet);
+
+    lock.writeLock().lock();
+    try {
+      for (Record record : recordSet) {
+        refreshWriteTime(record.key(), record.writtenAtMillis());
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Nonnull @Override public Set<String> keys() {
+    Set<String> keys = super.keys();
+    lock.readLock().lock();
+    try {
+      keys.addAll(index.keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+    return keys;
+  }
+
+  @Override public void clearAll() {
+    //noinspection ResultOfMethodCallIgnored
+    nextCache().apply(new Action<NormalizedCache>() {
+      @Override public void apply(@Nonnull NormalizedCache cache) {
+        cache.clearAll();
+      }
+    });
+    synchronized (compactionLock) {
+      lock.writeLock().lock();
+      try {
+        log.clear();
+        index = new HashMap<>();
+        liveBytes = 0;
+        garbageBytes = 0;
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to clear " + file, e);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override public boolean remove(@Nonnull final CacheKey cacheKey) {
+    checkNotNull(cacheKey, "cacheKey == null");
+    boolean result = nextCache().map(new Function<NormalizedCache, Boolean>() {
+      @Nonnull @Override public Boolean apply(@Nonnull NormalizedCache cache) {
+        return cache.remove(cacheKey);
+      }
+    }).or(Boolean.FALSE);
+
+    return result | deleteRecords(Collections.singletonList(cacheKey.key()));
+  }
+
+  /**
+   * Rewrites the log with only the latest version of each record, on the calling thread. Writes made meanwhile are
+   * carried over to the rewritten log.
+   */
+  public void compact() {
+    synchronized (compactionLock) {
+      RecordLog oldLog;
+      Map<String, Location> snapshot;
+      long snapshotEnd;
+      lock.readLock().lock();
+      try {
+        if (log == null) {
+          return;
+        }
+        oldLog = log;
+        snapshot = new HashMap<>(index);
+        snapshotEnd = log.size();
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      File compactedFile = new File(file.getPath() + ".compact");
+      RecordLog compactedLog = null;
+      try {
+        compactedLog = RecordLog.create(compactedFile);
+        final Map<String, Location> compactedIndex = new HashMap<>(snapshot.size());
+        // The snapshot only covers entries which are never modified, so it is copied without holding the lock.
+        for (Map.Entry<String, Location> entry : snapshot.entrySet()) {
+          copyEntry(oldLog, compactedLog, entry.getKey(), entry.getValue(), compactedIndex);
+        }
+
+        lock.writeLock().lock();
+        try {
+          final RecordLog source = oldLog;
+          final RecordLog target = compactedLog;
+          source.scan(snapshotEnd, source.size(), new RecordLog.Visitor() {
+            @Override public void visit(String key, byte type, long writtenAtMillis, long payloadOffset,
+                int payloadLength, int entrySize) throws IOException {
+              if (type == RecordLog.TYPE_DELETE) {
+                target.append(key, type, 0, new byte[0]);
+                compactedIndex.remove(key);
+              } else {
+                copyEntry(source, target, key,
+                    new Location(type, writtenAtMillis, payloadOffset, payloadLength, entrySize), compactedIndex);
+              }
+            }
+          });
+          compactedLog.sync();
+          if (!compactedFile.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+          }
+          log = compactedLog;
+          index = compactedIndex;
+          liveBytes = 0;
+          for (Location location : compactedIndex.values()) {
+            liveBytes += location.entrySize;
+          }
+          garbageBytes = compactedLog.size() - liveBytes;
+          compactedLog = null;
+          oldLog.close();
+        } finally {
+          lock.writeLock().unlock();
+        }
+      } catch (IOException e) {
+        // The current log stays in use.
+        if (compactedLog != null) {
+          try {
+            compactedLog.close();
+          } catch (IOException ignore) {
+          }
+          //noinspection ResultOfMethodCallIgnored
+          compactedFile.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Forces the log to the storage device and closes it. The cache cannot be used afterwards.
+   */
+  public void close() {
+    compactionExecutor.shutdownNow();
+    synchronized (compactionLock) {
+      lock.writeLock().lock();
+      try {
+        if (log != null) {
+          log.sync();
+          log.close();
+          log = null;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to close " + file, e);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  private static void copyEntry(RecordLog from, RecordLog to, String key, Location location,
+      Map<String, Location> toIndex) throws IOException {
+    byte[] payload = from.read(location.payloadOffset, location.payloadLength);
+    long payloadOffset = to.append(key, location.type, location.writtenAtMillis, payload);
+    toIndex.put(key, new Location(location.type, location.writtenAtMillis, payloadOffset, location.payloadLength,
+        RecordLog.entrySize(key, location.payloadLength)));
+  }
+
+  private Map<String, Record> selectRecords(Collection<String> keys) {
+    Map<String, Record> records = new LinkedHashMap<>();
+    lock.readLock().lock();
+    try {
+      for (String key : keys) {
+        Location location = index.get(key);
+        if (location != null && !records.containsKey(key)) {
+          records.put(key, Record.builder(key)
+              .addFields(decode(location.type, log.read(location.payloadOffset, location.payloadLength)))
+              .writtenAtMillis(location.writtenAtMillis)
+              .build());
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read records from " + file, e);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return records;
+  }
+
+  /**
+   * Appends records to the log. Must hold the write lock.
+   */
+  private void appendRecords(Collection<Record> records) {
+    try {
+      for (Record record : records) {
+        byte type;
+        byte[] payload;
+        if (recordCodec.isPresent()) {
+          type = RecordLog.TYPE_PUT_CODEC;
+          payload = recordCodec.get().encode(record.fields());
+        } else {
+          type = RecordLog.TYPE_PUT_JSON;
+          payload = recordFieldAdapter.toJson(record.fields()).getBytes(UTF_8);
+        }
+        long payloadOffset = log.append(record.key(), type, record.writtenAtMillis(), payload);
+        putInIndex(record.key(), new Location(type, record.writtenAtMillis(), payloadOffset, payload.length,
+            RecordLog.entrySize(record.key(), payload.length)));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write records to " + file, e);
+    }
+  }
+
+  private boolean deleteRecords(Collection<String> keys) {
+    boolean deleted = false;
+    lock.writeLock().lock();
+    try {
+      for (String key : keys) {
+        if (index.containsKey(key)) {
+          log.append(key, RecordLog.TYPE_DELETE, 0, new byte[0]);
+          garbageBytes += RecordLog.entrySize(key, 0);
+          removeFromIndex(key);
+          deleted = true;
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to delete records from " + file, e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    scheduleCompactionIfNeeded();
+    return deleted;
+  }
+
+  private Map<String, Object> decode(byte type, byte[] payload) throws IOException {
+    if (type == RecordLog.TYPE_PUT_CODEC) {
+      if (!recordCodec.isPresent()) {
+        throw new IOException("Record encoded with a codec, but none is configured");
+      }
+      return recordCodec.get().decode(payload);
+    }
+    return recordFieldAdapter.from(new String(payload, UTF_8));
+  }
+
+  private void putInIndex(String key, Location location) {
+    Location previous = index.put(key, location);
+    if (previous != null) {
+      liveBytes -= previous.entrySize;
+      garbageBytes += previous.entrySize;
+    }
+    liveBytes += location.entrySize;
+  }
+
+  /**
+   * Moves the write time of the latest version of a record forward in the index only. The entry in the file keeps its
+   * write time until compaction copies the entry, so a refresh is lost if the process dies before, or if it lands while
+   * a compaction is copying the entries.
+   */
+  private void refreshWriteTime(String key, long writtenAtMillis) {
+    Location location = index.get(key);
+    if (location != null && location.writtenAtMillis < writtenAtMillis) {
+      // Same entry, so the live bytes do not change.
+      index.put(key, new Location(location.type, writtenAtMillis, location.payloadOffset, location.payloadLength,
+          location.entrySize));
+    }
+  }
+
+  private void removeFromIndex(String key) {
+    Location previous = index.remove(key);
+    if (previous != null) {
+      liveBytes -= previous.entrySize;
+      garbageBytes += previous.entrySize;
+    }
+  }
+
+  private void scheduleCompactionIfNeeded() {
+    boolean needed;
+    lock.readLock().lock();
+    try {
+      needed = garbageBytes >= minCompactionBytes && garbageBytes > liveBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (needed && compactionScheduled.compareAndSet(false, true)) {
+      try {
+        compactionExecutor.execute(compactionTask);
+      } catch (RejectedExecutionException e) {
+        // Closed.
+      }
+    }
+  }
+
+  /**
+   * Where the latest version of a record is in the log.
+   */
+  private static final class Location {
+    final byte type;
+    final long writtenAtMillis;
+    final long payloadOffset;
+    final int payloadLength;
+    final int entrySize;
+
+    Location(byte type, long writtenAtMillis, long payloadOffset, int payloadLength, int entrySize) {
+      this.type = type;
+      this.writtenAtMillis = writtenAtMillis;
+      this.payloadOffset = payloadOffset;
+      this.payloadLength = payloadLength;
+      this.entrySize = entrySize;
+    }
+  }
+}
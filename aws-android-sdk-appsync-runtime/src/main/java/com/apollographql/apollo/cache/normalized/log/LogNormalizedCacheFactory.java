@@ -0,0 +1,46 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.log;
+
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+
+import java.io.File;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+public final class LogNormalizedCacheFactory extends NormalizedCacheFactory<LogNormalizedCache> {
+  // Amount of overwritten and deleted entries below which the log is never compacted.
+  private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+  private final File file;
+  private final Optional<RecordCodec> recordCodec;
+
+  /**
+   * Creates a factory of caches that store records as JSON text in the log {@code file}.
+   */
+  public LogNormalizedCacheFactory(File file) {
+    this.file = checkNotNull(file, "file == null");
+    this.recordCodec = Optional.absent();
+  }
+
+  /**
+   * Creates a factory of caches that store records encoded with {@code recordCodec} in the log {@code file}. Records
+   * written as JSON text by an earlier version of the app stay readable.
+   */
+  public LogNormalizedCacheFactory(File file, RecordCodec recordCodec) {
+    this.file = checkNotNull(file, "file == null");
+    this.recordCodec = Optional.of(checkNotNull(recordCodec, "recordCodec == null"));
+  }
+
+  @Override public LogNormalizedCache create(RecordFieldJsonAdapter recordFieldAdapter) {
+    return new LogNormalizedCache(file, recordFieldAdapter, recordCodec, MIN_COMPACTION_BYTES);
+  }
+}
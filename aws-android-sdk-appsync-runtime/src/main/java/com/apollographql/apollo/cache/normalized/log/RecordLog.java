@@ -0,0 +1,257 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of record entries, read back through a memory mapping of the file.
+ *
+ * The file starts with a header holding a magic number and the format version, followed by entries of the form:
+ * <pre>
+ *   int   length of the rest of the entry, from the type on
+ *   int   CRC32 of the rest of the entry
+ *   byte  type: {@link #TYPE_PUT_JSON}, {@link #TYPE_PUT_CODEC} or {@link #TYPE_DELETE}
+ *   long  write time of the record, in milliseconds since the epoch, 0 for a delete
+ *   int   length of the key, then the UTF-8 bytes of the key
+ *   ...   the encoded record fields, empty for a delete
+ * </pre>
+ * An entry which is cut short or fails its checksum, as left by a process dying in the middle of an append, ends the
+ * log: it is truncated away when the file is opened.
+ *
+ * Not thread safe for writes. Reads may run concurrently with appends, but not with {@link #clear()} or
+ * {@link #close()}.
+ */
+final class RecordLog {
+  static final byte TYPE_PUT_JSON = 1;
+  static final byte TYPE_PUT_CODEC = 2;
+  static final byte TYPE_DELETE = 3;
+
+  private static final int MAGIC = 0x4C4F4752; // "LOGR"
+  // Version 2 added the write time of the records.
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_SIZE = 8;
+  private static final int ENTRY_PREFIX_SIZE = 8;
+  private static final int ENTRY_FIXED_SIZE = ENTRY_PREFIX_SIZE + 1 + 8 + 4;
+  // Size of the appended tail past which reads map the file again, instead of reading the tail from the channel.
+  private static final long REMAP_THRESHOLD_BYTES = 1024 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Receives the entries of the log in order.
+   */
+  interface Visitor {
+    void visit(String key, byte type, long writtenAtMillis, long payloadOffset, int payloadLength, int entrySize)
+        throws IOException;
+  }
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel channel;
+  private volatile long size;
+  private volatile MappedByteBuffer mapped;
+
+  private RecordLog(File file, RandomAccessFile randomAccessFile) {
+    this.file = file;
+    this.randomAccessFile = randomAccessFile;
+    this.channel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * Opens the log in {@code file}, creating it if needed, and passes each of its valid entries to {@code visitor}. A
+   * file which is not a log of the current format is emptied.
+   */
+  static RecordLog open(File file, Visitor visitor) throws IOException {
+    RecordLog log = new RecordLog(file, new RandomAccessFile(file, "rw"));
+    try {
+      if (!log.hasValidHeader()) {
+        log.clear();
+      } else {
+        log.size = log.scan(HEADER_SIZE, log.channel.size(), visitor);
+        if (log.size < log.channel.size()) {
+          log.channel.truncate(log.size);
+        }
+      }
+      log.remap();
+      return log;
+    } catch (IOException e) {
+      log.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates an empty log in {@code file}, replacing its content.
+   */
+  static RecordLog create(File file) throws IOException {
+    RecordLog log = new RecordLog(file, new RandomAccessFile(file, "rw"));
+    try {
+      log.clear();
+      return log;
+    } catch (IOException e) {
+      log.close();
+      throw e;
+    }
+  }
+
+  File file() {
+    return file;
+  }
+
+  long size() {
+    return size;
+  }
+
+  /**
+   * @return the size in bytes of an entry for {@code key} with a payload of {@code payloadLength} bytes
+   */
+  static int entrySize(String key, int payloadLength) {
+    return ENTRY_FIXED_SIZE + key.getBytes(UTF_8).length + payloadLength;
+  }
+
+  /**
+   * Appends an entry.
+   *
+   * @return the offset of the payload of the entry in the file
+   */
+  long append(String key, byte type, long writtenAtMillis, byte[] payload) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(ENTRY_FIXED_SIZE + keyBytes.length + payload.length);
+    buffer.position(ENTRY_PREFIX_SIZE);
+    buffer.put(type).putLong(writtenAtMillis).putInt(keyBytes.length).put(keyBytes).put(payload);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), ENTRY_PREFIX_SIZE, buffer.capacity() - ENTRY_PREFIX_SIZE);
+    buffer.putInt(0, buffer.capacity() - ENTRY_PREFIX_SIZE).putInt(4, (int) crc.getValue());
+    buffer.rewind();
+
+    long entryOffset = size;
+    write(buffer, entryOffset);
+    size += buffer.capacity();
+    return entryOffset + ENTRY_FIXED_SIZE + keyBytes.length;
+  }
+
+  byte[] read(long offset, int length) throws IOException {
+    MappedByteBuffer mapped = this.mapped;
+    if (mapped == null || offset + length > mapped.capacity()) {
+      if (size - (mapped != null ? mapped.capacity() : 0) > REMAP_THRESHOLD_BYTES) {
+        mapped = remap();
+      }
+    }
+    byte[] bytes = new byte[length];
+    if (mapped != null && offset + length <= mapped.capacity()) {
+      ByteBuffer view = mapped.duplicate();
+      view.position((int) offset);
+      view.get(bytes);
+    } else {
+      readFully(ByteBuffer.wrap(bytes), offset);
+    }
+    return bytes;
+  }
+
+  /**
+   * Passes the entries between {@code from} and {@code to} to {@code visitor}.
+   *
+   * @return the offset of the end of the last valid entry
+   */
+  long scan(long from, long to, Visitor visitor) throws IOException {
+    long position = from;
+    ByteBuffer prefix = ByteBuffer.allocate(ENTRY_PREFIX_SIZE);
+    while (position + ENTRY_FIXED_SIZE <= to) {
+      prefix.clear();
+      readFully(prefix, position);
+      int length = prefix.getInt(0);
+      if (length < ENTRY_FIXED_SIZE - ENTRY_PREFIX_SIZE || position + ENTRY_PREFIX_SIZE + length > to) {
+        break;
+      }
+      ByteBuffer body = ByteBuffer.allocate(length);
+      readFully(body, position + ENTRY_PREFIX_SIZE);
+      CRC32 crc = new CRC32();
+      crc.update(body.array(), 0, length);
+      if ((int) crc.getValue() != prefix.getInt(4)) {
+        break;
+      }
+      body.rewind();
+      byte type = body.get();
+      long writtenAtMillis = body.getLong();
+      int keyLength = body.getInt();
+      if (keyLength < 0 || keyLength > body.remaining()
+          || (type != TYPE_PUT_JSON && type != TYPE_PUT_CODEC && type != TYPE_DELETE)) {
+        break;
+      }
+      String key = new String(body.array(), body.position(), keyLength, UTF_8);
+      int payloadLength = body.remaining() - keyLength;
+      long payloadOffset = position + ENTRY_FIXED_SIZE + keyLength;
+      visitor.visit(key, type, writtenAtMillis, payloadOffset, payloadLength, ENTRY_PREFIX_SIZE + length);
+      position += ENTRY_PREFIX_SIZE + length;
+    }
+    return position;
+  }
+
+  /**
+   * Removes all the entries.
+   */
+  void clear() throws IOException {
+    mapped = null;
+    channel.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).rewind();
+    write(header, 0);
+    size = HEADER_SIZE;
+  }
+
+  /**
+   * Forces the appended entries to the storage device.
+   */
+  void sync() throws IOException {
+    channel.force(false);
+  }
+
+  void close() throws IOException {
+    mapped = null;
+    randomAccessFile.close();
+  }
+
+  private synchronized MappedByteBuffer remap() throws IOException {
+    if (size <= Integer.MAX_VALUE && (mapped == null || mapped.capacity() < size)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    return mapped;
+  }
+
+  private boolean hasValidHeader() throws IOException {
+    if (channel.size() < HEADER_SIZE) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(header, 0);
+    return header.getInt(0) == MAGIC && header.getInt(4) == FORMAT_VERSION;
+  }
+
+  private void write(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + file);
+      }
+      position += read;
+    }
+  }
+}
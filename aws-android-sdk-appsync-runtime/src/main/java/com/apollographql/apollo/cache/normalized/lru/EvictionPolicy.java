@@ -10,11 +10,20 @@ package com.apollographql.apollo.cache.normalized.lru;
 import com.apollographql.apollo.cache.normalized.Record;
 import com.apollographql.apollo.api.internal.Optional;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
 /**
  * Controls how long a {@link Record} will
  * stay in a {@link LruNormalizedCache}.
+ *
+ * Records can be given their own policy by {@code __typename} with
+ * {@link Builder#typenamePolicy(String, EvictionPolicy)}, so that the records of a type read repeatedly are not evicted
+ * by the ones of a type loaded in bulk.
  */
 public final class EvictionPolicy {
 
@@ -26,6 +35,9 @@ public final class EvictionPolicy {
   private final Optional<TimeUnit> expireAfterAccessTimeUnit;
   private final Optional<Long> expireAfterWrite;
   private final Optional<TimeUnit> expireAfterWriteTimeUnit;
+  private final boolean frequencyAware;
+  private final double trimFraction;
+  private final Map<String, EvictionPolicy> typenamePolicies;
 
   Optional<Long> maxSizeBytes() {
     return maxSizeBytes;
@@ -51,6 +63,18 @@ public final class EvictionPolicy {
     return expireAfterWriteTimeUnit;
   }
 
+  boolean frequencyAware() {
+    return frequencyAware;
+  }
+
+  double trimFraction() {
+    return trimFraction;
+  }
+
+  Map<String, EvictionPolicy> typenamePolicies() {
+    return typenamePolicies;
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -65,6 +89,9 @@ public final class EvictionPolicy {
     private Optional<TimeUnit> expireAfterAccessTimeUnit = Optional.absent();
     private Optional<Long> expireAfterWrite = Optional.absent();
     private Optional<TimeUnit> expireAfterWriteTimeUnit = Optional.absent();
+    private boolean frequencyAware;
+    private double trimFraction = 0.5;
+    private final Map<String, EvictionPolicy> typenamePolicies = new LinkedHashMap<>();
 
     public Builder maxSizeBytes(long maxSizeBytes) {
       this.maxSizeBytes = Optional.of(maxSizeBytes);
@@ -88,22 +115,66 @@ public final class EvictionPolicy {
       return this;
     }
 
+    /**
+     * Evicts the records used least often rather than the least recently used ones, with a W-TinyLFU policy, so that
+     * loading many records used once, such as a long list, does not push the records used by every screen out of the
+     * cache. Applies when the cache is bounded with {@link #maxSizeBytes(long)} or {@link #maxEntries(long)}.
+     */
+    public Builder frequencyAware(boolean frequencyAware) {
+      this.frequencyAware = frequencyAware;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of its content the cache keeps when the system asks to trim memory with
+     * {@link com.apollographql.apollo.cache.normalized.MemoryTrimLevel#SHRINK}. Defaults to one half. Applies to the
+     * whole cache, so the fraction of a typename policy is not used.
+     */
+    public Builder trimFraction(double trimFraction) {
+      if (trimFraction < 0 || trimFraction > 1) {
+        throw new IllegalArgumentException("trimFraction must be between 0 and 1");
+      }
+      this.trimFraction = trimFraction;
+      return this;
+    }
+
+    /**
+     * Keeps the records whose {@code __typename} is {@code typename} in their own part of the cache, bounded and
+     * expired by {@code policy} instead of this policy. The records of other types, and the ones without a
+     * {@code __typename} such as the root records of the operations, are bounded by this policy. Records read back
+     * from a secondary cache go to the part of their type as well.
+     */
+    public Builder typenamePolicy(String typename, EvictionPolicy policy) {
+      checkNotNull(typename, "typename == null");
+      checkNotNull(policy, "policy == null");
+      if (!policy.typenamePolicies.isEmpty()) {
+        throw new IllegalArgumentException("The policy of a typename cannot have typename policies of its own");
+      }
+      typenamePolicies.put(typename, policy);
+      return this;
+    }
+
     public EvictionPolicy build() {
       return new EvictionPolicy(maxSizeBytes, maxEntries, expireAfterAccess, expireAfterAccessTimeUnit,
-          expireAfterWrite, expireAfterWriteTimeUnit);
+          expireAfterWrite, expireAfterWriteTimeUnit, frequencyAware, trimFraction,
+          Collections.unmodifiableMap(new LinkedHashMap<>(typenamePolicies)));
     }
 
   }
 
   private EvictionPolicy(Optional<Long> maxSizeBytes, Optional<Long> maxEntries, Optional<Long> expireAfterAccess,
       Optional<TimeUnit> expireAfterAccessTimeUnit, Optional<Long> expireAfterWrite, Optional<TimeUnit>
-      expireAfterWriteTimeUnit) {
+      expireAfterWriteTimeUnit, boolean frequencyAware, double trimFraction,
+      Map<String, EvictionPolicy> typenamePolicies) {
     this.maxSizeBytes = maxSizeBytes;
     this.maxEntries = maxEntries;
     this.expireAfterAccess = expireAfterAccess;
     this.expireAfterAccessTimeUnit = expireAfterAccessTimeUnit;
     this.expireAfterWrite = expireAfterWrite;
     this.expireAfterWriteTimeUnit = expireAfterWriteTimeUnit;
+    this.frequencyAware = frequencyAware;
+    this.trimFraction = trimFraction;
+    this.typenamePolicies = typenamePolicies;
   }
 
 }
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the reads of each record key, and saves the keys read most often to a file to load them back after a restart.
+ *
+ * Once more than {@link #TRACKED_KEYS_PER_HOT_KEY} times the size of the hot set are counted, every count is halved
+ * and the keys left at zero are dropped, so that the counts favour recent reads and their number stays bounded.
+ */
+final class HotSet {
+  static final int TRACKED_KEYS_PER_HOT_KEY = 8;
+
+  private static final int MAGIC = 0x484F5453; // "HOTS"
+  private static final int FORMAT_VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private final int maxKeys;
+  private final ConcurrentHashMap<String, AtomicInteger> readCounts = new ConcurrentHashMap<>();
+
+  HotSet(File file, int maxKeys) {
+    this.file = file;
+    this.maxKeys = maxKeys;
+  }
+
+  void recordReads(Collection<String> keys) {
+    for (String key : keys) {
+      recordRead(key);
+    }
+  }
+
+  void recordRead(String key) {
+    AtomicInteger count = readCounts.get(key);
+    if (count == null) {
+      if (readCounts.size() >= maxKeys * TRACKED_KEYS_PER_HOT_KEY) {
+        age();
+      }
+      count = readCounts.putIfAbsent(key, new AtomicInteger(1));
+      if (count == null) {
+        return;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * @return the keys read most often, by decreasing count
+   */
+  List<String> hottestKeys() {
+    List<Map.Entry<String, Integer>> counts = new ArrayList<>(readCounts.size());
+    for (Map.Entry<String, AtomicInteger> entry : readCounts.entrySet()) {
+      counts.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+    }
+    Collections.sort(counts, new Comparator<Map.Entry<String, Integer>>() {
+      @Override public int compare(Map.Entry<String, Integer> first, Map.Entry<String, Integer> second) {
+        return second.getValue().compareTo(first.getValue());
+      }
+    });
+    List<String> keys = new ArrayList<>(Math.min(maxKeys, counts.size()));
+    for (int i = 0; i < maxKeys && i < counts.size(); i++) {
+      keys.add(counts.get(i).getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Writes the keys read most often to the file, replacing it once they are all written.
+   */
+  void save() throws IOException {
+    List<String> keys = hottestKeys();
+    File tmpFile = new File(file.getPath() + ".tmp");
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(keys.size());
+      for (String key : keys) {
+        byte[] bytes = key.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+      }
+    } finally {
+      output.close();
+    }
+    if (!tmpFile.renameTo(file)) {
+      //noinspection ResultOfMethodCallIgnored
+      tmpFile.delete();
+      throw new IOException("Failed to replace " + file);
+    }
+  }
+
+  /**
+   * @return the keys saved by the last {@link #save()}, empty if there is no valid file
+   */
+  List<String> load() throws IOException {
+    if (!file.exists()) {
+      return Collections.emptyList();
+    }
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+        return Collections.emptyList();
+      }
+      int count = Math.min(input.readInt(), maxKeys);
+      List<String> keys = new ArrayList<>(Math.max(count, 0));
+      for (int i = 0; i < count; i++) {
+        int length = input.readInt();
+        if (length < 0) {
+          throw new IOException("Malformed hot set file " + file);
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        keys.add(new String(bytes, UTF_8));
+      }
+      return keys;
+    } finally {
+      input.close();
+    }
+  }
+
+  private synchronized void age() {
+    if (readCounts.size() < maxKeys * TRACKED_KEYS_PER_HOT_KEY) {
+      return; // Aged by another thread.
+    }
+    Iterator<AtomicInteger> counts = readCounts.values().iterator();
+    while (counts.hasNext()) {
+      AtomicInteger count = counts.next();
+      int halved = count.get() / 2;
+      count.set(halved);
+      if (halved == 0) {
+        counts.remove();
+      }
+    }
+  }
+}
@@ -13,15 +13,32 @@ import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.cache.GraphQLCacheHeaders;
 import com.apollographql.apollo.cache.CacheHeaders;
 import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
 import com.apollographql.apollo.cache.normalized.NormalizedCache;
 import com.apollographql.apollo.cache.normalized.Record;
 import com.nytimes.android.external.cache.Cache;
 import com.nytimes.android.external.cache.CacheBuilder;
 import com.nytimes.android.external.cache.Weigher;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -33,19 +50,107 @@ import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
  * {@link NormalizedCache}, which will be used as a backup if a {@link Record} is not present in the primary cache.
  *
  * A common configuration is to have secondary SQL cache.
+ *
+ * Merges are applied in memory first, against the complete version of each record, and only the records which actually
+ * changed are handed to the secondary cache through {@link NormalizedCache#replace(Collection, CacheHeaders)}. The
+ * records merged without changes only have their write time moved forward there, through
+ * {@link NormalizedCache#refreshWriteTimes(Collection)}.
+ *
+ * With {@link EvictionPolicy.Builder#frequencyAware(boolean)}, the memory cache evicts with a W-TinyLFU policy instead
+ * of the LRU one. With {@link EvictionPolicy.Builder#typenamePolicy(String, EvictionPolicy)}, the records of a type are
+ * kept apart and evicted by the policy of their type.
+ *
+ * With a {@link WarmUpPolicy}, the records read most often are loaded back into memory after a restart of the process.
  */
 public final class LruNormalizedCache extends NormalizedCache {
+  private static final Set<LruNormalizedCache> WARM_UP_CACHES =
+      Collections.newSetFromMap(new WeakHashMap<LruNormalizedCache, Boolean>());
+
   private final Cache<String, Record> lruCache;
+  private final double trimFraction;
+  private final WarmUpPolicy warmUpPolicy;
+  // Null unless warm-up is enabled.
+  private final HotSet hotSet;
+  private final ExecutorService backgroundExecutor;
+  // Guards invalidations, so that a warm-up does not put back a record removed while it was loading it.
+  private final Object warmUpLock = new Object();
+  private int invalidations;
+  private final Runnable warmUpTask = new Runnable() {
+    @Override public void run() {
+      warmUp();
+    }
+  };
+  private final Runnable saveHotSetTask = new Runnable() {
+    @Override public void run() {
+      try {
+        hotSet.save();
+      } catch (IOException ignore) {
+        // The previous hot set stays in place.
+      }
+    }
+  };
 
   LruNormalizedCache(EvictionPolicy evictionPolicy) {
+    this(evictionPolicy, WarmUpPolicy.DISABLED);
+  }
+
+  LruNormalizedCache(EvictionPolicy evictionPolicy, WarmUpPolicy warmUpPolicy) {
+    Cache<String, Record> defaultCache = createCache(evictionPolicy);
+    if (evictionPolicy.typenamePolicies().isEmpty()) {
+      lruCache = defaultCache;
+    } else {
+      Map<String, Cache<String, Record>> typenameCaches = new HashMap<>();
+      for (Map.Entry<String, EvictionPolicy> typenamePolicy : evictionPolicy.typenamePolicies().entrySet()) {
+        typenameCaches.put(typenamePolicy.getKey(), createCache(typenamePolicy.getValue()));
+      }
+      lruCache = new TypenamePartitionedCache(defaultCache, typenameCaches);
+    }
+    this.trimFraction = evictionPolicy.trimFraction();
+    this.warmUpPolicy = warmUpPolicy;
+    if (warmUpPolicy.enabled()) {
+      hotSet = new HotSet(warmUpPolicy.hotSetFile(), warmUpPolicy.maxKeys());
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override public Thread newThread(@Nonnull Runnable runnable) {
+          Thread thread = new Thread(runnable, "AppSync memory cache warm-up");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      executor.allowCoreThreadTimeOut(true);
+      backgroundExecutor = executor;
+      synchronized (WARM_UP_CACHES) {
+        WARM_UP_CACHES.add(this);
+      }
+    } else {
+      hotSet = null;
+      backgroundExecutor = null;
+    }
+  }
+
+  private static Cache<String, Record> createCache(EvictionPolicy evictionPolicy) {
+    final Weigher<String, Record> weigher = new Weigher<String, Record>() {
+      @Override public int weigh(String key, Record value) {
+        // The key is the one of the record, which its estimate already counts.
+        return value.sizeEstimateBytes();
+      }
+    };
+    boolean bounded = evictionPolicy.maxSizeBytes().isPresent() || evictionPolicy.maxEntries().isPresent();
+    if (evictionPolicy.frequencyAware() && bounded) {
+      return new TinyLfuCache<>(
+          evictionPolicy.maxSizeBytes().isPresent() ? evictionPolicy.maxSizeBytes().get()
+              : evictionPolicy.maxEntries().get(),
+          evictionPolicy.maxSizeBytes().isPresent() ? weigher : null,
+          evictionPolicy.expireAfterAccess().isPresent()
+              ? evictionPolicy.expireAfterAccessTimeUnit().get().toNanos(evictionPolicy.expireAfterAccess().get())
+              : Long.MAX_VALUE,
+          evictionPolicy.expireAfterWrite().isPresent()
+              ? evictionPolicy.expireAfterWriteTimeUnit().get().toNanos(evictionPolicy.expireAfterWrite().get())
+              : Long.MAX_VALUE);
+    }
     final CacheBuilder<Object, Object> lruCacheBuilder = CacheBuilder.newBuilder();
     if (evictionPolicy.maxSizeBytes().isPresent()) {
-      lruCacheBuilder.maximumWeight(evictionPolicy.maxSizeBytes().get())
-          .weigher(new Weigher<String, Record>() {
-            @Override public int weigh(String key, Record value) {
-              return key.getBytes().length + value.sizeEstimateBytes();
-            }
-          });
+      lruCacheBuilder.maximumWeight(evictionPolicy.maxSizeBytes().get()).weigher(weigher);
     }
     if (evictionPolicy.maxEntries().isPresent()) {
       lruCacheBuilder.maximumSize(evictionPolicy.maxEntries().get());
@@ -58,7 +163,89 @@ public final class LruNormalizedCache extends NormalizedCache {
       lruCacheBuilder.expireAfterWrite(evictionPolicy.expireAfterWrite().get(),
           evictionPolicy.expireAfterWriteTimeUnit().get());
     }
-    lruCache = lruCacheBuilder.build();
+    return lruCacheBuilder.build();
+  }
+
+  /**
+   * Saves the keys of the records read most often by every cache with warm-up enabled, on a background thread. Called
+   * when the app goes to the background, where the process may be killed without further notice.
+   */
+  public static void saveHotSetsInBackground() {
+    List<LruNormalizedCache> caches;
+    synchronized (WARM_UP_CACHES) {
+      caches = new ArrayList<>(WARM_UP_CACHES);
+    }
+    for (LruNormalizedCache cache : caches) {
+      try {
+        cache.backgroundExecutor.execute(cache.saveHotSetTask);
+      } catch (RejectedExecutionException ignore) {
+      }
+    }
+  }
+
+  /**
+   * Loads the records saved by {@link #saveHotSetsInBackground()} from the secondary cache into memory, with one bulk
+   * read on a background thread. Does nothing unless warm-up is enabled. Called by
+   * {@link com.apollographql.apollo.ApolloClient.Builder#build()} once the cache chain is complete.
+   */
+  public void warmUpInBackground() {
+    if (hotSet != null) {
+      backgroundExecutor.execute(warmUpTask);
+    }
+  }
+
+  /**
+   * @return the number of records loaded into memory
+   */
+  int warmUp() {
+    if (hotSet == null || !nextCache().isPresent()) {
+      return 0;
+    }
+    long startNanos = System.nanoTime();
+    List<String> keys;
+    try {
+      keys = hotSet.load();
+    } catch (IOException e) {
+      keys = Collections.emptyList();
+    }
+    int generation;
+    synchronized (warmUpLock) {
+      generation = invalidations;
+    }
+    List<String> missingKeys = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      if (lruCache.getIfPresent(key) == null) {
+        missingKeys.add(key);
+      }
+    }
+    int loaded = 0;
+    if (!missingKeys.isEmpty()) {
+      Collection<Record> records = nextCache().get().loadRecords(missingKeys, CacheHeaders.NONE);
+      synchronized (warmUpLock) {
+        if (generation == invalidations) {
+          for (Record record : records) {
+            // A record merged meanwhile is more recent than the one loaded here.
+            if (lruCache.asMap().putIfAbsent(record.key(), record) == null) {
+              loaded++;
+            }
+          }
+        }
+      }
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    if (warmUpPolicy.listener().isPresent()) {
+      warmUpPolicy.listener().get().onWarmUp(keys.size(), loaded, elapsedMillis);
+    }
+    return loaded;
+  }
+
+  /**
+   * Writes the keys of the records read most often to the hot set file, on the calling thread.
+   */
+  void saveHotSet() throws IOException {
+    if (hotSet != null) {
+      hotSet.save();
+    }
   }
 
   @Nullable @Override public Record loadRecord(@Nonnull final String key, @Nonnull final CacheHeaders cacheHeaders) {
@@ -80,34 +267,215 @@ public final class LruNormalizedCache extends NormalizedCache {
     if (cacheHeaders.hasHeader(GraphQLCacheHeaders.EVICT_AFTER_READ)) {
       lruCache.invalidate(key);
     }
+    if (hotSet != null) {
+      hotSet.recordRead(key);
+    }
 
     return record;
   }
 
+  @Nonnull @Override
+  public Collection<Record> loadRecords(@Nonnull Collection<String> keys, @Nonnull final CacheHeaders cacheHeaders) {
+    final Map<String, Record> records = new HashMap<>(lruCache.getAllPresent(keys));
+    if (records.size() < keys.size()) {
+      final Set<String> missingKeys = new LinkedHashSet<>();
+      for (String key : keys) {
+        if (!records.containsKey(key)) {
+          missingKeys.add(key);
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.loadRecords(missingKeys, cacheHeaders)) {
+            records.put(record.key(), record);
+            lruCache.put(record.key(), record);
+          }
+        }
+      });
+    }
+
+    if (cacheHeaders.hasHeader(GraphQLCacheHeaders.EVICT_AFTER_READ)) {
+      lruCache.invalidateAll(records.keySet());
+    }
+    if (hotSet != null) {
+      hotSet.recordReads(records.keySet());
+    }
+
+    List<Record> result = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      Record record = records.get(key);
+      if (record != null) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Refreshes the recency and the access time of the records held in memory and records their reads in the hot set,
+   * as loading them would. The records no longer in memory, as when they were evicted or have expired, are touched in
+   * the next cache, which they would be loaded from, and make this return false if there is none.
+   */
+  @Override public boolean touchRecords(@Nonnull Collection<String> keys) {
+    Map<String, Record> records = lruCache.getAllPresent(keys);
+    if (hotSet != null) {
+      hotSet.recordReads(records.keySet());
+    }
+    if (records.size() == keys.size()) {
+      return true;
+    }
+    final List<String> missingKeys = new ArrayList<>();
+    for (String key : keys) {
+      if (!records.containsKey(key)) {
+        missingKeys.add(key);
+      }
+    }
+    boolean held = nextCache().map(new Function<NormalizedCache, Boolean>() {
+      @Nonnull @Override public Boolean apply(@Nonnull NormalizedCache cache) {
+        return cache.touchRecords(missingKeys);
+      }
+    }).or(Boolean.FALSE);
+    if (held && hotSet != null) {
+      hotSet.recordReads(missingKeys);
+    }
+    return held;
+  }
+
+  /**
+   * Returns the records held in memory, and reads the others from the next cache without keeping them, nor recording
+   * the reads in the hot set.
+   */
+  @Nonnull @Override public Collection<Record> peekRecords(@Nonnull Collection<String> keys) {
+    final Map<String, Record> records = new HashMap<>(lruCache.getAllPresent(keys));
+    if (records.size() < keys.size()) {
+      final Set<String> missingKeys = new LinkedHashSet<>();
+      for (String key : keys) {
+        if (!records.containsKey(key)) {
+          missingKeys.add(key);
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.peekRecords(missingKeys)) {
+            records.put(record.key(), record);
+          }
+        }
+      });
+    }
+    return records.values();
+  }
+
   @Nonnull @Override
   public Set<String> merge(@Nonnull final Record apolloRecord, @Nonnull final CacheHeaders cacheHeaders) {
+    return merge(Collections.singletonList(apolloRecord), cacheHeaders);
+  }
+
+  @Nonnull @Override
+  public Set<String> merge(@Nonnull Collection<Record> recordSet, @Nonnull final CacheHeaders cacheHeaders) {
     if (cacheHeaders.hasHeader(GraphQLCacheHeaders.DO_NOT_STORE)) {
       return Collections.emptySet();
     }
 
-    //noinspection ResultOfMethodCallIgnored
-    nextCache().apply(new Action<NormalizedCache>() {
-      @Override public void apply(@Nonnull NormalizedCache cache) {
-        cache.merge(apolloRecord, cacheHeaders);
+    final Map<String, Record> oldRecords = loadCompleteRecords(recordSet);
+    final Map<String, Record> changedRecords = new LinkedHashMap<>();
+    final Map<String, Record> refreshedRecords = new LinkedHashMap<>();
+    ChangeSet changedKeys = new ChangeSet();
+    for (Record record : recordSet) {
+      final Record oldRecord = oldRecords.get(record.key());
+      if (oldRecord == null) {
+        oldRecords.put(record.key(), record);
+        lruCache.put(record.key(), record);
+        changedRecords.put(record.key(), record);
+      } else {
+        long previousWriteTime = oldRecord.writtenAtMillis();
+        boolean recordChanged = oldRecord.mergeWith(record, changedKeys);
+
+        //re-insert to trigger new weight calculation
+        lruCache.put(record.key(), oldRecord);
+        if (recordChanged) {
+          changedRecords.put(record.key(), oldRecord);
+          refreshedRecords.remove(record.key());
+        } else if (oldRecord.writtenAtMillis() != previousWriteTime && !changedRecords.containsKey(record.key())) {
+          refreshedRecords.put(record.key(), oldRecord);
+        }
       }
-    });
+    }
 
-    final Record oldRecord = lruCache.getIfPresent(apolloRecord.key());
-    if (oldRecord == null) {
-      lruCache.put(apolloRecord.key(), apolloRecord);
-      return Collections.emptySet();
-    } else {
-      Set<String> changedKeys = oldRecord.mergeWith(apolloRecord);
+    if (!changedRecords.isEmpty()) {
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          cache.replace(changedRecords.values(), cacheHeaders);
+        }
+      });
+    }
+    if (!refreshedRecords.isEmpty()) {
+      super.refreshWriteTimes(refreshedRecords.values());
+    }
+    return changedKeys;
+  }
 
-      //re-insert to trigger new weight calculation
-      lruCache.put(apolloRecord.key(), oldRecord);
-      return changedKeys;
+  @Override public void refreshWriteTimes(@Nonnull Collection<Record> recordSet) {
+    for (Record record : recordSet) {
+      Record cachedRecord = lruCache.getIfPresent(record.key());
+      if (cachedRecord != null && cachedRecord != record) {
+        cachedRecord.refreshWriteTime(record.writtenAtMillis());
+      }
     }
+    super.refreshWriteTimes(recordSet);
+  }
+
+  /**
+   * Weighs the records held in memory by this cache, with the same estimates as the ones limited by
+   * {@link EvictionPolicy.Builder#maxSizeBytes(long)}. Walks all the records, so it is meant for diagnostics rather
+   * than for frequent calls.
+   *
+   * @return the memory taken by the records of this cache, in total and by typename
+   */
+  @Nonnull public MemoryUsage memoryUsage() {
+    return MemoryUsage.of(lruCache.asMap().values());
+  }
+
+  /**
+   * Drops records from memory down to the fraction of their size set by {@link EvictionPolicy.Builder#trimFraction(
+   * double)} with {@link MemoryTrimLevel#SHRINK}, or all of them with {@link MemoryTrimLevel#CLEAR}. The records are
+   * dropped in no particular order: the ones stored by the secondary cache are read back from it when needed.
+   */
+  @Override public long trimMemory(@Nonnull MemoryTrimLevel level) {
+    long trimmedBytes = super.trimMemory(level);
+    if (level == MemoryTrimLevel.RELEASE_UNUSED) {
+      return trimmedBytes;
+    }
+    Map<String, Record> records = new HashMap<>(lruCache.asMap());
+    long totalBytes = 0;
+    for (Record record : records.values()) {
+      totalBytes += record.sizeEstimateBytes();
+    }
+    long targetBytes = level == MemoryTrimLevel.CLEAR ? 0 : (long) (totalBytes * trimFraction);
+    synchronized (warmUpLock) {
+      invalidations++;
+      for (Map.Entry<String, Record> entry : records.entrySet()) {
+        if (totalBytes <= targetBytes) {
+          break;
+        }
+        // Keeps the records replaced meanwhile.
+        if (lruCache.asMap().remove(entry.getKey(), entry.getValue())) {
+          int recordBytes = entry.getValue().sizeEstimateBytes();
+          totalBytes -= recordBytes;
+          trimmedBytes += recordBytes;
+        }
+      }
+    }
+    lruCache.cleanUp();
+    return trimmedBytes;
+  }
+
+  @Nonnull @Override public Set<String> keys() {
+    Set<String> keys = super.keys();
+    keys.addAll(lruCache.asMap().keySet());
+    return keys;
   }
 
   @Override public void clearAll() {
@@ -130,15 +498,47 @@ public final class LruNormalizedCache extends NormalizedCache {
       }
     }).or(Boolean.FALSE);
 
-    if (lruCache.getIfPresent(cacheKey.key()) != null) {
-      lruCache.invalidate(cacheKey.key());
-      result = true;
+    synchronized (warmUpLock) {
+      invalidations++;
+      if (lruCache.getIfPresent(cacheKey.key()) != null) {
+        lruCache.invalidate(cacheKey.key());
+        result = true;
+      }
     }
 
     return result;
   }
 
+  /**
+   * Returns the current version of the records in {@code recordSet}, read from memory or, for records which are not in
+   * memory, with one bulk read from the next cache. The merged records are then complete, so the next cache can store
+   * them with {@link NormalizedCache#replace(Collection, CacheHeaders)} without reading them again.
+   */
+  private Map<String, Record> loadCompleteRecords(Collection<Record> recordSet) {
+    Set<String> keys = new LinkedHashSet<>();
+    for (Record record : recordSet) {
+      keys.add(record.key());
+    }
+    final Map<String, Record> records = new HashMap<>(lruCache.getAllPresent(keys));
+    keys.removeAll(records.keySet());
+    if (!keys.isEmpty()) {
+      final Set<String> missingKeys = keys;
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.loadRecords(missingKeys, CacheHeaders.NONE)) {
+            records.put(record.key(), record);
+          }
+        }
+      });
+    }
+    return records;
+  }
+
   void clearCurrentCache() {
-    lruCache.invalidateAll();
+    synchronized (warmUpLock) {
+      invalidations++;
+      lruCache.invalidateAll();
+    }
   }
 }
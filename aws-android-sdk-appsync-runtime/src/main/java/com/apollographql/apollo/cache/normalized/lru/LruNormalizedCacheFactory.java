@@ -14,15 +14,25 @@ import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
 
 public final class LruNormalizedCacheFactory extends NormalizedCacheFactory<LruNormalizedCache> {
   private final EvictionPolicy evictionPolicy;
+  private final WarmUpPolicy warmUpPolicy;
 
   /**
    * @param evictionPolicy {@link EvictionPolicy} to manage the primary cache.
    */
   public LruNormalizedCacheFactory(EvictionPolicy evictionPolicy) {
+    this(evictionPolicy, WarmUpPolicy.DISABLED);
+  }
+
+  /**
+   * @param evictionPolicy {@link EvictionPolicy} to manage the primary cache.
+   * @param warmUpPolicy   {@link WarmUpPolicy} to load the records read most often into the primary cache at startup.
+   */
+  public LruNormalizedCacheFactory(EvictionPolicy evictionPolicy, WarmUpPolicy warmUpPolicy) {
     this.evictionPolicy = checkNotNull(evictionPolicy, "evictionPolicy == null");
+    this.warmUpPolicy = checkNotNull(warmUpPolicy, "warmUpPolicy == null");
   }
 
   @Override public LruNormalizedCache create(final RecordFieldJsonAdapter fieldAdapter) {
-    return new LruNormalizedCache(evictionPolicy);
+    return new LruNormalizedCache(evictionPolicy, warmUpPolicy);
   }
 }
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.apollographql.apollo.cache.normalized.Record;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Memory taken by the records of a {@link LruNormalizedCache}, in total and by the {@code __typename} of the records,
+ * as estimated by the weights which {@link EvictionPolicy.Builder#maxSizeBytes(long)} limits.
+ *
+ * Records without a {@code __typename} field, such as the root records of the operations, are counted under
+ * {@link #NO_TYPENAME}.
+ */
+public final class MemoryUsage {
+  public static final String NO_TYPENAME = "";
+
+  private final long totalBytes;
+  private final int recordCount;
+  private final Map<String, Long> bytesByTypename;
+  private final Map<String, Integer> recordCountByTypename;
+
+  private MemoryUsage(long totalBytes, int recordCount, Map<String, Long> bytesByTypename,
+      Map<String, Integer> recordCountByTypename) {
+    this.totalBytes = totalBytes;
+    this.recordCount = recordCount;
+    this.bytesByTypename = Collections.unmodifiableMap(bytesByTypename);
+    this.recordCountByTypename = Collections.unmodifiableMap(recordCountByTypename);
+  }
+
+  static MemoryUsage of(Iterable<Record> records) {
+    long totalBytes = 0;
+    int recordCount = 0;
+    Map<String, Long> bytesByTypename = new LinkedHashMap<>();
+    Map<String, Integer> recordCountByTypename = new LinkedHashMap<>();
+    for (Record record : records) {
+      Object typename = record.field("__typename");
+      String key = typename instanceof String ? (String) typename : NO_TYPENAME;
+      long bytes = record.sizeEstimateBytes();
+      Long typenameBytes = bytesByTypename.get(key);
+      bytesByTypename.put(key, typenameBytes != null ? typenameBytes + bytes : bytes);
+      Integer typenameCount = recordCountByTypename.get(key);
+      recordCountByTypename.put(key, typenameCount != null ? typenameCount + 1 : 1);
+      totalBytes += bytes;
+      recordCount++;
+    }
+    return new MemoryUsage(totalBytes, recordCount, bytesByTypename, recordCountByTypename);
+  }
+
+  public long totalBytes() {
+    return totalBytes;
+  }
+
+  public int recordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return the bytes taken by the records of each typename
+   */
+  @Nonnull public Map<String, Long> bytesByTypename() {
+    return bytesByTypename;
+  }
+
+  /**
+   * @return the number of records of each typename
+   */
+  @Nonnull public Map<String, Integer> recordCountByTypename() {
+    return recordCountByTypename;
+  }
+
+  @Override public String toString() {
+    return "MemoryUsage{"
+        + "totalBytes=" + totalBytes
+        + ", recordCount=" + recordCount
+        + ", bytesByTypename=" + bytesByTypename
+        + '}';
+  }
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.nytimes.android.external.cache.Cache;
+import com.nytimes.android.external.cache.CacheLoader;
+import com.nytimes.android.external.cache.Weigher;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * A bounded {@link Cache} with a W-TinyLFU eviction policy, which keeps the entries accessed often when many entries
+ * are accessed once, as when a long list is loaded.
+ *
+ * New entries go to a small LRU window. The entries leaving the window go to the probation segment of the main LRU
+ * space, and are only admitted there if a {@link FrequencySketch} estimates that they were accessed more often than the
+ * entry they would evict. Entries accessed again while in probation move to the protected segment, which holds most of
+ * the main space.
+ *
+ * All operations are serialized on the cache. The values are loaded by {@link #get(Object, Callable)} without holding
+ * the lock, so a value may be loaded more than once for concurrent misses.
+ */
+final class TinyLfuCache<K, V> implements Cache<K, V> {
+  private static final double WINDOW_FRACTION = 0.01;
+  private static final double PROTECTED_FRACTION = 0.8;
+
+  private static final byte WINDOW = 0;
+  private static final byte PROBATION = 1;
+  private static final byte PROTECTED = 2;
+
+  private final Map<K, Node<K, V>> data = new HashMap<>();
+  private final FrequencySketch sketch = new FrequencySketch();
+  @Nullable private final Weigher<K, V> weigher;
+  private final long maximumWeight;
+  private final long windowMaximum;
+  private final long protectedMaximum;
+  private final long expireAfterAccessNanos;
+  private final long expireAfterWriteNanos;
+  private final Queue<K, V> window = new Queue<>();
+  private final Queue<K, V> probation = new Queue<>();
+  private final Queue<K, V> protectedQueue = new Queue<>();
+  private long weightedSize;
+  private ConcurrentMap<K, V> mapView;
+
+  /**
+   * @param maximumWeight          maximum total weight of the entries, or their maximum number without weigher
+   * @param weigher                weighs the entries, each weighs 1 if null
+   * @param expireAfterAccessNanos time after which an entry not accessed expires, or {@link Long#MAX_VALUE}
+   * @param expireAfterWriteNanos  time after which an entry not written expires, or {@link Long#MAX_VALUE}
+   */
+  TinyLfuCache(long maximumWeight, @Nullable Weigher<K, V> weigher, long expireAfterAccessNanos,
+      long expireAfterWriteNanos) {
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+    this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_FRACTION));
+    this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_FRACTION);
+    this.expireAfterAccessNanos = expireAfterAccessNanos;
+    this.expireAfterWriteNanos = expireAfterWriteNanos;
+    // Without a weigher the number of entries is known, otherwise the sketch grows with the cache.
+    sketch.ensureCapacity(weigher == null ? maximumWeight : 0);
+  }
+
+  @Nullable @Override public synchronized V getIfPresent(Object key) {
+    sketch.increment(key);
+    Node<K, V> node = liveNode(key, System.nanoTime());
+    if (node == null) {
+      return null;
+    }
+    onAccess(node);
+    return node.value;
+  }
+
+  @Override public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
+    V value = getIfPresent(key);
+    if (value != null) {
+      return value;
+    }
+    V loaded;
+    try {
+      loaded = valueLoader.call();
+    } catch (Exception e) {
+      throw new ExecutionException(e);
+    }
+    if (loaded == null) {
+      throw new CacheLoader.InvalidCacheLoadException("valueLoader returned null for key " + key + ".");
+    }
+    synchronized (this) {
+      Node<K, V> node = liveNode(key, System.nanoTime());
+      if (node != null) {
+        return node.value; // Loaded concurrently.
+      }
+      add(key, loaded, false);
+      return loaded;
+    }
+  }
+
+  // A key with a value is equal to one of the K keys of the map, so it is returned as a K as Cache.getAllPresent does.
+  @SuppressWarnings("unchecked")
+  @Override public synchronized Map<K, V> getAllPresent(Iterable<?> keys) {
+    Map<K, V> result = new LinkedHashMap<>();
+    for (Object key : keys) {
+      V value = getIfPresent(key);
+      if (value != null) {
+        result.put((K) key, value);
+      }
+    }
+    return result;
+  }
+
+  @Override public synchronized void put(K key, V value) {
+    checkNotNull(key, "key == null");
+    checkNotNull(value, "value == null");
+    Node<K, V> node = data.get(key);
+    if (node == null) {
+      add(key, value, true);
+      return;
+    }
+    long now = System.nanoTime();
+    int weight = weigh(key, value);
+    queueOf(node).weight += weight - node.weight;
+    weightedSize += weight - node.weight;
+    node.value = value;
+    node.weight = weight;
+    node.writeNanos = now;
+    onAccess(node);
+    evict();
+  }
+
+  @Override public synchronized void putAll(Map<? extends K, ? extends V> map) {
+    for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override public synchronized void invalidate(Object key) {
+    Node<K, V> node = data.get(key);
+    if (node != null) {
+      remove(node);
+    }
+  }
+
+  @Override public synchronized void invalidateAll(Iterable<?> keys) {
+    for (Object key : keys) {
+      invalidate(key);
+    }
+  }
+
+  @Override public synchronized void invalidateAll() {
+    data.clear();
+    window.clear();
+    probation.clear();
+    protectedQueue.clear();
+    weightedSize = 0;
+  }
+
+  @Override public synchronized long size() {
+    return data.size();
+  }
+
+  @Override public synchronized ConcurrentMap<K, V> asMap() {
+    if (mapView == null) {
+      mapView = new MapView();
+    }
+    return mapView;
+  }
+
+  @Override public synchronized void cleanUp() {
+    long now = System.nanoTime();
+    Iterator<Node<K, V>> nodes = data.values().iterator();
+    while (nodes.hasNext()) {
+      Node<K, V> node = nodes.next();
+      if (isExpired(node, now)) {
+        nodes.remove();
+        queueOf(node).remove(node);
+        weightedSize -= node.weight;
+      }
+    }
+  }
+
+  /**
+   * @return the node of {@code key} unless it is absent or expired, in which case it is removed
+   */
+  @Nullable private Node<K, V> liveNode(Object key, long now) {
+    Node<K, V> node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    if (isExpired(node, now)) {
+      remove(node);
+      return null;
+    }
+    node.accessNanos = now;
+    return node;
+  }
+
+  private void add(K key, V value, boolean recordAccess) {
+    if (recordAccess) {
+      sketch.increment(key);
+    }
+    long now = System.nanoTime();
+    Node<K, V> node = new Node<>(key, value, weigh(key, value), now);
+    data.put(key, node);
+    if (weigher != null) {
+      sketch.ensureCapacity(data.size());
+    }
+    node.queue = WINDOW;
+    window.addLast(node);
+    weightedSize += node.weight;
+    evict();
+  }
+
+  private void onAccess(Node<K, V> node) {
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToLast(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedQueue.addLast(node);
+        // Demotes the protected entries least recently used back to probation.
+        while (protectedQueue.weight > protectedMaximum && protectedQueue.head != node) {
+          Node<K, V> demoted = protectedQueue.head;
+          protectedQueue.remove(demoted);
+          demoted.queue = PROBATION;
+          probation.addLast(demoted);
+        }
+        break;
+      default:
+        protectedQueue.moveToLast(node);
+        break;
+    }
+  }
+
+  /**
+   * Moves the entries over the size of the window to probation, as candidates, then evicts either the candidates or
+   * the probation entries least recently used, whichever are the least frequently used, until the cache fits.
+   */
+  private void evict() {
+    Node<K, V> firstCandidate = null;
+    while (window.weight > windowMaximum && window.head != null) {
+      Node<K, V> node = window.head;
+      window.remove(node);
+      node.queue = PROBATION;
+      probation.addLast(node);
+      if (firstCandidate == null) {
+        firstCandidate = node;
+      }
+    }
+
+    Node<K, V> candidate = firstCandidate;
+    Node<K, V> victim = probation.head;
+    while (weightedSize > maximumWeight) {
+      if (victim == candidate) {
+        victim = null; // The entries in probation before the candidates were all evicted.
+      }
+      if (victim == null && candidate == null) {
+        Node<K, V> node = protectedQueue.head != null ? protectedQueue.head
+            : probation.head != null ? probation.head : window.head;
+        if (node == null) {
+          break;
+        }
+        remove(node);
+      } else if (victim == null) {
+        Node<K, V> next = candidate.next;
+        remove(candidate);
+        candidate = next;
+      } else if (candidate == null || sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        Node<K, V> next = victim.next;
+        remove(victim);
+        victim = next;
+      } else {
+        Node<K, V> next = candidate.next;
+        remove(candidate);
+        candidate = next;
+      }
+    }
+  }
+
+  private void remove(Node<K, V> node) {
+    data.remove(node.key);
+    queueOf(node).remove(node);
+    weightedSize -= node.weight;
+  }
+
+  private boolean isExpired(Node<K, V> node, long now) {
+    return now - node.writeNanos >= expireAfterWriteNanos || now - node.accessNanos >= expireAfterAccessNanos;
+  }
+
+  private Queue<K, V> queueOf(Node<K, V> node) {
+    switch (node.queue) {
+      case WINDOW:
+        return window;
+      case PROBATION:
+        return probation;
+      default:
+        return protectedQueue;
+    }
+  }
+
+  private int weigh(K key, V value) {
+    return weigher != null ? weigher.weigh(key, value) : 1;
+  }
+
+  private static final class Node<K, V> {
+    final K key;
+    V value;
+    int weight;
+    long writeNanos;
+    long accessNanos;
+    byte queue;
+    Node<K, V> previous;
+    Node<K, V> next;
+
+    Node(K key, V value, int weight, long now) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.writeNanos = now;
+      this.accessNanos = now;
+    }
+  }
+
+  /**
+   * Doubly linked list of nodes, from the least to the most recently used.
+   */
+  private static final class Queue<K, V> {
+    Node<K, V> head;
+    Node<K, V> tail;
+    long weight;
+
+    void addLast(Node<K, V> node) {
+      node.previous = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      weight += node.weight;
+    }
+
+    void remove(Node<K, V> node) {
+      if (node.previous == null) {
+        head = node.next;
+      } else {
+        node.previous.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.previous;
+      } else {
+        node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+      weight -= node.weight;
+    }
+
+    void moveToLast(Node<K, V> node) {
+      if (tail != node) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+      weight = 0;
+    }
+  }
+
+  /**
+   * Map view of the cache. Reads through it count as accesses, and its entry set is a snapshot.
+   */
+  private final class MapView extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    @Override public V get(Object key) {
+      return getIfPresent(key);
+    }
+
+    @Override public boolean containsKey(Object key) {
+      synchronized (TinyLfuCache.this) {
+        return liveNode(key, System.nanoTime()) != null;
+      }
+    }
+
+    @Override public V put(K key, V value) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        TinyLfuCache.this.put(key, value);
+        return node != null ? node.value : null;
+      }
+    }
+
+    @Override public V putIfAbsent(K key, V value) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        if (node != null) {
+          return node.value;
+        }
+        TinyLfuCache.this.put(key, value);
+        return null;
+      }
+    }
+
+    @Override public V remove(Object key) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        if (node == null) {
+          return null;
+        }
+        TinyLfuCache.this.remove(node);
+        return node.value;
+      }
+    }
+
+    @Override public boolean remove(Object key, Object value) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        if (node == null || !node.value.equals(value)) {
+          return false;
+        }
+        TinyLfuCache.this.remove(node);
+        return true;
+      }
+    }
+
+    @Override public boolean replace(K key, V oldValue, V newValue) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        if (node == null || !node.value.equals(oldValue)) {
+          return false;
+        }
+        TinyLfuCache.this.put(key, newValue);
+        return true;
+      }
+    }
+
+    @Override public V replace(K key, V value) {
+      synchronized (TinyLfuCache.this) {
+        Node<K, V> node = liveNode(key, System.nanoTime());
+        if (node == null) {
+          return null;
+        }
+        V oldValue = node.value;
+        TinyLfuCache.this.put(key, value);
+        return oldValue;
+      }
+    }
+
+    @Override public int size() {
+      return (int) TinyLfuCache.this.size();
+    }
+
+    @Override public void clear() {
+      invalidateAll();
+    }
+
+    @Override public Set<Entry<K, V>> entrySet() {
+      synchronized (TinyLfuCache.this) {
+        long now = System.nanoTime();
+        Map<K, V> snapshot = new LinkedHashMap<>(data.size());
+        for (Node<K, V> node : data.values()) {
+          if (!isExpired(node, now)) {
+            snapshot.put(node.key, node.value);
+          }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+      }
+    }
+  }
+}
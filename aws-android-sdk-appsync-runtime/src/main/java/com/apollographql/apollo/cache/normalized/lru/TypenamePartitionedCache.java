@@ -0,0 +1,251 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.apollographql.apollo.cache.normalized.Record;
+import com.nytimes.android.external.cache.Cache;
+import com.nytimes.android.external.cache.CacheLoader;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * A {@link Cache} of records split in parts by the {@code __typename} of the records, each with its own bounds and
+ * expiration, so that the records of one type are only evicted to make room for records of the same type.
+ *
+ * Records are put in the part of their type, or in the default part for the types without one. A record whose type
+ * changes moves to the part of its new type. Lookups try each part in turn, starting with the default one: there are
+ * only a few parts, and a key is in at most one of them.
+ *
+ * Reads only go through the parts, which are thread safe. Writes are serialized on this cache, so that a record is
+ * never in two parts at once.
+ */
+final class TypenamePartitionedCache implements Cache<String, Record> {
+  private final Cache<String, Record> defaultCache;
+  private final Map<String, Cache<String, Record>> typenameCaches;
+  // The default cache first, then the typename caches.
+  private final List<Cache<String, Record>> caches;
+  private ConcurrentMap<String, Record> mapView;
+
+  TypenamePartitionedCache(Cache<String, Record> defaultCache, Map<String, Cache<String, Record>> typenameCaches) {
+    this.defaultCache = defaultCache;
+    this.typenameCaches = typenameCaches;
+    List<Cache<String, Record>> caches = new ArrayList<>(typenameCaches.size() + 1);
+    caches.add(defaultCache);
+    caches.addAll(typenameCaches.values());
+    this.caches = Collections.unmodifiableList(caches);
+  }
+
+  /**
+   * @return the part holding the records of the type of {@code record}
+   */
+  Cache<String, Record> cacheFor(Record record) {
+    Object typename = record.field("__typename");
+    Cache<String, Record> cache = typename instanceof String ? typenameCaches.get(typename) : null;
+    return cache != null ? cache : defaultCache;
+  }
+
+  @Nullable @Override public Record getIfPresent(Object key) {
+    for (Cache<String, Record> cache : caches) {
+      Record record = cache.getIfPresent(key);
+      if (record != null) {
+        return record;
+      }
+    }
+    return null;
+  }
+
+  @Override public Record get(String key, Callable<? extends Record> valueLoader) throws ExecutionException {
+    Record record = getIfPresent(key);
+    if (record != null) {
+      return record;
+    }
+    Record loaded;
+    try {
+      loaded = valueLoader.call();
+    } catch (Exception e) {
+      throw new ExecutionException(e);
+    }
+    if (loaded == null) {
+      throw new CacheLoader.InvalidCacheLoadException("valueLoader returned null for key " + key + ".");
+    }
+    Record concurrentlyLoaded = asMap().putIfAbsent(key, loaded);
+    return concurrentlyLoaded != null ? concurrentlyLoaded : loaded;
+  }
+
+  @Override public Map<String, Record> getAllPresent(Iterable<?> keys) {
+    Map<String, Record> result = new LinkedHashMap<>();
+    for (Cache<String, Record> cache : caches) {
+      result.putAll(cache.getAllPresent(keys));
+    }
+    return result;
+  }
+
+  @Override public synchronized void put(String key, Record value) {
+    checkNotNull(key, "key == null");
+    checkNotNull(value, "value == null");
+    Cache<String, Record> target = cacheFor(value);
+    for (Cache<String, Record> cache : caches) {
+      if (cache != target) {
+        cache.invalidate(key);
+      }
+    }
+    target.put(key, value);
+  }
+
+  @Override public synchronized void putAll(Map<? extends String, ? extends Record> map) {
+    for (Map.Entry<? extends String, ? extends Record> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override public synchronized void invalidate(Object key) {
+    for (Cache<String, Record> cache : caches) {
+      cache.invalidate(key);
+    }
+  }
+
+  @Override public synchronized void invalidateAll(Iterable<?> keys) {
+    for (Cache<String, Record> cache : caches) {
+      cache.invalidateAll(keys);
+    }
+  }
+
+  @Override public synchronized void invalidateAll() {
+    for (Cache<String, Record> cache : caches) {
+      cache.invalidateAll();
+    }
+  }
+
+  @Override public long size() {
+    long size = 0;
+    for (Cache<String, Record> cache : caches) {
+      size += cache.size();
+    }
+    return size;
+  }
+
+  @Override public synchronized ConcurrentMap<String, Record> asMap() {
+    if (mapView == null) {
+      mapView = new MapView();
+    }
+    return mapView;
+  }
+
+  @Override public void cleanUp() {
+    for (Cache<String, Record> cache : caches) {
+      cache.cleanUp();
+    }
+  }
+
+  /**
+   * Map view of the cache. Its entry set is a snapshot of the entries of all the parts.
+   */
+  private final class MapView extends AbstractMap<String, Record> implements ConcurrentMap<String, Record> {
+    @Override public Record get(Object key) {
+      return getIfPresent(key);
+    }
+
+    @Override public boolean containsKey(Object key) {
+      for (Cache<String, Record> cache : caches) {
+        if (cache.asMap().containsKey(key)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override public Record put(String key, Record value) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        TypenamePartitionedCache.this.put(key, value);
+        return record;
+      }
+    }
+
+    @Override public Record putIfAbsent(String key, Record value) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        if (record != null) {
+          return record;
+        }
+        TypenamePartitionedCache.this.put(key, value);
+        return null;
+      }
+    }
+
+    @Override public Record remove(Object key) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        invalidate(key);
+        return record;
+      }
+    }
+
+    @Override public boolean remove(Object key, Object value) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        if (record == null || !record.equals(value)) {
+          return false;
+        }
+        invalidate(key);
+        return true;
+      }
+    }
+
+    @Override public boolean replace(String key, Record oldValue, Record newValue) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        if (record == null || !record.equals(oldValue)) {
+          return false;
+        }
+        TypenamePartitionedCache.this.put(key, newValue);
+        return true;
+      }
+    }
+
+    @Override public Record replace(String key, Record value) {
+      synchronized (TypenamePartitionedCache.this) {
+        Record record = getIfPresent(key);
+        if (record == null) {
+          return null;
+        }
+        TypenamePartitionedCache.this.put(key, value);
+        return record;
+      }
+    }
+
+    @Override public int size() {
+      return (int) TypenamePartitionedCache.this.size();
+    }
+
+    @Override public void clear() {
+      invalidateAll();
+    }
+
+    @Override public Set<Entry<String, Record>> entrySet() {
+      Map<String, Record> snapshot = new LinkedHashMap<>();
+      for (Cache<String, Record> cache : caches) {
+        snapshot.putAll(cache.asMap());
+      }
+      return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.apollographql.apollo.api.internal.Optional;
+
+import java.io.File;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * Controls how a {@link LruNormalizedCache} is warmed up after a restart of the process.
+ *
+ * The cache counts how often each record is read. {@link LruNormalizedCache#saveHotSetsInBackground()} saves the keys
+ * of the records read most often to a file, and the next {@link com.apollographql.apollo.ApolloClient} built with the
+ * same policy loads those records from the secondary cache into memory, with one bulk read on a background thread.
+ */
+public final class WarmUpPolicy {
+
+  public static final WarmUpPolicy DISABLED = new WarmUpPolicy(false, null, 0, Optional.<Listener>absent());
+
+  private static final int DEFAULT_MAX_KEYS = 200;
+
+  private final boolean enabled;
+  private final File hotSetFile;
+  private final int maxKeys;
+  private final Optional<Listener> listener;
+
+  /**
+   * Is notified when a warm-up completes, on the background thread that ran it.
+   */
+  public interface Listener {
+    /**
+     * @param savedKeys     number of keys read from the hot set file
+     * @param loadedRecords number of records loaded into memory, which may be less if some records were removed
+     * @param elapsedMillis time spent reading the hot set file and loading the records
+     */
+    void onWarmUp(int savedKeys, int loadedRecords, long elapsedMillis);
+  }
+
+  boolean enabled() {
+    return enabled;
+  }
+
+  File hotSetFile() {
+    return hotSetFile;
+  }
+
+  int maxKeys() {
+    return maxKeys;
+  }
+
+  Optional<Listener> listener() {
+    return listener;
+  }
+
+  /**
+   * @param hotSetFile file the keys of the records read most often are saved to
+   */
+  public static Builder builder(File hotSetFile) {
+    return new Builder(checkNotNull(hotSetFile, "hotSetFile == null"));
+  }
+
+  public static class Builder {
+
+    private final File hotSetFile;
+    private boolean enabled = true;
+    private int maxKeys = DEFAULT_MAX_KEYS;
+    private Optional<Listener> listener = Optional.absent();
+
+    private Builder(File hotSetFile) {
+      this.hotSetFile = hotSetFile;
+    }
+
+    public Builder enabled(boolean enabled) {
+      this.enabled = enabled;
+      return this;
+    }
+
+    /**
+     * Sets the number of records kept in the hot set, 200 by default.
+     */
+    public Builder maxKeys(int maxKeys) {
+      if (maxKeys <= 0) {
+        throw new IllegalArgumentException("maxKeys <= 0");
+      }
+      this.maxKeys = maxKeys;
+      return this;
+    }
+
+    public Builder listener(Listener listener) {
+      this.listener = Optional.of(checkNotNull(listener, "listener == null"));
+      return this;
+    }
+
+    public WarmUpPolicy build() {
+      return new WarmUpPolicy(enabled, hotSetFile, maxKeys, listener);
+    }
+  }
+
+  private WarmUpPolicy(boolean enabled, File hotSetFile, int maxKeys, Optional<Listener> listener) {
+    this.enabled = enabled;
+    this.hotSetFile = hotSetFile;
+    this.maxKeys = maxKeys;
+    this.listener = listener;
+  }
+}
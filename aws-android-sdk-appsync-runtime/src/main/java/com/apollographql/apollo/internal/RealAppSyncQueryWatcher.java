@@ -14,6 +14,7 @@ import com.apollographql.apollo.api.Response;
 import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.api.internal.Utils;
 import com.apollographql.apollo.cache.normalized.ApolloStore;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
 import com.apollographql.apollo.exception.ApolloCanceledException;
 import com.apollographql.apollo.exception.ApolloException;
 import com.apollographql.apollo.exception.ApolloHttpException;
@@ -44,7 +45,10 @@ final class RealAppSyncQueryWatcher<T> implements AppSyncQueryWatcher<T> {
   private final ApolloCallTracker tracker;
   private final ApolloStore.RecordChangeSubscriber recordChangeSubscriber = new ApolloStore.RecordChangeSubscriber() {
     @Override public void onCacheRecordsChanged(Set<String> changedRecordKeys) {
-      if (!Utils.areDisjoint(dependentKeys, changedRecordKeys)) {
+      boolean changed = changedRecordKeys instanceof ChangeSet
+          ? ((ChangeSet) changedRecordKeys).intersects(dependentKeys)
+          : !Utils.areDisjoint(dependentKeys, changedRecordKeys);
+      if (changed) {
         refetch();
       }
     }
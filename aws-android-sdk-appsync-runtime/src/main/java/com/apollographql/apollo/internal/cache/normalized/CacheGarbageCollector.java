@@ -0,0 +1,178 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.OptimisticNormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Incremental mark and sweep collector of the records which can no longer be reached from a root of the cache.
+ *
+ * Roots are {@link CacheKeyResolver#QUERY_ROOT_KEY}, {@link CacheKeyResolver#MUTATION_ROOT_KEY} and the records with
+ * optimistic updates pending. Records are marked by following their {@link CacheReference} fields, then the records
+ * which were in the cache when the collection started and were not marked are removed. Both phases run in chunks of
+ * {@link #CHUNK_SIZE} records, each in its own transaction, so that writes are not blocked for the whole collection.
+ * Records are marked with {@link OptimisticNormalizedCache#peekRecords(Collection)}, so that the collection
+ * neither fills the memory cache nor counts as reads of the records, and a record which cannot be read fails the
+ * collection rather than leaving the records it references unmarked, to be removed.
+ *
+ * Records written through the store while a collection runs are treated as roots and traced again before each chunk
+ * of removals, so a record which becomes reachable during the collection is kept. Records written to the
+ * {@link com.apollographql.apollo.cache.normalized.NormalizedCache} directly, bypassing the store, are not tracked.
+ */
+final class CacheGarbageCollector {
+  static final int CHUNK_SIZE = 100;
+
+  private final RealAppSyncStore store;
+  private final OptimisticNormalizedCache cache;
+  private final Object lock = new Object();
+  // Keys written since the collection started, null when no collection is running. Guarded by lock.
+  private Set<String> writtenKeys;
+
+  CacheGarbageCollector(RealAppSyncStore store, OptimisticNormalizedCache cache) {
+    this.store = store;
+    this.cache = cache;
+  }
+
+  /**
+   * Records that {@code records} were written, to trace them again if a collection is running.
+   */
+  void onWrite(Collection<Record> records) {
+    synchronized (lock) {
+      if (writtenKeys != null) {
+        for (Record record : records) {
+          writtenKeys.add(record.key());
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs a full collection on the calling thread.
+   *
+   * @return the number of records removed
+   */
+  int collect() {
+    synchronized (lock) {
+      if (writtenKeys != null) {
+        return 0; // Already running.
+      }
+      writtenKeys = new HashSet<>();
+    }
+    try {
+      final Set<String> marked = new HashSet<>();
+      final Deque<String> pending = new ArrayDeque<>();
+      final Set<String> candidates = store.readTransaction(new Transaction<ReadableStore, Set<String>>() {
+        @Override public Set<String> execute(ReadableStore readableStore) {
+          pending.add(CacheKeyResolver.QUERY_ROOT_KEY.key());
+          pending.add(CacheKeyResolver.MUTATION_ROOT_KEY.key());
+          pending.addAll(cache.optimisticKeys());
+          return cache.keys();
+        }
+      });
+
+      while (!pending.isEmpty()) {
+        store.readTransaction(new Transaction<ReadableStore, Void>() {
+          @Override public Void execute(ReadableStore readableStore) {
+            markChunk(pending, marked);
+            return null;
+          }
+        });
+      }
+
+      candidates.removeAll(marked);
+      final Iterator<String> unmarked = candidates.iterator();
+      int removed = 0;
+      while (unmarked.hasNext()) {
+        removed += store.writeTransaction(new Transaction<WriteableStore, Integer>() {
+          @Override public Integer execute(WriteableStore writeableStore) {
+            // Nothing can be written until this transaction ends, so everything reachable is marked once the records
+            // written so far have been traced again.
+            Set<String> written = drainWrittenKeys();
+            marked.removeAll(written);
+            pending.addAll(written);
+            while (!pending.isEmpty()) {
+              markChunk(pending, marked);
+            }
+            int removedInChunk = 0;
+            for (int i = 0; i < CHUNK_SIZE && unmarked.hasNext(); i++) {
+              String key = unmarked.next();
+              if (!marked.contains(key) && cache.remove(CacheKey.from(key))) {
+                removedInChunk++;
+              }
+            }
+            return removedInChunk;
+          }
+        });
+      }
+      return removed;
+    } finally {
+      synchronized (lock) {
+        writtenKeys = null;
+      }
+    }
+  }
+
+  private Set<String> drainWrittenKeys() {
+    synchronized (lock) {
+      Set<String> keys = writtenKeys;
+      writtenKeys = new HashSet<>();
+      return keys;
+    }
+  }
+
+  /**
+   * Marks up to {@link #CHUNK_SIZE} of the {@code pending} keys, and queues the keys they reference.
+   */
+  private void markChunk(Deque<String> pending, Set<String> marked) {
+    List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+    while (chunk.size() < CHUNK_SIZE && !pending.isEmpty()) {
+      String key = pending.poll();
+      if (marked.add(key)) {
+        chunk.add(key);
+      }
+    }
+    if (chunk.isEmpty()) {
+      return;
+    }
+    Set<String> references = new LinkedHashSet<>();
+    for (Record record : cache.peekRecords(chunk)) {
+      for (Object value : record.fields().values()) {
+        collectReferences(value, references);
+      }
+    }
+    for (String reference : references) {
+      if (!marked.contains(reference)) {
+        pending.add(reference);
+      }
+    }
+  }
+
+  private static void collectReferences(Object value, Set<String> references) {
+    if (value instanceof CacheReference) {
+      references.add(((CacheReference) value).key());
+    } else if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        collectReferences(item, references);
+      }
+    }
+  }
+}
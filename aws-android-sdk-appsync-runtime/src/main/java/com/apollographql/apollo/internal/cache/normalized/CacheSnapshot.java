@@ -0,0 +1,145 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.cache.normalized.BinaryRecordCodec;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Binary format of the snapshots of a {@link NormalizedCache} written by
+ * {@link com.apollographql.apollo.cache.normalized.ApolloStore#exportSnapshot(OutputStream)}.
+ *
+ * A snapshot starts with a magic number and the format version, followed by one entry per record: the length and the
+ * UTF-8 bytes of its key, its {@link Record#writtenAtMillis()}, then the length and the bytes of its fields encoded
+ * with {@link BinaryRecordCodec}. A key length of {@code -1} ends the snapshot. Snapshots of the first version have no
+ * write times, and their records are read as written when they are imported.
+ */
+final class CacheSnapshot {
+  /**
+   * Number of records read from the cache, or written to it, at once.
+   */
+  static final int BATCH_SIZE = 1000;
+
+  private static final int MAGIC = 0x41534E50; // "ASNP"
+  private static final int FORMAT_VERSION = 2;
+  // Version without the write times of the records.
+  private static final int FORMAT_VERSION_1 = 1;
+  private static final int END_OF_SNAPSHOT = -1;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private CacheSnapshot() {
+  }
+
+  /**
+   * Writes all the records of {@code cache} to {@code outputStream}, which is flushed but left open. The records are
+   * read with {@link NormalizedCache#peekRecords(java.util.Collection)}, so that the export neither loads the whole
+   * cache into the memory cache nor counts as reads of the records.
+   *
+   * @return the number of records written
+   */
+  static int write(NormalizedCache cache, OutputStream outputStream) throws IOException {
+    RecordCodec codec = BinaryRecordCodec.create();
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+    output.writeInt(MAGIC);
+    output.writeInt(FORMAT_VERSION);
+    int count = 0;
+    Iterator<String> keys = cache.keys().iterator();
+    List<String> batch = new ArrayList<>(BATCH_SIZE);
+    while (keys.hasNext()) {
+      batch.clear();
+      while (batch.size() < BATCH_SIZE && keys.hasNext()) {
+        batch.add(keys.next());
+      }
+      for (Record record : cache.peekRecords(batch)) {
+        byte[] key = record.key().getBytes(UTF_8);
+        byte[] fields = codec.encode(record.fields());
+        output.writeInt(key.length);
+        output.write(key);
+        output.writeLong(record.writtenAtMillis());
+        output.writeInt(fields.length);
+        output.write(fields);
+        count++;
+      }
+    }
+    output.writeInt(END_OF_SNAPSHOT);
+    output.flush();
+    return count;
+  }
+
+  /**
+   * Reads the records of a snapshot in batches of {@link #BATCH_SIZE}.
+   */
+  static final class Reader {
+    private final RecordCodec codec = BinaryRecordCodec.create();
+    private final DataInputStream input;
+    private final boolean hasWriteTimes;
+    private boolean finished;
+
+    /**
+     * @throws IOException if {@code inputStream} does not start with a snapshot header
+     */
+    Reader(InputStream inputStream) throws IOException {
+      input = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+      if (input.readInt() != MAGIC) {
+        throw new IOException("Not a cache snapshot");
+      }
+      int version = input.readInt();
+      if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+        throw new IOException("Unsupported cache snapshot version " + version);
+      }
+      hasWriteTimes = version != FORMAT_VERSION_1;
+    }
+
+    /**
+     * @return the next records of the snapshot, or an empty list at its end
+     * @throws IOException if the snapshot is cut short or malformed
+     */
+    List<Record> readBatch() throws IOException {
+      List<Record> records = new ArrayList<>();
+      while (!finished && records.size() < BATCH_SIZE) {
+        int keyLength = input.readInt();
+        if (keyLength == END_OF_SNAPSHOT) {
+          finished = true;
+          break;
+        }
+        String key = new String(readBytes(keyLength), UTF_8);
+        Record.Builder recordBuilder = Record.builder(key);
+        if (hasWriteTimes) {
+          recordBuilder.writtenAtMillis(input.readLong());
+        }
+        byte[] fields = readBytes(input.readInt());
+        records.add(recordBuilder.addFields(codec.decode(fields)).buildSharingFields());
+      }
+      return records;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+      if (length < 0) {
+        throw new IOException("Malformed cache snapshot");
+      }
+      byte[] bytes = new byte[length];
+      input.readFully(bytes);
+      return bytes;
+    }
+  }
+}
@@ -16,9 +16,12 @@ import com.apollographql.apollo.cache.normalized.ApolloStore;
 import com.apollographql.apollo.cache.normalized.GraphQLStoreOperation;
 import com.apollographql.apollo.cache.normalized.CacheKey;
 import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
 import com.apollographql.apollo.cache.normalized.NormalizedCache;
 import com.apollographql.apollo.cache.normalized.Record;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -71,6 +74,22 @@ public final class NoOpApolloStore implements ApolloStore, ReadableStore, Writea
     return GraphQLStoreOperation.emptyOperation(0);
   }
 
+  @Nonnull @Override public GraphQLStoreOperation<Integer> collectGarbage() {
+    return GraphQLStoreOperation.emptyOperation(0);
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Long> trimMemory(@Nonnull MemoryTrimLevel level) {
+    return GraphQLStoreOperation.emptyOperation(0L);
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Integer> exportSnapshot(@Nonnull OutputStream outputStream) {
+    return GraphQLStoreOperation.emptyOperation(0);
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Integer> importSnapshot(@Nonnull InputStream inputStream) {
+    return GraphQLStoreOperation.emptyOperation(0);
+  }
+
   @Override public ResponseNormalizer<Map<String, Object>> networkResponseNormalizer() {
     //noinspection unchecked
     return ResponseNormalizer.NO_OP_NORMALIZER;
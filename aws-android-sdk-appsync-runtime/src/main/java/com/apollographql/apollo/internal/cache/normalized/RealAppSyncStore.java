@@ -13,10 +13,13 @@ import com.apollographql.apollo.api.Response;
 import com.apollographql.apollo.api.ResponseField;
 import com.apollographql.apollo.api.ResponseFieldMapper;
 import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.GraphQLCacheHeaders;
 import com.apollographql.apollo.cache.normalized.ApolloStore;
 import com.apollographql.apollo.cache.normalized.GraphQLStoreOperation;
 import com.apollographql.apollo.cache.normalized.CacheKey;
 import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
 import com.apollographql.apollo.cache.normalized.NormalizedCache;
 import com.apollographql.apollo.cache.normalized.OptimisticNormalizedCache;
 import com.apollographql.apollo.cache.normalized.Record;
@@ -25,6 +28,9 @@ import com.apollographql.apollo.internal.response.RealResponseReader;
 import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
 import com.apollographql.apollo.internal.ApolloLogger;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,6 +41,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -52,11 +59,28 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
   private final Executor dispatcher;
   private final CacheKeyBuilder cacheKeyBuilder;
   private final ApolloLogger logger;
+  private final CacheGarbageCollector garbageCollector;
+  // Null when the responses read from the cache are not memoized.
+  @Nullable private final ResponseMemo responseMemo;
 
   public RealAppSyncStore(@Nonnull NormalizedCache normalizedCache, @Nonnull CacheKeyResolver cacheKeyResolver,
                           @Nonnull final ScalarTypeAdapters scalarTypeAdapters, @Nonnull Executor dispatcher,
                           @Nonnull ApolloLogger logger) {
+    this(normalizedCache, cacheKeyResolver, scalarTypeAdapters, dispatcher, logger, 0);
+  }
+
+  /**
+   * @param responseMemoSize the number of responses read from the cache to memoize, see
+   *                         {@link com.apollographql.apollo.ApolloClient.Builder#responseMemoSize(int)}, or 0 to read
+   *                         every response from the records again
+   */
+  public RealAppSyncStore(@Nonnull NormalizedCache normalizedCache, @Nonnull CacheKeyResolver cacheKeyResolver,
+                          @Nonnull final ScalarTypeAdapters scalarTypeAdapters, @Nonnull Executor dispatcher,
+                          @Nonnull ApolloLogger logger, int responseMemoSize) {
     checkNotNull(normalizedCache, "cacheStore == null");
+    if (responseMemoSize < 0) {
+      throw new IllegalArgumentException("responseMemoSize must not be negative");
+    }
 
     this.optimisticCache = (OptimisticNormalizedCache) new OptimisticNormalizedCache().chain(normalizedCache);
     this.cacheKeyResolver = checkNotNull(cacheKeyResolver, "cacheKeyResolver == null");
@@ -66,6 +90,8 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
     this.lock = new ReentrantReadWriteLock();
     this.subscribers = Collections.newSetFromMap(new WeakHashMap<RecordChangeSubscriber, Boolean>());
     this.cacheKeyBuilder = new RealCacheKeyBuilder();
+    this.garbageCollector = new CacheGarbageCollector(this, optimisticCache);
+    this.responseMemo = responseMemoSize > 0 ? new ResponseMemo(responseMemoSize) : null;
   }
 
   @Override public ResponseNormalizer<Map<String, Object>> networkResponseNormalizer() {
@@ -107,6 +133,9 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
     if (changedKeys.isEmpty()) {
       return;
     }
+    // The store already dropped the responses changed by its own writes, but keys may be published for records
+    // written to the normalized cache directly.
+    invalidateResponses(changedKeys);
 
     Set<RecordChangeSubscriber> iterableSubscribers;
     synchronized (this) {
@@ -124,6 +153,9 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
         return writeTransaction(new Transaction<WriteableStore, Boolean>() {
           @Override public Boolean execute(WriteableStore cache) {
             optimisticCache.clearAll();
+            if (responseMemo != null) {
+              responseMemo.clear();
+            }
             return Boolean.TRUE;
           }
         });
@@ -137,6 +169,7 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
       @Override protected Boolean perform() {
         return writeTransaction(new Transaction<WriteableStore, Boolean>() {
           @Override public Boolean execute(WriteableStore cache) {
+            invalidateRecordResponses(Collections.singletonList(cacheKey.key()));
             return optimisticCache.remove(cacheKey);
           }
         });
@@ -150,6 +183,11 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
       @Override protected Integer perform() {
         return writeTransaction(new Transaction<WriteableStore, Integer>() {
           @Override public Integer execute(WriteableStore cache) {
+            List<String> recordKeys = new ArrayList<>(cacheKeys.size());
+            for (CacheKey cacheKey : cacheKeys) {
+              recordKeys.add(cacheKey.key());
+            }
+            invalidateRecordResponses(recordKeys);
             int count = 0;
             for (CacheKey cacheKey : cacheKeys) {
               if (optimisticCache.remove(cacheKey)) {
@@ -186,19 +224,92 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
   }
 
   @Nullable public Record read(@Nonnull String key, @Nonnull CacheHeaders cacheHeaders) {
-    return optimisticCache.loadRecord(checkNotNull(key, "key == null"), cacheHeaders);
+    Record record = optimisticCache.loadRecord(checkNotNull(key, "key == null"), cacheHeaders);
+    return record != null && record.writtenAtMillis() >= oldestAcceptedWriteTime(cacheHeaders) ? record : null;
   }
 
   @Nonnull public Collection<Record> read(@Nonnull Collection<String> keys, @Nonnull CacheHeaders cacheHeaders) {
-    return optimisticCache.loadRecords(checkNotNull(keys, "keys == null"), cacheHeaders);
+    Collection<Record> records = optimisticCache.loadRecords(checkNotNull(keys, "keys == null"), cacheHeaders);
+    long oldestAcceptedWriteTime = oldestAcceptedWriteTime(cacheHeaders);
+    if (oldestAcceptedWriteTime == Long.MIN_VALUE) {
+      return records;
+    }
+    List<Record> acceptedRecords = new ArrayList<>(records.size());
+    for (Record record : records) {
+      if (record.writtenAtMillis() >= oldestAcceptedWriteTime) {
+        acceptedRecords.add(record);
+      }
+    }
+    return acceptedRecords;
+  }
+
+  /**
+   * @return the write time of the oldest records accepted by the {@link GraphQLCacheHeaders#MAX_AGE} and {@link
+   * GraphQLCacheHeaders#MAX_STALE} headers, or {@link Long#MIN_VALUE} if records of any age are
+   */
+  private long oldestAcceptedWriteTime(CacheHeaders cacheHeaders) {
+    long maxAgeSeconds = headerSeconds(cacheHeaders, GraphQLCacheHeaders.MAX_AGE);
+    if (maxAgeSeconds < 0) {
+      return Long.MIN_VALUE;
+    }
+    long maxStaleSeconds = headerSeconds(cacheHeaders, GraphQLCacheHeaders.MAX_STALE);
+    if (maxStaleSeconds > 0) {
+      // Saturates, so that a very long max stale accepts records of any age rather than none.
+      maxAgeSeconds = maxStaleSeconds > Long.MAX_VALUE - maxAgeSeconds
+          ? Long.MAX_VALUE : maxAgeSeconds + maxStaleSeconds;
+    }
+    // TimeUnit conversions saturate too, and the current time is positive, so the difference cannot overflow.
+    return System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+  }
+
+  /**
+   * @return the number of seconds of the header {@code name}, or -1 if it is absent or is not a non-negative number,
+   * in which case it is ignored
+   */
+  private long headerSeconds(CacheHeaders cacheHeaders, String name) {
+    String value = cacheHeaders.headerValue(name);
+    if (value == null) {
+      return -1;
+    }
+    try {
+      long seconds = Long.parseLong(value.trim());
+      if (seconds >= 0) {
+        return seconds;
+      }
+    } catch (NumberFormatException e) {
+      // Logged below.
+    }
+    logger.w("Ignoring cache header %s with invalid value %s", name, value);
+    return -1;
   }
 
   @Nonnull public Set<String> merge(@Nonnull Collection<Record> recordSet, @Nonnull CacheHeaders cacheHeaders) {
-    return optimisticCache.merge(checkNotNull(recordSet, "recordSet == null"), cacheHeaders);
+    garbageCollector.onWrite(checkNotNull(recordSet, "recordSet == null"));
+    return invalidateResponses(optimisticCache.merge(recordSet, cacheHeaders));
   }
 
   @Override public Set<String> merge(Record record, @Nonnull CacheHeaders cacheHeaders) {
-    return optimisticCache.merge(checkNotNull(record, "record == null"), cacheHeaders);
+    garbageCollector.onWrite(Collections.singletonList(checkNotNull(record, "record == null")));
+    return invalidateResponses(optimisticCache.merge(record, cacheHeaders));
+  }
+
+  /**
+   * Drops the memoized responses which read one of {@code changedKeys}, as part of the write which changed them so
+   * that no later read returns the previous data, even if the change is never published.
+   *
+   * @return {@code changedKeys}
+   */
+  private Set<String> invalidateResponses(Set<String> changedKeys) {
+    if (responseMemo != null) {
+      responseMemo.invalidate(changedKeys);
+    }
+    return changedKeys;
+  }
+
+  private void invalidateRecordResponses(Collection<String> recordKeys) {
+    if (responseMemo != null) {
+      responseMemo.invalidateRecords(recordKeys);
+    }
   }
 
   @Override public CacheKeyResolver cacheKeyResolver() {
@@ -325,7 +436,7 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
       @Override protected Set<String> perform() {
         return writeTransaction(new Transaction<WriteableStore, Set<String>>() {
           @Override public Set<String> execute(WriteableStore cache) {
-            return optimisticCache.removeOptimisticUpdates(mutationId);
+            return invalidateResponses(optimisticCache.removeOptimisticUpdates(mutationId));
           }
         });
       }
@@ -338,7 +449,7 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
       @Override protected Boolean perform() {
         Set<String> changedKeys = writeTransaction(new Transaction<WriteableStore, Set<String>>() {
           @Override public Set<String> execute(WriteableStore cache) {
-            return optimisticCache.removeOptimisticUpdates(mutationId);
+            return invalidateResponses(optimisticCache.removeOptimisticUpdates(mutationId));
           }
         });
         publish(changedKeys);
@@ -347,6 +458,81 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
     };
   }
 
+  @Nonnull @Override public GraphQLStoreOperation<Integer> collectGarbage() {
+    return new GraphQLStoreOperation<Integer>(dispatcher) {
+      @Override protected Integer perform() {
+        return garbageCollector.collect();
+      }
+    };
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Long> trimMemory(@Nonnull final MemoryTrimLevel level) {
+    checkNotNull(level, "level == null");
+    return new GraphQLStoreOperation<Long>(dispatcher) {
+      @Override protected Long perform() {
+        return writeTransaction(new Transaction<WriteableStore, Long>() {
+          @Override public Long execute(WriteableStore cache) {
+            // The memoized responses are read again from the records when needed, so they go at every level.
+            if (responseMemo != null) {
+              responseMemo.clear();
+            }
+            return optimisticCache.trimMemory(level);
+          }
+        });
+      }
+    };
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Integer> exportSnapshot(@Nonnull final OutputStream outputStream) {
+    checkNotNull(outputStream, "outputStream == null");
+    return new GraphQLStoreOperation<Integer>(dispatcher) {
+      @Override protected Integer perform() {
+        return readTransaction(new Transaction<ReadableStore, Integer>() {
+          @Override public Integer execute(ReadableStore cache) {
+            // The optimistic updates are skipped, as the mutations they are waiting for are not in the snapshot.
+            NormalizedCache normalizedCache = optimisticCache.nextCache().orNull();
+            if (normalizedCache == null) {
+              return 0;
+            }
+            try {
+              return CacheSnapshot.write(normalizedCache, outputStream);
+            } catch (IOException e) {
+              throw new RuntimeException("Failed to export cache snapshot", e);
+            }
+          }
+        });
+      }
+    };
+  }
+
+  @Nonnull @Override public GraphQLStoreOperation<Integer> importSnapshot(@Nonnull final InputStream inputStream) {
+    checkNotNull(inputStream, "inputStream == null");
+    return new GraphQLStoreOperation<Integer>(dispatcher) {
+      @Override protected Integer perform() {
+        ChangeSet changedKeys = new ChangeSet();
+        int count = 0;
+        try {
+          CacheSnapshot.Reader reader = new CacheSnapshot.Reader(inputStream);
+          // Records are decoded outside of the transactions, so that they only last for the bulk writes.
+          for (List<Record> batch = reader.readBatch(); !batch.isEmpty(); batch = reader.readBatch()) {
+            final List<Record> records = batch;
+            changedKeys.addAll(writeTransaction(new Transaction<WriteableStore, Set<String>>() {
+              @Override public Set<String> execute(WriteableStore cache) {
+                return cache.merge(records, CacheHeaders.NONE);
+              }
+            }));
+            count += records.size();
+          }
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to import cache snapshot", e);
+        } finally {
+          publish(changedKeys);
+        }
+        return count;
+      }
+    };
+  }
+
   private <D extends Operation.Data, T, V extends Operation.Variables> T doRead(final Operation<D, T, V> operation) {
     return readTransaction(new Transaction<ReadableStore, T>() {
       @Nullable @Override public T execute(ReadableStore cache) {
@@ -369,8 +555,23 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
   private <D extends Operation.Data, T, V extends Operation.Variables> Response<T> doRead(
       final Operation<D, T, V> operation, final ResponseFieldMapper<D> responseFieldMapper,
       final ResponseNormalizer<Record> responseNormalizer, final CacheHeaders cacheHeaders) {
+    // Reads bound by age or evicting the records they read are not memoized, as they would not give the same response.
+    final boolean memoized = responseMemo != null && !cacheHeaders.hasHeader(GraphQLCacheHeaders.MAX_AGE)
+        && !cacheHeaders.hasHeader(GraphQLCacheHeaders.EVICT_AFTER_READ);
+    final ResponseMemo.Key memoKey = memoized ? ResponseMemo.key(operation) : null;
     return readTransaction(new Transaction<ReadableStore, Response<T>>() {
       @Nonnull @Override public Response<T> execute(ReadableStore cache) {
+        long memoGeneration = 0;
+        if (memoized) {
+          memoGeneration = responseMemo.generation();
+          ResponseMemo.Entry entry = responseMemo.get(memoKey);
+          // The records are touched as reading them would, so that the memory cache keeps them and records them in
+          // its hot set, and the response is read again if one of them was evicted or has expired.
+          if (entry != null && optimisticCache.touchRecords(entry.recordKeys())) {
+            return entry.response();
+          }
+        }
+
         Record rootRecord = cache.read(CacheKeyResolver.rootKeyForOperation(operation).key(), cacheHeaders);
         if (rootRecord == null) {
           return Response.<T>builder(operation).fromCache(true).build();
@@ -383,11 +584,16 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
         try {
           responseNormalizer.willResolveRootQuery(operation);
           T data = operation.wrapData(responseFieldMapper.map(responseReader));
-          return Response.<T>builder(operation)
+          Response<T> response = Response.<T>builder(operation)
               .data(data)
               .fromCache(true)
               .dependentKeys(responseNormalizer.dependentKeys())
               .build();
+          Set<String> dependentKeys = responseNormalizer.dependentKeys();
+          if (memoized && data != null && dependentKeys instanceof ChangeSet && !dependentKeys.isEmpty()) {
+            responseMemo.put(memoKey, response, (ChangeSet) dependentKeys, memoGeneration);
+          }
+          return response;
         } catch (Exception e) {
           logger.e(e, "Failed to read cache response");
           return Response.<T>builder(operation).fromCache(true).build();
@@ -429,11 +635,12 @@ public final class RealAppSyncStore implements ApolloStore, ReadableStore, Write
         if (optimistic) {
           List<Record> updatedRecords = new ArrayList<>();
           for (Record record : records) {
-            updatedRecords.add(record.toBuilder().mutationId(mutationId).build());
+            updatedRecords.add(record.toBuilder().mutationId(mutationId).buildSharingFields());
           }
-          return optimisticCache.mergeOptimisticUpdates(updatedRecords);
+          garbageCollector.onWrite(updatedRecords);
+          return invalidateResponses(optimisticCache.mergeOptimisticUpdates(updatedRecords));
         } else {
-          return optimisticCache.merge(records, CacheHeaders.NONE);
+          return merge(records, CacheHeaders.NONE);
         }
       }
     });
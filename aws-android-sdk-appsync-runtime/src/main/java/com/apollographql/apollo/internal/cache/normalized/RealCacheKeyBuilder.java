@@ -13,6 +13,7 @@ import com.apollographql.apollo.api.ResponseField;
 import com.apollographql.apollo.internal.json.JsonWriter;
 import com.apollographql.apollo.internal.json.SortedInputFieldMapWriter;
 import com.apollographql.apollo.internal.json.Utils;
+import com.apollographql.apollo.internal.util.KeyInterner;
 
 import javax.annotation.Nonnull;
 
@@ -48,7 +49,8 @@ public class RealCacheKeyBuilder implements CacheKeyBuilder {
             jsonWriter.setSerializeNulls(true);
             Utils.writeToJson(resolvedArguments, jsonWriter);
             jsonWriter.close();
-            return String.format("%s(%s)", field.fieldName(), buffer.readUtf8());
+            // Interned, as the same field is normalized with the same arguments into every record of the type.
+      return KeyInterner.intern(String.format("%s(%s)", field.fieldName(), buffer.readUtf8()));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -11,30 +11,75 @@ import com.apollographql.apollo.cache.normalized.CacheReference;
 import com.apollographql.apollo.cache.normalized.Record;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Estimates the memory taken by records, counting strings as their UTF-8 length, which is computed without encoding
+ * them. {@link Record} keeps its estimate up to date through {@link Record#mergeWith(Record)} with
+ * {@link #byteChange(Object, Object)}, so records are weighed once.
+ */
 public final class RecordWeigher {
 
   private static final int SIZE_OF_BOOLEAN = 16;
+  private static final int SIZE_OF_INTEGER = 16;
+  private static final int SIZE_OF_LONG = 24;
   private static final int SIZE_OF_BIG_DECIMAL = 32;
+  private static final int SIZE_OF_BIG_INTEGER_OVERHEAD = 40;
   private static final int SIZE_OF_ARRAY_OVERHEAD = 16;
+  private static final int SIZE_OF_MAP_OVERHEAD = 48;
+  private static final int SIZE_OF_MAP_ENTRY = 32;
   private static final int SIZE_OF_RECORD_OVERHEAD = 16;
   private static final int SIZE_OF_CACHE_REFERENCE_OVERHEAD = 16;
   private static final int SIZE_OF_NULL = 4;
+  // Reference to the value of a field. Its name is held by the shape of the record, shared with other records.
+  private static final int SIZE_OF_FIELD_SLOT = 4;
 
   public static int byteChange(Object newValue, Object oldValue) {
     return weighField(newValue) - weighField(oldValue);
   }
 
+  /**
+   * @return the bytes added to a record by a new field of value {@code value}
+   */
+  public static int fieldBytes(Object value) {
+    return SIZE_OF_FIELD_SLOT + weighField(value);
+  }
+
   public static int calculateBytes(Record record) {
-    int size = SIZE_OF_RECORD_OVERHEAD + record.key().getBytes().length;
-    for (Map.Entry<String, Object> field : record.fields().entrySet()) {
-      size += (field.getKey().getBytes().length + weighField(field.getValue()));
+    int size = SIZE_OF_RECORD_OVERHEAD + utf8Length(record.key());
+    for (Object value : record.fields().values()) {
+      size += fieldBytes(value);
     }
     return size;
   }
 
+  /**
+   * @return the number of bytes of {@code value} encoded in UTF-8, as {@code value.getBytes("UTF-8").length} but
+   * without encoding it
+   */
+  public static int utf8Length(CharSequence value) {
+    int length = 0;
+    for (int i = 0, size = value.length(); i < size; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (!Character.isSurrogate(c)) {
+        length += 3;
+      } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        // Unpaired surrogates are encoded as '?'.
+        length++;
+      }
+    }
+    return length;
+  }
+
   private static int weighField(Object field) {
     if (field instanceof List) {
       int size = SIZE_OF_ARRAY_OVERHEAD;
@@ -44,13 +89,25 @@ public final class RecordWeigher {
       return size;
     }
     if (field instanceof String) {
-      return ((String) field).getBytes().length;
+      return utf8Length((String) field);
     } else if (field instanceof Boolean) {
       return SIZE_OF_BOOLEAN;
     } else if (field instanceof BigDecimal) {
       return SIZE_OF_BIG_DECIMAL;
+    } else if (field instanceof BigInteger) {
+      return SIZE_OF_BIG_INTEGER_OVERHEAD + ((BigInteger) field).bitLength() / 8;
+    } else if (field instanceof Long || field instanceof Double) {
+      return SIZE_OF_LONG;
+    } else if (field instanceof Number) {
+      return SIZE_OF_INTEGER;
     } else if (field instanceof CacheReference) {
-      return SIZE_OF_CACHE_REFERENCE_OVERHEAD + ((CacheReference) field).key().getBytes().length;
+      return SIZE_OF_CACHE_REFERENCE_OVERHEAD + utf8Length(((CacheReference) field).key());
+    } else if (field instanceof Map) {
+      int size = SIZE_OF_MAP_OVERHEAD;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) field).entrySet()) {
+        size += SIZE_OF_MAP_ENTRY + weighField(entry.getKey()) + weighField(entry.getValue());
+      }
+      return size;
     } else if (field == null) {
       return SIZE_OF_NULL;
     }
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
+import com.apollographql.apollo.internal.json.SortedInputFieldMapWriter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded memo of the responses read from the cache by {@link RealAppSyncStore}, keyed by operation and variables, so
+ * that reading the same query again costs a map lookup instead of walking the records and mapping the data again.
+ *
+ * Each response is kept with the record fields it was read from, and is dropped as soon as one of them changes.
+ * Responses are indexed by the keys of their records, so that a change only checks the responses which read one of the
+ * changed records. Changes which only give whole keys, rather than a {@link ChangeSet}, check every response.
+ *
+ * A memoized response is only returned once its records were touched with
+ * {@link com.apollographql.apollo.cache.normalized.NormalizedCache#touchRecords(Collection)}, which records the reads
+ * as loading the records would, and tells whether one of them was evicted or expired, in which case the response is
+ * read again.
+ *
+ * The least recently read response is dropped once {@code maxSize} responses are kept. Thread safe.
+ */
+final class ResponseMemo {
+  private static final Comparator<String> VARIABLE_NAME_COMPARATOR = new Comparator<String>() {
+    @Override public int compare(String first, String second) {
+      return first.compareTo(second);
+    }
+  };
+
+  private final int maxSize;
+  private final LinkedHashMap<Key, Entry> entries;
+  private final Map<String, Set<Key>> keysByRecord = new HashMap<>();
+  // Incremented by every invalidation, so that a response read before a change is not put back after it.
+  private long generation;
+
+  ResponseMemo(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * @return the key of the responses to {@code operation}, which is the same for operations with equal variables
+   */
+  @Nonnull static Key key(@Nonnull Operation operation) {
+    SortedInputFieldMapWriter variablesWriter = new SortedInputFieldMapWriter(VARIABLE_NAME_COMPARATOR);
+    try {
+      operation.variables().marshaller().marshal(variablesWriter);
+    } catch (IOException e) {
+      // should never happen
+      throw new RuntimeException(e);
+    }
+    return new Key(operation.operationId(), variablesWriter.map());
+  }
+
+  /**
+   * @return the current generation, to pass to {@link #put(Key, Response, ChangeSet, long)} once the response is read
+   */
+  synchronized long generation() {
+    return generation;
+  }
+
+  @Nullable synchronized Entry get(@Nonnull Key key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Keeps {@code response}, read from the fields {@code dependentKeys}, unless the memo was invalidated since
+   * {@code generation} was taken.
+   */
+  synchronized void put(@Nonnull Key key, @Nonnull Response<?> response, @Nonnull ChangeSet dependentKeys,
+      long generation) {
+    if (generation != this.generation) {
+      return;
+    }
+    Entry previous = entries.remove(key);
+    if (previous != null) {
+      unindex(key, previous);
+    }
+    Entry entry = new Entry(response, dependentKeys);
+    entries.put(key, entry);
+    for (String recordKey : dependentKeys.recordKeys()) {
+      Set<Key> keys = keysByRecord.get(recordKey);
+      if (keys == null) {
+        keys = new HashSet<>();
+        keysByRecord.put(recordKey, keys);
+      }
+      keys.add(key);
+    }
+    if (entries.size() > maxSize) {
+      Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+      Map.Entry<Key, Entry> eldestEntry = eldest.next();
+      eldest.remove();
+      unindex(eldestEntry.getKey(), eldestEntry.getValue());
+    }
+  }
+
+  /**
+   * Drops the responses which read one of {@code changedKeys}, as published to the watchers.
+   */
+  synchronized void invalidate(@Nonnull Set<String> changedKeys) {
+    if (changedKeys.isEmpty()) {
+      return;
+    }
+    generation++;
+    if (entries.isEmpty()) {
+      return;
+    }
+    Collection<Key> candidates;
+    if (changedKeys instanceof ChangeSet && ((ChangeSet) changedKeys).wholeKeys().isEmpty()) {
+      candidates = new HashSet<>();
+      for (String recordKey : ((ChangeSet) changedKeys).recordKeys()) {
+        Set<Key> keys = keysByRecord.get(recordKey);
+        if (keys != null) {
+          candidates.addAll(keys);
+        }
+      }
+    } else {
+      candidates = new HashSet<>(entries.keySet());
+    }
+    for (Key key : candidates) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.dependentKeys.intersects(changedKeys)) {
+        entries.remove(key);
+        unindex(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Drops the responses which read any field of the records {@code recordKeys}, such as removed records.
+   */
+  synchronized void invalidateRecords(@Nonnull Collection<String> recordKeys) {
+    generation++;
+    for (String recordKey : recordKeys) {
+      Set<Key> keys = keysByRecord.get(recordKey);
+      if (keys == null) {
+        continue;
+      }
+      for (Key key : new HashSet<>(keys)) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+          unindex(key, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops all the responses.
+   *
+   * @return the number of responses dropped
+   */
+  synchronized int clear() {
+    generation++;
+    int size = entries.size();
+    entries.clear();
+    keysByRecord.clear();
+    return size;
+  }
+
+  private void unindex(Key key, Entry entry) {
+    for (String recordKey : entry.dependentKeys.recordKeys()) {
+      Set<Key> keys = keysByRecord.get(recordKey);
+      if (keys != null && keys.remove(key) && keys.isEmpty()) {
+        keysByRecord.remove(recordKey);
+      }
+    }
+  }
+
+  static final class Key {
+    private final String operationId;
+    private final Map<String, Object> variables;
+    private final int hashCode;
+
+    Key(String operationId, Map<String, Object> variables) {
+      this.operationId = operationId;
+      this.variables = variables;
+      this.hashCode = 31 * operationId.hashCode() + variables.hashCode();
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hashCode == other.hashCode && operationId.equals(other.operationId) && variables.equals(other.variables);
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  static final class Entry {
+    final Response<?> response;
+    final ChangeSet dependentKeys;
+
+    Entry(Response<?> response, ChangeSet dependentKeys) {
+      this.response = response;
+      this.dependentKeys = dependentKeys;
+    }
+
+    @SuppressWarnings("unchecked") <T> Response<T> response() {
+      return (Response<T>) response;
+    }
+
+    /**
+     * @return the keys of the records the response was read from
+     */
+    Set<String> recordKeys() {
+      return dependentKeys.recordKeys();
+    }
+  }
+}
@@ -11,17 +11,18 @@ import com.apollographql.apollo.api.ResponseField;
 import com.apollographql.apollo.api.Operation;
 import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
 import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
 import com.apollographql.apollo.cache.normalized.CacheReference;
 import com.apollographql.apollo.cache.normalized.Record;
 import com.apollographql.apollo.cache.normalized.RecordSet;
 import com.apollographql.apollo.internal.response.ResponseReaderShadow;
+import com.apollographql.apollo.internal.util.KeyInterner;
 import com.apollographql.apollo.internal.util.SimpleStack;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -30,13 +31,14 @@ import javax.annotation.Nullable;
 
 public abstract class ResponseNormalizer<R> implements ResponseReaderShadow<R> {
   private SimpleStack<List<String>> pathStack;
-  private SimpleStack<Record> recordStack;
+  private SimpleStack<Record.Builder> recordStack;
   private SimpleStack<Object> valueStack;
   private List<String> path;
   private Record.Builder currentRecordBuilder;
+  private boolean rootRecordInSet;
 
   private RecordSet recordSet = new RecordSet();
-  private Set<String> dependentKeys = Collections.emptySet();
+  private ChangeSet dependentKeys = new ChangeSet();
 
   public Collection<Record> records() {
     return recordSet.allRecords();
@@ -56,15 +58,17 @@ public abstract class ResponseNormalizer<R> implements ResponseReaderShadow<R> {
   }
 
   @Override public void didResolve(ResponseField field, Operation.Variables variables) {
-    path.remove(path.size() - 1);
+    // The path ends with the cache key built for this field by willResolve.
+    String cacheKey = path.remove(path.size() - 1);
     Object value = valueStack.pop();
-    String cacheKey = cacheKeyBuilder().build(field, variables);
-    String dependentKey = currentRecordBuilder.key() + "." + cacheKey;
-    dependentKeys.add(dependentKey);
+    dependentKeys.add(currentRecordBuilder.key(), cacheKey);
     currentRecordBuilder.addField(cacheKey, value);
 
-    if (recordStack.isEmpty()) {
-      recordSet.merge(currentRecordBuilder.build());
+    if (recordStack.isEmpty() && !rootRecordInSet) {
+      Record rootRecord = currentRecordBuilder.buildSharingFields();
+      recordSet.merge(rootRecord);
+      // The record shares the fields of the builder, so once it is in the set the fields resolved next are too.
+      rootRecordInSet = recordSet.get(rootRecord.key()) == rootRecord;
     }
   }
 
@@ -80,28 +84,34 @@ public abstract class ResponseNormalizer<R> implements ResponseReaderShadow<R> {
     if (cacheKey == CacheKey.NO_KEY) {
       cacheKeyValue = pathToString();
     } else {
+      // Shared with the references to the record, which intern their keys.
+      cacheKeyValue = KeyInterner.intern(cacheKeyValue);
       path = new ArrayList<>();
       path.add(cacheKeyValue);
     }
-    recordStack.push(currentRecordBuilder.build());
+    recordStack.push(currentRecordBuilder);
     currentRecordBuilder = Record.builder(cacheKeyValue);
   }
 
   @Override public void didResolveObject(ResponseField field, Optional<R> objectSource) {
     path = pathStack.pop();
     if (objectSource.isPresent()) {
-      Record completedRecord = currentRecordBuilder.build();
+      Record completedRecord = currentRecordBuilder.buildSharingFields();
       valueStack.push(new CacheReference(completedRecord.key()));
       dependentKeys.add(completedRecord.key());
       recordSet.merge(completedRecord);
     }
-    currentRecordBuilder = recordStack.pop().toBuilder();
+    currentRecordBuilder = recordStack.pop();
   }
 
   @Override public void didResolveList(List array) {
-    List<Object> parsedArray = new ArrayList<>(array.size());
-    for (int i = 0, size = array.size(); i < size; i++) {
-      parsedArray.add(0, valueStack.pop());
+    int size = array.size();
+    List<Object> parsedArray = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      parsedArray.add(null);
+    }
+    for (int i = size - 1; i >= 0; i--) {
+      parsedArray.set(i, valueStack.pop());
     }
     valueStack.push(parsedArray);
   }
@@ -126,10 +136,11 @@ public abstract class ResponseNormalizer<R> implements ResponseReaderShadow<R> {
     pathStack = new SimpleStack<>();
     recordStack = new SimpleStack<>();
     valueStack = new SimpleStack<>();
-    dependentKeys = new HashSet<>();
+    dependentKeys = new ChangeSet();
 
     path = new ArrayList<>();
     currentRecordBuilder = Record.builder(cacheKey.key());
+    rootRecordInSet = false;
     recordSet = new RecordSet();
   }
 
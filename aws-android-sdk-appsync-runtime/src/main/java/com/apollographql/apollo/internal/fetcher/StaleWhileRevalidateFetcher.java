@@ -0,0 +1,164 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.fetcher;
+
+import com.apollographql.apollo.cache.GraphQLCacheHeaders;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.fetcher.ResponseFetcher;
+import com.apollographql.apollo.interceptor.ApolloInterceptor;
+import com.apollographql.apollo.interceptor.ApolloInterceptorChain;
+import com.apollographql.apollo.internal.ApolloLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Signals the apollo client to fetch the data from the normalized cache when it was written within the max age, and
+ * otherwise from the network. Data past its max age but within the max stale time is still returned from the cache at
+ * once, and then fetched again from the network in the background, to update the cache for later requests. Watchers are
+ * only notified if the fetched records differ from the cached ones.
+ *
+ * If the data is not in the cache, or is older than both, it is fetched from the network like with {@link
+ * CacheFirstFetcher}.
+ */
+public final class StaleWhileRevalidateFetcher implements ResponseFetcher {
+  // Shared by all the fetchers, so that revalidations do not compete with the calls the app waits for.
+  private static final Executor REVALIDATION_EXECUTOR = createRevalidationExecutor();
+
+  private final String maxAgeSeconds;
+  private final String maxStaleSeconds;
+
+  public StaleWhileRevalidateFetcher(long maxAge, long maxStale, @Nonnull TimeUnit timeUnit) {
+    if (maxAge < 0 || maxStale < 0) {
+      throw new IllegalArgumentException("maxAge and maxStale must not be negative");
+    }
+    this.maxAgeSeconds = String.valueOf(timeUnit.toSeconds(maxAge));
+    this.maxStaleSeconds = String.valueOf(timeUnit.toSeconds(maxStale));
+  }
+
+  @Override public ApolloInterceptor provideInterceptor(final ApolloLogger apolloLogger) {
+    return new StaleWhileRevalidateInterceptor(apolloLogger);
+  }
+
+  private static Executor createRevalidationExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override public Thread newThread(@Nonnull Runnable runnable) {
+        Thread thread = new Thread(runnable, "AppSync cache revalidation");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private final class StaleWhileRevalidateInterceptor implements ApolloInterceptor {
+    private final ApolloLogger logger;
+    private volatile boolean disposed;
+
+    StaleWhileRevalidateInterceptor(ApolloLogger logger) {
+      this.logger = logger;
+    }
+
+    @Override
+    public void interceptAsync(@Nonnull final InterceptorRequest request, @Nonnull final ApolloInterceptorChain chain,
+        @Nonnull final Executor dispatcher, @Nonnull final CallBack callBack) {
+      InterceptorRequest freshRequest = request.toBuilder()
+          .fetchFromCache(true)
+          .cacheHeaders(request.cacheHeaders.toBuilder()
+              .addHeader(GraphQLCacheHeaders.MAX_AGE, maxAgeSeconds)
+              .build())
+          .build();
+      chain.proceedAsync(freshRequest, dispatcher, new CallBack() {
+        @Override public void onResponse(@Nonnull InterceptorResponse response) {
+          callBack.onResponse(response);
+        }
+
+        @Override public void onFailure(@Nonnull ApolloException e) {
+          if (!disposed) {
+            fetchStale(request, chain, dispatcher, callBack);
+          }
+        }
+
+        @Override public void onCompleted() {
+          callBack.onCompleted();
+        }
+
+        @Override public void onFetch(FetchSourceType sourceType) {
+          callBack.onFetch(sourceType);
+        }
+      });
+    }
+
+    @Override public void dispose() {
+      disposed = true;
+    }
+
+    private void fetchStale(final InterceptorRequest request, final ApolloInterceptorChain chain,
+        final Executor dispatcher, final CallBack callBack) {
+      InterceptorRequest staleRequest = request.toBuilder()
+          .fetchFromCache(true)
+          .cacheHeaders(request.cacheHeaders.toBuilder()
+              .addHeader(GraphQLCacheHeaders.MAX_AGE, maxAgeSeconds)
+              .addHeader(GraphQLCacheHeaders.MAX_STALE, maxStaleSeconds)
+              .build())
+          .build();
+      chain.proceedAsync(staleRequest, dispatcher, new CallBack() {
+        @Override public void onResponse(@Nonnull InterceptorResponse response) {
+          callBack.onResponse(response);
+        }
+
+        @Override public void onFailure(@Nonnull ApolloException e) {
+          if (!disposed) {
+            InterceptorRequest networkRequest = request.toBuilder().fetchFromCache(false).build();
+            chain.proceedAsync(networkRequest, dispatcher, callBack);
+          }
+        }
+
+        @Override public void onCompleted() {
+          callBack.onCompleted();
+          if (!disposed) {
+            revalidate(request, chain);
+          }
+        }
+
+        @Override public void onFetch(FetchSourceType sourceType) {
+          callBack.onFetch(sourceType);
+        }
+      });
+    }
+
+    /**
+     * Fetches the data from the network for the cache interceptor to store, without returning it to the caller.
+     */
+    private void revalidate(final InterceptorRequest request, ApolloInterceptorChain chain) {
+      InterceptorRequest networkRequest = request.toBuilder().fetchFromCache(false).build();
+      chain.proceedAsync(networkRequest, REVALIDATION_EXECUTOR, new CallBack() {
+        @Override public void onResponse(@Nonnull InterceptorResponse response) {
+        }
+
+        @Override public void onFailure(@Nonnull ApolloException e) {
+          logger.d(e, "Failed to revalidate the cached data of %s", request.operation.name().name());
+        }
+
+        @Override public void onCompleted() {
+        }
+
+        @Override public void onFetch(FetchSourceType sourceType) {
+        }
+      });
+    }
+  }
+}
@@ -18,14 +18,36 @@ import com.apollographql.apollo.internal.cache.normalized.ReadableStore;
 import com.apollographql.apollo.internal.cache.normalized.CacheKeyBuilder;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Resolves field values of cached records, following {@link CacheReference}s into the {@link ReadableStore}.
+ *
+ * References are resolved a whole level of the response tree at a time: the first time a field holding references is
+ * resolved on a record, the same field is resolved on all of that record's siblings (the records read together with it
+ * for the parent field) and every referenced record is read with a single
+ * {@link ReadableStore#read(Collection, CacheHeaders)} call. The records of the next level are read the same way, so a
+ * list of N items costs one bulk read per selection level instead of N single reads.
+ *
+ * An instance keeps the records it has read, so it must only be used for a single response read.
+ */
 public final class CacheFieldValueResolver implements FieldValueResolver<Record> {
   private final ReadableStore readableCache;
   private final Operation.Variables variables;
   private final CacheKeyResolver cacheKeyResolver;
   private final CacheHeaders cacheHeaders;
   private final CacheKeyBuilder cacheKeyBuilder;
+  private final Map<String, Record> resolvedRecords = new HashMap<>();
+  private final Map<Record, List<Record>> siblingRecords = new IdentityHashMap<>();
+  private final Map<List<Record>, Set<String>> prefetchedFieldKeys = new IdentityHashMap<>();
 
   /**
    * @deprecated Since 2.8.1. This method will be removed in the next minor version.
@@ -60,7 +82,11 @@ public final class CacheFieldValueResolver implements FieldValueResolver<Record>
         return (T) valueForObject(record, field);
 
       case LIST: {
-        return (T) valueForList((List) fieldValue(record, field));
+        List values = fieldValue(record, field);
+        if (values != null) {
+          prefetchReferences(record, field);
+        }
+        return (T) valueForList(values);
       }
 
       default:
@@ -78,7 +104,8 @@ public final class CacheFieldValueResolver implements FieldValueResolver<Record>
     }
 
     if (cacheReference != null) {
-      Record referencedRecord = readableCache.read(cacheReference.key(), cacheHeaders);
+      prefetchReferences(record, field);
+      Record referencedRecord = read(cacheReference.key());
       if (referencedRecord == null) {
         // we are unable to find record in the cache by reference,
         // means it was removed intentionally by using imperative store API or
@@ -100,7 +127,7 @@ public final class CacheFieldValueResolver implements FieldValueResolver<Record>
     for (Object value : values) {
       if (value instanceof CacheReference) {
         CacheReference reference = (CacheReference) value;
-        Record referencedRecord = readableCache.read(reference.key(), cacheHeaders);
+        Record referencedRecord = read(reference.key());
         if (referencedRecord == null) {
           // we are unable to find record in the cache by reference,
           // means it was removed intentionally by using imperative store API or
@@ -118,6 +145,65 @@ public final class CacheFieldValueResolver implements FieldValueResolver<Record>
   }
 
 
+  private Record read(String key) {
+    Record record = resolvedRecords.get(key);
+    if (record == null) {
+      record = readableCache.read(key, cacheHeaders);
+    }
+    return record;
+  }
+
+  /**
+   * Reads, in one batch, the records referenced by {@code field} from {@code record} and all of its siblings. The
+   * records read become siblings of each other for the next level.
+   */
+  private void prefetchReferences(Record record, ResponseField field) {
+    List<Record> siblings = siblingRecords.get(record);
+    if (siblings == null) {
+      siblings = Collections.singletonList(record);
+      siblingRecords.put(record, siblings);
+    }
+    Set<String> prefetchedKeys = prefetchedFieldKeys.get(siblings);
+    if (prefetchedKeys == null) {
+      prefetchedKeys = new HashSet<>();
+      prefetchedFieldKeys.put(siblings, prefetchedKeys);
+    }
+    String fieldKey = cacheKeyBuilder.build(field, variables);
+    if (!prefetchedKeys.add(fieldKey)) {
+      return;
+    }
+
+    Set<String> keys = new LinkedHashSet<>();
+    CacheKey fieldCacheKey = cacheKeyResolver.fromFieldArguments(field, variables);
+    if (fieldCacheKey != CacheKey.NO_KEY) {
+      keys.add(fieldCacheKey.key());
+    } else {
+      for (Record sibling : siblings) {
+        collectReferenceKeys(sibling.field(fieldKey), keys);
+      }
+    }
+    keys.removeAll(resolvedRecords.keySet());
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    List<Record> records = new ArrayList<>(readableCache.read(keys, cacheHeaders));
+    for (Record referencedRecord : records) {
+      resolvedRecords.put(referencedRecord.key(), referencedRecord);
+      siblingRecords.put(referencedRecord, records);
+    }
+  }
+
+  private static void collectReferenceKeys(Object value, Set<String> keys) {
+    if (value instanceof CacheReference) {
+      keys.add(((CacheReference) value).key());
+    } else if (value instanceof List) {
+      for (Object item : (List) value) {
+        collectReferenceKeys(item, keys);
+      }
+    }
+  }
+
   @SuppressWarnings("unchecked") private <T> T fieldValue(Record record, ResponseField field) {
     String fieldKey = cacheKeyBuilder.build(field, variables);
     if (!record.hasField(fieldKey)) {
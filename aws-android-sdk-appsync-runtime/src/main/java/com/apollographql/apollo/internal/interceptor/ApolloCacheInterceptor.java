@@ -8,12 +8,12 @@
 package com.apollographql.apollo.internal.interceptor;
 
 import com.apollographql.apollo.cache.normalized.ApolloStore;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
 import com.apollographql.apollo.interceptor.ApolloInterceptor;
 import com.apollographql.apollo.interceptor.ApolloInterceptorChain;
 import com.apollographql.apollo.api.Operation;
 import com.apollographql.apollo.api.Response;
 import com.apollographql.apollo.api.ResponseFieldMapper;
-import com.apollographql.apollo.api.internal.Function;
 import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.cache.normalized.GraphQLStoreOperation;
 import com.apollographql.apollo.cache.normalized.Record;
@@ -23,11 +23,8 @@ import com.apollographql.apollo.internal.cache.normalized.Transaction;
 import com.apollographql.apollo.internal.cache.normalized.WriteableStore;
 import com.apollographql.apollo.internal.ApolloLogger;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
 
@@ -80,7 +77,7 @@ public final class ApolloCacheInterceptor implements ApolloInterceptor {
               try {
                 Set<String> networkResponseCacheKeys = cacheResponse(networkResponse, request);
                 //Set<String> rolledBackCacheKeys = rollbackOptimisticUpdates(request);
-                Set<String> changedCacheKeys = new HashSet<>();
+                ChangeSet changedCacheKeys = new ChangeSet();
                 //changedCacheKeys.addAll(rolledBackCacheKeys);
                 changedCacheKeys.addAll(networkResponseCacheKeys);
                 publishCacheKeys(changedCacheKeys);
@@ -130,21 +127,14 @@ public final class ApolloCacheInterceptor implements ApolloInterceptor {
 
   private Set<String> cacheResponse(final InterceptorResponse networkResponse,
       final InterceptorRequest request) {
-    final Optional<List<Record>> records = networkResponse.cacheRecords.map(
-        new Function<Collection<Record>, List<Record>>() {
-          @Nonnull @Override public List<Record> apply(@Nonnull Collection<Record> records) {
-            final List<Record> result = new ArrayList<>(records.size());
-            for (Record record : records) {
-              result.add(record.toBuilder().mutationId(request.uniqueId).build());
-            }
-            return result;
-          }
-        }
-    );
-
+    final Optional<Collection<Record>> records = networkResponse.cacheRecords;
     if (!records.isPresent()) {
       return Collections.emptySet();
     }
+    // The records were normalized for this response only, so they are tagged in place rather than copied.
+    for (Record record : records.get()) {
+      record.setMutationId(request.uniqueId);
+    }
 
     try {
       return mApolloStore.writeTransaction(new Transaction<WriteableStore, Set<String>>() {
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.util;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Runtime-wide interner of the strings which repeat across records, such as cache keys, type names and field keys with
+ * arguments, so that the records of a large cache share one copy of each.
+ *
+ * The interner is bounded and lossy: a string goes to one of two slots of a fixed table, replacing what was there if
+ * both are taken, so it only remembers the strings seen recently or often. Slots hold weak references, so that
+ * interned strings no longer used anywhere else can be collected. Interning is not guaranteed, only likely, which
+ * makes it safe to call from any thread without locking.
+ */
+public final class KeyInterner {
+  private static final int TABLE_SIZE = 1 << 13;
+  // Longer strings are unlikely to be repeated keys.
+  private static final int MAX_LENGTH = 128;
+  // Estimated size of a weak reference, with its object header and fields.
+  private static final int REFERENCE_BYTES = 32;
+
+  @SuppressWarnings("unchecked")
+  private static final WeakReference<String>[] TABLE = new WeakReference[TABLE_SIZE];
+
+  private KeyInterner() {
+  }
+
+  /**
+   * @return a string equal to {@code value}, shared with earlier calls for equal strings when still remembered
+   */
+  public static String intern(String value) {
+    if (value == null || value.length() > MAX_LENGTH) {
+      return value;
+    }
+    int hash = value.hashCode();
+    hash ^= hash >>> 16;
+    int slot = hash & (TABLE_SIZE - 1);
+    int otherSlot = slot ^ 1;
+    WeakReference<String>[] table = TABLE;
+
+    WeakReference<String> reference = table[slot];
+    String interned = reference != null ? reference.get() : null;
+    if (interned != null && interned.equals(value)) {
+      return interned;
+    }
+    WeakReference<String> otherReference = table[otherSlot];
+    String otherInterned = otherReference != null ? otherReference.get() : null;
+    if (otherInterned != null && otherInterned.equals(value)) {
+      return otherInterned;
+    }
+    // Fills a free slot first, and otherwise replaces the first slot, keeping the second one for the string that
+    // was the most recently interned before.
+    if (interned == null) {
+      table[slot] = new WeakReference<>(value);
+    } else {
+      table[otherSlot] = reference;
+      table[slot] = new WeakReference<>(value);
+    }
+    return value;
+  }
+
+  /**
+   * Forgets all the interned strings, for example when the system runs low on memory. Strings interned afterwards are
+   * no longer shared with the ones interned before.
+   *
+   * @return an estimate of the bytes released by the table, not counting the strings still used elsewhere
+   */
+  public static long clear() {
+    WeakReference<String>[] table = TABLE;
+    long releasedBytes = 0;
+    for (int i = 0; i < table.length; i++) {
+      if (table[i] != null) {
+        table[i] = null;
+        releasedBytes += REFERENCE_BYTES;
+      }
+    }
+    return releasedBytes;
+  }
+}
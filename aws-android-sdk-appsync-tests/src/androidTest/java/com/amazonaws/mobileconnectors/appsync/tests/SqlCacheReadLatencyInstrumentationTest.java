@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-2020 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ * <p>
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync.tests;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.appsync.cache.normalized.sql.AppSyncSqlHelper;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCache;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.sql.SqlStoragePolicy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks the latency of single record reads from the SQL normalized cache while a large merge is being written,
+ * with the default journal and with write-ahead logging. The percentiles are logged under this class' tag.
+ */
+public final class SqlCacheReadLatencyInstrumentationTest {
+    private static final String TAG = SqlCacheReadLatencyInstrumentationTest.class.getSimpleName();
+    private static final int STORED_RECORD_COUNT = 1000;
+    private static final int MERGED_RECORD_COUNT = 20000;
+    private static final long REASONABLE_WAIT_TIME_MS = TimeUnit.SECONDS.toMillis(60);
+
+    @Test
+    public void readLatencyDuringLargeMergeWithDefaultJournal() throws InterruptedException {
+        readLatencyDuringLargeMerge("default", SqlStoragePolicy.DEFAULT);
+    }
+
+    @Test
+    public void readLatencyDuringLargeMergeWithWriteAheadLogging() throws InterruptedException {
+        readLatencyDuringLargeMerge("wal", SqlStoragePolicy.builder()
+            .writeAheadLogging(true)
+            .synchronous(SqlStoragePolicy.Synchronous.NORMAL)
+            .mmapSize(32 * 1024 * 1024)
+            .build());
+    }
+
+    private static void readLatencyDuringLargeMerge(String name, SqlStoragePolicy storagePolicy)
+            throws InterruptedException {
+        Context context = getTargetContext();
+        String databaseName = "read_latency_" + name + ".db";
+        context.deleteDatabase(databaseName);
+        final SqlNormalizedCache cache =
+            new SqlNormalizedCacheFactory(AppSyncSqlHelper.create(context, databaseName), storagePolicy)
+                .create(RecordFieldJsonAdapter.create());
+        try {
+            List<Record> storedRecords = new ArrayList<>();
+            for (int i = 0; i < STORED_RECORD_COUNT; i++) {
+                storedRecords.add(post("Post:" + i, i));
+            }
+            cache.merge(storedRecords, CacheHeaders.NONE);
+
+            final List<Record> mergedRecords = new ArrayList<>();
+            for (int i = 0; i < MERGED_RECORD_COUNT; i++) {
+                mergedRecords.add(post("Post:merged:" + i, i));
+            }
+            final AtomicBoolean merging = new AtomicBoolean(true);
+            final CountDownLatch mergeStarted = new CountDownLatch(1);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mergeStarted.countDown();
+                    cache.merge(mergedRecords, CacheHeaders.NONE);
+                    merging.set(false);
+                }
+            });
+            writer.start();
+            assertTrue(mergeStarted.await(REASONABLE_WAIT_TIME_MS, TimeUnit.MILLISECONDS));
+
+            List<Long> latenciesNanos = new ArrayList<>();
+            int key = 0;
+            while (merging.get()) {
+                long start = System.nanoTime();
+                assertNotNull(cache.loadRecord("Post:" + key, CacheHeaders.NONE));
+                latenciesNanos.add(System.nanoTime() - start);
+                key = (key + 1) % STORED_RECORD_COUNT;
+            }
+            writer.join(REASONABLE_WAIT_TIME_MS);
+
+            Long[] sorted = latenciesNanos.toArray(new Long[0]);
+            Arrays.sort(sorted);
+            if (sorted.length > 0) {
+                Log.i(TAG, name + ": " + sorted.length + " reads during the merge, p50 "
+                    + micros(sorted, 0.5) + "us, p99 " + micros(sorted, 0.99) + "us, max "
+                    + micros(sorted, 1.0) + "us");
+            }
+        } finally {
+            cache.close();
+            context.deleteDatabase(databaseName);
+        }
+    }
+
+    private static long micros(Long[] sortedNanos, double percentile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.floor(percentile * sortedNanos.length));
+        return TimeUnit.NANOSECONDS.toMicros(sortedNanos[index]);
+    }
+
+    private static Record post(String key, int index) {
+        return Record.builder(key)
+            .addField("__typename", "Post")
+            .addField("id", key)
+            .addField("title", "Title " + index)
+            .addField("content", "Some content of post " + index)
+            .build();
+    }
+}
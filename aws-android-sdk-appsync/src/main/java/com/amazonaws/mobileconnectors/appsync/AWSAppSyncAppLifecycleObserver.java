@@ -12,6 +12,9 @@ import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.OnLifecycleEvent;
 import android.util.Log;
 
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCache;
+
 public class AWSAppSyncAppLifecycleObserver implements LifecycleObserver {
     //Constant for Logging
     private static final String TAG = AWSAppSyncDeltaSync.class.getSimpleName();
@@ -26,5 +29,7 @@ public class AWSAppSyncAppLifecycleObserver implements LifecycleObserver {
     public void stopSomething() {
         Log.v(TAG, "Thread:[" + Thread.currentThread().getId() +"]: Delta Sync: App is in BACKGROUND");
         AWSAppSyncDeltaSync.handleAppBackground();
+        SqlNormalizedCache.flushAllInBackground();
+        LruNormalizedCache.saveHotSetsInBackground();
     }
 }
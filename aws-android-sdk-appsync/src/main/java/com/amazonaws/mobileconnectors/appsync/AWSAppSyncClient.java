@@ -9,6 +9,7 @@ package com.amazonaws.mobileconnectors.appsync;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteOpenHelper;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
@@ -43,6 +44,7 @@ import com.apollographql.apollo.cache.normalized.CacheKey;
 import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
 import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
 import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.sql.SqlStoragePolicy;
 import com.apollographql.apollo.fetcher.ResponseFetcher;
 import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
 import com.apollographql.apollo.internal.util.Cancelable;
@@ -99,7 +101,10 @@ public class AWSAppSyncClient {
     String querySqlStoreName = DEFAULT_QUERY_SQL_STORE_NAME;
     String mutationSqlStoreName = DEFAULT_MUTATION_SQL_STORE_NAME;
     String deltaSyncSqlStoreName = DEFAULT_DELTA_SYNC_SQL_STORE_NAME;
+    String singleSqlStoreName = AppSyncDatabaseHelper.DEFAULT_DATABASE_NAME;
     String clientDatabasePrefix;
+    // The database of the query cache, mutation queue and delta sync metadata when they share one, null otherwise.
+    AppSyncDatabaseHelper sharedDatabaseHelper;
     private final WebSocketConnectionManager webSocketConnectionManager;
 
     private enum AuthMode {
@@ -150,6 +155,12 @@ public class AWSAppSyncClient {
             querySqlStoreName = clientDatabasePrefix + DATABASE_NAME_DELIMITER + DEFAULT_QUERY_SQL_STORE_NAME;
             mutationSqlStoreName = clientDatabasePrefix + DATABASE_NAME_DELIMITER + DEFAULT_MUTATION_SQL_STORE_NAME;
             deltaSyncSqlStoreName = clientDatabasePrefix + DATABASE_NAME_DELIMITER + DEFAULT_DELTA_SYNC_SQL_STORE_NAME;
+            singleSqlStoreName = clientDatabasePrefix + DATABASE_NAME_DELIMITER
+                    + AppSyncDatabaseHelper.DEFAULT_DATABASE_NAME;
+        }
+        if (builder.mUseSingleDatabase) {
+            sharedDatabaseHelper = new AppSyncDatabaseHelper(applicationContext, singleSqlStoreName);
+            sharedDatabaseHelper.importMutationQueue(applicationContext, mutationSqlStoreName);
         }
 
         //Create the Signer interceptor. The notion of "Signer" is overloaded here as apart
@@ -185,13 +196,20 @@ public class AWSAppSyncClient {
 
         //Setup up the local store
         if (builder.mNormalizedCacheFactory == null) {
-            AppSyncSqlHelper appSyncSqlHelper = AppSyncSqlHelper.create(applicationContext, querySqlStoreName);
-
-            //Create NormalizedCacheFactory
-            builder.mNormalizedCacheFactory = new SqlNormalizedCacheFactory(appSyncSqlHelper);
+            if (sharedDatabaseHelper != null) {
+                builder.mNormalizedCacheFactory =
+                        new SqlNormalizedCacheFactory(sharedDatabaseHelper, SqlStoragePolicy.DEFAULT);
+            } else {
+                AppSyncSqlHelper appSyncSqlHelper = AppSyncSqlHelper.create(applicationContext, querySqlStoreName);
+
+                //Create NormalizedCacheFactory
+                builder.mNormalizedCacheFactory = new SqlNormalizedCacheFactory(appSyncSqlHelper);
+            }
         }
 
-        AppSyncMutationsSqlHelper mutationsSqlHelper = new AppSyncMutationsSqlHelper(builder.mContext, mutationSqlStoreName);
+        SQLiteOpenHelper mutationsSqlHelper = sharedDatabaseHelper != null
+                ? sharedDatabaseHelper
+                : new AppSyncMutationsSqlHelper(builder.mContext, mutationSqlStoreName);
         AppSyncMutationSqlCacheOperations sqlCacheOperations = new AppSyncMutationSqlCacheOperations(mutationsSqlHelper);
         mutationsToRetryAfterConflictResolution = new HashMap<>();
 
@@ -240,6 +258,10 @@ public class AWSAppSyncClient {
             clientBuilder.defaultCacheHeaders(builder.mCacheHeaders);
         }
 
+        if (builder.mResponseMemoSize > 0) {
+            clientBuilder.responseMemoSize(builder.mResponseMemoSize);
+        }
+
         if (builder.mDefaultResponseFetcher != null) {
             clientBuilder.defaultResponseFetcher(builder.mDefaultResponseFetcher);
         }
@@ -258,6 +280,9 @@ public class AWSAppSyncClient {
 
         mSyncStore = new AppSyncStore(mApolloClient.apolloStore());
 
+        //Release the memory held by the cache when the system asks the app to trim memory.
+        AWSAppSyncMemoryTrimmer.register(applicationContext, mApolloClient.apolloStore());
+
         optimisticUpdateInterceptor.setStore(mApolloClient.apolloStore());
         subscriptionManager.setStore(mApolloClient.apolloStore());
         subscriptionManager.setScalarTypeAdapters(new ScalarTypeAdapters(builder.customTypeAdapters));
@@ -329,6 +354,7 @@ public class AWSAppSyncClient {
         ResponseFetcher mDefaultResponseFetcher = AppSyncResponseFetchers.CACHE_FIRST;
         CacheHeaders mCacheHeaders;
         PersistentMutationsCallback mPersistentMutationsCallback;
+        int mResponseMemoSize;
 
         // Android
         // Android application context
@@ -343,6 +369,9 @@ public class AWSAppSyncClient {
         // Flag when true uses the prefix passed through the .clientDatabasePrefix(String) builder
         boolean mUseClientDatabasePrefix;
 
+        // Flag when true keeps the query cache, mutation queue and delta sync metadata in one database
+        boolean mUseSingleDatabase;
+
         private Builder() { }
 
         public Builder region(Regions region) {
@@ -436,6 +465,22 @@ public class AWSAppSyncClient {
             return this;
         }
 
+        /**
+         * Specify how many responses read from the cache are kept in memory, so that reading the same query with the
+         * same variables again costs a lookup until one of the records it was read from changes. Disabled by default.
+         *
+         * @param responseMemoSize the number of responses to keep, or 0 to read every response from the cache again.
+         * @return the builder object
+         * @throws IllegalArgumentException if {@code responseMemoSize} is negative
+         */
+        public Builder responseMemoSize(int responseMemoSize) {
+            if (responseMemoSize < 0) {
+                throw new IllegalArgumentException("responseMemoSize must not be negative");
+            }
+            mResponseMemoSize = responseMemoSize;
+            return this;
+        }
+
         /**
          * Read the AppSync section of the awsconfiguration.json file and populate the serverUrl and region
          * variables from the ApiUrl and Region keys. The AuthMode specified in the file will be used to
@@ -506,6 +551,24 @@ public class AWSAppSyncClient {
             return this;
         }
 
+        /**
+         * Flag if true will keep the query cache, the persistent mutation queue and the delta sync metadata
+         * in a single database, opened through a single connection, instead of three. This saves the cost of
+         * opening the other two databases, and writes of the three share one journal.
+         *
+         * The mutations still queued in the separate mutation queue database are moved into the single database
+         * the first time it is used, and that database is deleted. The query cache and the delta sync metadata
+         * start empty, as they can be fetched again.
+         * A NormalizedCacheFactory passed to #normalizedCache(NormalizedCacheFactory) keeps its own storage.
+         *
+         * @param useSingleDatabase use a single database for the client.
+         * @return the builder object.
+         */
+        public Builder useSingleDatabase(boolean useSingleDatabase) {
+            mUseSingleDatabase = useSingleDatabase;
+            return this;
+        }
+
         /**
          * Specify a name that uniquely identifies the AWSAppSyncClient object.
          *
@@ -890,8 +953,9 @@ public class AWSAppSyncClient {
     private void clearDeltaSyncStore() {
         Log.d(TAG, "Clearing the delta sync store.");
 
-        AWSAppSyncDeltaSyncSqlHelper awsAppSyncDeltaSyncSqlHelper =
-                new AWSAppSyncDeltaSyncSqlHelper(
+        SQLiteOpenHelper awsAppSyncDeltaSyncSqlHelper = sharedDatabaseHelper != null
+                ? sharedDatabaseHelper
+                : new AWSAppSyncDeltaSyncSqlHelper(
                     applicationContext,
                     deltaSyncSqlStoreName);
         new AWSAppSyncDeltaSyncDBOperations(awsAppSyncDeltaSyncSqlHelper)
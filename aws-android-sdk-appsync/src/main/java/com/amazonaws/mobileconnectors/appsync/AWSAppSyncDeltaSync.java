@@ -8,6 +8,7 @@
 package com.amazonaws.mobileconnectors.appsync;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import com.amazonaws.mobileconnectors.appsync.fetcher.AppSyncResponseFetchers;
@@ -82,7 +83,7 @@ class AWSAppSyncDeltaSync {
     private boolean cancelled = false;
 
     //Persistence mechanism
-    private static AWSAppSyncDeltaSyncSqlHelper awsAppSyncDeltaSyncSqlHelper = null;
+    private static SQLiteOpenHelper awsAppSyncDeltaSyncSqlHelper = null;
     private AWSAppSyncDeltaSyncDBOperations dbHelper = null;
     private Object initializationLock = new Object();
     private boolean recordCreatedOrFound = false;
@@ -115,8 +116,12 @@ class AWSAppSyncDeltaSync {
             if (awsAppSyncDeltaSyncSqlHelper == null) {
                 //Setup up the local store
                 Log.d(TAG, "Initializing the database");
-                awsAppSyncDeltaSyncSqlHelper = new AWSAppSyncDeltaSyncSqlHelper(mContext,
-                        awsAppSyncClient.deltaSyncSqlStoreName);
+                if (awsAppSyncClient.sharedDatabaseHelper != null) {
+                    awsAppSyncDeltaSyncSqlHelper = awsAppSyncClient.sharedDatabaseHelper;
+                } else {
+                    awsAppSyncDeltaSyncSqlHelper = new AWSAppSyncDeltaSyncSqlHelper(mContext,
+                            awsAppSyncClient.deltaSyncSqlStoreName);
+                }
             }
 
             if (dbHelper == null ) {
@@ -11,6 +11,9 @@ package com.amazonaws.mobileconnectors.appsync;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.appsync.utils.SqlMigrations;
 
 /*
     Delta Sync Database Helper
@@ -23,7 +26,12 @@ class AWSAppSyncDeltaSyncSqlHelper extends SQLiteOpenHelper {
     public static final String COLUMN_LAST_RUN_TIME = "last_run_time";
 
     private static final String DATABASE_NAME = "appsync_deltasync_db";
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 1;
+    private static final String TAG = AWSAppSyncDeltaSyncSqlHelper.class.getSimpleName();
+
+    // Migrations of the delta sync watermarks, one per version after 1. Register a migration with every version bump
+    // so that the last run times survive the upgrade, and bump the version of AppSyncDatabaseHelper too.
+    private static final SqlMigrations MIGRATIONS = new SqlMigrations(DATABASE_NAME);
 
     //Database Create Statement
     private static final String DATABASE_CREATE = String.format(
@@ -55,9 +63,15 @@ class AWSAppSyncDeltaSyncSqlHelper extends SQLiteOpenHelper {
 
     @Override
     /*
-        Drop the table
+        Migrate the table, or drop it if there is no migration path
      */
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (MIGRATIONS.canMigrate(oldVersion, newVersion)) {
+            MIGRATIONS.migrate(db, oldVersion, newVersion);
+            return;
+        }
+        Log.w(TAG, "No migration path for [" + DATABASE_NAME + "] from version " + oldVersion +
+                ". Dropping delta sync state");
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_DELTA_SYNC);
         onCreate(db);
     }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import com.apollographql.apollo.cache.normalized.ApolloStore;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.internal.util.KeyInterner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Releases the memory held by the normalized caches of the clients when the system asks the app to trim memory,
+ * alongside {@link AWSAppSyncAppLifecycleObserver}. A single trimmer is registered with the application context for the
+ * whole process, the first time a client {@link #register(Context, ApolloStore) registers} its store, and tracks the
+ * stores weakly, so that building clients neither adds callbacks nor keeps the stores of dropped clients alive.
+ *
+ * The trim level of the system maps to a {@link MemoryTrimLevel}: the memory cache is shrunk once the app is in the
+ * background or memory runs low, and emptied when the process is about to be killed or memory is critical. Trimming
+ * runs on a background thread, in a write transaction of the store.
+ */
+class AWSAppSyncMemoryTrimmer implements ComponentCallbacks2 {
+    private static final String TAG = AWSAppSyncMemoryTrimmer.class.getSimpleName();
+
+    private static final Executor TRIM_EXECUTOR = createTrimExecutor();
+    private static AWSAppSyncMemoryTrimmer instance;
+
+    // Weak, as the application context outlives the clients.
+    private final Set<ApolloStore> stores = Collections.newSetFromMap(new WeakHashMap<ApolloStore, Boolean>());
+
+    /**
+     * Trims {@code store} along with the stores of the other clients from now on, registering the trimmer of the
+     * process with the application context if this is the first store.
+     */
+    static void register(Context context, ApolloStore store) {
+        AWSAppSyncMemoryTrimmer trimmer;
+        synchronized (AWSAppSyncMemoryTrimmer.class) {
+            if (instance == null) {
+                instance = new AWSAppSyncMemoryTrimmer();
+                context.getApplicationContext().registerComponentCallbacks(instance);
+            }
+            trimmer = instance;
+        }
+        trimmer.addStore(store);
+    }
+
+    AWSAppSyncMemoryTrimmer() {
+    }
+
+    synchronized void addStore(ApolloStore store) {
+        stores.add(store);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimInBackground(memoryTrimLevel(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimInBackground(MemoryTrimLevel.CLEAR);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    static MemoryTrimLevel memoryTrimLevel(int trimMemoryLevel) {
+        if (trimMemoryLevel >= TRIM_MEMORY_MODERATE || trimMemoryLevel == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return MemoryTrimLevel.CLEAR;
+        }
+        if (trimMemoryLevel >= TRIM_MEMORY_BACKGROUND || trimMemoryLevel == TRIM_MEMORY_RUNNING_LOW) {
+            return MemoryTrimLevel.SHRINK;
+        }
+        return MemoryTrimLevel.RELEASE_UNUSED;
+    }
+
+    /**
+     * Trims the stores of the clients still in use, with their normalized caches and memoized responses, and the
+     * interned keys, on the calling thread.
+     *
+     * @return an estimate of the bytes released
+     */
+    long trim(MemoryTrimLevel level) {
+        List<ApolloStore> liveStores;
+        synchronized (this) {
+            liveStores = new ArrayList<>(stores);
+        }
+        long trimmedBytes = KeyInterner.clear();
+        for (ApolloStore store : liveStores) {
+            try {
+                trimmedBytes += store.trimMemory(level).execute();
+            } catch (ApolloException e) {
+                Log.w(TAG, "Failed to trim the normalized cache for level " + level, e);
+            }
+        }
+        Log.d(TAG, "Thread:[" + Thread.currentThread().getId() + "]: Trimmed memory for level " + level
+                + ", released about " + trimmedBytes + " bytes");
+        return trimmedBytes;
+    }
+
+    private void trimInBackground(final MemoryTrimLevel level) {
+        try {
+            TRIM_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    trim(level);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Failed to schedule trimming memory for level " + level, e);
+        }
+    }
+
+    private static Executor createTrimExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AppSync memory trimmer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.appsync.cache.normalized.sql.AppSyncSqlHelper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the query cache, the persistent mutation queue and the delta sync metadata in a single database file, opened
+ * through a single connection. The tables of each of them are created and upgraded by their own helper, and the
+ * schema version of each is tracked in a table of its own, so that their migrations keep working unchanged.
+ *
+ * Writes of the three then share one journal and are serialized on one connection, and a single transaction can span
+ * them. Closing any of the users of this helper closes the connection for all of them, until it is reopened.
+ *
+ * The mutations still queued in the separate mutation queue database of the client are moved into this database by
+ * {@link #importMutationQueue(Context, String)}, so that switching to a single database does not drop them.
+ */
+class AppSyncDatabaseHelper extends SQLiteOpenHelper {
+    static final String DEFAULT_DATABASE_NAME = "appsync_client.db";
+
+    private static final String TABLE_SCHEMA_VERSIONS = "schema_versions";
+    private static final String COLUMN_COMPONENT = "component";
+    private static final String COLUMN_VERSION = "version";
+    private static final String SCHEMA_VERSIONS_TABLE_CREATE = String.format(
+            "create table %s( %s text primary key not null, %s integer not null)",
+            TABLE_SCHEMA_VERSIONS, COLUMN_COMPONENT, COLUMN_VERSION);
+
+    // Versions up to 9 were the sum of the versions of the components. Bump it along with the version of any component,
+    // so that onUpgrade runs the migrations of that component.
+    private static final int DATABASE_VERSION = 11;
+    private static final String TAG = AppSyncDatabaseHelper.class.getSimpleName();
+
+    private final String databaseName;
+    private final Map<String, SQLiteOpenHelper> componentHelpers = new LinkedHashMap<>();
+    private final Map<String, Integer> componentVersions = new LinkedHashMap<>();
+
+    AppSyncDatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.databaseName = databaseName;
+        // The component helpers are never opened, they only create and upgrade their tables in this database.
+        addComponent("cache", AppSyncSqlHelper.create(context, databaseName), AppSyncSqlHelper.DATABASE_VERSION);
+        addComponent("mutations", new AppSyncMutationsSqlHelper(context, databaseName),
+                AppSyncMutationsSqlHelper.DATABASE_VERSION);
+        addComponent("delta_sync", new AWSAppSyncDeltaSyncSqlHelper(context, databaseName),
+                AWSAppSyncDeltaSyncSqlHelper.DATABASE_VERSION);
+    }
+
+    private void addComponent(String name, SQLiteOpenHelper helper, int version) {
+        componentHelpers.put(name, helper);
+        componentVersions.put(name, version);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase database) {
+        Log.d(TAG, "In onCreate for [" + databaseName + "]. Will create tables now");
+        database.execSQL(SCHEMA_VERSIONS_TABLE_CREATE);
+        for (Map.Entry<String, SQLiteOpenHelper> component : componentHelpers.entrySet()) {
+            component.getValue().onCreate(database);
+            saveComponentVersion(database, component.getKey());
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        Log.d(TAG, "In onUpgrade for [" + databaseName + "] from version " + oldVersion + " to " + newVersion);
+        for (Map.Entry<String, SQLiteOpenHelper> component : componentHelpers.entrySet()) {
+            int storedVersion = (int) DatabaseUtils.longForQuery(database,
+                    String.format("SELECT %s FROM %s WHERE %s = ?", COLUMN_VERSION, TABLE_SCHEMA_VERSIONS,
+                            COLUMN_COMPONENT),
+                    new String[]{component.getKey()});
+            int currentVersion = componentVersions.get(component.getKey());
+            if (storedVersion < currentVersion) {
+                component.getValue().onUpgrade(database, storedVersion, currentVersion);
+                saveComponentVersion(database, component.getKey());
+            }
+        }
+    }
+
+    /**
+     * Moves the mutations queued in the separate mutation queue database {@code mutationsDatabaseName}, as left by the
+     * client before it used a single database, to the end of the queue of this database, in their order, then deletes
+     * that database. Does nothing once it is deleted. If the move fails, the mutations are left where they were and
+     * moved the next time.
+     */
+    void importMutationQueue(Context context, String mutationsDatabaseName) {
+        if (!context.getDatabasePath(mutationsDatabaseName).exists()) {
+            return;
+        }
+        AppSyncMutationsSqlHelper mutationsHelper = new AppSyncMutationsSqlHelper(context, mutationsDatabaseName);
+        SQLiteDatabase database = getWritableDatabase();
+        int mutationCount = 0;
+        try {
+            Cursor cursor = mutationsHelper.getReadableDatabase().query(
+                    AppSyncMutationsSqlHelper.TABLE_MUTATION_RECORDS, null, null, null, null, null,
+                    AppSyncMutationsSqlHelper.COLUMN_ID);
+            database.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                while (cursor.moveToNext()) {
+                    values.clear();
+                    DatabaseUtils.cursorRowToContentValues(cursor, values);
+                    // The mutations are appended to the queue of this database, which numbers them anew.
+                    values.remove(AppSyncMutationsSqlHelper.COLUMN_ID);
+                    database.insertOrThrow(AppSyncMutationsSqlHelper.TABLE_MUTATION_RECORDS, null, values);
+                    mutationCount++;
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to move the queued mutations of [" + mutationsDatabaseName + "] to [" + databaseName
+                    + "]. Will retry on the next start", e);
+            return;
+        } finally {
+            mutationsHelper.close();
+        }
+        context.deleteDatabase(mutationsDatabaseName);
+        Log.d(TAG, "Moved " + mutationCount + " queued mutations of [" + mutationsDatabaseName + "] to [" + databaseName
+                + "]");
+    }
+
+    private void saveComponentVersion(SQLiteDatabase database, String component) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_COMPONENT, component);
+        values.put(COLUMN_VERSION, componentVersions.get(component));
+        database.insertWithOnConflict(TABLE_SCHEMA_VERSIONS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -10,6 +10,9 @@ package com.amazonaws.mobileconnectors.appsync;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.appsync.utils.SqlMigrations;
 
 public class AppSyncMutationsSqlHelper extends SQLiteOpenHelper {
 
@@ -26,7 +29,13 @@ public class AppSyncMutationsSqlHelper extends SQLiteOpenHelper {
     public static final String COLUMN_CLIENT_STATE = "client_state";
 
     private static final String DATABASE_NAME = "appsync.mutations.db";
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 2;
+    private static final String TAG = AppSyncMutationsSqlHelper.class.getSimpleName();
+
+    // Migrations of the persisted mutation queue, one per version after 2. Register a migration with every version
+    // bump so that queued mutations survive the upgrade, and bump the version of AppSyncDatabaseHelper too. Version 1
+    // predates migrations and is recreated.
+    private static final SqlMigrations MIGRATIONS = new SqlMigrations(DATABASE_NAME);
 
     // Database creation sql statement
     private static final String DATABASE_CREATE = String.format(
@@ -63,6 +72,12 @@ public class AppSyncMutationsSqlHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (MIGRATIONS.canMigrate(oldVersion, newVersion)) {
+            MIGRATIONS.migrate(db, oldVersion, newVersion);
+            return;
+        }
+        Log.w(TAG, "No migration path for [" + DATABASE_NAME + "] from version " + oldVersion +
+                ". Dropping queued mutations");
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_MUTATION_RECORDS);
         onCreate(db);
     }
@@ -23,6 +23,8 @@ import com.apollographql.apollo.internal.cache.normalized.ResponseNormalizer;
 import com.apollographql.apollo.internal.cache.normalized.Transaction;
 import com.apollographql.apollo.internal.cache.normalized.WriteableStore;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +72,35 @@ public class AppSyncStore {
         return mStore.remove(cacheKeys);
     }
 
+    /**
+     * Removes the records which are no longer referenced from a query, a mutation or a pending optimistic update, in
+     * chunks on the store's dispatcher when enqueued.
+     *
+     * @return an operation resolved with the number of records removed
+     */
+    public GraphQLStoreOperation<Integer> collectGarbage() {
+        return mStore.collectGarbage();
+    }
+
+    /**
+     * Writes the records of the cache to a snapshot which {@link #importSnapshot(InputStream)} loads back, for example
+     * to seed the cache of a new install without querying the network.
+     *
+     * @return an operation resolved with the number of records written
+     */
+    public GraphQLStoreOperation<Integer> exportSnapshot(@Nonnull OutputStream outputStream) {
+        return mStore.exportSnapshot(outputStream);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #exportSnapshot(OutputStream)} into the cache, in a few large transactions.
+     *
+     * @return an operation resolved with the number of records loaded
+     */
+    public GraphQLStoreOperation<Integer> importSnapshot(@Nonnull InputStream inputStream) {
+        return mStore.importSnapshot(inputStream);
+    }
+
     public <R> R readTransaction(Transaction<ReadableStore, R> transaction) {
         return mStore.readTransaction(transaction);
     }
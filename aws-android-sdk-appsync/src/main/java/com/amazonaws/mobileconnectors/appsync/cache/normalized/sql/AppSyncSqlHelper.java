@@ -8,30 +8,160 @@
 package com.amazonaws.mobileconnectors.appsync.cache.normalized.sql;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import com.amazonaws.mobileconnectors.appsync.utils.SqlMigration;
+import com.amazonaws.mobileconnectors.appsync.utils.SqlMigrations;
+
 
 public class AppSyncSqlHelper extends SQLiteOpenHelper {
 
   public static final String TABLE_RECORDS = "records";
+  /**
+   * Row id of the version 1 records table. The current schema is keyed by {@link #COLUMN_KEY}.
+   */
   public static final String COLUMN_ID = "_id";
   public static final String COLUMN_RECORD = "record";
   public static final String COLUMN_KEY = "key";
+  /**
+   * Table of the field-granular layout, with one row per {@link #COLUMN_KEY} and {@link #COLUMN_FIELD}.
+   */
+  public static final String TABLE_RECORD_FIELDS = "record_fields";
+  public static final String COLUMN_FIELD = "field";
+  public static final String COLUMN_VALUE = "value";
+  /**
+   * Time of the last write or recorded read of a row, in milliseconds since the epoch, in both record tables.
+   */
+  public static final String COLUMN_LAST_ACCESS = "last_access";
+  /**
+   * Size of the encoded record or field value of a row, in both record tables.
+   */
+  public static final String COLUMN_SIZE = "size";
+  /**
+   * {@code __typename} of the record of a row, or null for records without one, in both record tables.
+   */
+  public static final String COLUMN_TYPENAME = "typename";
+  /**
+   * Time the record of a row was last written with a response, in milliseconds since the epoch, in both record tables.
+   */
+  public static final String COLUMN_WRITTEN_AT = "written_at";
+  /**
+   * Table of the settings the records were stored with, one row per {@link #COLUMN_NAME} with its
+   * {@link #COLUMN_VALUE}.
+   */
+  public static final String TABLE_SETTINGS = "cache_settings";
+  public static final String COLUMN_NAME = "name";
+  /**
+   * Setting of the table the records are stored in, {@link #TABLE_RECORDS} or {@link #TABLE_RECORD_FIELDS}.
+   */
+  public static final String SETTING_LAYOUT = "layout";
 
   private static final String DATABASE_NAME = "appsync.db";
-  private static final int DATABASE_VERSION = 1;
+  /**
+   * Version of the schema of the records tables. Bump the version of the single client database along with it.
+   */
+  public static final int DATABASE_VERSION = 7;
   private static final String TAG = AppSyncSqlHelper.class.getSimpleName();
 
-  // Database creation sql statement
-  private static final String DATABASE_CREATE = String.format(
-      "create table %s( %s integer primary key autoincrement, %s text not null, %s text not null);",
-      TABLE_RECORDS, COLUMN_ID, COLUMN_KEY, COLUMN_RECORD);
+  // Table creation sql statements, formatted with the table name. WITHOUT ROWID tables need SQLite 3.8.2.
+  private static final String RECORDS_TABLE_CREATE =
+      "create table %s( " + COLUMN_KEY + " text primary key not null, " + COLUMN_RECORD + " text not null, "
+          + COLUMN_LAST_ACCESS + " integer not null default 0, " + COLUMN_SIZE + " integer not null default 0, "
+          + COLUMN_TYPENAME + " text, " + COLUMN_WRITTEN_AT + " integer not null default 0)";
+  private static final String RECORD_FIELDS_TABLE_CREATE = "create table %s( "
+      + COLUMN_KEY + " text not null, " + COLUMN_FIELD + " text not null, " + COLUMN_VALUE + " not null, "
+      + COLUMN_LAST_ACCESS + " integer not null default 0, " + COLUMN_SIZE + " integer not null default 0, "
+      + COLUMN_TYPENAME + " text, " + COLUMN_WRITTEN_AT + " integer not null default 0, "
+      + "primary key (" + COLUMN_KEY + ", " + COLUMN_FIELD + "))";
+  private static final String SETTINGS_TABLE_CREATE = "create table %s( " + COLUMN_NAME + " text primary key not null, "
+      + COLUMN_VALUE + " text not null)";
+  // Index on the typename of the rows, formatted with the table name, for eviction by typename.
+  private static final String TYPENAME_INDEX_CREATE =
+      "create index idx_%1$s_" + COLUMN_TYPENAME + " on %1$s(" + COLUMN_TYPENAME + ")";
+  private static final String WITHOUT_ROWID = " without rowid";
+  // The tables as created by past migrations, which later migrations build upon.
+  private static final String RECORDS_TABLE_CREATE_V2 =
+      "create table %s( " + COLUMN_KEY + " text primary key not null, " + COLUMN_RECORD + " text not null)";
+  private static final String RECORD_FIELDS_TABLE_CREATE_V3 = "create table %s( "
+      + COLUMN_KEY + " text not null, " + COLUMN_FIELD + " text not null, " + COLUMN_VALUE + " not null, "
+      + "primary key (" + COLUMN_KEY + ", " + COLUMN_FIELD + "))";
 
+  /**
+   * Index on {@link #COLUMN_KEY} of the version 1 records table. The current schema uses the primary key instead.
+   */
   public static final String IDX_RECORDS_KEY = "idx_records_key";
-  private static final String CREATE_KEY_INDEX =
-      String.format("CREATE INDEX %s ON %s (%s)", IDX_RECORDS_KEY, TABLE_RECORDS, COLUMN_KEY);
+
+  private static final SqlMigrations MIGRATIONS = new SqlMigrations(DATABASE_NAME,
+      new SqlMigration(2) {
+        // Version 1 keyed records by an autoincrement _id with a non unique index on key. Copy the records over to a
+        // table keyed by the record key, the row inserted last for a key wins.
+        @Override public void migrate(SQLiteDatabase database) {
+          String upgradedTable = TABLE_RECORDS + "_v2";
+          createTable(database, RECORDS_TABLE_CREATE_V2, upgradedTable);
+          copyRowsInBatches(database, TABLE_RECORDS, upgradedTable, COLUMN_KEY + ", " + COLUMN_RECORD, "OR REPLACE",
+              DEFAULT_BATCH_SIZE);
+          database.execSQL("DROP TABLE " + TABLE_RECORDS);
+          database.execSQL(String.format("ALTER TABLE %s RENAME TO %s", upgradedTable, TABLE_RECORDS));
+        }
+      },
+      new SqlMigration(3) {
+        @Override public void migrate(SQLiteDatabase database) {
+          createTable(database, RECORD_FIELDS_TABLE_CREATE_V3, TABLE_RECORD_FIELDS);
+        }
+      },
+      new SqlMigration(4) {
+        // Adds access and size tracking. Existing rows count as least recently used. The size is in bytes, as the
+        // cache counts it, so the text is measured as a blob rather than in characters.
+        @Override public void migrate(SQLiteDatabase database) {
+          for (String table : new String[]{TABLE_RECORDS, TABLE_RECORD_FIELDS}) {
+            database.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s integer not null default 0",
+                table, COLUMN_LAST_ACCESS));
+            database.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s integer not null default 0",
+                table, COLUMN_SIZE));
+          }
+          updateRowsInBatches(database, TABLE_RECORDS, COLUMN_KEY,
+              COLUMN_SIZE + " = length(CAST(" + COLUMN_RECORD + " AS BLOB))", COLUMN_SIZE + " = 0", DEFAULT_BATCH_SIZE);
+          // The field rows are batched by record, all the fields of a record in the same batch.
+          updateRowsInBatches(database, TABLE_RECORD_FIELDS, COLUMN_KEY,
+              COLUMN_SIZE + " = length(CAST(" + COLUMN_VALUE + " AS BLOB))", COLUMN_SIZE + " = 0", DEFAULT_BATCH_SIZE);
+        }
+      },
+      new SqlMigration(5) {
+        // Adds the typename of the records. Existing rows count as records without one until written again.
+        @Override public void migrate(SQLiteDatabase database) {
+          for (String table : new String[]{TABLE_RECORDS, TABLE_RECORD_FIELDS}) {
+            database.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s text", table, COLUMN_TYPENAME));
+            database.execSQL(String.format(TYPENAME_INDEX_CREATE, table));
+          }
+        }
+      },
+      new SqlMigration(6) {
+        // Adds the write time of the records. The last access of existing rows is the closest known bound.
+        @Override public void migrate(SQLiteDatabase database) {
+          for (String table : new String[]{TABLE_RECORDS, TABLE_RECORD_FIELDS}) {
+            database.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s integer not null default 0",
+                table, COLUMN_WRITTEN_AT));
+          }
+          // The field rows are batched by record, all the fields of a record in the same batch.
+          for (String table : new String[]{TABLE_RECORDS, TABLE_RECORD_FIELDS}) {
+            updateRowsInBatches(database, table, COLUMN_KEY, COLUMN_WRITTEN_AT + " = " + COLUMN_LAST_ACCESS,
+                COLUMN_WRITTEN_AT + " != " + COLUMN_LAST_ACCESS, DEFAULT_BATCH_SIZE);
+          }
+        }
+      },
+      new SqlMigration(7) {
+        // Adds the settings table. The cache used to empty the table of the other layout each time it was created, so
+        // the layout in use is the one of the table with rows, if any.
+        @Override public void migrate(SQLiteDatabase database) {
+          createTable(database, SETTINGS_TABLE_CREATE, TABLE_SETTINGS);
+          database.execSQL(String.format("INSERT INTO %s (%s, %s) SELECT ?, CASE WHEN EXISTS (SELECT 1 FROM %s) "
+                  + "THEN ? ELSE ? END", TABLE_SETTINGS, COLUMN_NAME, COLUMN_VALUE, TABLE_RECORD_FIELDS),
+              new Object[]{SETTING_LAYOUT, TABLE_RECORD_FIELDS, TABLE_RECORDS});
+        }
+      });
 
   private AppSyncSqlHelper(Context context) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -52,14 +182,43 @@ public class AppSyncSqlHelper extends SQLiteOpenHelper {
   @Override
   public void onCreate(SQLiteDatabase database) {
     Log.d(TAG, "In onCreate for [" + DATABASE_NAME + "]. Will create tables now");
-    database.execSQL(DATABASE_CREATE);
-    database.execSQL(CREATE_KEY_INDEX);
+    createTable(database, RECORDS_TABLE_CREATE, TABLE_RECORDS);
+    createTable(database, RECORD_FIELDS_TABLE_CREATE, TABLE_RECORD_FIELDS);
+    createTable(database, SETTINGS_TABLE_CREATE, TABLE_SETTINGS);
+    database.execSQL(String.format(TYPENAME_INDEX_CREATE, TABLE_RECORDS));
+    database.execSQL(String.format(TYPENAME_INDEX_CREATE, TABLE_RECORD_FIELDS));
   }
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    Log.d(TAG, "In onUpgrade for [" + DATABASE_NAME + "]. Will drop tables now");
-    db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
-    onCreate(db);
+    Log.d(TAG, "In onUpgrade for [" + DATABASE_NAME + "] from version " + oldVersion + " to " + newVersion);
+    if (MIGRATIONS.canMigrate(oldVersion, newVersion)) {
+      MIGRATIONS.migrate(db, oldVersion, newVersion);
+    } else {
+      Log.w(TAG, "No migration path for [" + DATABASE_NAME + "] from version " + oldVersion + ". Recreating tables");
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORD_FIELDS);
+      onCreate(db);
+    }
+  }
+
+  private static void createTable(SQLiteDatabase database, String createStatementFormat, String tableName) {
+    String createStatement = String.format(createStatementFormat, tableName);
+    if (supportsWithoutRowId(database)) {
+      createStatement += WITHOUT_ROWID;
+    }
+    database.execSQL(createStatement);
+  }
+
+  private static boolean supportsWithoutRowId(SQLiteDatabase database) {
+    String[] version = DatabaseUtils.stringForQuery(database, "select sqlite_version()", null).split("\\.");
+    try {
+      int major = Integer.parseInt(version[0]);
+      int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+      int patch = version.length > 2 ? Integer.parseInt(version[2]) : 0;
+      return major > 3 || (major == 3 && (minor > 8 || (minor == 8 && patch >= 2)));
+    } catch (NumberFormatException e) {
+      return false;
+    }
   }
 }
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync.utils;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * One step of a database schema upgrade, from {@link #toVersion()} - 1 to {@link #toVersion()}.
+ *
+ * A migration rewrites existing data in place instead of dropping it. Use
+ * {@link #copyRowsInBatches(SQLiteDatabase, String, String, String, String, int)} to move the content of a table
+ * into a rebuilt one, so that no single statement has to touch every row.
+ */
+public abstract class SqlMigration {
+    /** Default number of rows copied by a single statement. */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final int toVersion;
+
+    /**
+     * @param toVersion the schema version the database is at once this migration has run
+     */
+    protected SqlMigration(int toVersion) {
+        this.toVersion = toVersion;
+    }
+
+    /**
+     * @return the schema version the database is at once this migration has run
+     */
+    public int toVersion() {
+        return toVersion;
+    }
+
+    /**
+     * Upgrades the database from {@code toVersion() - 1} to {@code toVersion()}. Runs inside the upgrade
+     * transaction of the {@link android.database.sqlite.SQLiteOpenHelper}, so a failure leaves the database at its
+     * previous version.
+     *
+     * @param database the database being upgraded
+     */
+    public abstract void migrate(SQLiteDatabase database);
+
+    /**
+     * Copies rows from {@code sourceTable} into {@code targetTable}, at most {@code batchSize} rows per statement, in
+     * row id order.
+     *
+     * @param database    the database being upgraded
+     * @param sourceTable the table to read from, which must have a row id
+     * @param targetTable the table to write to
+     * @param columns     comma separated list of the columns to copy, present in both tables
+     * @param conflict    conflict clause of the insert, for example {@code "OR REPLACE"}, or an empty string
+     * @param batchSize   maximum number of rows copied by one statement
+     */
+    protected static void copyRowsInBatches(SQLiteDatabase database, String sourceTable, String targetTable,
+                                            String columns, String conflict, int batchSize) {
+        String lastRowIdOfBatch = String.format(
+                "SELECT MAX(rowid) FROM (SELECT rowid FROM %s WHERE rowid > ? ORDER BY rowid LIMIT %d)",
+                sourceTable, batchSize);
+        String copyBatch = String.format("INSERT %s INTO %s (%s) SELECT %s FROM %s " +
+                        "WHERE rowid > ? AND rowid <= ? ORDER BY rowid",
+                conflict, targetTable, columns, columns, sourceTable);
+
+        long lastRowId = Long.MIN_VALUE;
+        while (true) {
+            String batchEnd = DatabaseUtils.stringForQuery(database, lastRowIdOfBatch,
+                    new String[]{Long.toString(lastRowId)});
+            if (batchEnd == null) {
+                return;
+            }
+            long batchEndRowId = Long.parseLong(batchEnd);
+            database.execSQL(copyBatch, new Object[]{lastRowId, batchEndRowId});
+            lastRowId = batchEndRowId;
+        }
+    }
+
+    /**
+     * Updates the rows of {@code table} matching {@code pendingCondition}, at most {@code batchSize} rows per
+     * statement. The assignments must make the rows stop matching the condition, or this never returns.
+     *
+     * When {@code keyColumn} is not unique, as the record key of a table keyed by record and field, all the rows with
+     * one of the selected values are updated by the same statement, so a batch updates the rows of at most
+     * {@code batchSize} values.
+     *
+     * @param database         the database being upgraded
+     * @param table            the table to update
+     * @param keyColumn        a column that identifies the rows of the table, or groups of rows updated together
+     * @param assignments      the assignments of the update, for example {@code "size = length(record)"}
+     * @param pendingCondition condition of the rows not updated yet, for example {@code "size = 0"}
+     * @param batchSize        maximum number of rows updated by one statement
+     */
+    protected static void updateRowsInBatches(SQLiteDatabase database, String table, String keyColumn,
+                                              String assignments, String pendingCondition, int batchSize) {
+        SQLiteStatement updateBatch = database.compileStatement(String.format(
+                "UPDATE %s SET %s WHERE %s IN (SELECT %s FROM %s WHERE %s LIMIT %d)",
+                table, assignments, keyColumn, keyColumn, table, pendingCondition, batchSize));
+        try {
+            while (updateBatch.executeUpdateDelete() > 0) {
+                // Next batch.
+            }
+        } finally {
+            updateBatch.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync.utils;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ordered set of {@link SqlMigration}s of one database, applied from {@link
+ * android.database.sqlite.SQLiteOpenHelper#onUpgrade(SQLiteDatabase, int, int)}.
+ */
+public final class SqlMigrations {
+    private static final String TAG = SqlMigrations.class.getSimpleName();
+
+    private final String databaseName;
+    private final Map<Integer, SqlMigration> migrations = new TreeMap<>();
+
+    /**
+     * @param databaseName name of the database, used for logging
+     * @param migrations   one migration per schema version after the first one supported
+     */
+    public SqlMigrations(String databaseName, SqlMigration... migrations) {
+        this.databaseName = databaseName;
+        for (SqlMigration migration : Arrays.asList(migrations)) {
+            if (this.migrations.put(migration.toVersion(), migration) != null) {
+                throw new IllegalArgumentException("More than one migration to version " + migration.toVersion());
+            }
+        }
+    }
+
+    /**
+     * Checks that every step from {@code oldVersion} to {@code newVersion} has a migration.
+     *
+     * @param oldVersion the version the database is at
+     * @param newVersion the version the database is upgraded to
+     * @return true if {@link #migrate(SQLiteDatabase, int, int)} can upgrade between these versions
+     */
+    public boolean canMigrate(int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            if (!migrations.containsKey(version)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs, in version order, the migrations from {@code oldVersion} to {@code newVersion}.
+     *
+     * @param database   the database being upgraded
+     * @param oldVersion the version the database is at
+     * @param newVersion the version the database is upgraded to
+     * @throws IllegalStateException if a step has no migration, see {@link #canMigrate(int, int)}
+     */
+    public void migrate(SQLiteDatabase database, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalStateException("No migration path for [" + databaseName + "] from version "
+                    + oldVersion + " to " + newVersion);
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            long start = System.currentTimeMillis();
+            migrations.get(version).migrate(database);
+            Log.d(TAG, "Migrated [" + databaseName + "] to version " + version + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+}
@@ -7,6 +7,7 @@
 
 package com.apollographql.apollo.cache.normalized.sql;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
@@ -18,15 +19,34 @@ import com.apollographql.apollo.api.internal.Action;
 import com.apollographql.apollo.api.internal.Function;
 import com.apollographql.apollo.api.internal.Optional;
 import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.BinaryRecordCodec;
 import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.ChangeSet;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
 import com.apollographql.apollo.cache.normalized.NormalizedCache;
 import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
 import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -36,51 +56,275 @@ import static com.apollographql.apollo.cache.GraphQLCacheHeaders.DO_NOT_STORE;
 import static com.apollographql.apollo.cache.GraphQLCacheHeaders.EVICT_AFTER_READ;
 
 public final class SqlNormalizedCache extends NormalizedCache {
-  private static final String INSERT_STATEMENT =
-      String.format("INSERT INTO %s (%s,%s) VALUES (?,?)",
-          AppSyncSqlHelper.TABLE_RECORDS,
-          AppSyncSqlHelper.COLUMN_KEY,
-          AppSyncSqlHelper.COLUMN_RECORD);
-  private static final String UPDATE_STATEMENT =
-      String.format("UPDATE %s SET %s=?, %s=? WHERE %s=?",
+  // The key column is the primary key, so this single statement either inserts or replaces the record for a key.
+  private static final String UPSERT_STATEMENT =
+      String.format("INSERT OR REPLACE INTO %s (%s,%s,%s,%s,%s,%s) VALUES (?,?,?,?,?,?)",
           AppSyncSqlHelper.TABLE_RECORDS,
           AppSyncSqlHelper.COLUMN_KEY,
           AppSyncSqlHelper.COLUMN_RECORD,
-          AppSyncSqlHelper.COLUMN_KEY);
+          AppSyncSqlHelper.COLUMN_LAST_ACCESS,
+          AppSyncSqlHelper.COLUMN_SIZE,
+          AppSyncSqlHelper.COLUMN_TYPENAME,
+          AppSyncSqlHelper.COLUMN_WRITTEN_AT);
   private static final String DELETE_STATEMENT =
       String.format("DELETE FROM %s WHERE %s=?",
           AppSyncSqlHelper.TABLE_RECORDS,
           AppSyncSqlHelper.COLUMN_KEY);
   private static final String DELETE_ALL_RECORD_STATEMENT = String.format("DELETE FROM %s", AppSyncSqlHelper.TABLE_RECORDS);
+  private static final String UPSERT_FIELD_STATEMENT =
+      String.format("INSERT OR REPLACE INTO %s (%s,%s,%s,%s,%s,%s,%s) VALUES (?,?,?,?,?,?,?)",
+          AppSyncSqlHelper.TABLE_RECORD_FIELDS,
+          AppSyncSqlHelper.COLUMN_KEY,
+          AppSyncSqlHelper.COLUMN_FIELD,
+          AppSyncSqlHelper.COLUMN_VALUE,
+          AppSyncSqlHelper.COLUMN_LAST_ACCESS,
+          AppSyncSqlHelper.COLUMN_SIZE,
+          AppSyncSqlHelper.COLUMN_TYPENAME,
+          AppSyncSqlHelper.COLUMN_WRITTEN_AT);
+  // Moves all the field rows of a record to its new typename.
+  private static final String UPDATE_FIELDS_TYPENAME_STATEMENT =
+      String.format("UPDATE %s SET %s=? WHERE %s=?",
+          AppSyncSqlHelper.TABLE_RECORD_FIELDS,
+          AppSyncSqlHelper.COLUMN_TYPENAME,
+          AppSyncSqlHelper.COLUMN_KEY);
+  private static final String DELETE_FIELDS_STATEMENT =
+      String.format("DELETE FROM %s WHERE %s=?",
+          AppSyncSqlHelper.TABLE_RECORD_FIELDS,
+          AppSyncSqlHelper.COLUMN_KEY);
+  private static final String DELETE_ALL_FIELDS_STATEMENT =
+      String.format("DELETE FROM %s", AppSyncSqlHelper.TABLE_RECORD_FIELDS);
+  /**
+   * Number of records deleted per transaction when the cache is over its size bounds.
+   */
+  static final int EVICTION_BATCH_SIZE = 100;
+  private static final String SELECT_ALL_KEYS_QUERY = "SELECT DISTINCT " + AppSyncSqlHelper.COLUMN_KEY + " FROM %s";
+  private static final String TOUCH_STATEMENT = "UPDATE %s SET " + AppSyncSqlHelper.COLUMN_LAST_ACCESS + "=? WHERE "
+      + AppSyncSqlHelper.COLUMN_KEY + "=?";
+  // Moves the write time of all the rows of a record forward, formatted with the table name.
+  private static final String REFRESH_WRITE_TIME_STATEMENT = "UPDATE %s SET " + AppSyncSqlHelper.COLUMN_WRITTEN_AT
+      + "=?1 WHERE " + AppSyncSqlHelper.COLUMN_KEY + "=?2 AND " + AppSyncSqlHelper.COLUMN_WRITTEN_AT + "<?1";
+  // Record count and total size, then the least recently used records with their size, formatted with the table name
+  // and a where clause selecting the records bounded together.
+  private static final String TOTALS_QUERY = "SELECT count(DISTINCT " + AppSyncSqlHelper.COLUMN_KEY + "), "
+      + "ifnull(sum(" + AppSyncSqlHelper.COLUMN_SIZE + "), 0) FROM %s%s";
+  private static final String LEAST_RECENTLY_USED_QUERY = "SELECT " + AppSyncSqlHelper.COLUMN_KEY + ", "
+      + "sum(" + AppSyncSqlHelper.COLUMN_SIZE + ") FROM %s%s GROUP BY " + AppSyncSqlHelper.COLUMN_KEY
+      + " ORDER BY max(" + AppSyncSqlHelper.COLUMN_LAST_ACCESS + ") LIMIT " + EVICTION_BATCH_SIZE;
+  private static final String TYPENAME_SELECTION = AppSyncSqlHelper.COLUMN_TYPENAME + " = ?";
+  // Deletes the records of a typename last accessed or written before a time, formatted with the table name and the
+  // last access or write time column.
+  private static final String DELETE_EXPIRED_STATEMENT = "DELETE FROM %1$s WHERE " + AppSyncSqlHelper.COLUMN_KEY
+      + " IN (SELECT " + AppSyncSqlHelper.COLUMN_KEY + " FROM %1$s WHERE " + TYPENAME_SELECTION + " GROUP BY "
+      + AppSyncSqlHelper.COLUMN_KEY + " HAVING max(%2$s) < ?)";
+  // Minimum delay between two eviction passes, which also write the recorded read times.
+  private static final long EVICTION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  /**
+   * Number of keys bound into a single {@code key IN (...)} query, kept well below SQLite's default limit of 999 host
+   * parameters per statement.
+   */
+  static final int MAX_KEYS_PER_QUERY = 500;
+  private static final String SELECT_KEYS_CHUNK_SELECTION = keyInSelection(MAX_KEYS_PER_QUERY);
+  // Write-behind caches to flush when the app goes to the background.
+  private static final Set<SqlNormalizedCache> WRITE_BEHIND_CACHES =
+      Collections.newSetFromMap(new WeakHashMap<SqlNormalizedCache, Boolean>());
+  // Reads BLOB rows left by a previous configuration when this cache writes JSON text.
+  private static final RecordCodec DEFAULT_BLOB_CODEC = BinaryRecordCodec.create();
   SQLiteDatabase database;
   private final SQLiteOpenHelper dbHelper;
-  private final String[] allColumns = {AppSyncSqlHelper.COLUMN_ID,
-      AppSyncSqlHelper.COLUMN_KEY,
-      AppSyncSqlHelper.COLUMN_RECORD};
+  private final String[] allColumns = {AppSyncSqlHelper.COLUMN_KEY,
+      AppSyncSqlHelper.COLUMN_RECORD,
+      AppSyncSqlHelper.COLUMN_WRITTEN_AT};
+  private final String[] fieldColumns = {AppSyncSqlHelper.COLUMN_KEY,
+      AppSyncSqlHelper.COLUMN_FIELD,
+      AppSyncSqlHelper.COLUMN_VALUE,
+      AppSyncSqlHelper.COLUMN_WRITTEN_AT};
 
-  private final SQLiteStatement insertStatement;
-  private final SQLiteStatement updateStatement;
+  private final SQLiteStatement upsertStatement;
   private final SQLiteStatement deleteStatement;
   private final SQLiteStatement deleteAllRecordsStatement;
+  private final SQLiteStatement touchStatement;
+  private final SQLiteStatement refreshWriteTimeStatement;
   private final RecordFieldJsonAdapter recordFieldAdapter;
+  private final Optional<RecordCodec> recordCodec;
+  private final boolean fieldGranular;
+  private final boolean writeAheadLogging;
+  // The page size the database is to be rebuilt with, absent if it already has it.
+  private final Optional<Integer> pageSize;
+  // Orders every write to the database, and guards the compiled statements shared by the writing threads.
+  private final Object writeLock = new Object();
+  private final Optional<WriteBehindBuffer> writeBehindBuffer;
+  private final long writeBehindIntervalMillis;
+  private final int writeBehindMaxPendingRecords;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  // Runs flushes and eviction passes, absent when there are neither.
+  private final ScheduledExecutorService backgroundExecutor;
+  private final Optional<Long> maxSizeBytes;
+  private final Optional<Long> maxRecords;
+  private final Map<String, SqlTypenamePolicy> typenamePolicies;
+  // Selects the records bounded by maxSizeBytes and maxRecords: the ones of the typenames without a policy.
+  private final String untypedSelection;
+  private final String[] untypedSelectionArgs;
+  // Whether records are evicted or expired, by the global bounds or by typename.
+  private final boolean evicting;
+  // Read times of records not written to the database yet, by key.
+  private final Map<String, Long> accessTimes = new ConcurrentHashMap<>();
+  // Refreshed write times of records not written to the database yet in write-behind mode, by key.
+  private final Map<String, Long> refreshedWriteTimes = new ConcurrentHashMap<>();
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+  private final Runnable evictionTask = new Runnable() {
+    @Override public void run() {
+      evictionScheduled.set(false);
+      evict();
+    }
+  };
+  private final Runnable flushTask = new Runnable() {
+    @Override public void run() {
+      flushScheduled.set(false);
+      flush();
+    }
+  };
 
   SqlNormalizedCache(RecordFieldJsonAdapter recordFieldAdapter, SQLiteOpenHelper dbHelper) {
+    this(recordFieldAdapter, SqlStoragePolicy.DEFAULT, dbHelper);
+  }
+
+  SqlNormalizedCache(RecordFieldJsonAdapter recordFieldAdapter, SqlStoragePolicy storagePolicy,
+      SQLiteOpenHelper dbHelper) {
     this.recordFieldAdapter = recordFieldAdapter;
+    this.recordCodec = storagePolicy.recordCodec();
+    this.fieldGranular = storagePolicy.fieldGranular();
+    this.maxSizeBytes = storagePolicy.maxSizeBytes();
+    this.maxRecords = storagePolicy.maxRecords();
+    this.typenamePolicies = storagePolicy.typenamePolicies();
+    if (typenamePolicies.isEmpty()) {
+      untypedSelection = null;
+      untypedSelectionArgs = null;
+    } else {
+      StringBuilder selection = new StringBuilder(AppSyncSqlHelper.COLUMN_TYPENAME).append(" IS NULL OR ")
+          .append(AppSyncSqlHelper.COLUMN_TYPENAME).append(" NOT IN (");
+      for (int i = 0; i < typenamePolicies.size(); i++) {
+        selection.append(i == 0 ? "?" : ",?");
+      }
+      untypedSelection = selection.append(')').toString();
+      untypedSelectionArgs = typenamePolicies.keySet().toArray(new String[typenamePolicies.size()]);
+    }
+    this.evicting = storagePolicy.sizeBounded() || !typenamePolicies.isEmpty();
     this.dbHelper = dbHelper;
+    this.writeAheadLogging = storagePolicy.writeAheadLogging();
     database = dbHelper.getWritableDatabase();
-    insertStatement = database.compileStatement(INSERT_STATEMENT);
-    updateStatement = database.compileStatement(UPDATE_STATEMENT);
-    deleteStatement = database.compileStatement(DELETE_STATEMENT);
-    deleteAllRecordsStatement = database.compileStatement(DELETE_ALL_RECORD_STATEMENT);
+    this.pageSize = storagePolicy.pageSize().isPresent() && database.getPageSize() != storagePolicy.pageSize().get()
+        ? storagePolicy.pageSize() : Optional.<Integer>absent();
+    if (storagePolicy.writeBehindIntervalMillis().isPresent() || evicting || pageSize.isPresent()) {
+      backgroundExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(@Nonnull Runnable runnable) {
+          Thread thread = new Thread(runnable, "AppSync SQL cache writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      backgroundExecutor = null;
+    }
+    if (storagePolicy.writeBehindIntervalMillis().isPresent()) {
+      writeBehindBuffer = Optional.of(new WriteBehindBuffer());
+      writeBehindIntervalMillis = storagePolicy.writeBehindIntervalMillis().get();
+      writeBehindMaxPendingRecords = storagePolicy.writeBehindMaxPendingRecords();
+      synchronized (WRITE_BEHIND_CACHES) {
+        WRITE_BEHIND_CACHES.add(this);
+      }
+    } else {
+      writeBehindBuffer = Optional.absent();
+      writeBehindIntervalMillis = 0;
+      writeBehindMaxPendingRecords = 0;
+    }
+    configureDatabase(storagePolicy);
+    if (fieldGranular) {
+      upsertStatement = database.compileStatement(UPSERT_FIELD_STATEMENT);
+      deleteStatement = database.compileStatement(DELETE_FIELDS_STATEMENT);
+      deleteAllRecordsStatement = database.compileStatement(DELETE_ALL_FIELDS_STATEMENT);
+      touchStatement = database.compileStatement(String.format(TOUCH_STATEMENT, AppSyncSqlHelper.TABLE_RECORD_FIELDS));
+      refreshWriteTimeStatement = database.compileStatement(
+          String.format(REFRESH_WRITE_TIME_STATEMENT, AppSyncSqlHelper.TABLE_RECORD_FIELDS));
+    } else {
+      upsertStatement = database.compileStatement(UPSERT_STATEMENT);
+      deleteStatement = database.compileStatement(DELETE_STATEMENT);
+      deleteAllRecordsStatement = database.compileStatement(DELETE_ALL_RECORD_STATEMENT);
+      touchStatement = database.compileStatement(String.format(TOUCH_STATEMENT, AppSyncSqlHelper.TABLE_RECORDS));
+      refreshWriteTimeStatement = database.compileStatement(
+          String.format(REFRESH_WRITE_TIME_STATEMENT, AppSyncSqlHelper.TABLE_RECORDS));
+    }
+    selectLayout(fieldGranular ? AppSyncSqlHelper.TABLE_RECORD_FIELDS : AppSyncSqlHelper.TABLE_RECORDS);
+    // A database left over its bounds by a previous session is trimmed without waiting for a write.
+    scheduleEviction();
+    if (pageSize.isPresent()) {
+      backgroundExecutor.schedule(new Runnable() {
+        @Override public void run() {
+          changePageSize();
+        }
+      }, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Records {@code table} as the table the records are stored in. If they were stored in the other one, that table is
+   * emptied first: its records would otherwise come back stale if the layout was switched back.
+   */
+  private void selectLayout(String table) {
+    database.beginTransaction();
+    try {
+      Cursor cursor = database.query(AppSyncSqlHelper.TABLE_SETTINGS, new String[]{AppSyncSqlHelper.COLUMN_VALUE},
+          AppSyncSqlHelper.COLUMN_NAME + " = ?", new String[]{AppSyncSqlHelper.SETTING_LAYOUT}, null, null, null);
+      String storedTable;
+      try {
+        storedTable = cursor.moveToFirst() ? cursor.getString(0) : null;
+      } finally {
+        cursor.close();
+      }
+      if (!table.equals(storedTable)) {
+        if (storedTable != null) {
+          database.execSQL(AppSyncSqlHelper.TABLE_RECORDS.equals(storedTable)
+              ? DELETE_ALL_RECORD_STATEMENT : DELETE_ALL_FIELDS_STATEMENT);
+        }
+        ContentValues values = new ContentValues();
+        values.put(AppSyncSqlHelper.COLUMN_NAME, AppSyncSqlHelper.SETTING_LAYOUT);
+        values.put(AppSyncSqlHelper.COLUMN_VALUE, table);
+        database.insertWithOnConflict(AppSyncSqlHelper.TABLE_SETTINGS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private void configureDatabase(SqlStoragePolicy storagePolicy) {
+    if (writeAheadLogging) {
+      dbHelper.setWriteAheadLoggingEnabled(true);
+    }
+    if (storagePolicy.synchronous().isPresent()) {
+      database.execSQL("PRAGMA synchronous = " + storagePolicy.synchronous().get().name());
+    }
+    if (storagePolicy.mmapSize().isPresent()) {
+      // The pragma returns the new value, so it has to run as a query. SQLite before 3.7.17 ignores it.
+      Cursor cursor = database.rawQuery("PRAGMA mmap_size = " + storagePolicy.mmapSize().get(), null);
+      try {
+        cursor.moveToFirst();
+      } finally {
+        cursor.close();
+      }
+    }
   }
 
   @Nullable public Record loadRecord(@Nonnull final String key, @Nonnull final CacheHeaders cacheHeaders) {
-    return selectRecordForKey(key)
+    Optional<Record> pendingRecord = writeBehindBuffer.isPresent()
+        ? Optional.fromNullable(writeBehindBuffer.get().get(key)) : Optional.<Record>absent();
+    return (pendingRecord.isPresent() ? pendingRecord : selectRecordForKey(key))
         .apply(new Action<Record>() {
           @Override
           public void apply(@Nonnull Record record) {
             if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
               deleteRecord(key);
+            } else {
+              recordAccess(Collections.singletonList(key));
             }
           }
         })
@@ -93,6 +337,160 @@ public final class SqlNormalizedCache extends NormalizedCache {
         .orNull();
   }
 
+  @Nonnull @Override
+  public Collection<Record> loadRecords(@Nonnull Collection<String> keys, @Nonnull final CacheHeaders cacheHeaders) {
+    final Map<String, Record> records = selectCurrentRecords(keys);
+    if (cacheHeaders.hasHeader(EVICT_AFTER_READ)) {
+      for (String key : records.keySet()) {
+        deleteRecord(key);
+      }
+    } else {
+      recordAccess(records.keySet());
+    }
+
+    if (records.size() < keys.size()) {
+      final List<String> missingKeys = new ArrayList<>();
+      for (String key : keys) {
+        if (!records.containsKey(key)) {
+          missingKeys.add(key);
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override
+        public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.loadRecords(missingKeys, cacheHeaders)) {
+            records.put(record.key(), record);
+          }
+        }
+      });
+    }
+
+    List<Record> result = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      Record record = records.get(key);
+      if (record != null) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the records stored or waiting to be written, without recording their access nor deleting them. A failed
+   * query throws instead of being a miss.
+   */
+  @Nonnull @Override
+  public Collection<Record> peekRecords(@Nonnull Collection<String> keys) {
+    final Map<String, Record> records = new LinkedHashMap<>(keys.size());
+    readRecordsForKeys(keys, records);
+    addPendingRecords(keys, records);
+    if (records.size() < keys.size()) {
+      final List<String> missingKeys = new ArrayList<>();
+      for (String key : keys) {
+        if (!records.containsKey(key)) {
+          missingKeys.add(key);
+        }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      nextCache().apply(new Action<NormalizedCache>() {
+        @Override
+        public void apply(@Nonnull NormalizedCache cache) {
+          for (Record record : cache.peekRecords(missingKeys)) {
+            records.put(record.key(), record);
+          }
+        }
+      });
+    }
+    return records.values();
+  }
+
+  /**
+   * Records the access of the records stored or waiting to be written, as loading them would, so that they are not the
+   * first to be evicted. The records no longer stored, as when they were evicted or expired, are touched in the next
+   * cache, which they would be loaded from, and make this return false if there is none.
+   */
+  @Override
+  public boolean touchRecords(@Nonnull Collection<String> keys) {
+    Set<String> storedKeys = selectStoredKeys(keys);
+    recordAccess(storedKeys);
+    final List<String> missingKeys = new ArrayList<>();
+    for (String key : keys) {
+      if (!storedKeys.contains(key)) {
+        missingKeys.add(key);
+      }
+    }
+    if (missingKeys.isEmpty()) {
+      return true;
+    }
+    return nextCache().map(new Function<NormalizedCache, Boolean>() {
+      @Nonnull @Override
+      public Boolean apply(@Nonnull NormalizedCache cache) {
+        return cache.touchRecords(missingKeys);
+      }
+    }).or(Boolean.FALSE);
+  }
+
+  /**
+   * @return the keys of {@code keys} which have a record stored or waiting to be written. The keys of a failed query
+   * are counted as missing, so that their records are loaded again.
+   */
+  private Set<String> selectStoredKeys(Collection<String> keys) {
+    Set<String> storedKeys = new HashSet<>();
+    if (writeBehindBuffer.isPresent()) {
+      for (String key : keys) {
+        if (writeBehindBuffer.get().get(key) != null) {
+          storedKeys.add(key);
+        }
+      }
+    }
+    String table = fieldGranular ? AppSyncSqlHelper.TABLE_RECORD_FIELDS : AppSyncSqlHelper.TABLE_RECORDS;
+    String[] keyColumn = {AppSyncSqlHelper.COLUMN_KEY};
+    List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+    try {
+      for (int start = 0; start < distinctKeys.size(); start += MAX_KEYS_PER_QUERY) {
+        List<String> chunk = distinctKeys.subList(start, Math.min(start + MAX_KEYS_PER_QUERY, distinctKeys.size()));
+        String selection = chunk.size() == MAX_KEYS_PER_QUERY ? SELECT_KEYS_CHUNK_SELECTION
+            : keyInSelection(chunk.size());
+        Cursor cursor = database.query(true, table, keyColumn, selection, chunk.toArray(new String[chunk.size()]),
+            null, null, null, null);
+        try {
+          while (cursor.moveToNext()) {
+            storedKeys.add(cursor.getString(0));
+          }
+        } finally {
+          cursor.close();
+        }
+      }
+    } catch (SQLiteException exception) {
+      // Leaves the keys not read yet missing.
+    }
+    return storedKeys;
+  }
+
+  /**
+   * @return the records of {@code keys} stored in the database, or waiting in the write-behind buffer to be written
+   */
+  private Map<String, Record> selectCurrentRecords(Collection<String> keys) {
+    Map<String, Record> records = selectRecordsForKeys(keys);
+    addPendingRecords(keys, records);
+    return records;
+  }
+
+  /**
+   * Puts the records of {@code keys} waiting in the write-behind buffer into {@code records}, over the stored ones.
+   */
+  private void addPendingRecords(Collection<String> keys, Map<String, Record> records) {
+    if (writeBehindBuffer.isPresent()) {
+      for (String key : keys) {
+        Record pendingRecord = writeBehindBuffer.get().get(key);
+        if (pendingRecord != null) {
+          records.put(key, pendingRecord);
+        }
+      }
+    }
+  }
+
   @Nonnull public Set<String> merge(@Nonnull final Record apolloRecord, @Nonnull final CacheHeaders cacheHeaders) {
     if (cacheHeaders.hasHeader(DO_NOT_STORE)) {
       return Collections.emptySet();
@@ -106,20 +504,10 @@ public final class SqlNormalizedCache extends NormalizedCache {
       }
     });
 
-    Optional<Record> optionalOldRecord = selectRecordForKey(apolloRecord.key());
-    Set<String> changedKeys;
-    if (!optionalOldRecord.isPresent()) {
-      createRecord(apolloRecord.key(), recordFieldAdapter.toJson(apolloRecord.fields()));
-      changedKeys = Collections.emptySet();
-    } else {
-      Record oldRecord = optionalOldRecord.get();
-      changedKeys = oldRecord.mergeWith(apolloRecord);
-      if (!changedKeys.isEmpty()) {
-        updateRecord(oldRecord.key(), recordFieldAdapter.toJson(oldRecord.fields()));
-      }
+    synchronized (writeLock) {
+      flush();
+      return mergeRecords(Collections.singletonList(apolloRecord));
     }
-
-    return changedKeys;
   }
 
   @Nonnull @Override
@@ -133,21 +521,109 @@ public final class SqlNormalizedCache extends NormalizedCache {
     Optional<NormalizedCache> normalizedCacheOptional = nextCache().apply(new Action<NormalizedCache>() {
       @Override
       public void apply(@Nonnull NormalizedCache cache) {
+        cache.merge(recordSet, cacheHeaders);
+      }
+    });
+
+    synchronized (writeLock) {
+      flush();
+      return mergeRecords(recordSet);
+    }
+  }
+
+  /**
+   * Writes the merged records handed down by a cache chained in front of this one with one upsert each, without reading
+   * their previous version back from the database. With the field-granular layout the records are merged instead, so
+   * that only their changed fields are written. In write-behind mode the records are only queued here.
+   */
+  @Override
+  public void replace(@Nonnull final Collection<Record> recordSet, @Nonnull final CacheHeaders cacheHeaders) {
+    if (cacheHeaders.hasHeader(DO_NOT_STORE)) {
+      return;
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    Optional<NormalizedCache> normalizedCacheOptional = nextCache().apply(new Action<NormalizedCache>() {
+      @Override
+      public void apply(@Nonnull NormalizedCache cache) {
+        cache.replace(recordSet, cacheHeaders);
+      }
+    });
+
+    if (writeBehindBuffer.isPresent()) {
+      int pendingCount = writeBehindBuffer.get().add(recordSet);
+      if (pendingCount >= writeBehindMaxPendingRecords) {
+        backgroundExecutor.execute(flushTask);
+      } else {
+        scheduleFlush();
+      }
+      return;
+    }
+    synchronized (writeLock) {
+      writeRecords(recordSet);
+    }
+  }
+
+  /**
+   * Updates the write time of the stored rows of the records, without writing their fields. In write-behind mode the
+   * write times are only queued here, and written with the next flush.
+   */
+  @Override public void refreshWriteTimes(@Nonnull Collection<Record> recordSet) {
+    super.refreshWriteTimes(recordSet);
+
+    if (writeBehindBuffer.isPresent()) {
+      for (Record record : recordSet) {
+        refreshedWriteTimes.put(record.key(), record.writtenAtMillis());
+      }
+      scheduleFlush();
+      return;
+    }
+    synchronized (writeLock) {
+      database.beginTransaction();
+      try {
         for (Record record : recordSet) {
-          cache.merge(record, cacheHeaders);
+          refreshWriteTime(record.key(), record.writtenAtMillis());
         }
+        database.setTransactionSuccessful();
+      } finally {
+        database.endTransaction();
       }
-    });
+    }
+  }
 
-    Set<String> changedKeys;
+  /**
+   * In write-behind mode, writes the queued records on the writer thread from {@link MemoryTrimLevel#SHRINK} on, so
+   * that the memory they hold is released once the memory caches in front of this one drop them too. The released
+   * memory is not counted, as it is only released after the write.
+   */
+  @Override public long trimMemory(@Nonnull MemoryTrimLevel level) {
+    long trimmedBytes = super.trimMemory(level);
+    if (writeBehindBuffer.isPresent() && level != MemoryTrimLevel.RELEASE_UNUSED) {
+      try {
+        backgroundExecutor.execute(flushTask);
+      } catch (RejectedExecutionException e) {
+        // Closed, and flushed when it was.
+      }
+    }
+    return trimmedBytes;
+  }
+
+  @Nonnull @Override
+  public Set<String> keys() {
+    Set<String> keys = super.keys();
+    String table = fieldGranular ? AppSyncSqlHelper.TABLE_RECORD_FIELDS : AppSyncSqlHelper.TABLE_RECORDS;
+    Cursor cursor = database.rawQuery(String.format(SELECT_ALL_KEYS_QUERY, table), null);
     try {
-      database.beginTransaction();
-      changedKeys = super.merge(recordSet, cacheHeaders);
-      database.setTransactionSuccessful();
+      while (cursor.moveToNext()) {
+        keys.add(cursor.getString(0));
+      }
     } finally {
-      database.endTransaction();
+      cursor.close();
     }
-    return changedKeys;
+    if (writeBehindBuffer.isPresent()) {
+      keys.addAll(writeBehindBuffer.get().keys());
+    }
+    return keys;
   }
 
   @Override
@@ -159,7 +635,12 @@ public final class SqlNormalizedCache extends NormalizedCache {
         cache.clearAll();
       }
     });
-    clearCurrentCache();
+    synchronized (writeLock) {
+      if (writeBehindBuffer.isPresent()) {
+        writeBehindBuffer.get().clear();
+      }
+      clearCurrentCache();
+    }
   }
 
   @Override
@@ -177,32 +658,417 @@ public final class SqlNormalizedCache extends NormalizedCache {
     return result | deleteRecord(cacheKey.key());
   }
 
+  /**
+   * Writes the records queued in write-behind mode to the database, on the calling thread. Returns once they are
+   * committed. Does nothing otherwise.
+   */
+  public void flush() {
+    if (!writeBehindBuffer.isPresent()) {
+      return;
+    }
+    synchronized (writeLock) {
+      Collection<Record> records = writeBehindBuffer.get().beginFlush();
+      boolean written = false;
+      try {
+        if (!records.isEmpty()) {
+          writeRecords(records);
+        }
+        written = true;
+      } finally {
+        writeBehindBuffer.get().endFlush(written);
+      }
+      writeRefreshedWriteTimes();
+    }
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled.compareAndSet(false, true)) {
+      backgroundExecutor.schedule(flushTask, writeBehindIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Schedules the write of the records queued by every write-behind cache, on their writer thread. Called when the
+   * app goes to the background, where the process may be killed without further notice.
+   */
+  public static void flushAllInBackground() {
+    List<SqlNormalizedCache> caches;
+    synchronized (WRITE_BEHIND_CACHES) {
+      caches = new ArrayList<>(WRITE_BEHIND_CACHES);
+    }
+    for (SqlNormalizedCache cache : caches) {
+      try {
+        cache.backgroundExecutor.execute(cache.flushTask);
+      } catch (RejectedExecutionException e) {
+        // Closed, and flushed when it was.
+      }
+    }
+  }
+
   public void close() {
+    if (backgroundExecutor != null) {
+      backgroundExecutor.shutdownNow();
+    }
+    if (writeBehindBuffer.isPresent()) {
+      synchronized (WRITE_BEHIND_CACHES) {
+        WRITE_BEHIND_CACHES.remove(this);
+      }
+      flush();
+    }
     dbHelper.close();
   }
 
-  long createRecord(String key, String fields) {
-    insertStatement.bindString(1, key);
-    insertStatement.bindString(2, fields);
+  private void recordAccess(Collection<String> keys) {
+    if (evicting) {
+      Long now = System.currentTimeMillis();
+      for (String key : keys) {
+        accessTimes.put(key, now);
+      }
+      scheduleEviction();
+    }
+  }
+
+  /**
+   * Rebuilds the database with the page size of the storage policy, on the background thread rather than when the
+   * cache is created, as the {@code VACUUM} rewrites the whole file. Writes to the cache wait for it. The page size of
+   * a database in WAL mode cannot change, so write-ahead logging is turned off for the rebuild. If another user of the
+   * database is in a transaction then, the page size is left for the next session.
+   */
+  void changePageSize() {
+    if (!pageSize.isPresent()) {
+      return;
+    }
+    synchronized (writeLock) {
+      try {
+        if (database.isWriteAheadLoggingEnabled()) {
+          database.disableWriteAheadLogging();
+        }
+        database.setPageSize(pageSize.get());
+        database.execSQL("VACUUM");
+      } catch (IllegalStateException | SQLiteException e) {
+        // Left for the next session.
+      } finally {
+        if (writeAheadLogging && !database.isWriteAheadLoggingEnabled()) {
+          database.enableWriteAheadLogging();
+        }
+      }
+    }
+  }
 
-    long recordId = insertStatement.executeInsert();
-    return recordId;
+  private void scheduleEviction() {
+    if (evicting && evictionScheduled.compareAndSet(false, true)) {
+      try {
+        backgroundExecutor.schedule(evictionTask, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // Closed.
+      }
+    }
   }
 
-  void updateRecord(String key, String fields) {
-    updateStatement.bindString(1, key);
-    updateStatement.bindString(2, fields);
-    updateStatement.bindString(3, key);
+  /**
+   * Writes the recorded read and write times, then deletes expired records and least recently used records,
+   * {@link #EVICTION_BATCH_SIZE} per transaction, until the records of each typename policy and the other records are
+   * within their bounds. Writers may run between two batches.
+   */
+  void evict() {
+    synchronized (writeLock) {
+      writeAccessTimes();
+      // So that records written again with unchanged fields do not expire.
+      writeRefreshedWriteTimes();
+    }
+    String table = fieldGranular ? AppSyncSqlHelper.TABLE_RECORD_FIELDS : AppSyncSqlHelper.TABLE_RECORDS;
+    evict(table, untypedSelection, untypedSelectionArgs, maxRecords, maxSizeBytes);
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, SqlTypenamePolicy> typenamePolicy : typenamePolicies.entrySet()) {
+      SqlTypenamePolicy policy = typenamePolicy.getValue();
+      String[] selectionArgs = {typenamePolicy.getKey()};
+      deleteExpired(table, typenamePolicy.getKey(), AppSyncSqlHelper.COLUMN_LAST_ACCESS,
+          policy.expireAfterAccessMillis(), now);
+      deleteExpired(table, typenamePolicy.getKey(), AppSyncSqlHelper.COLUMN_WRITTEN_AT,
+          policy.expireAfterWriteMillis(), now);
+      evict(table, TYPENAME_SELECTION, selectionArgs, policy.maxRecords(), policy.maxSizeBytes());
+    }
+  }
 
-    updateStatement.executeInsert();
+  /**
+   * Deletes the records of {@code typename} whose latest {@code timeColumn} is more than {@code expireAfterMillis}
+   * before {@code now}.
+   */
+  private void deleteExpired(String table, String typename, String timeColumn, Optional<Long> expireAfterMillis,
+      long now) {
+    if (!expireAfterMillis.isPresent()) {
+      return;
+    }
+    synchronized (writeLock) {
+      database.execSQL(String.format(DELETE_EXPIRED_STATEMENT, table, timeColumn),
+          new Object[]{typename, now - expireAfterMillis.get()});
+    }
+  }
+
+  /**
+   * Deletes the least recently used of the records selected by {@code selection}, or of all the records if it is null,
+   * until they are within {@code maxRecords} and {@code maxSizeBytes}.
+   */
+  private void evict(String table, @Nullable String selection, @Nullable String[] selectionArgs,
+      Optional<Long> maxRecords, Optional<Long> maxSizeBytes) {
+    if (!maxRecords.isPresent() && !maxSizeBytes.isPresent()) {
+      return;
+    }
+    String where = selection != null ? " WHERE " + selection : "";
+    long recordCount;
+    long sizeBytes;
+    Cursor totals = database.rawQuery(String.format(TOTALS_QUERY, table, where), selectionArgs);
+    try {
+      if (!totals.moveToFirst()) {
+        return;
+      }
+      recordCount = totals.getLong(0);
+      sizeBytes = totals.getLong(1);
+    } finally {
+      totals.close();
+    }
+
+    String leastRecentlyUsedQuery = String.format(LEAST_RECENTLY_USED_QUERY, table, where);
+    while (recordCount > maxRecords.or(Long.MAX_VALUE) || sizeBytes > maxSizeBytes.or(Long.MAX_VALUE)) {
+      synchronized (writeLock) {
+        database.beginTransaction();
+        try {
+          Cursor cursor = database.rawQuery(leastRecentlyUsedQuery, selectionArgs);
+          try {
+            if (cursor.getCount() == 0) {
+              return;
+            }
+            while (cursor.moveToNext()
+                && (recordCount > maxRecords.or(Long.MAX_VALUE) || sizeBytes > maxSizeBytes.or(Long.MAX_VALUE))) {
+              deleteStatement.bindString(1, cursor.getString(0));
+              deleteStatement.executeUpdateDelete();
+              recordCount--;
+              sizeBytes -= cursor.getLong(1);
+            }
+          } finally {
+            cursor.close();
+          }
+          database.setTransactionSuccessful();
+        } finally {
+          database.endTransaction();
+        }
+      }
+    }
+  }
+
+  private void writeAccessTimes() {
+    if (accessTimes.isEmpty()) {
+      return;
+    }
+    database.beginTransaction();
+    try {
+      for (Map.Entry<String, Long> access : accessTimes.entrySet()) {
+        touchStatement.bindLong(1, access.getValue());
+        touchStatement.bindString(2, access.getKey());
+        touchStatement.executeUpdateDelete();
+        accessTimes.remove(access.getKey(), access.getValue());
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private void writeRefreshedWriteTimes() {
+    if (refreshedWriteTimes.isEmpty()) {
+      return;
+    }
+    database.beginTransaction();
+    try {
+      for (Map.Entry<String, Long> writeTime : refreshedWriteTimes.entrySet()) {
+        refreshWriteTime(writeTime.getKey(), writeTime.getValue());
+        refreshedWriteTimes.remove(writeTime.getKey(), writeTime.getValue());
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private void refreshWriteTime(String key, long writtenAtMillis) {
+    refreshWriteTimeStatement.bindLong(1, writtenAtMillis);
+    refreshWriteTimeStatement.bindString(2, key);
+    refreshWriteTimeStatement.executeUpdateDelete();
+  }
+
+  /**
+   * Writes merged records: with one upsert each, or with the field-granular layout by merging them.
+   */
+  private void writeRecords(Collection<Record> recordSet) {
+    if (fieldGranular) {
+      mergeRecords(recordSet);
+      return;
+    }
+    try {
+      database.beginTransaction();
+      for (Record record : recordSet) {
+        writeRecord(record);
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+    scheduleEviction();
+  }
+
+  /**
+   * Merges {@code recordSet} into the stored records in one transaction, reading the previous versions with a batched
+   * select and writing only the records, or with the field-granular layout only the fields, that changed. Records
+   * merged without changes only have their write time moved forward.
+   */
+  private Set<String> mergeRecords(Collection<Record> recordSet) {
+    ChangeSet changedKeys = new ChangeSet();
+    try {
+      database.beginTransaction();
+      List<String> keys = new ArrayList<>(recordSet.size());
+      for (Record record : recordSet) {
+        keys.add(record.key());
+      }
+      // A failed read throws and rolls the merge back, rather than taking the stored records for new ones and
+      // overwriting them with only the fields being merged.
+      Map<String, Record> oldRecords = new HashMap<>(keys.size());
+      readRecordsForKeys(keys, oldRecords);
+      for (Record record : recordSet) {
+        Record oldRecord = oldRecords.get(record.key());
+        if (oldRecord == null) {
+          Record newRecord = record.clone();
+          oldRecords.put(record.key(), newRecord);
+          writeRecord(newRecord);
+        } else {
+          long previousWriteTime = oldRecord.writtenAtMillis();
+          if (oldRecord.mergeWith(record, changedKeys)) {
+            writeChangedFields(oldRecord, changedKeys.fieldKeys(record.key()));
+          } else if (oldRecord.writtenAtMillis() != previousWriteTime) {
+            refreshWriteTime(record.key(), oldRecord.writtenAtMillis());
+          }
+        }
+      }
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+    scheduleEviction();
+    return changedKeys;
+  }
+
+  private void writeRecord(Record record) {
+    if (fieldGranular) {
+      String typename = typename(record);
+      for (Map.Entry<String, Object> field : record.fields().entrySet()) {
+        upsertField(record.key(), typename, record.writtenAtMillis(), field.getKey(), field.getValue());
+      }
+    } else {
+      upsertRecord(record);
+    }
+  }
+
+  /**
+   * @param changedFieldKeys the keys of the fields of {@code record} changed by {@link Record#mergeWith(Record)}
+   */
+  private void writeChangedFields(Record record, Set<String> changedFieldKeys) {
+    if (fieldGranular) {
+      String typename = typename(record);
+      for (String fieldName : changedFieldKeys) {
+        upsertField(record.key(), typename, record.writtenAtMillis(), fieldName, record.field(fieldName));
+      }
+      if (changedFieldKeys.contains("__typename")) {
+        database.execSQL(UPDATE_FIELDS_TYPENAME_STATEMENT, new Object[]{typename, record.key()});
+      }
+    } else {
+      upsertRecord(record);
+    }
+  }
+
+  void upsertRecord(Record record) {
+    upsertStatement.bindString(1, record.key());
+    if (recordCodec.isPresent()) {
+      byte[] encodedFields = recordCodec.get().encode(record.fields());
+      upsertStatement.bindBlob(2, encodedFields);
+      upsertStatement.bindLong(4, encodedFields.length);
+    } else {
+      String jsonOfFields = recordFieldAdapter.toJson(record.fields());
+      upsertStatement.bindString(2, jsonOfFields);
+      upsertStatement.bindLong(4, utf8Length(jsonOfFields));
+    }
+    upsertStatement.bindLong(3, System.currentTimeMillis());
+    bindTypename(5, typename(record));
+    upsertStatement.bindLong(6, record.writtenAtMillis());
+
+    upsertStatement.executeInsert();
+  }
+
+  /**
+   * @param writtenAtMillis the write time of the record, which is the one of its most recently written field
+   */
+  void upsertField(String key, @Nullable String typename, long writtenAtMillis, String fieldName, Object value) {
+    upsertStatement.bindString(1, key);
+    upsertStatement.bindString(2, fieldName);
+    if (recordCodec.isPresent()) {
+      byte[] encodedValue = recordCodec.get().encodeValue(value);
+      upsertStatement.bindBlob(3, encodedValue);
+      upsertStatement.bindLong(5, encodedValue.length);
+    } else {
+      String jsonOfValue = recordFieldAdapter.toJson(Collections.singletonMap(fieldName, value));
+      upsertStatement.bindString(3, jsonOfValue);
+      upsertStatement.bindLong(5, utf8Length(jsonOfValue));
+    }
+    upsertStatement.bindLong(4, System.currentTimeMillis());
+    bindTypename(6, typename);
+    upsertStatement.bindLong(7, writtenAtMillis);
+    upsertStatement.executeInsert();
+  }
+
+  /**
+   * @return the number of bytes of {@code text} encoded in UTF-8, as SQLite stores it, counted without encoding it
+   */
+  static int utf8Length(String text) {
+    int length = text.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c >= 0x800) {
+        bytes += 2;
+        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+          // Four bytes for the two chars of the pair.
+          i++;
+        }
+      } else if (c >= 0x80) {
+        bytes++;
+      }
+    }
+    return bytes;
+  }
+
+  private void bindTypename(int index, @Nullable String typename) {
+    if (typename != null) {
+      upsertStatement.bindString(index, typename);
+    } else {
+      upsertStatement.bindNull(index);
+    }
+  }
+
+  @Nullable private static String typename(Record record) {
+    Object typename = record.field("__typename");
+    return typename instanceof String ? (String) typename : null;
   }
 
   boolean deleteRecord(String key) {
-    deleteStatement.bindString(1, key);
-    return deleteStatement.executeUpdateDelete() > 0;
+    synchronized (writeLock) {
+      boolean removedPending = writeBehindBuffer.isPresent() && writeBehindBuffer.get().remove(key);
+      deleteStatement.bindString(1, key);
+      return deleteStatement.executeUpdateDelete() > 0 | removedPending;
+    }
   }
 
   Optional<Record> selectRecordForKey(String key) {
+    if (fieldGranular) {
+      return Optional.fromNullable(selectRecordsForKeys(Collections.singletonList(key)).get(key));
+    }
     Cursor cursor = database.query(AppSyncSqlHelper.TABLE_RECORDS,
         allColumns, AppSyncSqlHelper.COLUMN_KEY + " = ?", new String[]{key},
         null, null, null);
@@ -221,10 +1087,149 @@ public final class SqlNormalizedCache extends NormalizedCache {
     }
   }
 
+  /**
+   * Reads the records for {@code keys} with one {@code key IN (...)} query per {@link #MAX_KEYS_PER_QUERY} keys. When
+   * more than one query is needed they all run inside a single transaction, so the result is a consistent snapshot,
+   * except with write-ahead logging where each query reads its own snapshot.
+   *
+   * @return The records found, by key. Keys with no stored record, or whose record could not be decoded, are absent,
+   * and so are the keys left to read when a query fails.
+   */
+  Map<String, Record> selectRecordsForKeys(Collection<String> keys) {
+    Map<String, Record> records = new LinkedHashMap<>(keys.size());
+    try {
+      readRecordsForKeys(keys, records);
+    } catch (SQLiteException exception) {
+      // Same as a single key lookup: a failed read is a cache miss, leave it to the next cache.
+    }
+    return records;
+  }
+
+  /**
+   * Reads the records for {@code keys} into {@code records} like {@link #selectRecordsForKeys(Collection)}, but lets a
+   * failed query throw, for the callers which must not take a record that could not be read for a missing one.
+   */
+  private void readRecordsForKeys(Collection<String> keys, Map<String, Record> records) {
+    List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+    if (distinctKeys.isEmpty()) {
+      return;
+    }
+
+    // A transaction would pin the reads to the connection used by writers, and block them behind a merge in WAL mode.
+    boolean chunked = distinctKeys.size() > MAX_KEYS_PER_QUERY && !writeAheadLogging;
+    if (chunked) {
+      database.beginTransactionNonExclusive();
+    }
+    try {
+      for (int start = 0; start < distinctKeys.size(); start += MAX_KEYS_PER_QUERY) {
+        List<String> chunk = distinctKeys.subList(start, Math.min(start + MAX_KEYS_PER_QUERY, distinctKeys.size()));
+        selectRecordsForKeyChunk(chunk, records);
+      }
+      if (chunked) {
+        database.setTransactionSuccessful();
+      }
+    } finally {
+      if (chunked) {
+        database.endTransaction();
+      }
+    }
+  }
+
+  private void selectRecordsForKeyChunk(List<String> keys, Map<String, Record> records) {
+    String selection = keys.size() == MAX_KEYS_PER_QUERY ? SELECT_KEYS_CHUNK_SELECTION : keyInSelection(keys.size());
+    if (fieldGranular) {
+      selectRecordFieldsForKeyChunk(keys, selection, records);
+      return;
+    }
+    Cursor cursor = database.query(AppSyncSqlHelper.TABLE_RECORDS,
+        allColumns, selection, keys.toArray(new String[keys.size()]),
+        null, null, null);
+    if (cursor == null) {
+      return;
+    }
+    try {
+      while (cursor.moveToNext()) {
+        try {
+          Record record = cursorToRecord(cursor);
+          records.put(record.key(), record);
+        } catch (IOException exception) {
+          // Undecodable row, treat it as a miss for this key.
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private void selectRecordFieldsForKeyChunk(List<String> keys, String selection, Map<String, Record> records) {
+    Cursor cursor = database.query(AppSyncSqlHelper.TABLE_RECORD_FIELDS,
+        fieldColumns, selection, keys.toArray(new String[keys.size()]),
+        null, null, null);
+    if (cursor == null) {
+      return;
+    }
+    Map<String, Record.Builder> recordBuilders = new LinkedHashMap<>();
+    // The write time of a record is the one of its most recently written field.
+    Map<String, Long> writeTimes = new HashMap<>();
+    Set<String> undecodableKeys = new HashSet<>();
+    try {
+      while (cursor.moveToNext()) {
+        String key = cursor.getString(0);
+        Record.Builder recordBuilder = recordBuilders.get(key);
+        long writtenAtMillis = cursor.getLong(3);
+        if (recordBuilder == null) {
+          recordBuilder = Record.builder(key);
+          recordBuilders.put(key, recordBuilder);
+          writeTimes.put(key, writtenAtMillis);
+        } else if (writtenAtMillis > writeTimes.get(key)) {
+          writeTimes.put(key, writtenAtMillis);
+        }
+        try {
+          String fieldName = cursor.getString(1);
+          recordBuilder.addField(fieldName, cursorToFieldValue(cursor, fieldName));
+        } catch (IOException exception) {
+          // A record missing one of its fields would be wrong, treat it as a miss for this key.
+          undecodableKeys.add(key);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    for (Map.Entry<String, Record.Builder> entry : recordBuilders.entrySet()) {
+      if (!undecodableKeys.contains(entry.getKey())) {
+        records.put(entry.getKey(),
+            entry.getValue().writtenAtMillis(writeTimes.get(entry.getKey())).buildSharingFields());
+      }
+    }
+  }
+
+  private static String keyInSelection(int keyCount) {
+    StringBuilder selection = new StringBuilder(AppSyncSqlHelper.COLUMN_KEY.length() + 6 + keyCount * 2);
+    selection.append(AppSyncSqlHelper.COLUMN_KEY).append(" IN (");
+    for (int i = 0; i < keyCount; i++) {
+      selection.append(i == 0 ? "?" : ",?");
+    }
+    return selection.append(')').toString();
+  }
+
   Record cursorToRecord(Cursor cursor) throws IOException {
-    String key = cursor.getString(1);
-    String jsonOfFields = cursor.getString(2);
-    return Record.builder(key).addFields(recordFieldAdapter.from(jsonOfFields)).build();
+    String key = cursor.getString(0);
+    // Rows written as JSON text stay readable whichever codec writes new records.
+    Map<String, Object> fields = cursor.getType(1) == Cursor.FIELD_TYPE_BLOB
+        ? recordCodec.or(DEFAULT_BLOB_CODEC).decode(cursor.getBlob(1))
+        : recordFieldAdapter.from(cursor.getString(1));
+    return Record.builder(key).addFields(fields).writtenAtMillis(cursor.getLong(2)).buildSharingFields();
+  }
+
+  private Object cursorToFieldValue(Cursor cursor, String fieldName) throws IOException {
+    if (cursor.getType(2) == Cursor.FIELD_TYPE_BLOB) {
+      return recordCodec.or(DEFAULT_BLOB_CODEC).decodeValue(cursor.getBlob(2));
+    }
+    Map<String, Object> fields = recordFieldAdapter.from(cursor.getString(2));
+    if (!fields.containsKey(fieldName)) {
+      throw new IOException("Missing value of field " + fieldName);
+    }
+    return fields.get(fieldName);
   }
 
   void clearCurrentCache() {
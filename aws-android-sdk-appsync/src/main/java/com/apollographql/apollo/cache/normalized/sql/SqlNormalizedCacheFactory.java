@@ -7,21 +7,47 @@
 
 package com.apollographql.apollo.cache.normalized.sql;
 
+import android.database.sqlite.SQLiteOpenHelper;
+
 import com.amazonaws.mobileconnectors.appsync.cache.normalized.sql.AppSyncSqlHelper;
 import com.apollographql.apollo.cache.normalized.NormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
 import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
 
 import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
 
 public final class SqlNormalizedCacheFactory extends NormalizedCacheFactory<SqlNormalizedCache> {
-  private final AppSyncSqlHelper helper;
+  private final SQLiteOpenHelper helper;
+  private final SqlStoragePolicy storagePolicy;
 
+  /**
+   * Creates a factory of caches that store records as JSON text.
+   */
   public SqlNormalizedCacheFactory(AppSyncSqlHelper helper) {
+    this(helper, SqlStoragePolicy.DEFAULT);
+  }
+
+  /**
+   * Creates a factory of caches that store records as BLOBs encoded with {@code recordCodec}.
+   *
+   * @see SqlStoragePolicy.Builder#recordCodec(RecordCodec)
+   */
+  public SqlNormalizedCacheFactory(AppSyncSqlHelper helper, RecordCodec recordCodec) {
+    this(helper, SqlStoragePolicy.builder().recordCodec(recordCodec).build());
+  }
+
+  /**
+   * @param helper        opens a database with the tables created by {@link AppSyncSqlHelper}, which may be shared
+   *                      with other tables.
+   * @param storagePolicy {@link SqlStoragePolicy} to lay out and encode the stored records.
+   */
+  public SqlNormalizedCacheFactory(SQLiteOpenHelper helper, SqlStoragePolicy storagePolicy) {
     this.helper = checkNotNull(helper, "helper == null");
+    this.storagePolicy = checkNotNull(storagePolicy, "storagePolicy == null");
   }
 
   @Override
   public SqlNormalizedCache create(RecordFieldJsonAdapter recordFieldAdapter) {
-    return new SqlNormalizedCache(recordFieldAdapter, helper);
+    return new SqlNormalizedCache(recordFieldAdapter, storagePolicy, helper);
   }
 }
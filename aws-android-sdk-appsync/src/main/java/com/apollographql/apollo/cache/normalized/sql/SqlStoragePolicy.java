@@ -0,0 +1,256 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.sql;
+
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.normalized.BinaryRecordCodec;
+import com.apollographql.apollo.cache.normalized.RecordCodec;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * Controls how a {@link SqlNormalizedCache} lays out, encodes and writes the records it stores, and how its database
+ * connection is tuned.
+ */
+public final class SqlStoragePolicy {
+
+  /**
+   * Values of the SQLite {@code synchronous} pragma.
+   */
+  public enum Synchronous {
+    OFF, NORMAL, FULL
+  }
+
+  public static final SqlStoragePolicy DEFAULT = SqlStoragePolicy.builder().build();
+
+  private final Optional<RecordCodec> recordCodec;
+  private final boolean fieldGranular;
+  private final Optional<Long> writeBehindIntervalMillis;
+  private final int writeBehindMaxPendingRecords;
+  private final boolean writeAheadLogging;
+  private final Optional<Synchronous> synchronous;
+  private final Optional<Integer> pageSize;
+  private final Optional<Long> mmapSize;
+  private final Optional<Long> maxSizeBytes;
+  private final Optional<Long> maxRecords;
+  private final Map<String, SqlTypenamePolicy> typenamePolicies;
+
+  Optional<RecordCodec> recordCodec() {
+    return recordCodec;
+  }
+
+  boolean fieldGranular() {
+    return fieldGranular;
+  }
+
+  Optional<Long> writeBehindIntervalMillis() {
+    return writeBehindIntervalMillis;
+  }
+
+  int writeBehindMaxPendingRecords() {
+    return writeBehindMaxPendingRecords;
+  }
+
+  boolean writeAheadLogging() {
+    return writeAheadLogging;
+  }
+
+  Optional<Synchronous> synchronous() {
+    return synchronous;
+  }
+
+  Optional<Integer> pageSize() {
+    return pageSize;
+  }
+
+  Optional<Long> mmapSize() {
+    return mmapSize;
+  }
+
+  Optional<Long> maxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  Optional<Long> maxRecords() {
+    return maxRecords;
+  }
+
+  Map<String, SqlTypenamePolicy> typenamePolicies() {
+    return typenamePolicies;
+  }
+
+  boolean sizeBounded() {
+    return maxSizeBytes.isPresent() || maxRecords.isPresent();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private Builder() { }
+
+    private Optional<RecordCodec> recordCodec = Optional.absent();
+    private boolean fieldGranular;
+    private Optional<Long> writeBehindIntervalMillis = Optional.absent();
+    private int writeBehindMaxPendingRecords;
+    private boolean writeAheadLogging;
+    private Optional<Synchronous> synchronous = Optional.absent();
+    private Optional<Integer> pageSize = Optional.absent();
+    private Optional<Long> mmapSize = Optional.absent();
+    private Optional<Long> maxSizeBytes = Optional.absent();
+    private Optional<Long> maxRecords = Optional.absent();
+    private final Map<String, SqlTypenamePolicy> typenamePolicies = new LinkedHashMap<>();
+
+    /**
+     * Stores records as BLOBs encoded with {@code recordCodec}, for example {@link BinaryRecordCodec#create()},
+     * instead of JSON text. Records already stored as JSON text stay readable, and are rewritten with the codec the
+     * next time they change.
+     */
+    public Builder recordCodec(RecordCodec recordCodec) {
+      this.recordCodec = Optional.of(checkNotNull(recordCodec, "recordCodec == null"));
+      return this;
+    }
+
+    /**
+     * Stores each field of a record in its own row, so that a merge only writes the fields that changed instead of the
+     * whole record. The layout is recorded in the database: when it changes, the records stored with the previous one
+     * are discarded once, as the cache is created.
+     */
+    public Builder fieldGranular(boolean fieldGranular) {
+      this.fieldGranular = fieldGranular;
+      return this;
+    }
+
+    /**
+     * Writes the records handed down by a cache chained in front of this one, such as a
+     * {@link com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache}, on a background thread instead of in
+     * the caller's write. Pending records are coalesced by key and written in one transaction at most
+     * {@code flushInterval} after the first of them, or as soon as {@code maxPendingRecords} are pending. They are
+     * also written when the cache is cleared or closed, when a record is merged into this cache directly, and when the
+     * app goes to the background.
+     *
+     * <p>This bounds what is lost if the process dies: at most the records of the last {@code flushInterval}, or
+     * {@code maxPendingRecords} records. Call {@link SqlNormalizedCache#flush()} where a write must be durable.
+     */
+    public Builder writeBehind(long flushInterval, TimeUnit timeUnit, int maxPendingRecords) {
+      if (flushInterval < 0 || maxPendingRecords <= 0) {
+        throw new IllegalArgumentException("flushInterval must not be negative and maxPendingRecords must be positive");
+      }
+      this.writeBehindIntervalMillis = Optional.of(checkNotNull(timeUnit, "timeUnit == null").toMillis(flushInterval));
+      this.writeBehindMaxPendingRecords = maxPendingRecords;
+      return this;
+    }
+
+    /**
+     * Enables write-ahead logging on the database. Reads made outside of a write then use their own connections, and
+     * are no longer blocked by a merge transaction in progress. Batched reads over several queries are then not
+     * guaranteed to see a single snapshot of the cache.
+     */
+    public Builder writeAheadLogging(boolean writeAheadLogging) {
+      this.writeAheadLogging = writeAheadLogging;
+      return this;
+    }
+
+    /**
+     * Sets the {@code synchronous} pragma of the connection the cache writes with. {@link Synchronous#NORMAL} is
+     * durable with write-ahead logging except on power loss.
+     */
+    public Builder synchronous(Synchronous synchronous) {
+      this.synchronous = Optional.of(checkNotNull(synchronous, "synchronous == null"));
+      return this;
+    }
+
+    /**
+     * Sets the page size of the database file, a power of two between 512 and 65536. An existing database with a
+     * different page size is rebuilt with {@code VACUUM} once, on the background thread of the cache shortly after it
+     * is created. Writes to the cache wait for the rebuild.
+     */
+    public Builder pageSize(int pageSizeBytes) {
+      if (pageSizeBytes < 512 || pageSizeBytes > 65536 || Integer.bitCount(pageSizeBytes) != 1) {
+        throw new IllegalArgumentException("pageSizeBytes must be a power of two between 512 and 65536");
+      }
+      this.pageSize = Optional.of(pageSizeBytes);
+      return this;
+    }
+
+    /**
+     * Sets the {@code mmap_size} pragma of the connection the cache writes with, the number of bytes of the database
+     * file read through memory mapping. 0 disables memory mapping.
+     */
+    public Builder mmapSize(long mmapSizeBytes) {
+      if (mmapSizeBytes < 0) {
+        throw new IllegalArgumentException("mmapSizeBytes must not be negative");
+      }
+      this.mmapSize = Optional.of(mmapSizeBytes);
+      return this;
+    }
+
+    /**
+     * Bounds the total size of the encoded records. Least recently read or written records are evicted in batches on
+     * a background thread once the bound is exceeded, so the bound may be exceeded for a while.
+     */
+    public Builder maxSizeBytes(long maxSizeBytes) {
+      if (maxSizeBytes < 0) {
+        throw new IllegalArgumentException("maxSizeBytes must not be negative");
+      }
+      this.maxSizeBytes = Optional.of(maxSizeBytes);
+      return this;
+    }
+
+    /**
+     * Bounds the number of records, evicted like with {@link #maxSizeBytes(long)}.
+     */
+    public Builder maxRecords(long maxRecords) {
+      if (maxRecords < 0) {
+        throw new IllegalArgumentException("maxRecords must not be negative");
+      }
+      this.maxRecords = Optional.of(maxRecords);
+      return this;
+    }
+
+    /**
+     * Bounds and expires the records whose {@code __typename} is {@code typename} with {@code policy}, apart from the
+     * records of other types. {@link #maxSizeBytes(long)} and {@link #maxRecords(long)} then only bound the records of
+     * the types without a policy, and the ones without a {@code __typename} such as the root records of the operations.
+     *
+     * <p>The typename of each record is stored along with it. Records stored by versions without typename policies
+     * count as records without a {@code __typename} until they are written again.
+     */
+    public Builder typenamePolicy(String typename, SqlTypenamePolicy policy) {
+      typenamePolicies.put(checkNotNull(typename, "typename == null"), checkNotNull(policy, "policy == null"));
+      return this;
+    }
+
+    public SqlStoragePolicy build() {
+      return new SqlStoragePolicy(this);
+    }
+
+  }
+
+  private SqlStoragePolicy(Builder builder) {
+    this.recordCodec = builder.recordCodec;
+    this.fieldGranular = builder.fieldGranular;
+    this.writeBehindIntervalMillis = builder.writeBehindIntervalMillis;
+    this.writeBehindMaxPendingRecords = builder.writeBehindMaxPendingRecords;
+    this.writeAheadLogging = builder.writeAheadLogging;
+    this.synchronous = builder.synchronous;
+    this.pageSize = builder.pageSize;
+    this.mmapSize = builder.mmapSize;
+    this.maxSizeBytes = builder.maxSizeBytes;
+    this.maxRecords = builder.maxRecords;
+    this.typenamePolicies = Collections.unmodifiableMap(new LinkedHashMap<>(builder.typenamePolicies));
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.sql;
+
+import com.apollographql.apollo.api.internal.Optional;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.apollographql.apollo.api.internal.Utils.checkNotNull;
+
+/**
+ * Controls how long the records of one {@code __typename} stay in a {@link SqlNormalizedCache}, when given to
+ * {@link SqlStoragePolicy.Builder#typenamePolicy(String, SqlTypenamePolicy)}.
+ */
+public final class SqlTypenamePolicy {
+
+  private final Optional<Long> maxSizeBytes;
+  private final Optional<Long> maxRecords;
+  private final Optional<Long> expireAfterAccessMillis;
+  private final Optional<Long> expireAfterWriteMillis;
+
+  Optional<Long> maxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  Optional<Long> maxRecords() {
+    return maxRecords;
+  }
+
+  Optional<Long> expireAfterAccessMillis() {
+    return expireAfterAccessMillis;
+  }
+
+  Optional<Long> expireAfterWriteMillis() {
+    return expireAfterWriteMillis;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private Builder() { }
+
+    private Optional<Long> maxSizeBytes = Optional.absent();
+    private Optional<Long> maxRecords = Optional.absent();
+    private Optional<Long> expireAfterAccessMillis = Optional.absent();
+    private Optional<Long> expireAfterWriteMillis = Optional.absent();
+
+    /**
+     * Bounds the total size of the encoded records of the type, evicted like with
+     * {@link SqlStoragePolicy.Builder#maxSizeBytes(long)}.
+     */
+    public Builder maxSizeBytes(long maxSizeBytes) {
+      if (maxSizeBytes < 0) {
+        throw new IllegalArgumentException("maxSizeBytes must not be negative");
+      }
+      this.maxSizeBytes = Optional.of(maxSizeBytes);
+      return this;
+    }
+
+    /**
+     * Bounds the number of records of the type, evicted like with {@link SqlStoragePolicy.Builder#maxRecords(long)}.
+     */
+    public Builder maxRecords(long maxRecords) {
+      if (maxRecords < 0) {
+        throw new IllegalArgumentException("maxRecords must not be negative");
+      }
+      this.maxRecords = Optional.of(maxRecords);
+      return this;
+    }
+
+    /**
+     * Deletes the records of the type neither read nor written for {@code time}: reading a record keeps it, however
+     * old its data. Expired records are deleted by the same background passes as the evicted ones, so they may still be
+     * read for a few seconds. See {@link #expireAfterWrite(long, TimeUnit)} to bound the age of the data instead.
+     */
+    public Builder expireAfterAccess(long time, TimeUnit timeUnit) {
+      if (time < 0) {
+        throw new IllegalArgumentException("time must not be negative");
+      }
+      this.expireAfterAccessMillis = Optional.of(checkNotNull(timeUnit, "timeUnit == null").toMillis(time));
+      return this;
+    }
+
+    /**
+     * Deletes the records of the type last written with a response more than {@code time} ago, whether or not they
+     * were read since, like
+     * {@link com.apollographql.apollo.cache.normalized.lru.EvictionPolicy.Builder#expireAfterWrite(long, TimeUnit)}
+     * does in memory. A response with unchanged fields counts as a write. Expired records are deleted by the same
+     * background passes as the evicted ones, so they may still be read for a few seconds.
+     */
+    public Builder expireAfterWrite(long time, TimeUnit timeUnit) {
+      if (time < 0) {
+        throw new IllegalArgumentException("time must not be negative");
+      }
+      this.expireAfterWriteMillis = Optional.of(checkNotNull(timeUnit, "timeUnit == null").toMillis(time));
+      return this;
+    }
+
+    public SqlTypenamePolicy build() {
+      return new SqlTypenamePolicy(this);
+    }
+
+  }
+
+  private SqlTypenamePolicy(Builder builder) {
+    this.maxSizeBytes = builder.maxSizeBytes;
+    this.maxRecords = builder.maxRecords;
+    this.expireAfterAccessMillis = builder.expireAfterAccessMillis;
+    this.expireAfterWriteMillis = builder.expireAfterWriteMillis;
+  }
+
+}
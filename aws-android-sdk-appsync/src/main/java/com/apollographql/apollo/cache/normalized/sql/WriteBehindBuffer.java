@@ -0,0 +1,100 @@
+/**
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.sql;
+
+import com.apollographql.apollo.cache.normalized.Record;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records written to a write-behind {@link SqlNormalizedCache} and not yet flushed to the database, coalesced by key.
+ *
+ * Records are copied when added and when read, as callers keep mutating their own instances with
+ * {@link Record#mergeWith(Record)}. Records being flushed stay readable until the flush has been committed.
+ */
+final class WriteBehindBuffer {
+  private final Object lock = new Object();
+  private Map<String, Record> pending = new LinkedHashMap<>();
+  private Map<String, Record> flushing = Collections.emptyMap();
+
+  /**
+   * @return the number of records pending once {@code records} are added
+   */
+  int add(Collection<Record> records) {
+    synchronized (lock) {
+      for (Record record : records) {
+        pending.put(record.key(), record.clone());
+      }
+      return pending.size();
+    }
+  }
+
+  @Nullable Record get(String key) {
+    synchronized (lock) {
+      Record record = pending.get(key);
+      if (record == null) {
+        record = flushing.get(key);
+      }
+      return record != null ? record.clone() : null;
+    }
+  }
+
+  Set<String> keys() {
+    synchronized (lock) {
+      Set<String> keys = new LinkedHashSet<>(pending.keySet());
+      keys.addAll(flushing.keySet());
+      return keys;
+    }
+  }
+
+  boolean remove(String key) {
+    synchronized (lock) {
+      return pending.remove(key) != null;
+    }
+  }
+
+  void clear() {
+    synchronized (lock) {
+      pending.clear();
+    }
+  }
+
+  /**
+   * Moves the pending records to the set being flushed. Must be followed by {@link #endFlush(boolean)}.
+   */
+  Collection<Record> beginFlush() {
+    synchronized (lock) {
+      flushing = pending;
+      pending = new LinkedHashMap<>();
+      return flushing.values();
+    }
+  }
+
+  /**
+   * @param written false if the records could not be written, to queue them again unless a newer version is pending
+   */
+  void endFlush(boolean written) {
+    synchronized (lock) {
+      if (!written) {
+        for (Map.Entry<String, Record> entry : flushing.entrySet()) {
+          if (!pending.containsKey(entry.getKey())) {
+            pending.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      flushing = Collections.emptyMap();
+    }
+  }
+}
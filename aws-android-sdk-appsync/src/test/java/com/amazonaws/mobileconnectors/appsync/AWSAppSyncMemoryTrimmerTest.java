@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.cache.normalized.RealAppSyncStore;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AWSAppSyncMemoryTrimmerTest {
+
+    @Test
+    public void oneTrimmerTrimsTheStoresOfAllClients() {
+        RealAppSyncStore first = storeWith("Post:1");
+        RealAppSyncStore second = storeWith("Post:2");
+        AWSAppSyncMemoryTrimmer trimmer = new AWSAppSyncMemoryTrimmer();
+        trimmer.addStore(first);
+        trimmer.addStore(second);
+
+        assertNotNull(first.read("Post:1", CacheHeaders.NONE));
+        assertTrue(trimmer.trim(MemoryTrimLevel.CLEAR) > 0);
+
+        assertNull(first.read("Post:1", CacheHeaders.NONE));
+        assertNull(second.read("Post:2", CacheHeaders.NONE));
+    }
+
+    private static RealAppSyncStore storeWith(String key) {
+        RealAppSyncStore store = new RealAppSyncStore(
+                new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION).create(RecordFieldJsonAdapter.create()),
+                CacheKeyResolver.DEFAULT,
+                new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new ApolloLogger(Optional.<Logger>absent()));
+        store.merge(Record.builder(key).addField("title", "cached").build(), CacheHeaders.NONE);
+        return store;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.amazonaws.mobileconnectors.appsync;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCache;
+import com.apollographql.apollo.cache.normalized.sql.SqlNormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.sql.SqlStoragePolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AppSyncDatabaseHelperTest {
+    private static final String DATABASE_NAME = "single.db";
+    private static final String SEPARATE_MUTATIONS_NAME = "separate_mutations.db";
+
+    private Context context;
+    private AppSyncDatabaseHelper databaseHelper;
+
+    @Before
+    public void setup() {
+        context = RuntimeEnvironment.application;
+        databaseHelper = new AppSyncDatabaseHelper(context, DATABASE_NAME);
+    }
+
+    @After
+    public void teardown() {
+        databaseHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(SEPARATE_MUTATIONS_NAME);
+    }
+
+    @Test
+    public void mutationQueueAndCacheCanBeWrittenInOneTransaction() {
+        SqlNormalizedCache cache = new SqlNormalizedCacheFactory(databaseHelper, SqlStoragePolicy.DEFAULT)
+                .create(RecordFieldJsonAdapter.create());
+        AppSyncMutationSqlCacheOperations mutations = new AppSyncMutationSqlCacheOperations(databaseHelper);
+        mutations.createRecord("mutation-1", "{}", "AddPostMutation", "{}", null, null, null, null, null);
+
+        SQLiteDatabase database = databaseHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            assertTrue(mutations.deleteRecord("mutation-1"));
+            cache.merge(Record.builder("Post:1").addField("title", "from the response").build(), CacheHeaders.NONE);
+            // Not marked successful: both writes are rolled back together.
+        } finally {
+            database.endTransaction();
+        }
+        assertEquals(1, mutations.fetchAllRecords().size());
+        assertNull(cache.loadRecord("Post:1", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void mutationsQueuedInTheSeparateDatabaseAreMovedOnce() {
+        AppSyncMutationsSqlHelper separateHelper = new AppSyncMutationsSqlHelper(context, SEPARATE_MUTATIONS_NAME);
+        AppSyncMutationSqlCacheOperations separateMutations = new AppSyncMutationSqlCacheOperations(separateHelper);
+        separateMutations.createRecord("mutation-1", "{}", "AddPostMutation", "{}", null, null, null, null, null);
+        separateMutations.createRecord("mutation-2", "{}", "UpdatePostMutation", "{}", null, null, null, null, null);
+        separateHelper.close();
+        AppSyncMutationSqlCacheOperations mutations = new AppSyncMutationSqlCacheOperations(databaseHelper);
+        mutations.createRecord("mutation-0", "{}", "AddPostMutation", "{}", null, null, null, null, null);
+
+        databaseHelper.importMutationQueue(context, SEPARATE_MUTATIONS_NAME);
+        databaseHelper.importMutationQueue(context, SEPARATE_MUTATIONS_NAME);
+
+        List<PersistentOfflineMutationObject> queued = mutations.fetchAllRecords();
+        assertEquals(3, queued.size());
+        assertEquals("mutation-0", queued.get(0).recordIdentifier);
+        assertEquals("mutation-1", queued.get(1).recordIdentifier);
+        assertEquals("UpdatePostMutation", queued.get(2).responseClassName);
+        assertFalse(context.getDatabasePath(SEPARATE_MUTATIONS_NAME).exists());
+    }
+
+    @Test
+    public void upgradeOnlyMigratesComponentsWithANewerVersion() {
+        SqlNormalizedCache cache = new SqlNormalizedCacheFactory(databaseHelper, SqlStoragePolicy.DEFAULT)
+                .create(RecordFieldJsonAdapter.create());
+        cache.merge(Record.builder("Post:1").addField("title", "kept").build(), CacheHeaders.NONE);
+        new AWSAppSyncDeltaSyncDBOperations(databaseHelper).createRecord("sync", 42L);
+        // Pretend the delta sync metadata was written with a version which has no migration path.
+        SQLiteDatabase database = databaseHelper.getWritableDatabase();
+        database.execSQL("UPDATE schema_versions SET version = 0 WHERE component = 'delta_sync'");
+        database.setVersion(database.getVersion() - 1);
+        databaseHelper.close();
+
+        databaseHelper = new AppSyncDatabaseHelper(context, DATABASE_NAME);
+        cache = new SqlNormalizedCacheFactory(databaseHelper, SqlStoragePolicy.DEFAULT)
+                .create(RecordFieldJsonAdapter.create());
+
+        assertNotNull(cache.loadRecord("Post:1", CacheHeaders.NONE));
+        assertNull(new AWSAppSyncDeltaSyncDBOperations(databaseHelper).getRecordByKey("sync"));
+    }
+}
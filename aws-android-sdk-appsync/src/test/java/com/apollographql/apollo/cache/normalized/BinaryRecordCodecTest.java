@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryRecordCodecTest {
+    private final BinaryRecordCodec codec = BinaryRecordCodec.create();
+    private final RecordFieldJsonAdapter jsonAdapter = RecordFieldJsonAdapter.create();
+
+    @Test
+    public void decodesTheSameFieldsAsJson() throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("__typename", "Post");
+        fields.put("id", "Post:1");
+        fields.put("title", "Tsch\u00fc\u00df \u2603");
+        fields.put("missing", null);
+        fields.put("published", true);
+        fields.put("draft", false);
+        fields.put("votes", 42);
+        fields.put("score", -1.5d);
+        fields.put("views", new BigDecimal("12345678901234567890123"));
+        fields.put("ratio", new BigDecimal("1E+3"));
+        fields.put("author", new CacheReference("Author:1"));
+        List<Object> comments = new ArrayList<>();
+        comments.add(new CacheReference("Comment:1"));
+        comments.add(Arrays.asList("nested", null, new BigDecimal("0.10")));
+        fields.put("comments", comments);
+
+        Map<String, Object> decoded = codec.decode(codec.encode(fields));
+
+        assertEquals(jsonAdapter.from(jsonAdapter.toJson(fields)), decoded);
+        assertEquals(new ArrayList<>(fields.keySet()), new ArrayList<>(decoded.keySet()));
+    }
+
+    @Test
+    public void encodesSmallerThanJson() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("__typename", "Post");
+        fields.put("id", "1");
+        fields.put("votes", 1000);
+        fields.put("author", new CacheReference("Author:1"));
+        fields.put("comments", Arrays.asList(new CacheReference("Comment:1"), new CacheReference("Comment:2")));
+
+        int jsonSize = jsonAdapter.toJson(fields).getBytes(Charset.forName("UTF-8")).length;
+
+        assertTrue(codec.encode(fields).length < jsonSize);
+    }
+
+    @Test
+    public void rejectsUnknownFormatVersion() {
+        byte[] encoded = codec.encode(new LinkedHashMap<String, Object>());
+        encoded[0] = BinaryRecordCodec.FORMAT_VERSION + 1;
+        try {
+            codec.decode(encoded);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
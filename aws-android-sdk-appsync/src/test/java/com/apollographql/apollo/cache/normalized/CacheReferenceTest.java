@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheReferenceTest {
+    // Allocated bytes per decoded field of a string-heavy record. Decoding takes about 340 bytes per field on a 64-bit
+    // JVM, most of them for the decoded strings and the map. It took about 560 while strings were matched with a regex.
+    private static final long MAX_BYTES_PER_FIELD = 420;
+
+    private static final int STRING_FIELDS = 20;
+    private static final int REFERENCE_FIELDS = 4;
+    private static final int WARM_UP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 1000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void decodesRowsWrittenInTheExistingFormat() throws IOException {
+        assertTrue(CacheReference.canDeserialize("ApolloCacheReference{Post:1}"));
+        assertEquals(new CacheReference("Post:1"), CacheReference.deserialize("ApolloCacheReference{Post:1}"));
+        assertEquals(new CacheReference("QUERY_ROOT.posts({\"first\":10}).0"),
+                CacheReference.deserialize("ApolloCacheReference{QUERY_ROOT.posts({\"first\":10}).0}"));
+        assertEquals(new CacheReference(""), CacheReference.deserialize("ApolloCacheReference{}"));
+        assertEquals("ApolloCacheReference{Post:1}", new CacheReference("Post:1").serialize());
+
+        Map<String, Object> fields = RecordFieldJsonAdapter.create().from(
+                "{\"author\":\"ApolloCacheReference{User:1}\",\"posts\":[\"ApolloCacheReference{Post:1}\"]}");
+        assertEquals(new CacheReference("User:1"), fields.get("author"));
+        assertEquals(new CacheReference("Post:1"), ((List<?>) fields.get("posts")).get(0));
+    }
+
+    @Test
+    public void leavesOtherStringsAsStrings() throws IOException {
+        assertFalse(CacheReference.canDeserialize(""));
+        assertFalse(CacheReference.canDeserialize("ApolloCacheReference{"));
+        assertFalse(CacheReference.canDeserialize("ApolloCacheReference{Post:1"));
+        assertFalse(CacheReference.canDeserialize("ApolloCacheReferencePost:1}"));
+        assertFalse(CacheReference.canDeserialize(" ApolloCacheReference{Post:1}"));
+        assertFalse(CacheReference.canDeserialize("{Post:1}"));
+
+        Map<String, Object> fields = RecordFieldJsonAdapter.create().from(
+                "{\"title\":\"ApolloCacheReference{\",\"content\":\"{}\"}");
+        assertEquals("ApolloCacheReference{", fields.get("title"));
+        assertEquals("{}", fields.get("content"));
+    }
+
+    /**
+     * Measures the bytes allocated per field when decoding records which are mostly strings, each of them checked for
+     * being a reference, and enforces an upper bound on them.
+     */
+    @Test
+    public void decodesStringHeavyRecordsWithinAllocationTarget() throws IOException {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported()
+                && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        RecordFieldJsonAdapter adapter = RecordFieldJsonAdapter.create();
+        String json = adapter.toJson(stringHeavyFields());
+        Map<String, Object> fields = null;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            fields = adapter.from(json);
+        }
+        assertEquals(stringHeavyFields(), fields);
+
+        // Keeps the best of a few rounds, as compilation in the background may still change the allocations.
+        long threadId = Thread.currentThread().getId();
+        long bytesPerField = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ITERATIONS; i++) {
+                adapter.from(json);
+            }
+            bytesPerField = Math.min(bytesPerField, (allocationBean.getThreadAllocatedBytes(threadId) - start)
+                    / ((long) ITERATIONS * (STRING_FIELDS + REFERENCE_FIELDS)));
+        }
+
+        assertTrue(bytesPerField + " bytes allocated per field", bytesPerField <= MAX_BYTES_PER_FIELD);
+    }
+
+    private static Map<String, Object> stringHeavyFields() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < STRING_FIELDS; i++) {
+            fields.put("field" + i, "A string value of field " + i + ", {not a reference}");
+        }
+        List<Object> references = new ArrayList<>();
+        for (int i = 1; i < REFERENCE_FIELDS; i++) {
+            references.add(new CacheReference("Comment:" + i));
+        }
+        fields.put("author", new CacheReference("User:1"));
+        fields.put("comments", references);
+        return fields;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeSetTest {
+
+    @Test
+    public void behavesAsTheSetOfItsKeys() {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.add("Post:1", "title");
+        changeSet.add("Post:1", "content");
+        changeSet.add("Post:1", "title");
+        changeSet.add("QUERY_ROOT.posts.0", "author({\"id\":\"1.5\"})");
+        changeSet.add("User:1");
+
+        Set<String> keys = new HashSet<>(Arrays.asList("Post:1.title", "Post:1.content",
+                "QUERY_ROOT.posts.0.author({\"id\":\"1.5\"})", "User:1"));
+        assertEquals(keys, changeSet);
+        assertEquals(keys, new HashSet<>(changeSet));
+        assertEquals(4, changeSet.size());
+        assertTrue(changeSet.contains("QUERY_ROOT.posts.0.author({\"id\":\"1.5\"})"));
+        assertFalse(changeSet.contains("Post:1"));
+        assertFalse(changeSet.contains("Post:1.titl"));
+        assertEquals(new HashSet<>(Arrays.asList("title", "content")), changeSet.fieldKeys("Post:1"));
+        assertEquals(Collections.singleton("User:1"), changeSet.wholeKeys());
+    }
+
+    @Test
+    public void addAllKeepsFieldsApart() {
+        ChangeSet first = new ChangeSet();
+        new Record.Builder("Post:1", Collections.<String, Object>singletonMap("title", "A"), null)
+                .build()
+                .mergeWith(Record.builder("Post:1").addField("title", "B").build(), first);
+        ChangeSet union = new ChangeSet();
+        union.addAll(first);
+        union.addAll(Collections.singleton("Post:2.title"));
+
+        assertEquals(Collections.singleton("Post:1"), union.recordKeys());
+        assertEquals(Collections.singleton("Post:2.title"), union.wholeKeys());
+        assertEquals(new HashSet<>(Arrays.asList("Post:1.title", "Post:2.title")), union);
+    }
+
+    @Test
+    public void keysCanBeRemoved() {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.add("Post:1", "title");
+        changeSet.add("Post:1", "content");
+        changeSet.add("QUERY_ROOT.posts", "0.title");
+        changeSet.add("User:1");
+        changeSet.add("User:2");
+
+        assertTrue(changeSet.remove("QUERY_ROOT.posts.0.title"));
+        assertFalse(changeSet.remove("Post:1"));
+        assertTrue(changeSet.removeAll(Collections.singleton("User:1")));
+        assertTrue(changeSet.retainAll(new HashSet<>(Arrays.asList("Post:1.title", "User:2"))));
+
+        assertEquals(new HashSet<>(Arrays.asList("Post:1.title", "User:2")), changeSet);
+        assertEquals(Collections.singleton("Post:1"), changeSet.recordKeys());
+        assertFalse(changeSet.contains("Post:1.content"));
+        assertTrue(changeSet.intersects(Collections.singleton("Post:1.title")));
+
+        Iterator<String> iterator = changeSet.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertTrue(changeSet.isEmpty());
+        assertEquals(0, changeSet.size());
+    }
+
+    @Test
+    public void intersectsComparesKeysRatherThanSplits() {
+        ChangeSet changed = new ChangeSet();
+        changed.add("Post:1", "title");
+        changed.add("QUERY_ROOT.posts", "0.title");
+
+        ChangeSet dependent = new ChangeSet();
+        dependent.add("QUERY_ROOT.posts.0", "title");
+        assertTrue(changed.intersects(dependent));
+        assertTrue(dependent.intersects(changed));
+
+        ChangeSet other = new ChangeSet();
+        other.add("Post:1", "content");
+        other.add("Post:1.title");
+        assertTrue(changed.intersects(other));
+        other.clear();
+        other.add("Post:10", "title");
+        other.add("Post:1");
+        assertFalse(changed.intersects(other));
+        assertFalse(other.intersects(changed));
+
+        assertTrue(changed.intersects(Collections.singleton("Post:1.title")));
+        assertFalse(changed.intersects(new HashSet<>(Arrays.asList("Post:1", "Post:1.content"))));
+    }
+}
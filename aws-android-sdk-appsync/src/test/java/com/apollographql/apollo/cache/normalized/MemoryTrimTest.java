@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryTrimTest {
+
+    @Test
+    public void memoryCacheShrinksToItsTrimFractionThenClears() {
+        LruNormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.builder().trimFraction(0.25).build())
+                .create(RecordFieldJsonAdapter.create());
+        for (int i = 0; i < 100; i++) {
+            cache.merge(post("Post:" + i, "title " + i), CacheHeaders.NONE);
+        }
+        long totalBytes = cache.memoryUsage().totalBytes();
+
+        assertEquals(0, cache.trimMemory(MemoryTrimLevel.RELEASE_UNUSED));
+        long shrunkBytes = cache.trimMemory(MemoryTrimLevel.SHRINK);
+
+        assertEquals(totalBytes - shrunkBytes, cache.memoryUsage().totalBytes());
+        assertTrue(cache.memoryUsage().totalBytes() <= totalBytes / 4);
+        assertTrue(cache.keys().size() > 0);
+        assertEquals(totalBytes - shrunkBytes, cache.trimMemory(MemoryTrimLevel.CLEAR));
+        assertEquals(Collections.<String>emptySet(), cache.keys());
+    }
+
+    @Test
+    public void optimisticUpdatesReflectedInTheCacheAreDropped() {
+        OptimisticNormalizedCache cache = (OptimisticNormalizedCache) new OptimisticNormalizedCache()
+                .chain(new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                        .create(RecordFieldJsonAdapter.create()));
+        cache.merge(post("Post:1", "old"), CacheHeaders.NONE);
+        cache.mergeOptimisticUpdate(post("Post:1", "confirmed").toBuilder().mutationId(UUID.randomUUID()).build());
+        cache.mergeOptimisticUpdate(post("Post:2", "pending").toBuilder().mutationId(UUID.randomUUID()).build());
+        // The response of the first mutation is written.
+        cache.merge(post("Post:1", "confirmed"), CacheHeaders.NONE);
+
+        assertTrue(cache.trimMemory(MemoryTrimLevel.RELEASE_UNUSED) > 0);
+
+        assertEquals(Collections.singleton("Post:2"), cache.optimisticKeys());
+        assertEquals("confirmed", cache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+        assertEquals("pending", cache.loadRecord("Post:2", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void droppingOptimisticUpdatesDoesNotFillTheMemoryCache() {
+        LruNormalizedCache memoryCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        LruNormalizedCache backingCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        OptimisticNormalizedCache cache = (OptimisticNormalizedCache) new OptimisticNormalizedCache()
+                .chain(memoryCache)
+                .chain(backingCache);
+        backingCache.merge(post("Post:1", "confirmed"), CacheHeaders.NONE);
+        backingCache.merge(post("Post:2", "old"), CacheHeaders.NONE);
+        cache.mergeOptimisticUpdate(post("Post:1", "confirmed").toBuilder().mutationId(UUID.randomUUID()).build());
+        cache.mergeOptimisticUpdate(post("Post:2", "pending").toBuilder().mutationId(UUID.randomUUID()).build());
+
+        assertTrue(cache.trimMemory(MemoryTrimLevel.RELEASE_UNUSED) > 0);
+
+        assertEquals(Collections.singleton("Post:2"), cache.optimisticKeys());
+        assertEquals(0, memoryCache.memoryUsage().recordCount());
+    }
+
+    private static Record post(String key, String title) {
+        return Record.builder(key)
+                .addField("__typename", "Post")
+                .addField("title", title)
+                .build();
+    }
+}
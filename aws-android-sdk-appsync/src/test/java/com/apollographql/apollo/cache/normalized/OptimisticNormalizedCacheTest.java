@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static org.junit.Assert.assertEquals;
+
+public class OptimisticNormalizedCacheTest {
+
+    @Test
+    public void pendingUpdatesAreLoadedWhenTheNextCacheFails() {
+        OptimisticNormalizedCache cache = (OptimisticNormalizedCache) new OptimisticNormalizedCache()
+                .chain(new FailingCache());
+        cache.mergeOptimisticUpdate(Record.builder("Post:1")
+                .addField("title", "pending")
+                .mutationId(UUID.randomUUID())
+                .build());
+
+        Collection<Record> records = cache.loadRecords(Arrays.asList("Post:1", "Post:2"), CacheHeaders.NONE);
+
+        assertEquals(1, records.size());
+        assertEquals("pending", records.iterator().next().field("title"));
+    }
+
+    private static final class FailingCache extends NormalizedCache {
+        @Nullable
+        @Override
+        public Record loadRecord(@Nonnull String key, @Nonnull CacheHeaders cacheHeaders) {
+            throw new IllegalStateException("database closed");
+        }
+
+        @Nonnull
+        @Override
+        public Collection<Record> loadRecords(@Nonnull Collection<String> keys, @Nonnull CacheHeaders cacheHeaders) {
+            throw new IllegalStateException("database closed");
+        }
+
+        @Nonnull
+        @Override
+        public Set<String> merge(@Nonnull Record record, @Nonnull CacheHeaders cacheHeaders) {
+            throw new IllegalStateException("database closed");
+        }
+
+        @Override
+        public void clearAll() {
+        }
+
+        @Override
+        public boolean remove(@Nonnull CacheKey cacheKey) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RecordTest {
+
+    @Test
+    public void recordsWithTheSameFieldsShareTheirShape() {
+        Record first = post("Post:1", "First");
+        Record second = post("Post:2", "Second");
+
+        assertSame(shapeOf(first), shapeOf(second));
+        assertSame(shapeOf(first), shapeOf(first.clone()));
+        assertEquals("Second", second.field("title"));
+        assertEquals(Arrays.asList("__typename", "id", "title"), new ArrayList<>(second.fields().keySet()));
+    }
+
+    @Test
+    public void cloneIsIndependent() {
+        Record record = post("Post:1", "First");
+        Record clone = record.clone();
+
+        clone.mergeWith(post("Post:1", "Changed"));
+        clone.mergeWith(Record.builder("Post:1").addField("votes", 3).build());
+
+        assertEquals("First", record.field("title"));
+        assertFalse(record.hasField("votes"));
+        assertEquals("Changed", clone.field("title"));
+        assertEquals(3, clone.field("votes"));
+    }
+
+    @Test
+    public void builtRecordIsIndependentOfItsBuilder() {
+        Record.Builder builder = Record.builder("Post:1").addField("title", "First");
+        Record record = builder.build();
+
+        builder.addField("title", "Changed").addField("votes", 3);
+        record.mergeWith(Record.builder("Post:1").addField("body", "text").build());
+
+        assertEquals("First", record.field("title"));
+        assertFalse(record.hasField("votes"));
+        assertFalse(builder.build().hasField("body"));
+    }
+
+    @Test
+    public void mergeWithReportsChangedAndAddedFields() {
+        Record record = post("Post:1", "First");
+
+        Record update = Record.builder("Post:1")
+                .addField("title", "Changed")
+                .addField("id", "Post:1")
+                .addField("author", null)
+                .build();
+
+        assertEquals(new HashSet<>(Arrays.asList("Post:1.title", "Post:1.author")), record.mergeWith(update));
+        assertEquals(Arrays.asList("__typename", "id", "title", "author"),
+                new ArrayList<>(record.fields().keySet()));
+        assertEquals(0, record.mergeWith(post("Post:1", "Changed")).size());
+    }
+
+    @Test
+    public void fieldsBehaveAsAnOrderedMap() {
+        Map<String, Object> fields = post("Post:1", "First").toBuilder().build().fields();
+
+        fields.put("votes", 1);
+        assertEquals("Post:1", fields.remove("id"));
+        assertNull(fields.remove("missing"));
+        Iterator<Map.Entry<String, Object>> entries = fields.entrySet().iterator();
+        assertEquals("__typename", entries.next().getKey());
+        entries.next().setValue("Renamed");
+        entries.next();
+        entries.remove();
+
+        assertEquals(Arrays.asList("__typename", "title"), new ArrayList<>(fields.keySet()));
+        assertEquals(Arrays.<Object>asList("Post", "Renamed"), new ArrayList<>(fields.values()));
+        assertFalse(fields.containsKey("votes"));
+    }
+
+    @Test
+    public void mergeKeepsTheLatestWriteTime() {
+        Record record = post("Post:1", "First").toBuilder().writtenAtMillis(1000).build();
+
+        assertFalse(record.mergeWith(post("Post:1", "First").toBuilder().writtenAtMillis(2000).build(),
+                new ChangeSet()));
+        assertEquals(2000, record.writtenAtMillis());
+        record.mergeWith(post("Post:1", "Second").toBuilder().writtenAtMillis(500).build());
+        assertEquals("Second", record.field("title"));
+        assertEquals(2000, record.writtenAtMillis());
+        assertEquals(2000, record.clone().writtenAtMillis());
+        record.refreshWriteTime(1500);
+        assertEquals(2000, record.writtenAtMillis());
+    }
+
+    @Test
+    public void rootRecordWithThousandsOfFieldsWithArgumentsKeepsThemInAMap() {
+        Record root = Record.builder("QUERY_ROOT").build();
+        Record previous = root.clone();
+        for (int i = 0; i < 5000; i++) {
+            Record update = Record.builder("QUERY_ROOT")
+                    .addField("getPost({\"id\":\"" + i + "\"})", new CacheReference("Post:" + i))
+                    .build();
+            assertEquals(1, root.mergeWith(update).size());
+            if (i == 10) {
+                previous = root.clone();
+            }
+        }
+
+        assertNull(shapeOf(root));
+        assertEquals(5000, root.fields().size());
+        assertEquals(new CacheReference("Post:4321"), root.field("getPost({\"id\":\"4321\"})"));
+        assertEquals("getPost({\"id\":\"0\"})", root.fields().keySet().iterator().next());
+        assertEquals(0, root.clone().mergeWith(root).size());
+        assertEquals(4989, previous.mergeWith(root).size());
+        assertEquals(new CacheReference("Post:7"), root.fields().remove("getPost({\"id\":\"7\"})"));
+        assertEquals(4999, root.fields().size());
+
+        Record small = post("Post:1", "First");
+        small.mergeWith(Record.builder("Post:1").addField("votes", 1).build());
+        assertSame(shapeOf(small), shapeOf(post("Post:2", "Second").toBuilder().addField("votes", 2).build()));
+        small.fields().remove("id");
+        assertEquals(Arrays.asList("__typename", "title", "votes"), new ArrayList<>(small.fields().keySet()));
+    }
+
+    private static Record post(String id, String title) {
+        return Record.builder(id)
+                .addField("__typename", "Post")
+                .addField("id", id)
+                .addField("title", title)
+                .build();
+    }
+
+    private static RecordShape shapeOf(Record record) {
+        return ((ShapedFields) record.fields()).shape();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.log;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.BinaryRecordCodec;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogNormalizedCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RecordFieldJsonAdapter recordFieldAdapter = RecordFieldJsonAdapter.create();
+    private File file;
+    private LogNormalizedCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("records.log");
+        cache = new LogNormalizedCacheFactory(file).create(recordFieldAdapter);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void recordsPersistAcrossReopen() {
+        cache.merge(Arrays.asList(
+                Record.builder("Post:1").addField("title", "Hello").addField("author", new CacheReference("Author:1"))
+                        .build(),
+                Record.builder("Author:1").addField("name", "Ann").build(),
+                Record.builder("Author:2").addField("name", "Bob").build()), CacheHeaders.NONE);
+        cache.merge(Record.builder("Post:1").addField("title", "Bye").build(), CacheHeaders.NONE);
+        cache.remove(CacheKey.from("Author:2"));
+
+        reopen();
+
+        Record post = cache.loadRecord("Post:1", CacheHeaders.NONE);
+        assertEquals("Bye", post.field("title"));
+        assertEquals(new CacheReference("Author:1"), post.field("author"));
+        assertEquals("Ann", cache.loadRecord("Author:1", CacheHeaders.NONE).field("name"));
+        assertNull(cache.loadRecord("Author:2", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void compactionKeepsLatestRecords() {
+        for (int i = 0; i < 100; i++) {
+            cache.merge(Record.builder("Counter").addField("value", i).build(), CacheHeaders.NONE);
+            cache.merge(Record.builder("Item:" + i).addField("value", i).build(), CacheHeaders.NONE);
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.remove(CacheKey.from("Item:" + i));
+        }
+        long sizeBefore = file.length();
+
+        cache.compact();
+
+        assertTrue(file.length() < sizeBefore);
+        assertEquals(51, cache.keys().size());
+        reopen();
+        assertEquals(51, cache.keys().size());
+        assertEquals(99, ((Number) cache.loadRecord("Counter", CacheHeaders.NONE).field("value")).intValue());
+        assertEquals(75, ((Number) cache.loadRecord("Item:75", CacheHeaders.NONE).field("value")).intValue());
+        assertNull(cache.loadRecord("Item:25", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void tornTailIsDroppedOnOpen() throws IOException {
+        cache.merge(Record.builder("Post:1").addField("title", "Hello").build(), CacheHeaders.NONE);
+        cache.close();
+        long validLength = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[] {0, 0, 0, 40, 1, 2, 3});
+        } finally {
+            out.close();
+        }
+
+        cache = new LogNormalizedCacheFactory(file).create(recordFieldAdapter);
+
+        assertEquals(validLength, file.length());
+        assertEquals("Hello", cache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+        cache.merge(Record.builder("Post:2").addField("title", "World").build(), CacheHeaders.NONE);
+        reopen();
+        assertEquals("World", cache.loadRecord("Post:2", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void codecReadsRecordsWrittenAsJson() {
+        cache.merge(Record.builder("Post:1").addField("title", "Hello").build(), CacheHeaders.NONE);
+        cache.close();
+
+        cache = new LogNormalizedCacheFactory(file, BinaryRecordCodec.create()).create(recordFieldAdapter);
+        cache.merge(Record.builder("Post:2").addField("title", "World").build(), CacheHeaders.NONE);
+
+        assertEquals("Hello", cache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+        assertEquals("World", cache.loadRecord("Post:2", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void writeTimesPersistAndUnchangedMergesRefreshThem() {
+        cache.merge(Record.builder("Post:1").addField("title", "Hello").writtenAtMillis(1000).build(),
+                CacheHeaders.NONE);
+        reopen();
+        assertEquals(1000, cache.loadRecord("Post:1", CacheHeaders.NONE).writtenAtMillis());
+
+        cache.merge(Record.builder("Post:1").addField("title", "Hello").writtenAtMillis(2000).build(),
+                CacheHeaders.NONE);
+        assertEquals(2000, cache.loadRecord("Post:1", CacheHeaders.NONE).writtenAtMillis());
+
+        // The refreshed write time reaches the file with compaction.
+        cache.compact();
+        reopen();
+        assertEquals(2000, cache.loadRecord("Post:1", CacheHeaders.NONE).writtenAtMillis());
+    }
+
+    private void reopen() {
+        cache.close();
+        cache = new LogNormalizedCacheFactory(file).create(recordFieldAdapter);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.Record;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LruNormalizedCacheTypenamePolicyTest {
+
+    @Test
+    public void recordsOfATypeAreOnlyEvictedByRecordsOfTheSameType() {
+        LruNormalizedCache cache = new LruNormalizedCache(EvictionPolicy.builder()
+                .maxEntries(20)
+                .typenamePolicy("User", EvictionPolicy.builder().maxEntries(100).build())
+                .build());
+        for (int i = 0; i < 10; i++) {
+            cache.merge(record("User", "User:" + i), CacheHeaders.NONE);
+        }
+        for (int i = 0; i < 200; i++) {
+            cache.merge(record("FeedItem", "FeedItem:" + i), CacheHeaders.NONE);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.loadRecord("User:" + i, CacheHeaders.NONE));
+        }
+        MemoryUsage memoryUsage = cache.memoryUsage();
+        assertEquals(Integer.valueOf(10), memoryUsage.recordCountByTypename().get("User"));
+        assertTrue(memoryUsage.recordCountByTypename().get("FeedItem") <= 20);
+    }
+
+    @Test
+    public void recordMovesToThePolicyOfItsNewType() {
+        LruNormalizedCache cache = new LruNormalizedCache(EvictionPolicy.builder()
+                .typenamePolicy("Session", EvictionPolicy.builder().expireAfterWrite(0, TimeUnit.NANOSECONDS).build())
+                .build());
+        cache.merge(record("User", "Node:1"), CacheHeaders.NONE);
+        assertNotNull(cache.loadRecord("Node:1", CacheHeaders.NONE));
+
+        cache.merge(record("Session", "Node:1"), CacheHeaders.NONE);
+
+        assertNull(cache.loadRecord("Node:1", CacheHeaders.NONE));
+        assertEquals(Collections.<String>emptySet(), cache.keys());
+    }
+
+    private static Record record(String typename, String key) {
+        return Record.builder(key)
+                .addField("__typename", typename)
+                .addField("name", key)
+                .build();
+    }
+}
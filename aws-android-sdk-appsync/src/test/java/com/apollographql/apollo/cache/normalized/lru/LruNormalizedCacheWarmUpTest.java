@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LruNormalizedCacheWarmUpTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void warmUpLoadsRecordsReadMostOften() throws IOException {
+        File hotSetFile = new File(folder.getRoot(), "hot_set");
+        final int[] reported = new int[2];
+        WarmUpPolicy warmUpPolicy = WarmUpPolicy.builder(hotSetFile)
+                .maxKeys(2)
+                .listener(new WarmUpPolicy.Listener() {
+                    @Override
+                    public void onWarmUp(int savedKeys, int loadedRecords, long elapsedMillis) {
+                        reported[0] = savedKeys;
+                        reported[1] = loadedRecords;
+                    }
+                })
+                .build();
+        NormalizedCache secondaryCache = new LruNormalizedCache(EvictionPolicy.NO_EVICTION);
+        LruNormalizedCache cache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION, warmUpPolicy)
+                .chain(secondaryCache);
+        cache.merge(Arrays.asList(
+                Record.builder("A").addField("name", "a").build(),
+                Record.builder("B").addField("name", "b").build(),
+                Record.builder("C").addField("name", "c").build()), CacheHeaders.NONE);
+        for (int i = 0; i < 3; i++) {
+            cache.loadRecord("A", CacheHeaders.NONE);
+        }
+        cache.loadRecords(Arrays.asList("B", "C"), CacheHeaders.NONE);
+        cache.loadRecord("B", CacheHeaders.NONE);
+        cache.saveHotSet();
+
+        LruNormalizedCache restartedCache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION,
+                warmUpPolicy).chain(secondaryCache);
+
+        assertEquals(2, restartedCache.warmUp());
+        assertEquals(2, reported[0]);
+        assertEquals(2, reported[1]);
+        // Only the records loaded into memory are still found once gone from the secondary cache.
+        for (String key : Arrays.asList("A", "B", "C")) {
+            secondaryCache.remove(CacheKey.from(key));
+        }
+        assertNotNull(restartedCache.loadRecord("A", CacheHeaders.NONE));
+        assertNotNull(restartedCache.loadRecord("B", CacheHeaders.NONE));
+        assertNull(restartedCache.loadRecord("C", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void touchedRecordsCountAsReads() throws IOException {
+        File hotSetFile = new File(folder.getRoot(), "hot_set");
+        WarmUpPolicy warmUpPolicy = WarmUpPolicy.builder(hotSetFile).maxKeys(1).build();
+        NormalizedCache secondaryCache = new LruNormalizedCache(EvictionPolicy.NO_EVICTION);
+        LruNormalizedCache cache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION, warmUpPolicy)
+                .chain(secondaryCache);
+        cache.merge(Arrays.asList(
+                Record.builder("A").addField("name", "a").build(),
+                Record.builder("B").addField("name", "b").build()), CacheHeaders.NONE);
+        cache.loadRecord("A", CacheHeaders.NONE);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.touchRecords(Arrays.asList("B")));
+        }
+        assertFalse(cache.touchRecords(Arrays.asList("B", "C")));
+        cache.saveHotSet();
+
+        LruNormalizedCache restartedCache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION,
+                warmUpPolicy).chain(secondaryCache);
+
+        assertEquals(1, restartedCache.warmUp());
+        secondaryCache.remove(CacheKey.from("A"));
+        secondaryCache.remove(CacheKey.from("B"));
+        assertNull(restartedCache.loadRecord("A", CacheHeaders.NONE));
+        assertNotNull(restartedCache.loadRecord("B", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void disabledWarmUpLoadsNothing() throws IOException {
+        File hotSetFile = new File(folder.getRoot(), "hot_set");
+        NormalizedCache secondaryCache = new LruNormalizedCache(EvictionPolicy.NO_EVICTION);
+        LruNormalizedCache cache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION,
+                WarmUpPolicy.builder(hotSetFile).build()).chain(secondaryCache);
+        cache.merge(Record.builder("A").addField("name", "a").build(), CacheHeaders.NONE);
+        cache.loadRecord("A", CacheHeaders.NONE);
+        cache.saveHotSet();
+
+        LruNormalizedCache restartedCache = (LruNormalizedCache) new LruNormalizedCache(EvictionPolicy.NO_EVICTION,
+                WarmUpPolicy.builder(hotSetFile).enabled(false).build()).chain(secondaryCache);
+
+        assertEquals(0, restartedCache.warmUp());
+    }
+}
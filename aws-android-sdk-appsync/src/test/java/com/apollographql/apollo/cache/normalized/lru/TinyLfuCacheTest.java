@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.lru;
+
+import com.nytimes.android.external.cache.Cache;
+import com.nytimes.android.external.cache.CacheBuilder;
+import com.nytimes.android.external.cache.Weigher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the hit rates of {@link TinyLfuCache} and of the LRU cache built by {@link CacheBuilder} on synthetic
+ * traces.
+ */
+public class TinyLfuCacheTest {
+    private static final int CAPACITY = 500;
+    private static final long SEED = 42;
+
+    @Test
+    public void hitRateOnSkewedTrace() {
+        int[] trace = zipfTrace(10000, 0.9, 200000, new Random(SEED));
+
+        double lruHitRate = hitRate(lru(), trace);
+        double tinyLfuHitRate = hitRate(tinyLfu(), trace);
+
+        assertTrue("LRU " + lruHitRate + ", W-TinyLFU " + tinyLfuHitRate, tinyLfuHitRate > lruHitRate + 0.05);
+    }
+
+    @Test
+    public void hitRateOnScanHeavyTrace() {
+        // Reads of a hot set of 300 records, interrupted every 2000 reads by a list of 1000 records read once.
+        Random random = new Random(SEED);
+        int[] hotReads = zipfTrace(300, 0.8, 100000, random);
+        int[] trace = new int[hotReads.length + hotReads.length / 2];
+        int scanned = 1000000;
+        int position = 0;
+        for (int i = 0; i < hotReads.length; i++) {
+            trace[position++] = hotReads[i];
+            if (i % 2000 == 1999) {
+                for (int j = 0; j < 1000; j++) {
+                    trace[position++] = scanned++;
+                }
+            }
+        }
+        trace = Arrays.copyOf(trace, position);
+
+        double lruHitRate = hitRate(lru(), trace);
+        double tinyLfuHitRate = hitRate(tinyLfu(), trace);
+
+        assertTrue("LRU " + lruHitRate + ", W-TinyLFU " + tinyLfuHitRate, tinyLfuHitRate > lruHitRate + 0.05);
+    }
+
+    @Test
+    public void weightStaysBounded() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, new Weigher<Integer, String>() {
+            @Override
+            public int weigh(Integer key, String value) {
+                return value.length();
+            }
+        }, Long.MAX_VALUE, Long.MAX_VALUE);
+        Random random = new Random(SEED);
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt(200);
+            if (cache.getIfPresent(key) == null) {
+                cache.put(key, "0123456789".substring(0, 1 + key % 10));
+            }
+        }
+
+        int weight = 0;
+        for (String value : cache.asMap().values()) {
+            weight += value.length();
+        }
+        assertTrue(weight <= 100);
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.getIfPresent(1));
+    }
+
+    private static Cache<Integer, Integer> lru() {
+        return CacheBuilder.newBuilder().maximumSize(CAPACITY).build();
+    }
+
+    private static Cache<Integer, Integer> tinyLfu() {
+        return new TinyLfuCache<>(CAPACITY, null, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private static double hitRate(Cache<Integer, Integer> cache, int[] trace) {
+        int hits = 0;
+        for (int key : trace) {
+            if (cache.getIfPresent(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static int[] zipfTrace(int keys, double exponent, int length, Random random) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = index >= 0 ? index : -index - 1;
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.cache.normalized.sql;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.amazonaws.mobileconnectors.appsync.cache.normalized.sql.AppSyncSqlHelper;
+import com.amazonaws.mobileconnectors.appsync.utils.SqlMigration;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.BinaryRecordCodec;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SqlNormalizedCacheTest {
+
+    private AppSyncSqlHelper sqlHelper;
+    private SqlNormalizedCache sqlCache;
+
+    @Before
+    public void setup() {
+        // A null name gives an in-memory database.
+        sqlHelper = AppSyncSqlHelper.create(RuntimeEnvironment.application, null);
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper).create(RecordFieldJsonAdapter.create());
+    }
+
+    @After
+    public void teardown() {
+        sqlCache.close();
+    }
+
+    @Test
+    public void loadRecordsReadsMoreKeysThanOneQueryCanBind() {
+        int recordCount = SqlNormalizedCache.MAX_KEYS_PER_QUERY * 2 + 1;
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < recordCount; i++) {
+            sqlCache.merge(record("Post:" + i, "title " + i), CacheHeaders.NONE);
+            keys.add("Post:" + i);
+        }
+        keys.add(1, "Post:missing");
+
+        Collection<Record> records = sqlCache.loadRecords(keys, CacheHeaders.NONE);
+
+        // All stored records come back, in the order they were asked for.
+        assertEquals(recordCount, records.size());
+        Iterator<Record> iterator = records.iterator();
+        for (int i = 0; i < recordCount; i++) {
+            Record record = iterator.next();
+            assertEquals("Post:" + i, record.key());
+            assertEquals("title " + i, record.field("title"));
+        }
+    }
+
+    @Test
+    public void lruCacheLoadsMissingRecordsFromSqlCache() {
+        NormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .chain(new SqlNormalizedCacheFactory(sqlHelper))
+                .createChain(RecordFieldJsonAdapter.create());
+        sqlCache.merge(record("Post:1", "from sql"), CacheHeaders.NONE);
+        cache.merge(record("Post:2", "from memory"), CacheHeaders.NONE);
+
+        List<String> keys = new ArrayList<>();
+        keys.add("Post:1");
+        keys.add("Post:2");
+        Collection<Record> records = cache.loadRecords(keys, CacheHeaders.NONE);
+
+        assertEquals(2, records.size());
+        // The record read from SQL is now held by the memory tier.
+        sqlCache.clearAll();
+        Record record = cache.loadRecord("Post:1", CacheHeaders.NONE);
+        assertNotNull(record);
+        assertEquals("from sql", record.field("title"));
+    }
+
+    @Test
+    public void touchRecordsChecksThatTheRecordsAreStillStored() {
+        NormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .chain(new SqlNormalizedCacheFactory(sqlHelper))
+                .createChain(RecordFieldJsonAdapter.create());
+        sqlCache.merge(record("Post:1", "from sql"), CacheHeaders.NONE);
+        cache.merge(record("Post:2", "from memory"), CacheHeaders.NONE);
+        List<String> keys = new ArrayList<>();
+        keys.add("Post:1");
+        keys.add("Post:2");
+
+        assertTrue(sqlCache.touchRecords(keys));
+        // Post:1 is only held by the SQL tier.
+        assertTrue(cache.touchRecords(keys));
+
+        sqlCache.remove(CacheKey.from("Post:1"));
+
+        assertFalse(sqlCache.touchRecords(keys));
+        assertFalse(cache.touchRecords(keys));
+        assertTrue(sqlCache.touchRecords(Collections.singletonList("Post:2")));
+    }
+
+    @Test
+    public void mergeThroughLruCacheKeepsFieldsOnlyStoredInSql() {
+        NormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .chain(new SqlNormalizedCacheFactory(sqlHelper))
+                .createChain(RecordFieldJsonAdapter.create());
+        sqlCache.merge(record("Post:1", "first").toBuilder().addField("body", "text").build(), CacheHeaders.NONE);
+
+        Set<String> changedKeys = cache.merge(record("Post:1", "second"), CacheHeaders.NONE);
+
+        assertEquals(Collections.singleton("Post:1.title"), changedKeys);
+        Record stored = sqlCache.loadRecord("Post:1", CacheHeaders.NONE);
+        assertNotNull(stored);
+        assertEquals("second", stored.field("title"));
+        assertEquals("text", stored.field("body"));
+    }
+
+    @Test
+    public void unchangedMergeThroughLruCacheRefreshesStoredWriteTime() {
+        NormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .chain(new SqlNormalizedCacheFactory(sqlHelper))
+                .createChain(RecordFieldJsonAdapter.create());
+        cache.merge(record("Post:1", "first").toBuilder().writtenAtMillis(1000).build(), CacheHeaders.NONE);
+        assertEquals(1000, sqlCache.loadRecord("Post:1", CacheHeaders.NONE).writtenAtMillis());
+
+        Set<String> changedKeys = cache.merge(record("Post:1", "first").toBuilder().writtenAtMillis(5000).build(),
+                CacheHeaders.NONE);
+
+        assertTrue(changedKeys.isEmpty());
+        assertEquals(5000, cache.loadRecord("Post:1", CacheHeaders.NONE).writtenAtMillis());
+        Record stored = sqlCache.loadRecord("Post:1", CacheHeaders.NONE);
+        assertEquals(5000, stored.writtenAtMillis());
+        assertEquals("first", stored.field("title"));
+    }
+
+    @Test
+    public void binaryCodecReadsRecordsStoredAsJson() {
+        sqlCache.merge(record("Post:1", "json"), CacheHeaders.NONE);
+        SqlNormalizedCache binaryCache = new SqlNormalizedCacheFactory(sqlHelper, BinaryRecordCodec.create())
+                .create(RecordFieldJsonAdapter.create());
+
+        Set<String> changedKeys = binaryCache.merge(record("Post:1", "binary").toBuilder()
+                .addField("author", new CacheReference("Author:1"))
+                .build(), CacheHeaders.NONE);
+
+        assertEquals(2, changedKeys.size());
+        assertEquals("blob", DatabaseUtils.stringForQuery(sqlHelper.getReadableDatabase(),
+                "SELECT typeof(record) FROM records WHERE key = 'Post:1'", null));
+        // Either codec reads the record back, whatever format it was written in.
+        for (SqlNormalizedCache cache : new SqlNormalizedCache[]{sqlCache, binaryCache}) {
+            Record stored = cache.loadRecord("Post:1", CacheHeaders.NONE);
+            assertNotNull(stored);
+            assertEquals("binary", stored.field("title"));
+            assertEquals(new CacheReference("Author:1"), stored.field("author"));
+        }
+    }
+
+    @Test
+    public void fieldGranularMergeWritesOnlyChangedFields() {
+        SqlNormalizedCache fieldCache = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .recordCodec(BinaryRecordCodec.create())
+                .fieldGranular(true)
+                .build())
+                .create(RecordFieldJsonAdapter.create());
+        fieldCache.merge(record("Post:1", "first").toBuilder().addField("body", "text").build(), CacheHeaders.NONE);
+        SQLiteDatabase database = sqlHelper.getWritableDatabase();
+        assertEquals(3, DatabaseUtils.queryNumEntries(database, "record_fields", "key = 'Post:1'"));
+        // Marks the stored body so that a rewrite of the row would show.
+        database.execSQL("UPDATE record_fields SET value = ? WHERE field = 'body'",
+                new Object[]{BinaryRecordCodec.create().encodeValue("untouched")});
+
+        Set<String> changedKeys = fieldCache.merge(record("Post:1", "second"), CacheHeaders.NONE);
+
+        assertEquals(Collections.singleton("Post:1.title"), changedKeys);
+        Record stored = fieldCache.loadRecord("Post:1", CacheHeaders.NONE);
+        assertNotNull(stored);
+        assertEquals("second", stored.field("title"));
+        assertEquals("untouched", stored.field("body"));
+        assertEquals("Post", stored.field("__typename"));
+    }
+
+    @Test
+    public void otherLayoutIsClearedOnlyWhenTheLayoutIsSwitched() {
+        sqlCache.merge(record("Post:1", "first"), CacheHeaders.NONE);
+        SQLiteDatabase database = sqlHelper.getWritableDatabase();
+        // Leftover field rows of the other layout are not looked at while the layout is unchanged.
+        database.execSQL("INSERT INTO record_fields (key, field, value) VALUES ('Post:2', 'title', 'x')");
+
+        new SqlNormalizedCacheFactory(sqlHelper).create(RecordFieldJsonAdapter.create());
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, "records"));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, "record_fields"));
+
+        new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .fieldGranular(true)
+                .build())
+                .create(RecordFieldJsonAdapter.create());
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, "records"));
+        assertEquals(1, DatabaseUtils.queryNumEntries(database, "record_fields"));
+        assertEquals("record_fields", DatabaseUtils.stringForQuery(database,
+                "SELECT value FROM cache_settings WHERE name = 'layout'", null));
+    }
+
+    @Test
+    public void writeBehindQueuesRecordsFromLruCacheUntilFlushed() {
+        SqlNormalizedCacheFactory sqlFactory = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .writeBehind(1, TimeUnit.HOURS, 100)
+                .build());
+        NormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .chain(sqlFactory)
+                .createChain(RecordFieldJsonAdapter.create());
+        SqlNormalizedCache writeBehindCache = (SqlNormalizedCache) cache.nextCache().get();
+
+        cache.merge(record("Post:1", "first"), CacheHeaders.NONE);
+        cache.merge(record("Post:1", "second"), CacheHeaders.NONE);
+
+        // Not written yet, but readable through the SQL cache.
+        assertNull(sqlCache.loadRecord("Post:1", CacheHeaders.NONE));
+        assertEquals("second", writeBehindCache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+
+        writeBehindCache.flush();
+
+        assertEquals("second", sqlCache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void tunedDatabaseKeepsExistingRecords() {
+        sqlCache.close();
+        Context context = RuntimeEnvironment.application;
+        sqlHelper = AppSyncSqlHelper.create(context, "tuned.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper).create(RecordFieldJsonAdapter.create());
+        sqlCache.merge(record("Post:1", "before"), CacheHeaders.NONE);
+        sqlCache.close();
+
+        sqlHelper = AppSyncSqlHelper.create(context, "tuned.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .writeAheadLogging(true)
+                .synchronous(SqlStoragePolicy.Synchronous.NORMAL)
+                .pageSize(8192)
+                .mmapSize(1024 * 1024)
+                .build())
+                .create(RecordFieldJsonAdapter.create());
+        // Run by the background thread of the cache otherwise.
+        sqlCache.changePageSize();
+
+        // Robolectric's SQLite always runs in WAL mode, so the page size cannot be checked here.
+        assertTrue(sqlHelper.getWritableDatabase().isWriteAheadLoggingEnabled());
+        assertEquals("before", sqlCache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void sizeBoundedCacheEvictsLeastRecentlyUsedRecords() throws InterruptedException {
+        sqlCache.close();
+        sqlHelper = AppSyncSqlHelper.create(RuntimeEnvironment.application, "bounded.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder().maxRecords(3).build())
+                .create(RecordFieldJsonAdapter.create());
+        for (int i = 1; i <= 5; i++) {
+            sqlCache.merge(record("Post:" + i, "title " + i), CacheHeaders.NONE);
+            Thread.sleep(2);
+        }
+        assertNotNull(sqlCache.loadRecord("Post:1", CacheHeaders.NONE));
+
+        sqlCache.evict();
+
+        assertNotNull(sqlCache.loadRecord("Post:1", CacheHeaders.NONE));
+        assertNull(sqlCache.loadRecord("Post:2", CacheHeaders.NONE));
+        assertNull(sqlCache.loadRecord("Post:3", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("Post:4", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("Post:5", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void typenamePoliciesBoundAndExpireTheRecordsOfTheirType() throws InterruptedException {
+        sqlCache.close();
+        sqlHelper = AppSyncSqlHelper.create(RuntimeEnvironment.application, "typename-bounded.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .maxRecords(2)
+                .typenamePolicy("User", SqlTypenamePolicy.builder().maxRecords(3).build())
+                .typenamePolicy("Session", SqlTypenamePolicy.builder().expireAfterAccess(1, TimeUnit.MILLISECONDS)
+                        .build())
+                .build())
+                .create(RecordFieldJsonAdapter.create());
+        sqlCache.merge(typedRecord("Session", "Session:1"), CacheHeaders.NONE);
+        for (int i = 1; i <= 4; i++) {
+            sqlCache.merge(typedRecord("User", "User:" + i), CacheHeaders.NONE);
+            sqlCache.merge(record("Post:" + i, "title " + i), CacheHeaders.NONE);
+            Thread.sleep(2);
+        }
+
+        sqlCache.evict();
+
+        assertNull(sqlCache.loadRecord("Session:1", CacheHeaders.NONE));
+        assertNull(sqlCache.loadRecord("User:1", CacheHeaders.NONE));
+        for (int i = 2; i <= 4; i++) {
+            assertNotNull(sqlCache.loadRecord("User:" + i, CacheHeaders.NONE));
+        }
+        assertNull(sqlCache.loadRecord("Post:2", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("Post:3", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("Post:4", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void typenamePolicyExpiresRecordsWrittenTooLongAgoEvenIfRead() {
+        sqlCache.close();
+        sqlHelper = AppSyncSqlHelper.create(RuntimeEnvironment.application, "typename-ttl.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper, SqlStoragePolicy.builder()
+                .typenamePolicy("Session", SqlTypenamePolicy.builder().expireAfterWrite(1, TimeUnit.HOURS).build())
+                .build())
+                .create(RecordFieldJsonAdapter.create());
+        sqlCache.merge(typedRecord("Session", "Session:old").toBuilder()
+                .writtenAtMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))
+                .build(), CacheHeaders.NONE);
+        sqlCache.merge(typedRecord("Session", "Session:new"), CacheHeaders.NONE);
+        sqlCache.merge(typedRecord("User", "User:old").toBuilder()
+                .writtenAtMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))
+                .build(), CacheHeaders.NONE);
+        assertNotNull(sqlCache.loadRecord("Session:old", CacheHeaders.NONE));
+
+        sqlCache.evict();
+
+        assertNull(sqlCache.loadRecord("Session:old", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("Session:new", CacheHeaders.NONE));
+        assertNotNull(sqlCache.loadRecord("User:old", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsLatestRecordForEachKey() {
+        sqlCache.close();
+        Context context = RuntimeEnvironment.application;
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("v1.db"), null);
+        database.execSQL("create table records( _id integer primary key autoincrement, key text not null, " +
+                "record text not null);");
+        database.execSQL("CREATE INDEX idx_records_key ON records (key)");
+        database.execSQL("INSERT INTO records (key, record) VALUES ('Post:1', '{\"title\":\"old\"}')");
+        database.execSQL("INSERT INTO records (key, record) VALUES ('Post:2', '{\"title\":\"other\"}')");
+        database.execSQL("INSERT INTO records (key, record) VALUES ('Post:1', '{\"title\":\"new\"}')");
+        database.setVersion(1);
+        database.close();
+
+        sqlHelper = AppSyncSqlHelper.create(context, "v1.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper).create(RecordFieldJsonAdapter.create());
+
+        assertEquals("new", sqlCache.loadRecord("Post:1", CacheHeaders.NONE).field("title"));
+        assertEquals("other", sqlCache.loadRecord("Post:2", CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void upgradeFromVersion1CopiesRecordsInSeveralBatches() {
+        sqlCache.close();
+        Context context = RuntimeEnvironment.application;
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("v1-large.db"), null);
+        database.execSQL("create table records( _id integer primary key autoincrement, key text not null, " +
+                "record text not null);");
+        int recordCount = 2 * SqlMigration.DEFAULT_BATCH_SIZE + 1;
+        for (int i = 0; i < recordCount; i++) {
+            database.execSQL("INSERT INTO records (key, record) VALUES (?, ?)",
+                    new Object[]{"Post:" + i, "{\"title\":\"post " + i + "\"}"});
+        }
+        database.setVersion(1);
+        database.close();
+
+        sqlHelper = AppSyncSqlHelper.create(context, "v1-large.db");
+        sqlCache = new SqlNormalizedCacheFactory(sqlHelper).create(RecordFieldJsonAdapter.create());
+
+        assertEquals(recordCount, DatabaseUtils.queryNumEntries(sqlHelper.getReadableDatabase(), "records"));
+        assertEquals("post 0", sqlCache.loadRecord("Post:0", CacheHeaders.NONE).field("title"));
+        assertEquals("post " + (recordCount - 1),
+                sqlCache.loadRecord("Post:" + (recordCount - 1), CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void sizesAreCountedInUtf8Bytes() {
+        assertEquals(5, SqlNormalizedCache.utf8Length("title"));
+        assertEquals(8, SqlNormalizedCache.utf8Length("caf\u00e9\u20ac"));
+        assertEquals(4, SqlNormalizedCache.utf8Length("\ud83d\ude00"));
+    }
+
+    @Test
+    public void upgradeFromVersion3SizesFieldRowsInBytes() {
+        Context context = RuntimeEnvironment.application;
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("v3.db"), null);
+        database.execSQL("create table records( key text primary key not null, record text not null)");
+        database.execSQL("create table record_fields( key text not null, field text not null, value not null, " +
+                "primary key (key, field))");
+        int recordCount = 2 * SqlMigration.DEFAULT_BATCH_SIZE + 1;
+        for (int i = 0; i < recordCount; i++) {
+            database.execSQL("INSERT INTO record_fields (key, field, value) VALUES (?, ?, ?)",
+                    new Object[]{"Post:" + i, "title", "{\"title\":\"caf\u00e9\"}"});
+        }
+        database.execSQL("INSERT INTO records (key, record) VALUES (?, ?)",
+                new Object[]{"Post:1", "{\"title\":\"caf\u00e9\"}"});
+        database.setVersion(3);
+        database.close();
+
+        AppSyncSqlHelper upgradedHelper = AppSyncSqlHelper.create(context, "v3.db");
+        try {
+            SQLiteDatabase upgraded = upgradedHelper.getWritableDatabase();
+            int bytes = SqlNormalizedCache.utf8Length("{\"title\":\"caf\u00e9\"}");
+            assertEquals(recordCount, DatabaseUtils.queryNumEntries(upgraded, "record_fields", "size = " + bytes));
+            assertEquals(1, DatabaseUtils.queryNumEntries(upgraded, "records", "size = " + bytes));
+        } finally {
+            upgradedHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion5SetsTheWriteTimeOfFieldRowsInBatches() {
+        Context context = RuntimeEnvironment.application;
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("v5.db"), null);
+        database.execSQL("create table records( key text primary key not null, record text not null, " +
+                "last_access integer not null default 0, size integer not null default 0, typename text)");
+        database.execSQL("create table record_fields( key text not null, field text not null, value not null, " +
+                "last_access integer not null default 0, size integer not null default 0, typename text, " +
+                "primary key (key, field))");
+        int recordCount = 2 * SqlMigration.DEFAULT_BATCH_SIZE + 1;
+        for (int i = 0; i < recordCount; i++) {
+            for (String field : new String[]{"__typename", "title"}) {
+                database.execSQL("INSERT INTO record_fields (key, field, value, last_access) VALUES (?, ?, ?, ?)",
+                        new Object[]{"Post:" + i, field, "{}", 1000 + i});
+            }
+        }
+        database.setVersion(5);
+        database.close();
+
+        AppSyncSqlHelper upgradedHelper = AppSyncSqlHelper.create(context, "v5.db");
+        try {
+            SQLiteDatabase upgraded = upgradedHelper.getWritableDatabase();
+            assertEquals(0, DatabaseUtils.queryNumEntries(upgraded, "record_fields", "written_at != last_access"));
+            assertEquals(2 * recordCount, DatabaseUtils.queryNumEntries(upgraded, "record_fields"));
+            // The layout in use is the one of the table with rows.
+            assertEquals("record_fields", DatabaseUtils.stringForQuery(upgraded,
+                    "SELECT value FROM cache_settings WHERE name = 'layout'", null));
+        } finally {
+            upgradedHelper.close();
+        }
+    }
+
+    private static Record typedRecord(String typename, String key) {
+        return Record.builder(key)
+                .addField("__typename", typename)
+                .addField("name", key)
+                .build();
+    }
+
+    private static Record record(String key, String title) {
+        return Record.builder(key)
+                .addField("__typename", "Post")
+                .addField("title", title)
+                .build();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.OptimisticNormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CacheGarbageCollectorTest {
+
+    @Test
+    public void removesRecordsUnreachableFromRootsAndOptimisticUpdates() throws ApolloException {
+        RealAppSyncStore store = createStore(
+                new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION).create(RecordFieldJsonAdapter.create()));
+        store.merge(Arrays.asList(
+                Record.builder("QUERY_ROOT")
+                        .addField("posts", Arrays.asList(new CacheReference("Post:1")))
+                        .build(),
+                Record.builder("Post:1").addField("author", new CacheReference("User:1")).build(),
+                Record.builder("User:1").addField("name", "reachable").build(),
+                Record.builder("Post:2").addField("author", new CacheReference("User:2")).build(),
+                Record.builder("User:2").addField("name", "unreachable").build(),
+                Record.builder("User:3").addField("name", "referenced by an optimistic update").build()),
+                CacheHeaders.NONE);
+        ((OptimisticNormalizedCache) store.normalizedCache()).mergeOptimisticUpdate(Record.builder("Post:3")
+                .addField("author", new CacheReference("User:3"))
+                .mutationId(UUID.randomUUID())
+                .build());
+
+        assertEquals(Integer.valueOf(2), store.collectGarbage().execute());
+
+        assertNotNull(store.read("Post:1", CacheHeaders.NONE));
+        assertNotNull(store.read("User:1", CacheHeaders.NONE));
+        assertNotNull(store.read("Post:3", CacheHeaders.NONE));
+        assertNotNull(store.read("User:3", CacheHeaders.NONE));
+        assertNull(store.read("Post:2", CacheHeaders.NONE));
+        assertNull(store.read("User:2", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void markingDoesNotFillTheMemoryCache() throws ApolloException {
+        LruNormalizedCache memoryCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        LruNormalizedCache backingCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        RealAppSyncStore store = createStore(memoryCache.chain(backingCache));
+        backingCache.merge(Arrays.asList(
+                Record.builder("QUERY_ROOT").addField("post", new CacheReference("Post:1")).build(),
+                Record.builder("Post:1").addField("title", "reachable").build(),
+                Record.builder("Post:2").addField("title", "unreachable").build()),
+                CacheHeaders.NONE);
+
+        assertEquals(Integer.valueOf(1), store.collectGarbage().execute());
+
+        assertEquals(0, memoryCache.memoryUsage().recordCount());
+        assertNotNull(backingCache.loadRecord("Post:1", CacheHeaders.NONE));
+        assertNull(backingCache.loadRecord("Post:2", CacheHeaders.NONE));
+    }
+
+    @Test
+    public void readErrorFailsTheCollectionWithoutRemovingReachableRecords() {
+        final NormalizedCache backingCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        RealAppSyncStore store = createStore(new NormalizedCache() {
+            @Override
+            public Record loadRecord(String key, CacheHeaders cacheHeaders) {
+                failOnPost1(Collections.singleton(key));
+                return backingCache.loadRecord(key, cacheHeaders);
+            }
+
+            @Override
+            public Collection<Record> peekRecords(Collection<String> keys) {
+                failOnPost1(keys);
+                return backingCache.peekRecords(keys);
+            }
+
+            @Override
+            public Set<String> merge(Record record, CacheHeaders cacheHeaders) {
+                return backingCache.merge(record, cacheHeaders);
+            }
+
+            @Override
+            public Set<String> keys() {
+                return backingCache.keys();
+            }
+
+            @Override
+            public void clearAll() {
+                backingCache.clearAll();
+            }
+
+            @Override
+            public boolean remove(CacheKey cacheKey) {
+                return backingCache.remove(cacheKey);
+            }
+
+            private void failOnPost1(Collection<String> keys) {
+                if (keys.contains("Post:1")) {
+                    throw new IllegalStateException("Failed to read Post:1");
+                }
+            }
+        });
+        store.merge(Arrays.asList(
+                Record.builder("QUERY_ROOT").addField("post", new CacheReference("Post:1")).build(),
+                Record.builder("Post:1").addField("author", new CacheReference("User:1")).build(),
+                Record.builder("User:1").addField("name", "reachable").build()),
+                CacheHeaders.NONE);
+
+        try {
+            store.collectGarbage().execute();
+            fail("Expected the collection to fail");
+        } catch (ApolloException expected) {
+        }
+
+        assertNotNull(backingCache.loadRecord("User:1", CacheHeaders.NONE));
+    }
+
+    private static RealAppSyncStore createStore(NormalizedCache normalizedCache) {
+        return new RealAppSyncStore(normalizedCache,
+                CacheKeyResolver.DEFAULT,
+                new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new ApolloLogger(Optional.<Logger>absent()));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.ApolloStore;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.NormalizedCache;
+import com.apollographql.apollo.cache.normalized.OptimisticNormalizedCache;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheSnapshotTest {
+
+    @Test
+    public void importLoadsExportedRecordsWithoutOptimisticUpdates() throws ApolloException {
+        RealAppSyncStore source = newStore();
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            records.add(Record.builder("Post:" + i)
+                    .addField("title", "Post " + i)
+                    .addField("author", new CacheReference("User:" + (i % 10)))
+                    .build());
+        }
+        source.merge(records, CacheHeaders.NONE);
+        ((OptimisticNormalizedCache) source.normalizedCache()).mergeOptimisticUpdate(Record.builder("Post:1")
+                .addField("title", "Pending")
+                .mutationId(UUID.randomUUID())
+                .build());
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+
+        assertEquals(Integer.valueOf(2500), source.exportSnapshot(snapshot).execute());
+
+        RealAppSyncStore target = newStore();
+        target.merge(Record.builder("Post:2499").addField("title", "Stale").build(), CacheHeaders.NONE);
+        final Set<String> publishedKeys = new HashSet<>();
+        ApolloStore.RecordChangeSubscriber subscriber = new ApolloStore.RecordChangeSubscriber() {
+            @Override
+            public void onCacheRecordsChanged(Set<String> changedCacheKeys) {
+                publishedKeys.addAll(changedCacheKeys);
+            }
+        };
+        target.subscribe(subscriber);
+
+        assertEquals(Integer.valueOf(2500),
+                target.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())).execute());
+
+        assertEquals(2500, target.normalizedCache().keys().size());
+        Record post = target.read("Post:1", CacheHeaders.NONE);
+        assertEquals("Post 1", post.field("title"));
+        assertEquals(new CacheReference("User:1"), post.field("author"));
+        assertEquals("Post 2499", target.read("Post:2499", CacheHeaders.NONE).field("title"));
+        assertTrue(publishedKeys.contains("Post:2499.title"));
+    }
+
+    @Test
+    public void importKeepsTheWriteTimesOfTheRecords() throws ApolloException {
+        RealAppSyncStore source = newStore();
+        long writtenAtMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
+        source.merge(Record.builder("Post:1").addField("title", "Old").writtenAtMillis(writtenAtMillis).build(),
+                CacheHeaders.NONE);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        source.exportSnapshot(snapshot).execute();
+
+        RealAppSyncStore target = newStore();
+        target.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())).execute();
+
+        assertEquals(writtenAtMillis, target.read("Post:1", CacheHeaders.NONE).writtenAtMillis());
+    }
+
+    @Test
+    public void exportDoesNotFillTheMemoryCache() throws ApolloException {
+        LruNormalizedCache memoryCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        LruNormalizedCache backingCache = new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION)
+                .create(RecordFieldJsonAdapter.create());
+        RealAppSyncStore store = newStore(memoryCache.chain(backingCache));
+        backingCache.merge(Record.builder("Post:1").addField("title", "Post 1").build(), CacheHeaders.NONE);
+
+        assertEquals(Integer.valueOf(1), store.exportSnapshot(new ByteArrayOutputStream()).execute());
+
+        assertEquals(0, memoryCache.memoryUsage().recordCount());
+    }
+
+    @Test
+    public void importRejectsMalformedSnapshot() {
+        RealAppSyncStore store = newStore();
+        try {
+            store.importSnapshot(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8})).execute();
+            fail();
+        } catch (ApolloException expected) {
+        }
+        assertNull(store.read("Post:1", CacheHeaders.NONE));
+    }
+
+    private static RealAppSyncStore newStore() {
+        return newStore(
+                new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION).create(RecordFieldJsonAdapter.create()));
+    }
+
+    private static RealAppSyncStore newStore(NormalizedCache normalizedCache) {
+        return new RealAppSyncStore(normalizedCache,
+                CacheKeyResolver.DEFAULT,
+                new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new ApolloLogger(Optional.<Logger>absent()));
+    }
+}
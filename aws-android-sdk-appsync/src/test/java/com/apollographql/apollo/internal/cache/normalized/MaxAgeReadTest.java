@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.GraphQLCacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MaxAgeReadTest {
+    private final RealAppSyncStore store = new RealAppSyncStore(
+            new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION).create(RecordFieldJsonAdapter.create()),
+            CacheKeyResolver.DEFAULT,
+            new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+            new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            },
+            new ApolloLogger(Optional.<Logger>absent()));
+
+    @Before
+    public void setup() {
+        store.merge(Record.builder("Post:1")
+                .addField("title", "Old")
+                .writtenAtMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))
+                .build(), CacheHeaders.NONE);
+    }
+
+    @Test
+    public void recordsOlderThanMaxAgeAndMaxStaleAreNotRead() {
+        assertNull(store.read("Post:1", headers("3600", null)));
+        assertNull(store.read("Post:1", headers("3600", "60")));
+        assertNotNull(store.read("Post:1", headers("3600", "7200")));
+    }
+
+    @Test
+    public void veryLongMaxStaleAcceptsRecordsOfAnyAge() {
+        assertNotNull(store.read("Post:1", headers("1", String.valueOf(Long.MAX_VALUE))));
+        assertNotNull(store.read("Post:1", headers(String.valueOf(Long.MAX_VALUE), String.valueOf(Long.MAX_VALUE))));
+    }
+
+    @Test
+    public void invalidHeaderValuesAreIgnored() {
+        assertNotNull(store.read("Post:1", headers("an hour", null)));
+        assertNotNull(store.read("Post:1", headers("-1", null)));
+        assertNull(store.read("Post:1", headers("3600", "a minute")));
+    }
+
+    private static CacheHeaders headers(String maxAge, String maxStale) {
+        CacheHeaders.Builder builder = CacheHeaders.builder().addHeader(GraphQLCacheHeaders.MAX_AGE, maxAge);
+        if (maxStale != null) {
+            builder.addHeader(GraphQLCacheHeaders.MAX_STALE, maxStale);
+        }
+        return builder.build();
+    }
+}
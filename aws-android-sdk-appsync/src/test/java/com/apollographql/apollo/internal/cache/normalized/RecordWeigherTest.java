@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCache;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.cache.normalized.lru.MemoryUsage;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecordWeigherTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void utf8LengthMatchesEncodedLength() {
+        String[] values = {"", "Post:1", "Tsch\u00fc\u00df", "\u2603 snow", "\ud83d\ude00 smile", "broken \ud83d",
+                "\ude00 broken", "\u07ff\u0800\uffff"};
+        for (String value : values) {
+            assertEquals(value, value.getBytes(UTF_8).length, RecordWeigher.utf8Length(value));
+        }
+    }
+
+    @Test
+    public void incrementalEstimateMatchesRecalculation() {
+        Record record = Record.builder("Post:1")
+                .addField("__typename", "Post")
+                .addField("title", "Tsch\u00fc\u00df")
+                .addField("votes", 42)
+                .addField("views", 12345678901L)
+                .addField("score", -1.5d)
+                .addField("rank", new BigDecimal("1.5"))
+                .addField("big", new BigInteger("123456789012345678901234567890"))
+                .addField("tags", Arrays.asList("a", null, true))
+                .addField("meta", Collections.singletonMap("key", "value"))
+                .addField("author", new CacheReference("User:1"))
+                .build();
+        record.sizeEstimateBytes();
+
+        record.mergeWith(Record.builder("Post:1")
+                .addField("title", "\u2603")
+                .addField("votes", null)
+                .addField("published", false)
+                .build());
+
+        Record recalculated = new Record.Builder(record.key(), record.fields(), null).build();
+        assertEquals(recalculated.sizeEstimateBytes(), record.sizeEstimateBytes());
+        assertEquals(record.sizeEstimateBytes(), record.clone().sizeEstimateBytes());
+    }
+
+    @Test
+    public void memoryUsageAddsUpByTypename() {
+        LruNormalizedCache cache = new LruNormalizedCacheFactory(EvictionPolicy.builder().maxSizeBytes(10000).build())
+                .create(RecordFieldJsonAdapter.create());
+        Record post = Record.builder("Post:1").addField("__typename", "Post").addField("title", "A").build();
+        Record otherPost = Record.builder("Post:2").addField("__typename", "Post").addField("title", "BB").build();
+        Record root = Record.builder("QUERY_ROOT").addField("posts", Arrays.asList(
+                new CacheReference("Post:1"), new CacheReference("Post:2"))).build();
+        cache.merge(Arrays.asList(post, otherPost, root), CacheHeaders.NONE);
+
+        MemoryUsage usage = cache.memoryUsage();
+        assertEquals(3, usage.recordCount());
+        assertEquals(post.sizeEstimateBytes() + otherPost.sizeEstimateBytes() + root.sizeEstimateBytes(),
+                usage.totalBytes());
+        assertEquals(Long.valueOf(post.sizeEstimateBytes() + otherPost.sizeEstimateBytes()),
+                usage.bytesByTypename().get("Post"));
+        assertEquals(Integer.valueOf(2), usage.recordCountByTypename().get("Post"));
+        assertEquals(Long.valueOf(root.sizeEstimateBytes()), usage.bytesByTypename().get(MemoryUsage.NO_TYPENAME));
+    }
+}
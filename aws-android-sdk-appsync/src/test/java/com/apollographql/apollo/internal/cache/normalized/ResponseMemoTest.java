@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.InputFieldMarshaller;
+import com.apollographql.apollo.api.InputFieldWriter;
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.OperationName;
+import com.apollographql.apollo.api.Query;
+import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.api.ResponseFieldMapper;
+import com.apollographql.apollo.api.ResponseFieldMarshaller;
+import com.apollographql.apollo.api.ResponseReader;
+import com.apollographql.apollo.api.ResponseWriter;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.GraphQLCacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.MemoryTrimLevel;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ResponseMemoTest {
+    private static final ResponseField POST_FIELD = ResponseField.forObject("post", "post",
+            Collections.<String, Object>singletonMap("id", variable("id")), true,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField TITLE_FIELD = ResponseField.forString("title", "title", null, true,
+            Collections.<ResponseField.Condition>emptyList());
+
+    private RealAppSyncStore store = createStore(EvictionPolicy.NO_EVICTION);
+    private int mappedCount;
+
+    @Test
+    public void repeatedReadsReturnTheMemoizedResponseUntilARecordFieldItReadChanges() throws ApolloException {
+        writePost("1", "First");
+        writePost("2", "Second");
+
+        Response<String> response = read("1", CacheHeaders.NONE);
+        assertEquals("First", response.data());
+        assertSame(response, read("1", CacheHeaders.NONE));
+        assertEquals("Second", read("2", CacheHeaders.NONE).data());
+        assertEquals(2, mappedCount);
+
+        store.merge(Record.builder("Post:2").addField("title", "Second edited").build(), CacheHeaders.NONE);
+        assertSame(response, read("1", CacheHeaders.NONE));
+        store.merge(Record.builder("Post:1").addField("title", "First").build(), CacheHeaders.NONE);
+        assertSame(response, read("1", CacheHeaders.NONE));
+
+        store.merge(Record.builder("Post:1").addField("title", "First edited").build(), CacheHeaders.NONE);
+        assertEquals("First edited", read("1", CacheHeaders.NONE).data());
+        assertEquals("Second edited", read("2", CacheHeaders.NONE).data());
+        assertEquals(4, mappedCount);
+    }
+
+    @Test
+    public void publishedKeysRemovedRecordsAndTrimmingDropMemoizedResponses() throws ApolloException {
+        writePost("1", "First");
+        Response<String> response = read("1", CacheHeaders.NONE);
+
+        store.publish(Collections.singleton("Post:2.title"));
+        assertSame(response, read("1", CacheHeaders.NONE));
+        store.publish(Collections.singleton("Post:1.title"));
+        assertNotSame(response, read("1", CacheHeaders.NONE));
+
+        read("1", CacheHeaders.builder().addHeader(GraphQLCacheHeaders.MAX_AGE, "60").build());
+        assertEquals(3, mappedCount);
+
+        store.trimMemory(MemoryTrimLevel.RELEASE_UNUSED).execute();
+        read("1", CacheHeaders.NONE);
+        assertEquals(4, mappedCount);
+
+        store.remove(CacheKey.from("Post:1")).execute();
+        assertNull(read("1", CacheHeaders.NONE).data());
+    }
+
+    @Test
+    public void memoizedResponsesOfExpiredOrEvictedRecordsAreReadAgain() throws ApolloException, InterruptedException {
+        store = createStore(EvictionPolicy.builder()
+                .typenamePolicy("Post", EvictionPolicy.builder().expireAfterWrite(50, TimeUnit.MILLISECONDS).build())
+                .build());
+        writePost("1", "First");
+        Response<String> response = read("1", CacheHeaders.NONE);
+        assertSame(response, read("1", CacheHeaders.NONE));
+
+        Thread.sleep(100);
+        assertNull(read("1", CacheHeaders.NONE).data());
+
+        writePost("2", "Second");
+        response = read("2", CacheHeaders.NONE);
+        assertSame(response, read("2", CacheHeaders.NONE));
+        // Trimming the cache itself, rather than the store, leaves the memo as it is.
+        store.normalizedCache().trimMemory(MemoryTrimLevel.CLEAR);
+        assertNull(read("2", CacheHeaders.NONE).data());
+    }
+
+    private static RealAppSyncStore createStore(EvictionPolicy evictionPolicy) {
+        return new RealAppSyncStore(
+                new LruNormalizedCacheFactory(evictionPolicy).create(RecordFieldJsonAdapter.create()),
+                CacheKeyResolver.DEFAULT,
+                new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                },
+                new ApolloLogger(Optional.<Logger>absent()),
+                2);
+    }
+
+    private void writePost(String id, String title) {
+        String postKey = new RealCacheKeyBuilder().build(POST_FIELD, new PostQuery(id).variables());
+        store.merge(Record.builder(CacheKeyResolver.QUERY_ROOT_KEY.key())
+                .addField(postKey, new CacheReference("Post:" + id))
+                .build(), CacheHeaders.NONE);
+        store.merge(Record.builder("Post:" + id)
+                .addField("__typename", "Post")
+                .addField("title", title)
+                .build(), CacheHeaders.NONE);
+    }
+
+    private Response<String> read(String id, CacheHeaders cacheHeaders) throws ApolloException {
+        PostQuery query = new PostQuery(id);
+        return store.read(query, query.responseFieldMapper(), store.cacheResponseNormalizer(), cacheHeaders)
+                .execute();
+    }
+
+    private static Map<String, Object> variable(String name) {
+        Map<String, Object> variable = new HashMap<>();
+        variable.put(ResponseField.VARIABLE_IDENTIFIER_KEY, ResponseField.VARIABLE_IDENTIFIER_VALUE);
+        variable.put(ResponseField.VARIABLE_NAME_KEY, name);
+        return variable;
+    }
+
+    private final class PostQuery implements Query<PostQuery.Data, String, Operation.Variables> {
+        private final Operation.Variables variables;
+
+        PostQuery(final String id) {
+            this.variables = new Operation.Variables() {
+                @Override
+                public Map<String, Object> valueMap() {
+                    return Collections.<String, Object>singletonMap("id", id);
+                }
+
+                @Override
+                public InputFieldMarshaller marshaller() {
+                    return new InputFieldMarshaller() {
+                        @Override
+                        public void marshal(InputFieldWriter writer) throws IOException {
+                            writer.writeString("id", id);
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public String queryDocument() {
+            return "query Post($id: ID!) { post(id: $id) { title } }";
+        }
+
+        @Override
+        public Operation.Variables variables() {
+            return variables;
+        }
+
+        @Override
+        public ResponseFieldMapper<Data> responseFieldMapper() {
+            return new ResponseFieldMapper<Data>() {
+                @Override
+                public Data map(ResponseReader reader) {
+                    mappedCount++;
+                    return new Data(reader.readObject(POST_FIELD, new ResponseReader.ObjectReader<String>() {
+                        @Override
+                        public String read(ResponseReader reader) {
+                            return reader.readString(TITLE_FIELD);
+                        }
+                    }));
+                }
+            };
+        }
+
+        @Override
+        public String wrapData(Data data) {
+            return data.title;
+        }
+
+        @Override
+        public OperationName name() {
+            return new OperationName() {
+                @Override
+                public String name() {
+                    return "Post";
+                }
+            };
+        }
+
+        @Override
+        public String operationId() {
+            return "post-query";
+        }
+
+        final class Data implements Operation.Data {
+            final String title;
+
+            Data(String title) {
+                this.title = title;
+            }
+
+            @Override
+            public ResponseFieldMarshaller marshaller() {
+                return new ResponseFieldMarshaller() {
+                    @Override
+                    public void marshal(ResponseWriter writer) {
+                    }
+                };
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.cache.normalized;
+
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.normalized.CacheKey;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.Record;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated by {@link ResponseNormalizer} per normalized record, on a response listing posts with
+ * their author, and enforces an upper bound on them.
+ */
+public class ResponseNormalizerAllocationTest {
+    // Allocated bytes per normalized record, field keys and dependent keys included. Normalizing this response takes
+    // about 960 bytes per record on a 64-bit JVM. It took about 1340 when the fields of the enclosing record were
+    // copied at every nested object, and about 1170 while the dependent keys were built as strings.
+    private static final long MAX_BYTES_PER_RECORD = 1050;
+
+    private static final int POSTS = 100;
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 200;
+    private static final int ROUNDS = 5;
+    private static final Map<String, Object> NO_ARGUMENTS = Collections.emptyMap();
+    private static final Operation.Variables VARIABLES = Operation.EMPTY_VARIABLES;
+
+    private static final ResponseField POSTS_FIELD = ResponseField.forList("posts", "posts", NO_ARGUMENTS, false,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField AUTHOR_FIELD = ResponseField.forObject("author", "author", NO_ARGUMENTS, false,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField[] POST_FIELDS = scalarFields("__typename", "id", "title", "content", "url",
+            "ups", "downs", "version");
+    private static final ResponseField[] AUTHOR_FIELDS = scalarFields("__typename", "id", "name");
+    private static final List<Map<String, Object>> RESPONSE = response();
+
+    @Test
+    public void normalizesWithinAllocationTarget() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported()
+                && allocationBean.isThreadAllocatedMemoryEnabled());
+
+        // Warms up the code and checks the records, before measuring.
+        ResponseNormalizer<Map<String, Object>> normalizer = null;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            normalizer = normalize();
+        }
+        assertEquals(2 * POSTS + 1, normalizer.records().size());
+        Record post = null;
+        for (Record record : normalizer.records()) {
+            if (record.key().equals("Post:7")) {
+                post = record;
+            }
+        }
+        assertEquals(new CacheReference("User:7"), post.field("author"));
+        assertEquals(POST_FIELDS.length + 1, post.fields().size());
+
+        // Keeps the best of a few rounds, as compilation in the background may still change the allocations.
+        long threadId = Thread.currentThread().getId();
+        long bytesPerRecord = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ITERATIONS; i++) {
+                normalize();
+            }
+            bytesPerRecord = Math.min(bytesPerRecord, (allocationBean.getThreadAllocatedBytes(threadId) - start)
+                    / ((long) ITERATIONS * (2 * POSTS + 1)));
+        }
+
+        assertTrue(bytesPerRecord + " bytes allocated per record", bytesPerRecord <= MAX_BYTES_PER_RECORD);
+    }
+
+    private static ResponseNormalizer<Map<String, Object>> normalize() {
+        ResponseNormalizer<Map<String, Object>> normalizer = new ResponseNormalizer<Map<String, Object>>() {
+            private final CacheKeyBuilder cacheKeyBuilder = new RealCacheKeyBuilder();
+
+            @Nonnull @Override
+            public CacheKey resolveCacheKey(@Nonnull ResponseField field, @Nonnull Map<String, Object> record) {
+                return CacheKey.from((String) record.get("id"));
+            }
+
+            @Nonnull @Override public CacheKeyBuilder cacheKeyBuilder() {
+                return cacheKeyBuilder;
+            }
+        };
+        normalizer.willResolveRecord(CacheKeyResolver.QUERY_ROOT_KEY);
+        normalizer.willResolve(POSTS_FIELD, VARIABLES);
+        for (int i = 0; i < POSTS; i++) {
+            Map<String, Object> post = RESPONSE.get(i);
+            normalizer.willResolveElement(i);
+            normalizer.willResolveObject(POSTS_FIELD, Optional.of(post));
+            resolveScalars(normalizer, POST_FIELDS, post);
+            normalizer.willResolve(AUTHOR_FIELD, VARIABLES);
+            @SuppressWarnings("unchecked") Map<String, Object> author = (Map<String, Object>) post.get("author");
+            normalizer.willResolveObject(AUTHOR_FIELD, Optional.of(author));
+            resolveScalars(normalizer, AUTHOR_FIELDS, author);
+            normalizer.didResolveObject(AUTHOR_FIELD, Optional.of(author));
+            normalizer.didResolve(AUTHOR_FIELD, VARIABLES);
+            normalizer.didResolveObject(POSTS_FIELD, Optional.of(post));
+            normalizer.didResolveElement(i);
+        }
+        normalizer.didResolveList(RESPONSE);
+        normalizer.didResolve(POSTS_FIELD, VARIABLES);
+        return normalizer;
+    }
+
+    private static void resolveScalars(ResponseNormalizer<Map<String, Object>> normalizer, ResponseField[] fields,
+            Map<String, Object> object) {
+        for (ResponseField field : fields) {
+            normalizer.willResolve(field, VARIABLES);
+            normalizer.didResolveScalar(object.get(field.responseName()));
+            normalizer.didResolve(field, VARIABLES);
+        }
+    }
+
+    private static ResponseField[] scalarFields(String... names) {
+        ResponseField[] fields = new ResponseField[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fields[i] = ResponseField.forString(names[i], names[i], NO_ARGUMENTS, false,
+                    Collections.<ResponseField.Condition>emptyList());
+        }
+        return fields;
+    }
+
+    private static List<Map<String, Object>> response() {
+        List<Map<String, Object>> posts = new ArrayList<>();
+        for (int i = 0; i < POSTS; i++) {
+            Map<String, Object> author = new HashMap<>();
+            author.put("__typename", "User");
+            author.put("id", "User:" + i);
+            author.put("name", "Author " + i);
+            Map<String, Object> post = new HashMap<>();
+            for (ResponseField field : POST_FIELDS) {
+                post.put(field.responseName(), field.responseName() + " " + i);
+            }
+            post.put("__typename", "Post");
+            post.put("id", "Post:" + i);
+            post.put("author", author);
+            posts.add(post);
+        }
+        return posts;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.fetcher;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.Logger;
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.OperationName;
+import com.apollographql.apollo.api.Query;
+import com.apollographql.apollo.api.Response;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.api.ResponseFieldMapper;
+import com.apollographql.apollo.api.ResponseFieldMarshaller;
+import com.apollographql.apollo.api.ResponseReader;
+import com.apollographql.apollo.api.ResponseWriter;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.api.internal.Optional;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.ApolloStore;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+import com.apollographql.apollo.cache.normalized.lru.EvictionPolicy;
+import com.apollographql.apollo.cache.normalized.lru.LruNormalizedCacheFactory;
+import com.apollographql.apollo.exception.ApolloException;
+import com.apollographql.apollo.interceptor.ApolloInterceptor;
+import com.apollographql.apollo.interceptor.ApolloInterceptorChain;
+import com.apollographql.apollo.internal.ApolloLogger;
+import com.apollographql.apollo.internal.cache.normalized.RealAppSyncStore;
+import com.apollographql.apollo.internal.interceptor.ApolloCacheInterceptor;
+import com.apollographql.apollo.internal.interceptor.RealApolloInterceptorChain;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StaleWhileRevalidateFetcherTest {
+    private static final ResponseField TITLE_FIELD = ResponseField.forString("title", "title", null, true,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final Executor IMMEDIATE_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ApolloLogger logger = new ApolloLogger(Optional.<Logger>absent());
+    private final RealAppSyncStore store = new RealAppSyncStore(
+            new LruNormalizedCacheFactory(EvictionPolicy.NO_EVICTION).create(RecordFieldJsonAdapter.create()),
+            CacheKeyResolver.DEFAULT,
+            new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+            IMMEDIATE_EXECUTOR,
+            logger);
+    private final TitleQuery query = new TitleQuery();
+    private final List<Set<String>> publishedKeys = new CopyOnWriteArrayList<>();
+    private final CountDownLatch networkCalled = new CountDownLatch(1);
+    private volatile String networkTitle = "Network";
+    private volatile int networkCallCount;
+
+    @Before
+    public void setup() {
+        store.subscribe(new ApolloStore.RecordChangeSubscriber() {
+            @Override
+            public void onCacheRecordsChanged(Set<String> changedCacheKeys) {
+                publishedKeys.add(changedCacheKeys);
+            }
+        });
+    }
+
+    @Test
+    public void freshDataIsReadFromTheCacheOnly() throws InterruptedException {
+        writeTitle("Cached", 0);
+
+        assertEquals(Collections.singletonList("Cached"), fetch());
+
+        assertFalse(networkCalled.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, networkCallCount);
+    }
+
+    @Test
+    public void staleDataIsReturnedThenRevalidatedAndChangesArePublished() throws InterruptedException {
+        writeTitle("Cached", 2);
+
+        assertEquals(Collections.singletonList("Cached"), fetch());
+
+        assertTrue(networkCalled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, networkCallCount);
+        assertEquals("Network", store.read(CacheKeyResolver.QUERY_ROOT_KEY.key(), CacheHeaders.NONE).field("title"));
+        assertEquals(Collections.singletonList(Collections.singleton("QUERY_ROOT.title")), publishedKeys);
+    }
+
+    @Test
+    public void revalidationWithUnchangedDataPublishesNothing() throws InterruptedException {
+        networkTitle = "Cached";
+        writeTitle("Cached", 2);
+        long staleWriteTime = store.read(CacheKeyResolver.QUERY_ROOT_KEY.key(), CacheHeaders.NONE).writtenAtMillis();
+
+        assertEquals(Collections.singletonList("Cached"), fetch());
+
+        assertTrue(networkCalled.await(5, TimeUnit.SECONDS));
+        assertTrue(publishedKeys.isEmpty());
+        // The data is confirmed, so it is fresh again.
+        assertTrue(store.read(CacheKeyResolver.QUERY_ROOT_KEY.key(), CacheHeaders.NONE).writtenAtMillis()
+                > staleWriteTime);
+    }
+
+    @Test
+    public void missingDataIsFetchedFromTheNetwork() {
+        assertEquals(Collections.singletonList("Network"), fetch());
+
+        assertEquals(1, networkCallCount);
+        assertEquals("Network", store.read(CacheKeyResolver.QUERY_ROOT_KEY.key(), CacheHeaders.NONE).field("title"));
+    }
+
+    @Test
+    public void dataOlderThanMaxStaleIsFetchedFromTheNetwork() {
+        writeTitle("Cached", 48);
+
+        assertEquals(Collections.singletonList("Network"), fetch());
+
+        assertEquals(1, networkCallCount);
+    }
+
+    /**
+     * Fetches the query with a max age of an hour and a max stale time of a day.
+     *
+     * @return the titles returned to the caller
+     */
+    private List<String> fetch() {
+        final List<String> titles = new ArrayList<>();
+        ApolloInterceptorChain chain = new RealApolloInterceptorChain(Arrays.asList(
+                new StaleWhileRevalidateFetcher(1, 24, TimeUnit.HOURS).provideInterceptor(logger),
+                new ApolloCacheInterceptor(store, query.responseFieldMapper(), IMMEDIATE_EXECUTOR, logger),
+                new NetworkInterceptor()));
+        chain.proceedAsync(ApolloInterceptor.InterceptorRequest.builder(query).build(), IMMEDIATE_EXECUTOR,
+                new ApolloInterceptor.CallBack() {
+                    @Override
+                    public void onResponse(@Nonnull ApolloInterceptor.InterceptorResponse response) {
+                        titles.add((String) response.parsedResponse.get().data());
+                    }
+
+                    @Override
+                    public void onFetch(ApolloInterceptor.FetchSourceType sourceType) {
+                    }
+
+                    @Override
+                    public void onFailure(@Nonnull ApolloException e) {
+                        throw new AssertionError(e);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+        return titles;
+    }
+
+    private void writeTitle(String title, int ageHours) {
+        store.merge(Record.builder(CacheKeyResolver.QUERY_ROOT_KEY.key())
+                .addField("title", title)
+                .writtenAtMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ageHours))
+                .build(), CacheHeaders.NONE);
+    }
+
+    /**
+     * Answers with the records of {@link #networkTitle}, as the parse interceptor would.
+     */
+    private final class NetworkInterceptor implements ApolloInterceptor {
+        @Override
+        public void interceptAsync(@Nonnull InterceptorRequest request, @Nonnull ApolloInterceptorChain chain,
+                @Nonnull Executor dispatcher, @Nonnull CallBack callBack) {
+            networkCallCount++;
+            String title = networkTitle;
+            Response<String> response = Response.<String>builder(request.operation).data(title).build();
+            callBack.onFetch(FetchSourceType.NETWORK);
+            callBack.onResponse(new InterceptorResponse(null, response, Collections.singletonList(
+                    Record.builder(CacheKeyResolver.QUERY_ROOT_KEY.key()).addField("title", title).build())));
+            callBack.onCompleted();
+            networkCalled.countDown();
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    private static final class TitleQuery implements Query<TitleQuery.Data, String, Operation.Variables> {
+        @Override
+        public String queryDocument() {
+            return "query Title { title }";
+        }
+
+        @Override
+        public Operation.Variables variables() {
+            return Operation.EMPTY_VARIABLES;
+        }
+
+        @Override
+        public ResponseFieldMapper<Data> responseFieldMapper() {
+            return new ResponseFieldMapper<Data>() {
+                @Override
+                public Data map(ResponseReader reader) {
+                    return new Data(reader.readString(TITLE_FIELD));
+                }
+            };
+        }
+
+        @Override
+        public String wrapData(Data data) {
+            return data.title;
+        }
+
+        @Override
+        public OperationName name() {
+            return new OperationName() {
+                @Override
+                public String name() {
+                    return "Title";
+                }
+            };
+        }
+
+        @Override
+        public String operationId() {
+            return "title-query";
+        }
+
+        static final class Data implements Operation.Data {
+            final String title;
+
+            Data(String title) {
+                this.title = title;
+            }
+
+            @Override
+            public ResponseFieldMarshaller marshaller() {
+                return new ResponseFieldMarshaller() {
+                    @Override
+                    public void marshal(ResponseWriter writer) {
+                    }
+                };
+            }
+        }
+    }
+}
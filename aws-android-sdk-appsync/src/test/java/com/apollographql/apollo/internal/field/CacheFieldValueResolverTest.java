@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.field;
+
+import com.apollographql.apollo.CustomTypeAdapter;
+import com.apollographql.apollo.api.Operation;
+import com.apollographql.apollo.api.ResponseField;
+import com.apollographql.apollo.api.ResponseReader;
+import com.apollographql.apollo.api.ScalarType;
+import com.apollographql.apollo.cache.CacheHeaders;
+import com.apollographql.apollo.cache.normalized.CacheKeyResolver;
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.internal.cache.normalized.ReadableStore;
+import com.apollographql.apollo.internal.cache.normalized.RealCacheKeyBuilder;
+import com.apollographql.apollo.internal.cache.normalized.ResponseNormalizer;
+import com.apollographql.apollo.internal.response.RealResponseReader;
+import com.apollographql.apollo.internal.response.ScalarTypeAdapters;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheFieldValueResolverTest {
+    private static final int POST_COUNT = 50;
+
+    private static final ResponseField POSTS = ResponseField.forList("posts", "posts", null, false,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField TITLE = ResponseField.forString("title", "title", null, false,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField AUTHOR = ResponseField.forObject("author", "author", null, false,
+            Collections.<ResponseField.Condition>emptyList());
+    private static final ResponseField NAME = ResponseField.forString("name", "name", null, false,
+            Collections.<ResponseField.Condition>emptyList());
+
+    private CountingStore store;
+
+    @Before
+    public void setup() {
+        store = new CountingStore();
+        List<CacheReference> posts = new ArrayList<>();
+        for (int i = 0; i < POST_COUNT; i++) {
+            posts.add(new CacheReference("Post:" + i));
+            store.put(Record.builder("Post:" + i)
+                    .addField("title", "title " + i)
+                    .addField("author", new CacheReference("User:" + i % 10))
+                    .build());
+        }
+        for (int i = 0; i < 10; i++) {
+            store.put(Record.builder("User:" + i).addField("name", "user " + i).build());
+        }
+        store.put(Record.builder("QUERY_ROOT").addField("posts", posts).build());
+    }
+
+    @Test
+    public void referencesAreReadOneLevelAtATime() {
+        Record root = store.read("QUERY_ROOT", CacheHeaders.NONE);
+        store.singleReads = 0;
+
+        List<String> authorNames = readPosts(root);
+
+        assertEquals(POST_COUNT, authorNames.size());
+        assertEquals("user 3", authorNames.get(13));
+        // One bulk read for the posts, one for all of their authors, and no single reads.
+        assertEquals(0, store.singleReads);
+        assertEquals(2, store.bulkReads);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> readPosts(Record root) {
+        CacheFieldValueResolver resolver = new CacheFieldValueResolver(store, Operation.EMPTY_VARIABLES,
+                CacheKeyResolver.DEFAULT, CacheHeaders.NONE, new RealCacheKeyBuilder());
+        RealResponseReader<Record> reader = new RealResponseReader<>(Operation.EMPTY_VARIABLES, root, resolver,
+                new ScalarTypeAdapters(Collections.<ScalarType, CustomTypeAdapter>emptyMap()),
+                ResponseNormalizer.NO_OP_NORMALIZER);
+        return reader.readList(POSTS, new ResponseReader.ListReader<String>() {
+            @Override public String read(ResponseReader.ListItemReader listItemReader) {
+                return listItemReader.readObject(new ResponseReader.ObjectReader<String>() {
+                    @Override public String read(ResponseReader postReader) {
+                        postReader.readString(TITLE);
+                        return postReader.readObject(AUTHOR, new ResponseReader.ObjectReader<String>() {
+                            @Override public String read(ResponseReader authorReader) {
+                                return authorReader.readString(NAME);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    private static final class CountingStore implements ReadableStore {
+        final Map<String, Record> records = new HashMap<>();
+        int singleReads;
+        int bulkReads;
+
+        void put(Record record) {
+            records.put(record.key(), record);
+        }
+
+        @Override public Record read(@Nonnull String key, @Nonnull CacheHeaders cacheHeaders) {
+            singleReads++;
+            return records.get(key);
+        }
+
+        @Override public Collection<Record> read(@Nonnull Collection<String> keys, @Nonnull CacheHeaders cacheHeaders) {
+            bulkReads++;
+            List<Record> result = new ArrayList<>();
+            for (String key : keys) {
+                if (records.containsKey(key)) {
+                    result.add(records.get(key));
+                }
+            }
+            return result;
+        }
+    }
+}
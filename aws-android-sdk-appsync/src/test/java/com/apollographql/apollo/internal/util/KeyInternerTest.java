@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018-2019 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.apollographql.apollo.internal.util;
+
+import com.apollographql.apollo.cache.normalized.CacheReference;
+import com.apollographql.apollo.cache.normalized.Record;
+import com.apollographql.apollo.cache.normalized.RecordFieldJsonAdapter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeyInternerTest {
+    // Estimated size of a string on a 64-bit JVM, besides two bytes per character.
+    private static final int STRING_OVERHEAD = 40;
+
+    @Test
+    public void internsEqualStrings() {
+        // Other tests may have interned the key already.
+        String key = KeyInterner.intern(new String("User:1"));
+        assertSame(key, KeyInterner.intern(new String("User:1")));
+        assertSame(key, new CacheReference(new String("User:1")).key());
+
+        char[] longKey = new char[200];
+        Arrays.fill(longKey, 'a');
+        String first = new String(longKey);
+        assertNotSame(first, KeyInterner.intern(new String(longKey)));
+    }
+
+    @Test
+    public void decodedRecordsShareRepeatedStrings() throws IOException {
+        // 50k records read back from their JSON form, as from the SQL cache: 40k posts by 10k users.
+        RecordFieldJsonAdapter adapter = RecordFieldJsonAdapter.create();
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("__typename", "Post");
+            fields.put("id", "p" + i);
+            fields.put("title", "Post title " + i);
+            fields.put("author", new CacheReference("User:" + (i % 10000)));
+            fields.put("comments({\"first\":2})", Arrays.asList(
+                    new CacheReference("User:" + ((i + 1) % 10000)), new CacheReference("User:" + ((i + 2) % 10000))));
+            records.add(decode("Post:" + i, fields, adapter));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("__typename", "User");
+            fields.put("id", "u" + i);
+            fields.put("name", "User " + i);
+            records.add(decode("User:" + i, fields, adapter));
+        }
+
+        long occurrenceBytes = 0;
+        Set<String> distinct = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        long distinctBytes = 0;
+        List<String> strings = new ArrayList<>();
+        for (Record record : records) {
+            strings.clear();
+            strings.add(record.key());
+            for (Object value : record.fields().values()) {
+                collectStrings(value, strings);
+            }
+            for (String string : strings) {
+                long bytes = STRING_OVERHEAD + 2L * string.length();
+                occurrenceBytes += bytes;
+                if (distinct.add(string)) {
+                    distinctBytes += bytes;
+                }
+            }
+        }
+
+        // Strings take about 18.3MB when every occurrence is a copy, and about 12.6MB with the typenames and the
+        // reference keys interned. Field names are shared by the shapes of the records in both cases.
+        assertTrue(distinctBytes + " of " + occurrenceBytes, distinctBytes < occurrenceBytes * 3 / 4);
+    }
+
+    private static Record decode(String key, Map<String, Object> fields, RecordFieldJsonAdapter adapter)
+            throws IOException {
+        return Record.builder(new String(key)).addFields(adapter.from(adapter.toJson(fields))).build();
+    }
+
+    private static void collectStrings(Object value, List<String> strings) {
+        if (value instanceof String) {
+            strings.add((String) value);
+        } else if (value instanceof CacheReference) {
+            strings.add(((CacheReference) value).key());
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                collectStrings(item, strings);
+            }
+        }
+    }
+}